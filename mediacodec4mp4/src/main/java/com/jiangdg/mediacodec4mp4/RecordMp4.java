@@ -3,9 +3,11 @@ package com.jiangdg.mediacodec4mp4;
 import android.app.Activity;
 import android.content.Context;
 import android.content.res.AssetManager;
+import android.graphics.SurfaceTexture;
 import android.hardware.Camera;
 import android.os.Environment;
-import android.text.TextUtils;
+import android.os.Handler;
+import android.os.Looper;
 import android.util.Log;
 import android.view.Surface;
 import android.view.SurfaceHolder;
@@ -13,22 +15,30 @@ import android.view.SurfaceHolder;
 import com.jiangdg.mediacodec4mp4.bean.EncoderParams;
 import com.jiangdg.mediacodec4mp4.bean.YUVBean;
 import com.jiangdg.mediacodec4mp4.model.AACEncodeConsumer;
+import com.jiangdg.mediacodec4mp4.model.EncoderCapabilityCache;
+import com.jiangdg.mediacodec4mp4.model.EncoderPool;
 import com.jiangdg.mediacodec4mp4.model.H264EncodeConsumer;
 import com.jiangdg.mediacodec4mp4.model.MediaMuxerUtil;
+import com.jiangdg.mediacodec4mp4.model.RecordingClock;
 import com.jiangdg.mediacodec4mp4.model.SaveYuvImageTask;
+import com.jiangdg.mediacodec4mp4.render.GlFrameRenderer;
 import com.jiangdg.mediacodec4mp4.utils.CameraManager;
+import com.jiangdg.mediacodec4mp4.utils.FrameBufferPool;
 import com.jiangdg.mediacodec4mp4.utils.SensorAccelerometer;
-import com.jiangdg.yuvosd.YuvUtils;
+import com.jiangdg.yuvosd.CanvasGlyphRasterizer;
+import com.jiangdg.yuvosd.FrameOverlay;
+import com.jiangdg.yuvosd.GlyphAtlas;
+import com.jiangdg.yuvosd.OsdCompositor;
+import com.jiangdg.yuvosd.TimestampFormatter;
+import com.jiangdg.yuvosd.TimestampOverlay;
+import com.jiangdg.yuvosd.YuvConverter;
 
 import org.easydarwin.sw.JNIUtil;
-import org.easydarwin.sw.TxtOverlay;
 
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.text.SimpleDateFormat;
-import java.util.Date;
 
 /**
  * MpuMain业务逻辑实现类
@@ -41,21 +51,38 @@ public class RecordMp4 {
             .getAbsolutePath();
     public static final boolean DEBUG = false;
     private static final String TAG = "RecordMp4";
+    // 编码器能力缓存文件，位于/data/data/程序Package Name/files
+    private static final String ENCODER_CACHE_FILE = "encoder_capabilities.txt";
     private AACEncodeConsumer mAacConsumer;
     private H264EncodeConsumer mH264Consumer;
     private MediaMuxerUtil mMuxer;
+    // 音视频共用的录制时钟，每次startRecord()重新开始
+    private volatile RecordingClock mRecordingClock;
     private EncoderParams mParams;
     private SensorAccelerometer mSensorAccelerometer;
     private SaveYuvImageTask.OnSaveYuvResultListener listener;
     private String picPath;
     private static RecordMp4 mRecMp4;
     private CameraManager mCamManager;
-    // 时间水印
-    private TxtOverlay overlay;
+    // OSD图层合成，时间水印和应用添加的图层(台标、设备编号、速度等)
+    private final OsdCompositor mOsdCompositor = new OsdCompositor();
+    // 停止录制后保留的编码器，连续录制时省去创建编码器的时间，关闭相机时释放
+    private final EncoderPool mEncoderPool = new EncoderPool();
+    // 时间水印，在编码线程中使用
+    private volatile TimestampOverlay mTimestampOverlay;
+    // 水印类型或内容被修改，由编码线程应用到mTimestampOverlay
+    private volatile boolean isOverlayChanged;
     private String overlayContent;
     private String frontPath;
     private Enum<OverlayType> type;
     private int mDegree = 0;
+    // 预览帧缓存池(旋转、抓拍)
+    private FrameBufferPool mFramePool;
+    private static final int FRAME_POOL_CAPACITY = 2;
+    // 相机在主线程中打开，预览输出的切换都在主线程中完成
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+    // Surface输入时相机已与预览控件断开(未开始预览或输出到编码纹理)，只在主线程中访问
+    private boolean isCameraDetached;
 
 
     public enum OverlayType{
@@ -75,14 +102,17 @@ public class RecordMp4 {
     private CameraManager.OnPreviewFrameResult mPreviewListener = new CameraManager.OnPreviewFrameResult() {
         @Override
         public void onPreviewResult(byte[] data, Camera camera) {
-            Camera.Parameters parameters = camera.getParameters();
-            int width = 0;
-            int height = 0;
-            if(parameters != null){
-                width = parameters.getPreviewSize().width;
-                height = parameters.getPreviewSize().height;
+            // 采集时间戳，Camera1回调不带时间戳，以回调时刻为准
+            long timestampNs = System.nanoTime();
+            // 预览尺寸在开始预览时记录，每帧调用getParameters()会分配对象
+            int width = mCamManager.getPreviewWidth();
+            int height = mCamManager.getPreviewHeight();
+            // 只拷贝到编码队列，旋转、水印、编码在编码线程中完成；暂停时不拷贝
+            RecordingClock clock = mRecordingClock;
+            if (mH264Consumer != null && (clock == null || !clock.isPaused())) {
+                mH264Consumer.addData(data, width, height, timestampNs);
             }
-            // 图片抓拍
+            // 图片抓拍，拷贝完成后再将缓存还给Camera
             if(listener != null){
                 YUVBean bean = new YUVBean();
                 bean.setEnableSoftCodec(false);
@@ -92,35 +122,89 @@ public class RecordMp4 {
                 bean.setHeight(height);
                 bean.setPicPath(getPicPath());
                 bean.setYuvData(data);
-                new SaveYuvImageTask(bean, listener)
-                        .execute();
+                SaveYuvImageTask task = new SaveYuvImageTask(bean, getFramePool(width, height), listener);
+                task.setOnYuvDataReleaseListener(mYuvDataReleaseListener);
+                task.execute();
                 listener = null;
+                return;
             }
+            mCamManager.releaseCallbackBuffer(data);
+        }
+    };
+
+    private SaveYuvImageTask.OnYuvDataReleaseListener mYuvDataReleaseListener = new SaveYuvImageTask.OnYuvDataReleaseListener() {
+        @Override
+        public void onYuvDataRelease(byte[] yuvData) {
+            if (mCamManager != null) {
+                mCamManager.releaseCallbackBuffer(yuvData);
+            }
+        }
+    };
+
+    // 编码线程中对预览帧的处理
+    private H264EncodeConsumer.OnFrameProcessListener mFrameProcessListener = new H264EncodeConsumer.OnFrameProcessListener() {
+        @Override
+        public void onProcessFrame(byte[] data, int width, int height) {
             // 处理1：旋转YUV
-            rotateYuv2(data,camera,width,height);
-
-            // 处理2：yuv叠加水印
-            if(overlay != null){
-                String txt = null;
-                if(type == OverlayType.WORDS){
-                    txt = overlayContent;
-                }else if(type == OverlayType.BOTH){
-                    txt = new SimpleDateFormat("yyyy-MM-dd EEEE HH:mm:ss").format(new Date()) +"  " +overlayContent;
-                }else if(type == OverlayType.TIME){
-                    txt = new SimpleDateFormat("yyyy-MM-dd EEEE HH:mm:ss").format(new Date());
-                }
-                if(! TextUtils.isEmpty(txt)){
-                    overlay.overlay(data, txt);
-                }
+            boolean rotated = rotateYuv2(data,width,height);
+
+            // 处理2：yuv叠加水印，图层按秒缓存，每帧只做一次混合
+            FrameOverlay osd = updateOverlay();
+            if(! osd.isEmpty()){
+                osd.blendFrame(data, rotated ? height : width, rotated ? width : height,
+                        YuvConverter.FORMAT_NV21);
             }
-            // 处理3：yuv转换颜色格式，再编码
-            if (mH264Consumer != null) {
-                mH264Consumer.addData(data);
+            // 处理3：yuv转换颜色格式，再编码(由H264EncodeConsumer完成)
+        }
+    };
+
+    // Surface输入的渲染环境准备好后相机改为输出到纹理，回退时恢复输出到预览控件；
+    // 回调在编码线程中，切换交给主线程执行，执行前已停止录制则忽略
+    private H264EncodeConsumer.OnInputTextureListener createInputTextureListener(final H264EncodeConsumer consumer) {
+        return new H264EncodeConsumer.OnInputTextureListener() {
+            @Override
+            public void onInputTexture(final SurfaceTexture texture) {
+                mMainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (consumer != mH264Consumer || mCamManager == null)
+                            return;
+                        mCamManager.stopPreivew();
+                        mCamManager.setPreviewTexture(texture);
+                        mCamManager.startPreview();
+                        isCameraDetached = texture != null;
+                        if(RecordMp4.DEBUG)
+                            Log.i(TAG, texture != null ? "相机输出到编码纹理" : "Surface输入不可用，使用预览回调编码");
+                    }
+                });
             }
-            mCamManager.getCameraIntance().addCallbackBuffer(data);
+        };
+    }
+
+    // 单趟处理模式下的水印，由FusedFrameProcessor在写入编码器时叠加
+    private H264EncodeConsumer.OnOverlayListener mOverlayListener = new H264EncodeConsumer.OnOverlayListener() {
+        @Override
+        public FrameOverlay onOverlay(long timestampNs) {
+            return updateOverlay();
         }
     };
 
+    // 在编码线程中调用，重绘到期的图层，返回本帧的OSD
+    private FrameOverlay updateOverlay() {
+        TimestampOverlay overlay = mTimestampOverlay;
+        if (overlay != null && isOverlayChanged) {
+            isOverlayChanged = false;
+            applyOverlayContent(overlay);
+        }
+        return mOsdCompositor.update(System.currentTimeMillis());
+    }
+
+    private void applyOverlayContent(TimestampOverlay overlay) {
+        boolean isShowTime = type == OverlayType.TIME || type == OverlayType.BOTH;
+        boolean isShowWords = type == OverlayType.WORDS || type == OverlayType.BOTH;
+        overlay.setContent(isShowTime, isShowWords ? overlayContent : null);
+    }
+
     public void init(Context context){
         // 实例化摄像头管理类
         mCamManager = CameraManager.getCamManagerInstance(context);
@@ -133,46 +217,46 @@ public class RecordMp4 {
 
         getDgree(context);
 
-        // 初始化水印引擎
+        initEncoderCapabilities(context);
+
+        // 水印字体
         // SIMYOU.ttf文件存在/data/data/程序Package Name/files
-        overlay = new TxtOverlay(context);
         frontPath = (context).getFileStreamPath("SIMYOU.ttf").getPath();
     }
 
+    // 加载编码器能力缓存，第一次运行(或系统升级)后在后台实测视频编码器的速度
+    private void initEncoderCapabilities(Context context) {
+        EncoderCapabilityCache.getInstance().setStorageFile(new File(context.getFilesDir(), ENCODER_CACHE_FILE));
+        startEncoderProbe();
+    }
 
+    // 还没测完时在后台测速；录制期间暂停，关闭相机、释放保留的编码器后继续
+    private void startEncoderProbe() {
+        final EncoderCapabilityCache cache = EncoderCapabilityCache.getInstance();
+        if (cache.isThroughputProbed("video/avc"))
+            return;
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                cache.probeThroughput("video/avc", 1280, 720);
+            }
+        }, "EncoderProbe").start();
+    }
 
-    private byte[] rotateYuv1(byte[] data,int width,int height){
-        if(CameraManager.PREVIEW_WIDTH != width || CameraManager.PREVIEW_HEIGHT != height){
-            CameraManager.PREVIEW_WIDTH = width;
-            CameraManager.PREVIEW_HEIGHT = height;
-            return null;
-        }
-        byte[] rotateNv21 = new byte[width * height * 3 / 2];
-        boolean isFrontCamera = mCamManager!=null && mCamManager.getCameraDirection() ? true : false;
-        if (isFrontCamera) {
-            // 前置旋转270度(即竖屏采集，此时isPhoneHorizontal=false)
-            YuvUtils.Yuv420spRotateOfFront(data, rotateNv21, width, height, 270);
-        } else {
-            // 如果是正向横屏，则无需旋转YUV，此时isPhoneHorizontal=true
-//            if(mParams!= null && mParams.isPhoneHorizontal()){
-//                return data;
-//            }
-            // 后置旋转90度(即竖直采集，此时isPhoneHorizontal=false)
-            YuvUtils.YUV420spRotateOfBack(data, rotateNv21, width, height, 90);
-            // 后置旋转270度(即倒立采集，此时isPhoneHorizontal=false)
-//			YuvUtils.YUV420spRotateOfBack(rawFrame, rotateNv21, mWidth, mHeight, 270);
-            // 后置旋转180度(即反向横屏采集，此时isPhoneHorizontal=true)
-//			YuvUtils.YUV420spRotateOfBack(rawFrame, rotateNv21, mWidth, mHeight, 180);
-
-        }
-        return  rotateNv21;
-    }
-
-    private void rotateYuv2(byte[] data, Camera camera,int width,int height){
+    private FrameBufferPool getFramePool(int width, int height) {
+        int size = FrameBufferPool.yuv420Size(width, height);
+        if (mFramePool == null || mFramePool.getBufferSize() != size) {
+            mFramePool = new FrameBufferPool(size, FRAME_POOL_CAPACITY);
+        }
+        return mFramePool;
+    }
+
+    // 返回是否旋转了90或270度(宽高互换)
+    private boolean rotateYuv2(byte[] data,int width,int height){
         if(CameraManager.PREVIEW_WIDTH != width || CameraManager.PREVIEW_HEIGHT != height){
             CameraManager.PREVIEW_WIDTH = width;
             CameraManager.PREVIEW_HEIGHT = height;
-            return;
+            return false;
         }
         Camera.CameraInfo camInfo = new Camera.CameraInfo();
         if(isFrontCamera()){
@@ -183,7 +267,17 @@ public class RecordMp4 {
         int cameraRotationOffset = camInfo.orientation;
         if (cameraRotationOffset % 180 != 0) {
                 yuvRotate(data, 1, width, height, cameraRotationOffset);
+                return true;
         }
+        return false;
+    }
+
+    // 预览帧需要旋转的角度，与rotateYuv2一致，只处理90、270度
+    private int getCameraRotation(){
+        Camera.CameraInfo camInfo = new Camera.CameraInfo();
+        Camera.getCameraInfo(isFrontCamera()? Camera.CameraInfo.CAMERA_FACING_FRONT
+                : Camera.CameraInfo.CAMERA_FACING_BACK, camInfo);
+        return camInfo.orientation % 180 != 0 ? camInfo.orientation : 0;
     }
 
     /**
@@ -210,14 +304,29 @@ public class RecordMp4 {
         }
     }
 
+    /**
+     * OSD图层合成，可添加台标(ImageLayer)、设备编号、速度和经纬度(TextLayer)等图层，
+     * 图层坐标为输出(旋转后)图像坐标。时间水印由setOverlayType、setOverlayContent控制，不需要自己添加
+     */
+    public OsdCompositor getOsdCompositor() {
+        return mOsdCompositor;
+    }
+
+    // 水印字体路径，用于创建CanvasGlyphRasterizer
+    public String getFontPath() {
+        return frontPath;
+    }
+
     // 设置水印类型
     public void setOverlayType(OverlayType type){
         this.type = type;
+        isOverlayChanged = true;
     }
 
     // 设置水印内容
     public void setOverlayContent(String overlayContent){
         this.overlayContent = overlayContent;
+        isOverlayChanged = true;
     }
 
 
@@ -241,36 +350,127 @@ public class RecordMp4 {
                 rotate = true;
             }
         }
-        if(! rotate){
-            // 垂直水印
-            overlay.init(mParams.getFrameWidth(), mParams.getFrameHeight(),frontPath);
-        }else{
-            // 水平
-            overlay.init(mParams.getFrameHeight(), mParams.getFrameWidth(), frontPath);
+        // 水印按旋转后的图像尺寸创建，字形在这里一次性绘制好
+        int outWidth = rotate ? mParams.getFrameHeight() : mParams.getFrameWidth();
+        int outHeight = rotate ? mParams.getFrameWidth() : mParams.getFrameHeight();
+        int textHeight = Math.max(24, outHeight / 20);
+        TimestampOverlay timestampOverlay = new TimestampOverlay(
+                new GlyphAtlas(new CanvasGlyphRasterizer(textHeight, frontPath)),
+                new TimestampFormatter(), outWidth - textHeight);
+        timestampOverlay.setPosition(textHeight / 2, textHeight / 2);
+        applyOverlayContent(timestampOverlay);
+        isOverlayChanged = false;
+        if (mTimestampOverlay != null) {
+            mOsdCompositor.removeLayer(mTimestampOverlay);
         }
+        mOsdCompositor.addLayer(timestampOverlay);
+        mTimestampOverlay = timestampOverlay;
         mParams.setVertical(rotate);
         Log.i(TAG,"-------------------->rotate = "+rotate);
 
+        // 录制期间不测速，返回时测速用的编码器已释放
+        EncoderCapabilityCache.getInstance().pauseProbe();
         // 创建音视频编码线程
         mH264Consumer = new H264EncodeConsumer();
         mAacConsumer = new AACEncodeConsumer();
         //new File(mParams.getVideoPath(), new SimpleDateFormat("yyyy_MM_dd_HH_mm_ss").format(new Date())).toString()
-        mMuxer = new MediaMuxerUtil(mParams.getVideoPath(), 1000000);
+        mMuxer = new MediaMuxerUtil(mParams, 1000000);
+        RecordingClock clock = new RecordingClock();
+        clock.start(System.nanoTime());
+        mRecordingClock = clock;
         if (mH264Consumer != null) {
             mH264Consumer.setTmpuMuxer(mMuxer,mParams);
+            mH264Consumer.setRecordingClock(clock);
+            mH264Consumer.setEncoderPool(mParams.isEncoderReuse() ? mEncoderPool : null);
+            if (mParams.isFusedFrameProcessing()) {
+                mH264Consumer.setFusedProcessing(rotate ? getCameraRotation() : 0, false, mOverlayListener);
+            } else {
+                mH264Consumer.setOnFrameProcessListener(mFrameProcessListener);
+            }
+            if (mParams.isSurfaceInput() && mCamManager != null) {
+                // 断开相机与预览控件，预览控件交给渲染线程绘制，渲染环境准备好后相机改为输出到纹理
+                SurfaceHolder holder = mCamManager.getSurfaceHolder();
+                mCamManager.stopPreivew();
+                isCameraDetached = true;
+                mH264Consumer.setSurfaceInput(new GlFrameRenderer(holder == null ? null : holder.getSurface()),
+                        rotate ? getCameraRotation() : 0, false, mOverlayListener,
+                        createInputTextureListener(mH264Consumer));
+            }
         }
         if (mAacConsumer != null) {
             mAacConsumer.setTmpuMuxer(mMuxer,mParams);
+            mAacConsumer.setRecordingClock(clock);
+            mAacConsumer.setEncoderPool(mParams.isEncoderReuse() ? mEncoderPool : null);
         }
         // 配置好混合器后启动线程
         mH264Consumer.start();
         mAacConsumer.start();
     }
 
+    /**
+     * 预录(行车记录仪)模式下触发录制：把缓存的最近一段音视频写入新文件，并继续录制到该文件，
+     * 需要在startRecord()之前通过EncoderParams.setPreRollBudgetBytes()开启预录
+     *
+     * @return 未开启预录、未开始录制或已经触发过返回false
+     */
+    public boolean triggerEventRecord(){
+        MediaMuxerUtil muxer = mMuxer;
+        return muxer != null && muxer.triggerPreRoll();
+    }
+
+    /**
+     * 请求视频编码器尽快输出一个关键帧，如直播中途有观众加入
+     */
+    public void requestKeyFrame(){
+        H264EncodeConsumer consumer = mH264Consumer;
+        if (consumer != null) {
+            consumer.requestKeyFrame();
+        }
+    }
+
+    /**
+     * 暂停录制：编码器、录音和混合器保持运行，只丢弃暂停期间采集的音视频，
+     * 恢复后时间戳从暂停处继续，文件中没有空白
+     *
+     * @return 未在录制或已暂停返回false
+     */
+    public boolean pauseRecord(){
+        RecordingClock clock = mRecordingClock;
+        if (mMuxer == null || clock == null || clock.isPaused())
+            return false;
+        clock.pause(System.nanoTime());
+        if(RecordMp4.DEBUG)
+            Log.i(TAG, "暂停录制");
+        return true;
+    }
+
+    /**
+     * 恢复录制，下一帧预览即开始编码，并请求关键帧，保证恢复后的画面能独立解码
+     *
+     * @return 未在录制或未暂停返回false
+     */
+    public boolean resumeRecord(){
+        RecordingClock clock = mRecordingClock;
+        if (mMuxer == null || clock == null || !clock.isPaused())
+            return false;
+        clock.resume(System.nanoTime());
+        requestKeyFrame();
+        if(RecordMp4.DEBUG)
+            Log.i(TAG, "恢复录制，暂停总时长：" + clock.getPausedNs(System.nanoTime()) / 1000000 + "ms");
+        return true;
+    }
+
+    public boolean isRecordPaused(){
+        RecordingClock clock = mRecordingClock;
+        return mMuxer != null && clock != null && clock.isPaused();
+    }
+
+    /** 当前录制的音视频时钟，可用于查看各轨道延迟和音视频偏移，未录制过时为null */
+    public RecordingClock getRecordingClock(){
+        return mRecordingClock;
+    }
+
     public void stopRecord(){
-        // 释放水印引擎
-        if (overlay != null)
-            overlay.release();
         // 停止混合器
         if (mMuxer != null) {
             mMuxer.release();
@@ -284,6 +484,10 @@ public class RecordMp4 {
         if (mAacConsumer != null) {
             mAacConsumer.setTmpuMuxer(null,null);
         }
+        // Surface输入时先停止相机向纹理输出，再由编码线程释放渲染环境
+        if (mCamManager != null && mCamManager.getPreviewTexture() != null) {
+            mCamManager.stopPreivew();
+        }
         // 停止视频编码线程
         if (mH264Consumer != null) {
             mH264Consumer.exit();
@@ -312,6 +516,20 @@ public class RecordMp4 {
                 e.printStackTrace();
             }
         }
+        if (isCameraDetached && mCamManager != null) {
+            // 渲染环境已释放，相机恢复输出到预览控件；编码线程尚未投递的切换因mH264Consumer已置空而忽略
+            mCamManager.setPreviewTexture(null);
+            mCamManager.startPreview();
+        }
+        isCameraDetached = false;
+        if(RecordMp4.DEBUG && mRecordingClock != null)
+            Log.i(TAG, "录制时钟统计：" + mRecordingClock);
+        // 编码线程退出后再释放水印，应用添加的图层保留到下次录制
+        if (mTimestampOverlay != null) {
+            mOsdCompositor.removeLayer(mTimestampOverlay);
+            mTimestampOverlay = null;
+        }
+        EncoderCapabilityCache.getInstance().resumeProbe();
     }
 
     public void startCamera(SurfaceHolder surfaceHolder){
@@ -336,6 +554,24 @@ public class RecordMp4 {
         mCamManager.stopPreivew();
         mCamManager.destoryCamera();
         stopSensorAccelerometer();
+        // 不再录制，释放保留的编码器
+        mEncoderPool.clear();
+        startEncoderProbe();
+    }
+
+    /** 编码器复用池，可查看复用次数，或在内存紧张时调用clear()提前释放 */
+    public EncoderPool getEncoderPool(){
+        return mEncoderPool;
+    }
+
+    /**
+     * 本次录制从启动编码线程到输出第一个视频编码帧的耗时，用于衡量连续录制的启动速度
+     *
+     * @return 未在录制或还没有输出时返回-1，单位毫秒
+     */
+    public long getTimeToFirstFrameMs(){
+        H264EncodeConsumer consumer = mH264Consumer;
+        return consumer == null ? -1 : consumer.getTimeToFirstFrameMs();
     }
 
     public void enableFocus(CameraManager.OnCameraFocusResult listener){
@@ -356,6 +592,13 @@ public class RecordMp4 {
         }
     }
 
+    // 设置预览回调缓存个数，下次启动预览时生效
+    public void setPreviewBufferCount(int count){
+        if(mCamManager != null){
+            mCamManager.setCallbackBufferCount(count);
+        }
+    }
+
     public boolean isFrontCamera(){
         return (mCamManager!=null &&
                 mCamManager.getCameraDirection()) ? true : false;
@@ -1,6 +1,11 @@
 package com.jiangdg.mediacodec4mp4.bean;
 
+import com.jiangdg.mediacodec4mp4.model.EncoderEngine;
 import com.jiangdg.mediacodec4mp4.model.H264EncodeConsumer;
+import com.jiangdg.mediacodec4mp4.model.MediaMuxerUtil;
+import com.jiangdg.mediacodec4mp4.model.MuxerBackend;
+import com.jiangdg.mediacodec4mp4.utils.FrameRingBuffer;
+import com.jiangdg.yuvosd.YuvConverter;
 
 /** 音、视频编码参数
  *
@@ -24,6 +29,29 @@ public class EncoderParams {
     private int audioFormat;    // 采样精度
     private int audioSouce;     // 音频来源
 
+    private int frameQueueCapacity = 3;   // 预览帧队列长度
+    private FrameRingBuffer.OverflowPolicy frameOverflowPolicy = FrameRingBuffer.OverflowPolicy.DROP_OLDEST; // 队列满时的处理策略
+    private EncoderEngine.Mode encoderEngineMode = EncoderEngine.Mode.AUTO; // 编码器驱动模式
+    private MuxerBackend.Type muxerType = MuxerBackend.Type.ANDROID; // MP4封装器后端
+    private long fragmentDurationMs;  // 分片MP4的分片时长，大于0时使用Mp4Writer输出分片MP4
+    private int muxerQueueCapacity = MediaMuxerUtil.DEFAULT_QUEUE_CAPACITY; // 混合器写线程的样本队列长度
+    private int preRollBudgetBytes;   // 预录缓存的字节预算，大于0时开启预录(行车记录仪)模式
+    private long preRollDurationMs = 30000; // 预录最多保留的时长
+    private YuvConverter.Type yuvConverterType = YuvConverter.Type.NATIVE; // YUV颜色转换、旋转的实现
+    private boolean isFusedFrameProcessing; // 单趟完成旋转、颜色转换和水印，直接写入编码器输入缓存区
+    private int frameProcessThreads = 1; // 单趟处理时并行处理一帧的线程数，0为按大核数自动选择(4K时使用)
+    private boolean isAdaptiveBitrate;   // 根据编码输出和存储写入速度动态调整视频码率
+    private int minBitrate;              // 动态码率的下限，为0时取初始码率的1/4
+    private int maxBitrate;              // 动态码率的上限，为0时取初始码率的1.5倍
+    private long bitrateAdjustIntervalMs = 1000; // 动态码率的统计、调整周期
+    private int keyFrameIntervalSec = 1; // 关键帧间隔(GOP)，单位秒，0为全部关键帧，负数为只有第一帧是关键帧
+    private int videoProfile;            // H.264 profile，取值见MediaCodecInfo.CodecProfileLevel，0为编码器默认
+    private int videoLevel;              // H.264 level，需同时设置videoProfile，0为编码器默认
+    private H264EncodeConsumer.BitrateMode bitrateMode = H264EncodeConsumer.BitrateMode.DEFAULT; // 码率控制模式
+    private boolean isLowLatency;        // 低延迟预设：Baseline(无B帧)、实时优先级、编码器低延迟模式，用于直播
+    private boolean isEncoderReuse = true; // 停止录制后保留编码器，下次相同参数录制时直接复用
+    private boolean isSurfaceInput;      // 相机画面经GPU旋转、叠加水印后直接画到编码器的输入Surface，不支持时回退到YUV数据输入
+
     public EncoderParams(){}
 
     public String getVideoPath() {
@@ -130,4 +158,179 @@ public class EncoderParams {
         this.bitRateQuality = bitRateQuality;
     }
 
+    public int getFrameQueueCapacity() {
+        return frameQueueCapacity;
+    }
+
+    public void setFrameQueueCapacity(int frameQueueCapacity) {
+        this.frameQueueCapacity = frameQueueCapacity;
+    }
+
+    public FrameRingBuffer.OverflowPolicy getFrameOverflowPolicy() {
+        return frameOverflowPolicy;
+    }
+
+    public void setFrameOverflowPolicy(FrameRingBuffer.OverflowPolicy frameOverflowPolicy) {
+        this.frameOverflowPolicy = frameOverflowPolicy;
+    }
+
+    public EncoderEngine.Mode getEncoderEngineMode() {
+        return encoderEngineMode;
+    }
+
+    public void setEncoderEngineMode(EncoderEngine.Mode encoderEngineMode) {
+        this.encoderEngineMode = encoderEngineMode;
+    }
+
+    public MuxerBackend.Type getMuxerType() {
+        return muxerType;
+    }
+
+    public void setMuxerType(MuxerBackend.Type muxerType) {
+        this.muxerType = muxerType;
+    }
+
+    public long getFragmentDurationMs() {
+        return fragmentDurationMs;
+    }
+
+    public void setFragmentDurationMs(long fragmentDurationMs) {
+        this.fragmentDurationMs = fragmentDurationMs;
+    }
+
+    public int getMuxerQueueCapacity() {
+        return muxerQueueCapacity;
+    }
+
+    public void setMuxerQueueCapacity(int muxerQueueCapacity) {
+        this.muxerQueueCapacity = muxerQueueCapacity;
+    }
+
+    public int getPreRollBudgetBytes() {
+        return preRollBudgetBytes;
+    }
+
+    public void setPreRollBudgetBytes(int preRollBudgetBytes) {
+        this.preRollBudgetBytes = preRollBudgetBytes;
+    }
+
+    public long getPreRollDurationMs() {
+        return preRollDurationMs;
+    }
+
+    public void setPreRollDurationMs(long preRollDurationMs) {
+        this.preRollDurationMs = preRollDurationMs;
+    }
+
+    public YuvConverter.Type getYuvConverterType() {
+        return yuvConverterType;
+    }
+
+    public void setYuvConverterType(YuvConverter.Type yuvConverterType) {
+        this.yuvConverterType = yuvConverterType;
+    }
+
+    public boolean isFusedFrameProcessing() {
+        return isFusedFrameProcessing;
+    }
+
+    public void setFusedFrameProcessing(boolean fusedFrameProcessing) {
+        isFusedFrameProcessing = fusedFrameProcessing;
+    }
+
+    public int getFrameProcessThreads() {
+        return frameProcessThreads;
+    }
+
+    public void setFrameProcessThreads(int frameProcessThreads) {
+        this.frameProcessThreads = frameProcessThreads;
+    }
+
+    public boolean isAdaptiveBitrate() {
+        return isAdaptiveBitrate;
+    }
+
+    public void setAdaptiveBitrate(boolean adaptiveBitrate) {
+        isAdaptiveBitrate = adaptiveBitrate;
+    }
+
+    public int getMinBitrate() {
+        return minBitrate;
+    }
+
+    public void setMinBitrate(int minBitrate) {
+        this.minBitrate = minBitrate;
+    }
+
+    public int getMaxBitrate() {
+        return maxBitrate;
+    }
+
+    public void setMaxBitrate(int maxBitrate) {
+        this.maxBitrate = maxBitrate;
+    }
+
+    public long getBitrateAdjustIntervalMs() {
+        return bitrateAdjustIntervalMs;
+    }
+
+    public void setBitrateAdjustIntervalMs(long bitrateAdjustIntervalMs) {
+        this.bitrateAdjustIntervalMs = bitrateAdjustIntervalMs;
+    }
+
+    public int getKeyFrameIntervalSec() {
+        return keyFrameIntervalSec;
+    }
+
+    public void setKeyFrameIntervalSec(int keyFrameIntervalSec) {
+        this.keyFrameIntervalSec = keyFrameIntervalSec;
+    }
+
+    public int getVideoProfile() {
+        return videoProfile;
+    }
+
+    public void setVideoProfile(int videoProfile) {
+        this.videoProfile = videoProfile;
+    }
+
+    public int getVideoLevel() {
+        return videoLevel;
+    }
+
+    public void setVideoLevel(int videoLevel) {
+        this.videoLevel = videoLevel;
+    }
+
+    public H264EncodeConsumer.BitrateMode getBitrateMode() {
+        return bitrateMode;
+    }
+
+    public void setBitrateMode(H264EncodeConsumer.BitrateMode bitrateMode) {
+        this.bitrateMode = bitrateMode;
+    }
+
+    public boolean isLowLatency() {
+        return isLowLatency;
+    }
+
+    public void setLowLatency(boolean lowLatency) {
+        isLowLatency = lowLatency;
+    }
+
+    public boolean isEncoderReuse() {
+        return isEncoderReuse;
+    }
+
+    public void setEncoderReuse(boolean encoderReuse) {
+        isEncoderReuse = encoderReuse;
+    }
+
+    public boolean isSurfaceInput() {
+        return isSurfaceInput;
+    }
+
+    public void setSurfaceInput(boolean surfaceInput) {
+        isSurfaceInput = surfaceInput;
+    }
 }
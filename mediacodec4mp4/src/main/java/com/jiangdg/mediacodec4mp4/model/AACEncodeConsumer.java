@@ -1,14 +1,11 @@
 package com.jiangdg.mediacodec4mp4.model;
 
-import android.annotation.SuppressLint;
 import android.media.AudioFormat;
 import android.media.AudioRecord;
 import android.media.MediaCodec;
 import android.media.MediaCodecInfo;
-import android.media.MediaCodecList;
 import android.media.MediaFormat;
 import android.media.MediaRecorder;
-import android.os.Build;
 import android.os.Process;
 import android.util.Log;
 
@@ -60,9 +57,23 @@ public class AACEncodeConsumer extends Thread {
     private boolean isEncoderStarted = false;
     private WeakReference<MediaMuxerUtil> mMuxerRef;
     private WeakReference<EncoderParams> mParamsRef;
-    private MediaCodec mAudioEncoder;
+    // 音频编码器驱动(同步轮询或异步回调)
+    private EncoderEngine mAudioEngine;
+    private final ByteBufferInputWriter mInputWriter = new ByteBufferInputWriter();
+    // 录音数据缓存，AudioRecord直接读入，录音过程中重复使用
+    private ByteBuffer mPcmBuffer;
     private MediaFormat newFormat;
-    private long prevPresentationTimes = 0;
+    // 由采样数推算时间戳
+    private AudioClock mAudioClock;
+    // 音视频共用的录制时钟，为null时直接使用AudioClock的时间戳
+    private volatile RecordingClock mRecordingClock;
+    // 编码器复用池，为null时每次录制都创建编码器
+    private volatile EncoderPool mEncoderPool;
+    private String mPoolKey;
+    // 启动到第一个编码帧输出的耗时统计
+    private long mStartNs;
+    private volatile long mFirstFrameNs;
+    private int mBytesPerFrame = 2;
 
     public synchronized void setTmpuMuxer(MediaMuxerUtil mMuxer, EncoderParams mParams){
         this.mMuxerRef =  new WeakReference<>(mMuxer);
@@ -76,19 +87,31 @@ public class AACEncodeConsumer extends Thread {
 
 	@Override
 	public void run() {
+		mStartNs = System.nanoTime();
 		if (!false) {
 			startAudioRecord();
 			startCodec();
 		}
 		while (!isExit) {
 			if (mAudioRecord != null) {
-				byte[] audioBuf = new byte[AUDIO_BUFFER_SIZE];
-				int readBytes = mAudioRecord.read(audioBuf, 0,AUDIO_BUFFER_SIZE);
+				// read(ByteBuffer)不改变position，按读到的长度设置limit
+				int readBytes = mAudioRecord.read(mPcmBuffer, AUDIO_BUFFER_SIZE);
 				if (readBytes > 0) {
 					try {
-                        Log.i(TAG,"录音---->数据大小："+readBytes);
-
-						encoderBytes(audioBuf, readBytes);
+                        if(RecordMp4.DEBUG)
+                            Log.i(TAG,"录音---->数据大小："+readBytes);
+                        long nowNs = System.nanoTime();
+                        long ptsUs = mAudioClock.onFrames(readBytes / mBytesPerFrame, nowNs);
+                        RecordingClock clock = mRecordingClock;
+                        if (clock != null) {
+                            // 换算为录制时间，开始前和暂停期间的数据丢弃
+                            ptsUs = clock.toPresentationUs(RecordingClock.TRACK_AUDIO, ptsUs * 1000, nowNs);
+                            if (ptsUs < 0)
+                                continue;
+                        }
+                        mPcmBuffer.clear();
+                        mPcmBuffer.limit(readBytes);
+						encoderBytes(mPcmBuffer, ptsUs);
 					} catch (IllegalStateException e) {
 						// 捕获因中断线程并停止混合dequeueOutputBuffer报的状态异常
 						e.printStackTrace();
@@ -99,122 +122,78 @@ public class AACEncodeConsumer extends Thread {
 				}
 			}
 		}
+		if(RecordMp4.DEBUG)
+			Log.i(TAG,"音频时钟统计："+mAudioClock);
 		stopCodec();
 		stopAudioRecord();
 	}
 
-    @SuppressLint("NewApi")
-    private void encoderBytes(byte[] audioBuf,int readBytes){
-        ByteBuffer[] inputBuffers = mAudioEncoder.getInputBuffers();
-        ByteBuffer[] outputBuffers = mAudioEncoder.getOutputBuffers();
-        //返回编码器的一个输入缓存区句柄，-1表示当前没有可用的输入缓存区
-        int inputBufferIndex = mAudioEncoder.dequeueInputBuffer(TIMES_OUT);
-        if(inputBufferIndex >= 0){
-            // 绑定一个被空的、可写的输入缓存区inputBuffer到客户端
-            ByteBuffer inputBuffer  = null;
-            if(!isLollipop()){
-                inputBuffer = inputBuffers[inputBufferIndex];
-            }else{
-                inputBuffer = mAudioEncoder.getInputBuffer(inputBufferIndex);
-            }
-            // 向输入缓存区写入有效原始数据，并提交到编码器中进行编码处理
-            if(audioBuf==null || readBytes<=0){
-            	mAudioEncoder.queueInputBuffer(inputBufferIndex,0,0,getPTSUs(),MediaCodec.BUFFER_FLAG_END_OF_STREAM);
-            }else{
-                inputBuffer.clear();
-                inputBuffer.put(audioBuf);
-                mAudioEncoder.queueInputBuffer(inputBufferIndex,0,readBytes,getPTSUs(),0);
-            }
+    private void encoderBytes(ByteBuffer pcm, long ptsUs){
+        if(mAudioEngine == null)
+            return;
+        // 向输入缓存区写入有效原始数据，并提交到编码器中进行编码处理
+        if(pcm==null || !pcm.hasRemaining()){
+            mAudioEngine.queueInput(null,ptsUs,MediaCodec.BUFFER_FLAG_END_OF_STREAM,TIMES_OUT);
+        }else{
+            mAudioEngine.queueInput(mInputWriter.set(pcm),ptsUs,0,TIMES_OUT);
         }
+        // 同步模式下取出编码好的数据，异步模式下由回调线程处理
+        mAudioEngine.drainOutput(TIMES_OUT);
+    }
 
-        // 返回一个输出缓存区句柄，当为-1时表示当前没有可用的输出缓存区
-        // mBufferInfo参数包含被编码好的数据，timesOut参数为超时等待的时间
-        MediaCodec.BufferInfo  mBufferInfo = new MediaCodec.BufferInfo();
-        int outputBufferIndex = -1;
-        do{
-        	outputBufferIndex = mAudioEncoder.dequeueOutputBuffer(mBufferInfo,TIMES_OUT);
-        	if(outputBufferIndex == MediaCodec. INFO_TRY_AGAIN_LATER){
-                if(RecordMp4.DEBUG)
-                    Log.i(TAG,"获得编码器输出缓存区超时");
-            }else if(outputBufferIndex == MediaCodec.INFO_OUTPUT_BUFFERS_CHANGED){
-                // 如果API小于21，APP需要重新绑定编码器的输入缓存区；
-                // 如果API大于21，则无需处理INFO_OUTPUT_BUFFERS_CHANGED
-                if(!isLollipop()){
-                    outputBuffers = mAudioEncoder.getOutputBuffers();
-                }
-            }else if(outputBufferIndex == MediaCodec.INFO_OUTPUT_FORMAT_CHANGED){
-                // 编码器输出缓存区格式改变，通常在存储数据之前且只会改变一次
-                // 这里设置混合器视频轨道，如果音频已经添加则启动混合器（保证音视频同步）
-                if(RecordMp4.DEBUG)
-                    Log.i(TAG,"编码器输出缓存区格式改变，添加视频轨道到混合器");
-                synchronized (AACEncodeConsumer.this) {
-                    newFormat = mAudioEncoder.getOutputFormat();
-                    if(mMuxerRef != null){
-                        MediaMuxerUtil muxer = mMuxerRef.get();
-                        if (muxer != null) {
-                            muxer.addTrack(newFormat, false);
-                        }
+    // 处理编码输出，异步模式下在编码器回调线程中执行
+    private final EncoderEngine.OutputListener mOutputListener = new EncoderEngine.OutputListener() {
+        @Override
+        public void onOutputFormatChanged(MediaFormat format) {
+            // 编码器输出缓存区格式改变，通常在存储数据之前且只会改变一次
+            // 这里设置混合器音频轨道，如果视频已经添加则启动混合器（保证音视频同步）
+            if(RecordMp4.DEBUG)
+                Log.i(TAG,"编码器输出缓存区格式改变，添加音频轨道到混合器");
+            synchronized (AACEncodeConsumer.this) {
+                newFormat = format;
+                if(mMuxerRef != null){
+                    MediaMuxerUtil muxer = mMuxerRef.get();
+                    if (muxer != null) {
+                        muxer.addTrack(newFormat, false);
                     }
                 }
-            }else{
-                // 当flag属性置为BUFFER_FLAG_CODEC_CONFIG后，说明输出缓存区的数据已经被消费了
-                if((mBufferInfo.flags & MediaCodec.BUFFER_FLAG_CODEC_CONFIG) != 0){
-                    if(RecordMp4.DEBUG)
-                        Log.i(TAG,"编码数据被消费，BufferInfo的size属性置0");
-                    mBufferInfo.size = 0;
-                }
-                // 数据流结束标志，结束本次循环
-                if((mBufferInfo.flags & MediaCodec.BUFFER_FLAG_END_OF_STREAM) != 0){
+            }
+        }
+
+        @Override
+        public void onOutputBuffer(ByteBuffer outputBuffer, MediaCodec.BufferInfo mBufferInfo) {
+            // 当flag属性置为BUFFER_FLAG_CODEC_CONFIG后，说明输出缓存区的数据已经被消费了
+            if((mBufferInfo.flags & MediaCodec.BUFFER_FLAG_CODEC_CONFIG) != 0){
+                if(RecordMp4.DEBUG)
+                    Log.i(TAG,"编码数据被消费，BufferInfo的size属性置0");
+                mBufferInfo.size = 0;
+            }
+            if(mBufferInfo.size != 0){
+                if(mFirstFrameNs == 0){
+                    mFirstFrameNs = System.nanoTime();
                     if(RecordMp4.DEBUG)
-                        Log.i(TAG,"数据流结束，退出循环");
-                    break;
+                        Log.i(TAG,"启动到第一个音频编码帧耗时："+getTimeToFirstFrameMs()+"ms");
                 }
-                // 获取一个只读的输出缓存区inputBuffer ，它包含被编码好的数据
-                ByteBuffer outputBuffer = null;
-                if(!isLollipop()){
-                    outputBuffer  = outputBuffers[outputBufferIndex];
-                }else{
-                    outputBuffer  = mAudioEncoder.getOutputBuffer(outputBufferIndex);
-                }
-                if(mBufferInfo.size != 0){
-                    // 获取输出缓存区失败，抛出异常
-                    if(outputBuffer == null){
-                        throw new RuntimeException("encodecOutputBuffer"+outputBufferIndex+"was null");
-                    }
-                    // 如果API<=19，需要根据BufferInfo的offset偏移量调整ByteBuffer的位置
-                    //并且限定将要读取缓存区数据的长度，否则输出数据会混乱
-                    if(isKITKAT()){
-                        outputBuffer.position(mBufferInfo.offset);
-                        outputBuffer.limit(mBufferInfo.offset+mBufferInfo.size);
-                    }
-                    // 对输出缓存区的ACC进行混合处理
-                    if(mMuxerRef != null){
-                        MediaMuxerUtil muxer = mMuxerRef.get();
-                        if (muxer != null) {
+                // 对输出缓存区的ACC进行混合处理
+                if(mMuxerRef != null){
+                    MediaMuxerUtil muxer = mMuxerRef.get();
+                    if (muxer != null) {
+                        if(RecordMp4.DEBUG)
                             Log.i(TAG,"------编码混合音频数据-----"+mBufferInfo.size);
-                            muxer.pumpStream(outputBuffer, mBufferInfo, false);
-                        }
+                        muxer.pumpStream(outputBuffer, mBufferInfo, false);
                     }
                 }
-                // 处理结束，释放输出缓存区资源
-                mAudioEncoder.releaseOutputBuffer(outputBufferIndex,false);
             }
-        }while (outputBufferIndex >= 0);
-    }
+        }
+    };
 
     private void startCodec(){
     	isExit = false;
-        MediaCodecInfo mCodecInfo = selectSupportCodec(MIME_TYPE);
-        if(mCodecInfo == null || mParamsRef == null){
+        EncoderCapabilityCache cache = EncoderCapabilityCache.getInstance();
+        EncoderCapability capability = cache.select(MIME_TYPE, false);
+        if(capability == null || mParamsRef == null){
             return;
         }
-        try{
-            mAudioEncoder = MediaCodec.createByCodecName(mCodecInfo.getName());
-        }catch(IOException e){
-            if(RecordMp4.DEBUG)
-                Log.e(TAG,"创建编码器失败"+e.getMessage());
-            e.printStackTrace();
-        }
         // 告诉编码器输出数据的格式,如MIME类型、码率、采样率、通道数量等
         EncoderParams mParams = mParamsRef.get();
         MediaFormat mediaFormat = new MediaFormat();
@@ -224,21 +203,83 @@ public class AACEncodeConsumer extends Thread {
         mediaFormat.setInteger(MediaFormat.KEY_AAC_PROFILE,ACC_PROFILE);
         mediaFormat.setInteger(MediaFormat.KEY_CHANNEL_COUNT,mParams.getAudioChannelCount());
         mediaFormat.setInteger(MediaFormat.KEY_MAX_INPUT_SIZE,BUFFER_SIZE);
-    	if(mAudioEncoder != null){
-            mAudioEncoder.configure(mediaFormat,null,null,MediaCodec.CONFIGURE_FLAG_ENCODE);
-            mAudioEncoder.start();    
-        	isEncoderStarted = true;
-    	}  
+        EncoderPool pool = mEncoderPool;
+        String poolKey = EncoderPool.key(capability.getName(), mParams.getEncoderEngineMode(), mediaFormat);
+        if(pool != null && reuseCodec(pool, poolKey)){
+            return;
+        }
+        mAudioEngine = EncoderEngineFactory.create(mParams.getEncoderEngineMode(), TAG);
+        try{
+            mAudioEngine.start(capability.getName(), mediaFormat, mOutputListener);
+            mPoolKey = poolKey;
+            isEncoderStarted = true;
+        }catch(IOException e){
+            if(RecordMp4.DEBUG)
+                Log.e(TAG,"创建编码器失败"+e.getMessage());
+            e.printStackTrace();
+            cache.markFailed(MIME_TYPE, capability.getName());
+            mAudioEngine.stop();
+            mAudioEngine = null;
+        }
+    }
+
+    // 复用上次录制留下的编码器
+    private boolean reuseCodec(EncoderPool pool, String poolKey){
+        EncoderEngine engine = pool.acquire(poolKey);
+        if(engine == null)
+            return false;
+        try{
+            engine.reuse(mOutputListener);
+        }catch(IllegalStateException e){
+            if(RecordMp4.DEBUG)
+                Log.w(TAG,"复用音频编码器失败："+e.getMessage());
+            engine.stop();
+            return false;
+        }
+        mAudioEngine = engine;
+        mPoolKey = poolKey;
+        isEncoderStarted = true;
+        if(RecordMp4.DEBUG)
+            Log.i(TAG,"复用音频编码器，异步模式："+engine.isAsync()+"，"+pool);
+        return true;
     }
 
     private void stopCodec(){
-        if(mAudioEncoder != null){
-            mAudioEncoder.stop();
-            mAudioEncoder.release();
-            mAudioEncoder = null;
+        if(mAudioEngine != null){
+            if(RecordMp4.DEBUG)
+                Log.i(TAG,"关闭音频编码器："+mAudioEngine.getStats());
+            EncoderPool pool = mEncoderPool;
+            if(pool != null && mPoolKey != null){
+                // 留给下次录制复用
+                pool.recycle(mPoolKey, mAudioEngine);
+            }else{
+                mAudioEngine.stop();
+            }
+            mAudioEngine = null;
+            mPoolKey = null;
         }
         isEncoderStarted = false;
     }
+
+    /** 设置复用编码器的池，需在start()之前调用，为null时停止录制即释放编码器 */
+    public void setEncoderPool(EncoderPool pool) {
+        this.mEncoderPool = pool;
+    }
+
+    /**
+     * 从录音线程启动到输出第一个编码帧的耗时
+     *
+     * @return 还没有输出时返回-1，单位毫秒
+     */
+    public long getTimeToFirstFrameMs() {
+        long first = mFirstFrameNs;
+        return first == 0 ? -1 : (first - mStartNs) / 1000000;
+    }
+
+    /** 音频编码驱动，可用于查看统计信息 */
+    public EncoderEngine getEncoderEngine() {
+        return mAudioEngine;
+    }
     
     private void startAudioRecord(){
         // 计算AudioRecord所需输入缓存空间大小
@@ -251,6 +292,12 @@ public class AACEncodeConsumer extends Thread {
         Process.setThreadPriority(Process.THREAD_PRIORITY_AUDIO);
         mAudioRecord = new AudioRecord(mParams.getAudioSouce(),mParams.getAudioSampleRate(),
                 mParams.getAudioChannelConfig(),mParams.getAudioFormat(),bufferSizeInBytes);
+        if(mPcmBuffer == null){
+            mPcmBuffer = ByteBuffer.allocateDirect(AUDIO_BUFFER_SIZE);
+        }
+        mBytesPerFrame = AudioClock.bytesPerFrame(mParams.getAudioChannelCount(),
+                mParams.getAudioFormat() != ENCODING_PCM_8BIT);
+        mAudioClock = new AudioClock(mParams.getAudioSampleRate());
         // 开始录音
         mAudioRecord.startRecording();
     }
@@ -263,48 +310,17 @@ public class AACEncodeConsumer extends Thread {
         }
     }
 
-    public void exit(){
-        isExit = true;
+    /** 设置音视频共用的录制时钟，需在start()之前调用 */
+    public void setRecordingClock(RecordingClock clock) {
+        this.mRecordingClock = clock;
     }
-    
-    /**
-     * 遍历所有编解码器，返回第一个与指定MIME类型匹配的编码器
-     *  判断是否有支持指定mime类型的编码器
-     * */
-    private MediaCodecInfo selectSupportCodec(String mimeType){
-		int numCodecs = MediaCodecList.getCodecCount();
-		for (int i = 0; i < numCodecs; i++) {
-			MediaCodecInfo codecInfo = MediaCodecList.getCodecInfoAt(i);
-			// 判断是否为编码器，否则直接进入下一次循环
-			if (!codecInfo.isEncoder()) {
-				continue;
-			}
-			// 如果是编码器，判断是否支持Mime类型
-			String[] types = codecInfo.getSupportedTypes();
-			for (int j = 0; j < types.length; j++) {
-				if (types[j].equalsIgnoreCase(mimeType)) {
-					return codecInfo;
-				}
-			}
-		}
-		return null;
-	}
 
-    private boolean isLollipop(){
-        // API>=21
-        return Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP;
+    /** 音频时钟，可用于查看与视频时钟的偏差，录音开始前为null */
+    public AudioClock getAudioClock() {
+        return mAudioClock;
     }
 
-    private boolean isKITKAT(){
-        // API<=19
-        return Build.VERSION.SDK_INT <= Build.VERSION_CODES.KITKAT;
-    }
-
-    private long getPTSUs(){
-    	long result = System.nanoTime()/1000;
-    	if(result < prevPresentationTimes){
-    		result = (prevPresentationTimes  - result ) + result;
-    	}
-    	return result;
+    public void exit(){
+        isExit = true;
     }
 }
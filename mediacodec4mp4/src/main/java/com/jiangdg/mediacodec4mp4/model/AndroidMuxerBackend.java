@@ -0,0 +1,43 @@
+package com.jiangdg.mediacodec4mp4.model;
+
+import android.media.MediaCodec;
+import android.media.MediaFormat;
+import android.media.MediaMuxer;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/** 基于android.media.MediaMuxer的封装器后端
+ */
+public class AndroidMuxerBackend implements MuxerBackend {
+    private final MediaMuxer mMuxer;
+
+    public AndroidMuxerBackend(String path) throws IOException {
+        mMuxer = new MediaMuxer(path, MediaMuxer.OutputFormat.MUXER_OUTPUT_MPEG_4);
+    }
+
+    @Override
+    public int addTrack(MediaFormat format, boolean isVideo) {
+        return mMuxer.addTrack(format);
+    }
+
+    @Override
+    public void start() {
+        mMuxer.start();
+    }
+
+    @Override
+    public void writeSampleData(int trackIndex, ByteBuffer buffer, MediaCodec.BufferInfo bufferInfo) {
+        mMuxer.writeSampleData(trackIndex, buffer, bufferInfo);
+    }
+
+    @Override
+    public void stop() {
+        mMuxer.stop();
+    }
+
+    @Override
+    public void release() {
+        mMuxer.release();
+    }
+}
@@ -0,0 +1,259 @@
+package com.jiangdg.mediacodec4mp4.model;
+
+import android.annotation.TargetApi;
+import android.media.MediaCodec;
+import android.media.MediaFormat;
+import android.os.Build;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Process;
+import android.util.Log;
+import android.view.Surface;
+
+import com.jiangdg.mediacodec4mp4.RecordMp4;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/** 基于MediaCodec.setCallback的异步驱动，需要API 21以上
+ * <p>
+ * 编码器回调运行在独立的HandlerThread中：空闲的输入缓存区索引放入队列，
+ * 由生产线程取用；编码输出在回调中直接交给OutputListener，不再轮询等待。
+ * API 21、22没有setCallback(Callback, Handler)，回调在创建编码器的线程的Looper中执行，
+ * 所以编码器的创建和配置统一放到HandlerThread中完成。
+ */
+@TargetApi(21)
+public class AsyncEncoderEngine implements EncoderEngine {
+    private static final String TAG = "AsyncEncoderEngine";
+    // 输入缓存区索引队列长度，大于编码器的输入缓存区个数即可
+    private static final int MAX_INPUT_BUFFERS = 64;
+    private final EncoderEngineStats mStats = new EncoderEngineStats();
+    private final ArrayBlockingQueue<Integer> mFreeInputBuffers = new ArrayBlockingQueue<>(MAX_INPUT_BUFFERS);
+    private final String mThreadName;
+    private HandlerThread mCallbackThread;
+    private Handler mCallbackHandler;
+    private volatile MediaCodec mCodec;
+    private volatile OutputListener mListener;
+    // 最近的输出格式，复用时回放给新的监听者
+    private volatile MediaFormat mOutputFormat;
+    private volatile Surface mInputSurface;
+    private volatile boolean isStarted;
+
+    public AsyncEncoderEngine(String threadName) {
+        this.mThreadName = threadName;
+    }
+
+    private final MediaCodec.Callback mCallback = new MediaCodec.Callback() {
+        @Override
+        public void onInputBufferAvailable(MediaCodec codec, int index) {
+            if (!mFreeInputBuffers.offer(index) && RecordMp4.DEBUG) {
+                Log.w(TAG, "input buffer queue is full, index " + index);
+            }
+        }
+
+        @Override
+        public void onOutputBufferAvailable(MediaCodec codec, int index, MediaCodec.BufferInfo info) {
+            if (!isStarted)
+                return;
+            try {
+                ByteBuffer outputBuffer = codec.getOutputBuffer(index);
+                if (outputBuffer != null) {
+                    outputBuffer.position(info.offset);
+                    outputBuffer.limit(info.offset + info.size);
+                    mStats.onOutput();
+                    OutputListener listener = mListener;
+                    if (listener != null) {
+                        listener.onOutputBuffer(outputBuffer, info);
+                    }
+                }
+                codec.releaseOutputBuffer(index, false);
+            } catch (IllegalStateException e) {
+                // 停止编码器时可能仍有回调在执行
+                if (RecordMp4.DEBUG)
+                    Log.w(TAG, "release output buffer failed", e);
+            }
+        }
+
+        @Override
+        public void onError(MediaCodec codec, MediaCodec.CodecException e) {
+            mStats.onError();
+            Log.e(TAG, "encoder error：" + e.getDiagnosticInfo(), e);
+        }
+
+        @Override
+        public void onOutputFormatChanged(MediaCodec codec, MediaFormat format) {
+            mOutputFormat = format;
+            OutputListener listener = mListener;
+            if (listener != null) {
+                listener.onOutputFormatChanged(format);
+            }
+        }
+    };
+
+    @Override
+    public void start(final String codecName, final MediaFormat format, OutputListener listener) throws IOException {
+        mListener = listener;
+        mFreeInputBuffers.clear();
+        mCallbackThread = new HandlerThread(mThreadName, Process.THREAD_PRIORITY_DISPLAY);
+        mCallbackThread.start();
+        mCallbackHandler = new Handler(mCallbackThread.getLooper());
+        final IOException[] error = new IOException[1];
+        final RuntimeException[] runtimeError = new RuntimeException[1];
+        final CountDownLatch latch = new CountDownLatch(1);
+        mCallbackHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    MediaCodec codec = MediaCodec.createByCodecName(codecName);
+                    if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.M) {
+                        codec.setCallback(mCallback, mCallbackHandler);
+                    } else {
+                        codec.setCallback(mCallback);
+                    }
+                    codec.configure(format, null, null, MediaCodec.CONFIGURE_FLAG_ENCODE);
+                    if (EncoderEngineFactory.isSurfaceInput(format)) {
+                        mInputSurface = codec.createInputSurface();
+                    }
+                    mCodec = codec;
+                    isStarted = true;
+                    codec.start();
+                } catch (IOException e) {
+                    error[0] = e;
+                } catch (RuntimeException e) {
+                    runtimeError[0] = e;
+                } finally {
+                    latch.countDown();
+                }
+            }
+        });
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (error[0] != null || runtimeError[0] != null) {
+            stop();
+            if (error[0] != null)
+                throw error[0];
+            throw runtimeError[0];
+        }
+    }
+
+    @Override
+    public boolean queueInput(InputWriter writer, long presentationTimeUs, int flags, long timeoutUs) {
+        MediaCodec codec = mCodec;
+        if (!isStarted || codec == null)
+            return false;
+        long begin = System.nanoTime();
+        Integer index;
+        try {
+            index = timeoutUs <= 0 ? mFreeInputBuffers.poll()
+                    : mFreeInputBuffers.poll(timeoutUs, TimeUnit.MICROSECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            index = null;
+        }
+        if (index == null) {
+            mStats.onInputTimeout(System.nanoTime() - begin);
+            return false;
+        }
+        mStats.onInputQueued(System.nanoTime() - begin);
+        ByteBuffer inputBuffer = codec.getInputBuffer(index);
+        inputBuffer.clear();
+        int size = writer == null ? 0 : writer.write(inputBuffer);
+        codec.queueInputBuffer(index, 0, size, presentationTimeUs, flags);
+        return true;
+    }
+
+    @Override
+    public void drainOutput(long timeoutUs) {
+        // 编码输出由回调线程处理
+    }
+
+    @Override
+    public boolean isAsync() {
+        return true;
+    }
+
+    @Override
+    public boolean isStarted() {
+        return isStarted;
+    }
+
+    @Override
+    public MediaCodec getCodec() {
+        return mCodec;
+    }
+
+    @Override
+    public Surface getInputSurface() {
+        return mInputSurface;
+    }
+
+    @Override
+    public void stop() {
+        isStarted = false;
+        final MediaCodec codec = mCodec;
+        mCodec = null;
+        if (codec != null) {
+            try {
+                codec.stop();
+            } catch (IllegalStateException e) {
+                e.printStackTrace();
+            }
+            codec.release();
+        }
+        if (mInputSurface != null) {
+            mInputSurface.release();
+            mInputSurface = null;
+        }
+        mFreeInputBuffers.clear();
+        mOutputFormat = null;
+        if (mCallbackThread != null) {
+            mCallbackThread.quitSafely();
+            mCallbackThread = null;
+            mCallbackHandler = null;
+        }
+    }
+
+    @Override
+    public boolean park() {
+        MediaCodec codec = mCodec;
+        // 输入Surface与上次的渲染环境绑定，不复用
+        if (!isStarted || codec == null || mOutputFormat == null || mInputSurface != null)
+            return false;
+        isStarted = false;
+        mListener = null;
+        try {
+            // 异步模式下flush后编码器不再回调，复用时需重新start()
+            codec.flush();
+        } catch (IllegalStateException e) {
+            return false;
+        }
+        mFreeInputBuffers.clear();
+        return true;
+    }
+
+    @Override
+    public void reuse(OutputListener listener) {
+        MediaCodec codec = mCodec;
+        MediaFormat format = mOutputFormat;
+        if (isStarted || codec == null || format == null)
+            throw new IllegalStateException("encoder is not parked");
+        mListener = listener;
+        mFreeInputBuffers.clear();
+        isStarted = true;
+        codec.start();
+        if (listener != null) {
+            listener.onOutputFormatChanged(format);
+        }
+    }
+
+    @Override
+    public EncoderEngineStats getStats() {
+        return mStats;
+    }
+}
@@ -0,0 +1,152 @@
+package com.jiangdg.mediacodec4mp4.model;
+
+/** 由累计采样数推算音频时间戳，不依赖MediaCodec，可脱离设备测试
+ * <p>
+ * 第一块数据到达时锚定到系统单调时钟(与视频帧时间戳相同)，之后时间戳 = 锚点 + 已采样帧数 / 采样率，
+ * 线程调度抖动不再影响时间戳。每块数据读完时记录系统时间与推算时间之差，
+ * 取每个统计窗口(1秒采样)内的最小值作为偏差(过滤读取延迟的抖动)。
+ * 偏差超过容忍值时按每块时长的1%逐步修正，时间戳保持单调递增；
+ * 偏差超过丢帧阈值时(录音缓存溢出丢了数据)一次补上。非线程安全，在录音线程中调用。
+ */
+public class AudioClock {
+    // 偏差在该范围内不修正，单位微秒
+    static final long TOLERANCE_US = 10000;
+    // 偏差超过该值视为丢了采样，直接跳过
+    static final long GAP_US = 100000;
+    // 每块最多修正该块时长的1/SLEW_DIVISOR
+    static final int SLEW_DIVISOR = 100;
+
+    private final int mSampleRate;
+    private long mAnchorUs = -1;
+    private long mFrames;
+    // 已修正的总量，加到锚点上
+    private long mCorrectionUs;
+    // 待修正的量
+    private long mPendingUs;
+    private long mWindowFrames;
+    private long mWindowMinUs = Long.MAX_VALUE;
+    private long mSkewUs;
+    private long mMaxSkewUs;
+    private long mGapCount;
+    private long mLastPtsUs = -1;
+
+    /**
+     * @param sampleRate 采样率，单位Hz
+     */
+    public AudioClock(int sampleRate) {
+        if (sampleRate <= 0)
+            throw new IllegalArgumentException("invalid sample rate " + sampleRate);
+        mSampleRate = sampleRate;
+    }
+
+    /** 每个声道的采样字节数乘声道数，即一帧PCM的字节数 */
+    public static int bytesPerFrame(int channelCount, boolean is16Bit) {
+        return Math.max(1, channelCount) * (is16Bit ? 2 : 1);
+    }
+
+    /**
+     * 一块PCM数据读完后调用
+     *
+     * @param frames 该块的帧数(每声道采样数)
+     * @param nowNs 读完时的System.nanoTime()
+     * @return 该块第一帧的时间戳，单位微秒
+     */
+    public long onFrames(int frames, long nowNs) {
+        long nowUs = nowNs / 1000;
+        if (mAnchorUs < 0) {
+            mAnchorUs = nowUs - framesToUs(frames);
+        }
+        long durationUs = framesToUs(mFrames + frames) - framesToUs(mFrames);
+        slew(durationUs);
+        long ptsUs = currentUs();
+        if (ptsUs <= mLastPtsUs) {
+            ptsUs = mLastPtsUs + 1;
+        }
+        mLastPtsUs = ptsUs;
+        mFrames += frames;
+        measure(nowUs - currentUs(), frames);
+        return ptsUs;
+    }
+
+    // 记录偏差，窗口结束时决定修正量
+    private void measure(long skewUs, int frames) {
+        if (skewUs < mWindowMinUs) {
+            mWindowMinUs = skewUs;
+        }
+        mWindowFrames += frames;
+        if (mWindowFrames < mSampleRate)
+            return;
+        mSkewUs = mWindowMinUs;
+        mMaxSkewUs = Math.max(mMaxSkewUs, Math.abs(mSkewUs));
+        mWindowFrames = 0;
+        mWindowMinUs = Long.MAX_VALUE;
+        if (mSkewUs >= GAP_US) {
+            // 丢了采样，时间戳直接前跳
+            mCorrectionUs += mSkewUs;
+            mPendingUs = 0;
+            mGapCount++;
+        } else if (Math.abs(mSkewUs) > TOLERANCE_US) {
+            mPendingUs = mSkewUs;
+        }
+    }
+
+    private void slew(long durationUs) {
+        if (mPendingUs == 0)
+            return;
+        long limit = Math.max(1, durationUs / SLEW_DIVISOR);
+        long step = Math.max(-limit, Math.min(limit, mPendingUs));
+        mCorrectionUs += step;
+        mPendingUs -= step;
+    }
+
+    private long currentUs() {
+        return mAnchorUs + mCorrectionUs + framesToUs(mFrames);
+    }
+
+    // 直接由总帧数计算，不累计舍入误差
+    private long framesToUs(long frames) {
+        return frames * 1000000 / mSampleRate;
+    }
+
+    /** 下一块数据的时间戳，如结束标志的时间戳；未开始时返回当前时间 */
+    public long getNextPtsUs() {
+        if (mAnchorUs < 0)
+            return System.nanoTime() / 1000;
+        return Math.max(currentUs(), mLastPtsUs + 1);
+    }
+
+    public int getSampleRate() {
+        return mSampleRate;
+    }
+
+    /** 已采样的总帧数 */
+    public long getFrameCount() {
+        return mFrames;
+    }
+
+    /** 最近一个窗口测得的偏差(系统时钟 - 音频时钟)，正数表示音频时间戳落后于视频，单位微秒 */
+    public long getSkewUs() {
+        return mSkewUs;
+    }
+
+    /** 录制过程中测得的最大偏差绝对值 */
+    public long getMaxSkewUs() {
+        return mMaxSkewUs;
+    }
+
+    /** 累计修正量，包括丢帧跳过的部分 */
+    public long getCorrectionUs() {
+        return mCorrectionUs;
+    }
+
+    /** 检测到丢采样的次数 */
+    public long getGapCount() {
+        return mGapCount;
+    }
+
+    @Override
+    public String toString() {
+        return "AudioClock{frames=" + mFrames + ", skewUs=" + mSkewUs + ", maxSkewUs=" + mMaxSkewUs
+                + ", correctionUs=" + mCorrectionUs + ", gaps=" + mGapCount + "}";
+    }
+}
@@ -0,0 +1,256 @@
+package com.jiangdg.mediacodec4mp4.model;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/** 视频码率自适应控制，不依赖MediaCodec，可脱离设备测试
+ * <p>
+ * 编码输出线程调用onEncodedBytes()累计输出字节数，编码线程周期性调用update()，
+ * 每个统计窗口结束时汇总输出码率、混合器队列占用、写文件耗时、预览帧积压，
+ * 交给ControlLaw计算新的目标码率，结果限制在[min, max]之间。
+ * 码率改变时update()返回true，由调用方通过MediaCodec.setParameters()生效。
+ */
+public class BitrateController {
+
+    /** 一个统计窗口的汇总数据 */
+    public static final class Sample {
+        long windowMs;
+        int targetBitrate;
+        int minBitrate;
+        int maxBitrate;
+        long encodedBitrate;
+        float queueFill;
+        long writeLatencyUs;
+        long stallCount;
+        float frameBacklog;
+
+        /** 窗口时长，单位毫秒 */
+        public long getWindowMs() {
+            return windowMs;
+        }
+
+        /** 当前目标码率 */
+        public int getTargetBitrate() {
+            return targetBitrate;
+        }
+
+        public int getMinBitrate() {
+            return minBitrate;
+        }
+
+        public int getMaxBitrate() {
+            return maxBitrate;
+        }
+
+        /** 窗口内编码器实际输出的码率，单位bps */
+        public long getEncodedBitrate() {
+            return encodedBitrate;
+        }
+
+        /** 混合器样本队列的占用比例，0~1 */
+        public float getQueueFill() {
+            return queueFill;
+        }
+
+        /** 窗口内写入一个样本的平均耗时，单位微秒 */
+        public long getWriteLatencyUs() {
+            return writeLatencyUs;
+        }
+
+        /** 窗口内混合器队列满导致编码线程等待的次数 */
+        public long getStallCount() {
+            return stallCount;
+        }
+
+        /** 预览帧队列的占用比例，0~1 */
+        public float getFrameBacklog() {
+            return frameBacklog;
+        }
+
+        @Override
+        public String toString() {
+            return "Sample{target=" + targetBitrate + ", encoded=" + encodedBitrate + ", queueFill=" + queueFill
+                    + ", writeLatencyUs=" + writeLatencyUs + ", stalls=" + stallCount
+                    + ", frameBacklog=" + frameBacklog + "}";
+        }
+    }
+
+    /** 码率控制规则，可替换为自定义实现 */
+    public interface ControlLaw {
+        /**
+         * 在编码线程中调用
+         *
+         * @return 新的目标码率，超出[min, max]的部分会被截断，返回当前值表示不调整
+         */
+        int nextBitrate(Sample sample);
+    }
+
+    /** 默认规则：拥塞时按比例下降，连续几个窗口正常且编码器用满码率时按固定步长上升(AIMD) */
+    public static class AimdControlLaw implements ControlLaw {
+        // 队列占用超过该比例视为拥塞
+        private static final float CONGESTED_FILL = 0.5f;
+        // 写一个样本的平均耗时超过该值视为存储跟不上
+        private static final long SLOW_WRITE_US = 20000;
+        private static final float DECREASE_FACTOR = 0.75f;
+        // 上升步长为最大码率的比例
+        private static final float INCREASE_STEP = 0.05f;
+        // 连续正常的窗口数达到该值才上升
+        private static final int STABLE_WINDOWS = 3;
+        // 输出码率达到目标的该比例才认为码率不够用
+        private static final float SATURATED_RATIO = 0.8f;
+
+        private int mStableWindows;
+
+        @Override
+        public int nextBitrate(Sample sample) {
+            int target = sample.getTargetBitrate();
+            if (isCongested(sample)) {
+                mStableWindows = 0;
+                return (int) (target * DECREASE_FACTOR);
+            }
+            mStableWindows++;
+            if (mStableWindows >= STABLE_WINDOWS
+                    && sample.getEncodedBitrate() >= target * SATURATED_RATIO) {
+                mStableWindows = 0;
+                return target + Math.max(1, (int) (sample.getMaxBitrate() * INCREASE_STEP));
+            }
+            return target;
+        }
+
+        protected boolean isCongested(Sample sample) {
+            return sample.getStallCount() > 0 || sample.getQueueFill() >= CONGESTED_FILL
+                    || sample.getWriteLatencyUs() >= SLOW_WRITE_US || sample.getFrameBacklog() >= CONGESTED_FILL;
+        }
+    }
+
+    private final int mMinBitrate;
+    private final int mMaxBitrate;
+    private final long mIntervalMs;
+    private final AtomicLong mEncodedBytes = new AtomicLong();
+    private final Sample mSample = new Sample();
+    private volatile ControlLaw mControlLaw = new AimdControlLaw();
+    private volatile int mTargetBitrate;
+    private long mWindowStartMs = -1;
+    private long mLastEncodedBytes;
+    private long mLastWrittenCount;
+    private long mLastWriteUs;
+    private long mLastStallCount;
+    private long mAdjustCount;
+
+    /**
+     * @param initialBitrate 初始码率，即编码器配置的码率
+     * @param minBitrate 最小码率
+     * @param maxBitrate 最大码率
+     * @param intervalMs 统计窗口时长
+     */
+    public BitrateController(int initialBitrate, int minBitrate, int maxBitrate, long intervalMs) {
+        if (minBitrate <= 0 || maxBitrate < minBitrate)
+            throw new IllegalArgumentException("invalid bitrate range [" + minBitrate + ", " + maxBitrate + "]");
+        if (intervalMs <= 0)
+            throw new IllegalArgumentException("invalid interval " + intervalMs);
+        mMinBitrate = minBitrate;
+        mMaxBitrate = maxBitrate;
+        mIntervalMs = intervalMs;
+        mTargetBitrate = clamp(initialBitrate);
+    }
+
+    public void setControlLaw(ControlLaw law) {
+        if (law == null)
+            throw new IllegalArgumentException("control law can not be null");
+        mControlLaw = law;
+    }
+
+    /** 累计编码输出的字节数，可在编码输出线程中调用 */
+    public void onEncodedBytes(int bytes) {
+        mEncodedBytes.addAndGet(bytes);
+    }
+
+    /**
+     * 在编码线程中周期性调用，窗口未结束时直接返回
+     *
+     * @param nowMs 单调时钟，单位毫秒
+     * @param writerStats 混合器写线程统计，没有混合器时为null
+     * @param frameBacklog 预览帧队列占用比例，0~1
+     * @return 目标码率是否改变
+     */
+    public boolean update(long nowMs, MuxerWriterStats writerStats, float frameBacklog) {
+        if (mWindowStartMs < 0) {
+            mWindowStartMs = nowMs;
+            mLastEncodedBytes = mEncodedBytes.get();
+            snapshot(writerStats);
+            return false;
+        }
+        long windowMs = nowMs - mWindowStartMs;
+        if (windowMs < mIntervalMs)
+            return false;
+        long encodedBytes = mEncodedBytes.get();
+        Sample sample = mSample;
+        sample.windowMs = windowMs;
+        sample.targetBitrate = mTargetBitrate;
+        sample.minBitrate = mMinBitrate;
+        sample.maxBitrate = mMaxBitrate;
+        sample.encodedBitrate = (encodedBytes - mLastEncodedBytes) * 8 * 1000 / windowMs;
+        sample.frameBacklog = frameBacklog;
+        if (writerStats != null) {
+            long written = writerStats.getWrittenCount() - mLastWrittenCount;
+            long writeUs = writerStats.getTotalWriteUs() - mLastWriteUs;
+            int capacity = writerStats.getQueueCapacity();
+            sample.writeLatencyUs = written == 0 ? 0 : writeUs / written;
+            sample.stallCount = writerStats.getStallCount() - mLastStallCount;
+            sample.queueFill = capacity <= 0 ? 0 : (float) writerStats.getQueueDepth() / capacity;
+        } else {
+            sample.writeLatencyUs = 0;
+            sample.stallCount = 0;
+            sample.queueFill = 0;
+        }
+        mWindowStartMs = nowMs;
+        mLastEncodedBytes = encodedBytes;
+        snapshot(writerStats);
+
+        int next = clamp(mControlLaw.nextBitrate(sample));
+        if (next == mTargetBitrate)
+            return false;
+        mTargetBitrate = next;
+        mAdjustCount++;
+        return true;
+    }
+
+    private void snapshot(MuxerWriterStats writerStats) {
+        if (writerStats == null)
+            return;
+        mLastWrittenCount = writerStats.getWrittenCount();
+        mLastWriteUs = writerStats.getTotalWriteUs();
+        mLastStallCount = writerStats.getStallCount();
+    }
+
+    private int clamp(int bitrate) {
+        return Math.max(mMinBitrate, Math.min(mMaxBitrate, bitrate));
+    }
+
+    public int getTargetBitrate() {
+        return mTargetBitrate;
+    }
+
+    public int getMinBitrate() {
+        return mMinBitrate;
+    }
+
+    public int getMaxBitrate() {
+        return mMaxBitrate;
+    }
+
+    /** 最近一个窗口的汇总数据 */
+    public Sample getLastSample() {
+        return mSample;
+    }
+
+    /** 码率调整的次数 */
+    public long getAdjustCount() {
+        return mAdjustCount;
+    }
+
+    @Override
+    public String toString() {
+        return "BitrateController{target=" + mTargetBitrate + ", range=[" + mMinBitrate + ", " + mMaxBitrate
+                + "], adjusts=" + mAdjustCount + ", last=" + mSample + "}";
+    }
+}
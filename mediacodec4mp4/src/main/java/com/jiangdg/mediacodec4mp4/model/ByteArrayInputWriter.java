@@ -0,0 +1,27 @@
+package com.jiangdg.mediacodec4mp4.model;
+
+import java.nio.ByteBuffer;
+
+/** 将byte[]拷贝到编码器输入缓存区，可重复使用，避免每帧创建对象
+ */
+public class ByteArrayInputWriter implements EncoderEngine.InputWriter {
+    private byte[] mData;
+    private int mLength;
+
+    public ByteArrayInputWriter set(byte[] data, int length) {
+        this.mData = data;
+        this.mLength = length;
+        return this;
+    }
+
+    @Override
+    public int write(ByteBuffer inputBuffer) {
+        if (mData == null)
+            return 0;
+        int length = Math.min(mLength, inputBuffer.remaining());
+        inputBuffer.put(mData, 0, length);
+        // 写完后不再持有外部数组
+        mData = null;
+        return length;
+    }
+}
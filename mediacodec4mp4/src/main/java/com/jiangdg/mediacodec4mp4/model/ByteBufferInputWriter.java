@@ -0,0 +1,28 @@
+package com.jiangdg.mediacodec4mp4.model;
+
+import java.nio.ByteBuffer;
+
+/** 将ByteBuffer中position到limit的数据拷贝到编码器输入缓存区，可重复使用，避免每帧创建对象
+ */
+public class ByteBufferInputWriter implements EncoderEngine.InputWriter {
+    private ByteBuffer mData;
+
+    public ByteBufferInputWriter set(ByteBuffer data) {
+        this.mData = data;
+        return this;
+    }
+
+    @Override
+    public int write(ByteBuffer inputBuffer) {
+        if (mData == null)
+            return 0;
+        int length = Math.min(mData.remaining(), inputBuffer.remaining());
+        if (length < mData.remaining()) {
+            mData.limit(mData.position() + length);
+        }
+        inputBuffer.put(mData);
+        // 写完后不再持有外部缓存
+        mData = null;
+        return length;
+    }
+}
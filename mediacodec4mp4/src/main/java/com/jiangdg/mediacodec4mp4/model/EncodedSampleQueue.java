@@ -0,0 +1,129 @@
+package com.jiangdg.mediacodec4mp4.model;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/** 编码样本队列，连接编码线程和混合器写线程
+ * <p>
+ * 编码线程调用put()把编码输出拷贝到池化的直接缓存后立即返回，编码器的输出缓存区可以马上释放；
+ * 写线程调用take()取出样本写文件，写完后recycle()归还。样本对象和缓存循环使用，
+ * 缓存只在遇到更大的帧时才重新分配。队列满时编码线程等待(背压)，等待时间计入统计。
+ */
+public class EncodedSampleQueue {
+    // 队列满时每次等待的时长，期间检查队列是否已关闭
+    private static final long STALL_WAIT_MILLIS = 10;
+
+    /** 一个编码样本 */
+    public static class Sample {
+        private ByteBuffer data;
+        private long presentationTimeUs;
+        private int flags;
+        private boolean isVideo;
+
+        /** 样本数据，position为0，limit为数据长度 */
+        public ByteBuffer getData() {
+            return data;
+        }
+
+        public int getSize() {
+            return data.limit();
+        }
+
+        public long getPresentationTimeUs() {
+            return presentationTimeUs;
+        }
+
+        public int getFlags() {
+            return flags;
+        }
+
+        public boolean isVideo() {
+            return isVideo;
+        }
+    }
+
+    private final ArrayBlockingQueue<Sample> mQueue;
+    private final ArrayBlockingQueue<Sample> mFreeSamples;
+    private final MuxerWriterStats mStats;
+    private volatile boolean isClosed;
+
+    /**
+     * @param capacity 队列中最多缓存的样本数
+     */
+    public EncodedSampleQueue(int capacity, MuxerWriterStats stats) {
+        if (capacity <= 0)
+            throw new IllegalArgumentException("capacity must be positive");
+        // 多一个样本给写线程正在写的那一帧；样本总数由空闲池限制，入队本身不会阻塞
+        mQueue = new ArrayBlockingQueue<>(capacity + 1);
+        mFreeSamples = new ArrayBlockingQueue<>(capacity + 1);
+        for (int i = 0; i <= capacity; i++) {
+            mFreeSamples.offer(new Sample());
+        }
+        mStats = stats == null ? new MuxerWriterStats() : stats;
+    }
+
+    /**
+     * 编码线程：拷贝src的position~limit到队列，src的position不变
+     *
+     * @return 队列已关闭返回false
+     */
+    public boolean put(ByteBuffer src, long presentationTimeUs, int flags, boolean isVideo) throws InterruptedException {
+        if (isClosed)
+            return false;
+        Sample sample = mFreeSamples.poll();
+        if (sample == null) {
+            long begin = System.nanoTime();
+            while (sample == null) {
+                if (isClosed)
+                    return false;
+                sample = mFreeSamples.poll(STALL_WAIT_MILLIS, TimeUnit.MILLISECONDS);
+            }
+            mStats.onStall(System.nanoTime() - begin);
+        }
+        int size = src.remaining();
+        if (sample.data == null || sample.data.capacity() < size) {
+            sample.data = ByteBuffer.allocateDirect(size + size / 2);
+        }
+        int position = src.position();
+        sample.data.clear();
+        sample.data.put(src);
+        sample.data.flip();
+        src.position(position);
+        sample.presentationTimeUs = presentationTimeUs;
+        sample.flags = flags;
+        sample.isVideo = isVideo;
+        mQueue.put(sample);
+        mStats.onEnqueued(mQueue.size());
+        return true;
+    }
+
+    /** 写线程：取出最早的样本，队列为空时最多等待timeout，超时返回null */
+    public Sample take(long timeout, TimeUnit unit) throws InterruptedException {
+        return mQueue.poll(timeout, unit);
+    }
+
+    /** 写线程：样本写完后归还 */
+    public void recycle(Sample sample) {
+        if (sample != null) {
+            mFreeSamples.offer(sample);
+        }
+    }
+
+    /** 关闭队列，之后put()直接返回false，已排队的样本仍可取出 */
+    public void close() {
+        isClosed = true;
+    }
+
+    public boolean isClosed() {
+        return isClosed;
+    }
+
+    public int size() {
+        return mQueue.size();
+    }
+
+    public MuxerWriterStats getStats() {
+        return mStats;
+    }
+}
@@ -0,0 +1,212 @@
+package com.jiangdg.mediacodec4mp4.model;
+
+import java.util.Arrays;
+
+/** 一个编码器对某个MIME类型的能力，由EncoderCapabilityCache探测并持久化
+ * <p>
+ * 排序依据：是否可用 > 是否有可用的颜色格式 > 编码速度(实测值，未测时按软硬件估计，测速失败时按最慢) > 硬件 > 支持的profile数。
+ */
+public class EncoderCapability {
+    // 未实测时的估计速度，只用于排序
+    static final float HARDWARE_ESTIMATE_FPS = 240;
+    static final float SOFTWARE_ESTIMATE_FPS = 30;
+    // 测速失败、还未测出结果时的估计速度，排在未测和已测的编码器之后
+    static final float PROBE_FAILED_ESTIMATE_FPS = 1;
+    // 测速失败达到该次数后不再测速
+    static final int MAX_PROBE_FAILURES = 3;
+
+    // 优先使用的颜色格式，与camera的NV21最接近的半平面格式在前；带Packed的格式各厂商实现不一，放在后面
+    static final int[] PREFERRED_COLOR_FORMATS = {
+            21,         // COLOR_FormatYUV420SemiPlanar
+            19,         // COLOR_FormatYUV420Planar
+            39,         // COLOR_FormatYUV420PackedSemiPlanar
+            20,         // COLOR_FormatYUV420PackedPlanar
+            0x7f000100  // COLOR_TI_FormatYUV420PackedSemiPlanar
+    };
+
+    private final String mName;
+    private final String mMimeType;
+    private final boolean isHardware;
+    private final int[] mColorFormats;
+    // profile, 最高level 成对存放
+    private final int[] mProfileLevels;
+    // 支持的码率模式，第mode位为1表示支持
+    private final int mBitrateModes;
+    private float mThroughputFps;
+    private int mProbeFailures;
+    // 启动失败只记在内存中，不持久化
+    private boolean isFailed;
+
+    public EncoderCapability(String name, String mimeType, boolean hardware, int[] colorFormats,
+                             int[] profileLevels, int bitrateModes) {
+        mName = name;
+        mMimeType = mimeType;
+        isHardware = hardware;
+        mColorFormats = colorFormats == null ? new int[0] : colorFormats;
+        mProfileLevels = profileLevels == null ? new int[0] : profileLevels;
+        mBitrateModes = bitrateModes;
+    }
+
+    /** 按名称判断是否为软件编码器(API 29以下没有isHardwareAccelerated) */
+    public static boolean isSoftwareName(String name) {
+        String lower = name.toLowerCase();
+        return lower.startsWith("omx.google.") || lower.startsWith("c2.android.")
+                || lower.startsWith("omx.ffmpeg.") || lower.contains(".sw.") || lower.endsWith(".sw");
+    }
+
+    public String getName() {
+        return mName;
+    }
+
+    public String getMimeType() {
+        return mMimeType;
+    }
+
+    public boolean isHardware() {
+        return isHardware;
+    }
+
+    public int[] getColorFormats() {
+        return mColorFormats;
+    }
+
+    int[] getProfileLevels() {
+        return mProfileLevels;
+    }
+
+    int getBitrateModes() {
+        return mBitrateModes;
+    }
+
+    /** 按PREFERRED_COLOR_FORMATS选择颜色格式，没有可用格式时返回0 */
+    public int getColorFormat() {
+        for (int preferred : PREFERRED_COLOR_FORMATS) {
+            for (int format : mColorFormats) {
+                if (format == preferred)
+                    return format;
+            }
+        }
+        return 0;
+    }
+
+    /** 对profile支持的最高level，不支持该profile时返回0 */
+    public int getMaxLevel(int profile) {
+        for (int i = 0; i + 1 < mProfileLevels.length; i += 2) {
+            if (mProfileLevels[i] == profile)
+                return mProfileLevels[i + 1];
+        }
+        return 0;
+    }
+
+    public boolean isBitrateModeSupported(int mode) {
+        return (mBitrateModes & (1 << mode)) != 0;
+    }
+
+    /** 实测编码速度，单位帧/秒，未测时为0 */
+    public float getThroughputFps() {
+        return mThroughputFps;
+    }
+
+    void setThroughputFps(float fps) {
+        mThroughputFps = fps;
+        mProbeFailures = 0;
+    }
+
+    /** 测速失败的次数，测速成功后清零 */
+    public int getProbeFailures() {
+        return mProbeFailures;
+    }
+
+    void onProbeFailed() {
+        mProbeFailures++;
+    }
+
+    /** 还没有测出速度、有可用的颜色格式，且失败次数未达到上限 */
+    boolean needsProbe() {
+        return mThroughputFps <= 0 && mProbeFailures < MAX_PROBE_FAILURES && getColorFormat() != 0;
+    }
+
+    /** 本次运行中是否启动失败，失败的编码器排在最后 */
+    public boolean isFailed() {
+        return isFailed;
+    }
+
+    void setFailed(boolean failed) {
+        isFailed = failed;
+    }
+
+    float getEstimatedFps() {
+        if (mThroughputFps > 0)
+            return mThroughputFps;
+        if (mProbeFailures > 0)
+            return PROBE_FAILED_ESTIMATE_FPS;
+        return isHardware ? HARDWARE_ESTIMATE_FPS : SOFTWARE_ESTIMATE_FPS;
+    }
+
+    /** 排序比较，返回负数表示this优先 */
+    int compareRank(EncoderCapability other, boolean needColorFormat) {
+        if (isFailed != other.isFailed)
+            return isFailed ? 1 : -1;
+        if (needColorFormat) {
+            boolean hasFormat = getColorFormat() != 0;
+            if (hasFormat != (other.getColorFormat() != 0))
+                return hasFormat ? -1 : 1;
+        }
+        int speed = Float.compare(other.getEstimatedFps(), getEstimatedFps());
+        if (speed != 0)
+            return speed;
+        if (isHardware != other.isHardware)
+            return isHardware ? -1 : 1;
+        return other.mProfileLevels.length - mProfileLevels.length;
+    }
+
+    // 持久化为一行，字段以tab分隔
+    String toLine() {
+        return mName + '\t' + mMimeType + '\t' + (isHardware ? 1 : 0) + '\t' + join(mColorFormats) + '\t'
+                + join(mProfileLevels) + '\t' + mBitrateModes + '\t' + mThroughputFps + '\t' + mProbeFailures;
+    }
+
+    /** @return 格式不对时返回null */
+    static EncoderCapability parse(String line) {
+        String[] fields = line.split("\t", -1);
+        if (fields.length != 8)
+            return null;
+        try {
+            EncoderCapability capability = new EncoderCapability(fields[0], fields[1], "1".equals(fields[2]),
+                    split(fields[3]), split(fields[4]), Integer.parseInt(fields[5]));
+            capability.mThroughputFps = Float.parseFloat(fields[6]);
+            capability.mProbeFailures = Integer.parseInt(fields[7]);
+            return capability;
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    private static String join(int[] values) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < values.length; i++) {
+            if (i > 0) {
+                sb.append(',');
+            }
+            sb.append(values[i]);
+        }
+        return sb.toString();
+    }
+
+    private static int[] split(String text) {
+        if (text.isEmpty())
+            return new int[0];
+        String[] parts = text.split(",");
+        int[] values = new int[parts.length];
+        for (int i = 0; i < parts.length; i++) {
+            values[i] = Integer.parseInt(parts[i]);
+        }
+        return values;
+    }
+
+    @Override
+    public String toString() {
+        return "EncoderCapability{" + mName + ", hw=" + isHardware + ", colorFormats=" + Arrays.toString(mColorFormats)
+                + ", fps=" + mThroughputFps + ", probeFailures=" + mProbeFailures + ", failed=" + isFailed + "}";
+    }
+}
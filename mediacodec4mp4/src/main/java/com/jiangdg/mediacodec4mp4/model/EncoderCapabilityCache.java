@@ -0,0 +1,428 @@
+package com.jiangdg.mediacodec4mp4.model;
+
+import android.media.MediaCodec;
+import android.media.MediaCodecInfo;
+import android.media.MediaCodecList;
+import android.media.MediaFormat;
+import android.os.Build;
+import android.util.Log;
+
+import com.jiangdg.mediacodec4mp4.RecordMp4;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+/** 编码器能力缓存：每种MIME类型只扫描一次MediaCodecList，结果按评分排序并保存到应用目录
+ * <p>
+ * 评分见EncoderCapability，probeThroughput()实测各候选编码器的速度后排序更准确。
+ * 缓存与系统版本(Build.FINGERPRINT)绑定，系统升级后重新扫描。编码器启动失败时调用markFailed()，
+ * 本次运行中优先选择下一个(不保存到文件)。测速失败只降低排序，下次测速时重试。
+ * 录制期间调用pauseProbe()暂停测速，避免与录制争用编码器实例。线程安全。
+ */
+public class EncoderCapabilityCache {
+    private static final String TAG = "EncoderCapabilityCache";
+    private static final String VERSION = "v2";
+    private static final String KEY_PROBED = "probed";
+    private static final String KEY_CODEC = "codec";
+    // 实测速度时编码的帧数和超时时间
+    private static final int PROBE_FRAMES = 60;
+    private static final long PROBE_TIMEOUT_MS = 5000;
+    private static final int PROBE_TIMEOUT_US = 10000;
+    private static EncoderCapabilityCache sInstance;
+
+    private final String mFingerprint;
+    private final Map<String, List<EncoderCapability>> mCapabilities = new HashMap<>();
+    private final Set<String> mProbedTypes = new HashSet<>();
+    private File mFile;
+    // 测速的编码器在持有该锁时创建和释放
+    private final Object mProbeLock = new Object();
+    private volatile boolean isProbePaused;
+    private boolean isProbing;
+
+    EncoderCapabilityCache(String fingerprint) {
+        mFingerprint = fingerprint == null ? "" : fingerprint;
+    }
+
+    public static synchronized EncoderCapabilityCache getInstance() {
+        if (sInstance == null) {
+            sInstance = new EncoderCapabilityCache(Build.FINGERPRINT);
+        }
+        return sInstance;
+    }
+
+    /** 设置保存文件并加载已有的缓存，未设置时只缓存在内存中 */
+    public synchronized void setStorageFile(File file) {
+        mFile = file;
+        if (file == null || !file.exists())
+            return;
+        Reader reader = null;
+        try {
+            reader = new InputStreamReader(new FileInputStream(file), "UTF-8");
+            if (!read(reader) && RecordMp4.DEBUG)
+                Log.i(TAG, "系统版本改变或缓存格式不对，重新扫描编码器");
+        } catch (IOException e) {
+            if (RecordMp4.DEBUG)
+                Log.w(TAG, "读取编码器缓存失败：" + e.getMessage());
+        } finally {
+            closeQuietly(reader);
+        }
+    }
+
+    /**
+     * 返回评分最高的编码器，缓存中没有该类型时扫描一次
+     *
+     * @param needColorFormat 是否需要支持YUV420输入(视频)
+     * @return 没有该类型的编码器时返回null；都启动失败过时仍返回其中评分最高的，再试一次
+     */
+    public synchronized EncoderCapability select(String mimeType, boolean needColorFormat) {
+        List<EncoderCapability> ranked = getRanked(mimeType, needColorFormat);
+        return ranked.isEmpty() ? null : ranked.get(0);
+    }
+
+    /** 按评分从高到低排序的所有编码器 */
+    public synchronized List<EncoderCapability> getRanked(String mimeType, boolean needColorFormat) {
+        List<EncoderCapability> list = mCapabilities.get(mimeType);
+        if (list == null) {
+            list = scan(mimeType);
+            mCapabilities.put(mimeType, list);
+            save();
+        }
+        List<EncoderCapability> ranked = new ArrayList<>(list);
+        sort(ranked, needColorFormat);
+        return ranked;
+    }
+
+    static void sort(List<EncoderCapability> list, final boolean needColorFormat) {
+        // 稳定排序，评分相同时保持MediaCodecList中的顺序
+        Collections.sort(list, new Comparator<EncoderCapability>() {
+            @Override
+            public int compare(EncoderCapability a, EncoderCapability b) {
+                return a.compareRank(b, needColorFormat);
+            }
+        });
+    }
+
+    /** 编码器启动失败，本次运行中不再优先选择；可能只是暂时的(如实例数已满)，不保存到文件 */
+    public synchronized void markFailed(String mimeType, String name) {
+        List<EncoderCapability> list = mCapabilities.get(mimeType);
+        if (list == null)
+            return;
+        for (EncoderCapability capability : list) {
+            if (capability.getName().equals(name)) {
+                capability.setFailed(true);
+            }
+        }
+    }
+
+    /** 是否已实测过该类型编码器的速度 */
+    public synchronized boolean isThroughputProbed(String mimeType) {
+        return mProbedTypes.contains(mimeType);
+    }
+
+    /** 开始录制前调用：暂停测速，返回时正在测速的编码器已经释放 */
+    public void pauseProbe() {
+        isProbePaused = true;
+        synchronized (mProbeLock) {
+            // 等待正在测速的编码器停止
+        }
+    }
+
+    /** 录制结束后调用，之后可以再次测速 */
+    public void resumeProbe() {
+        isProbePaused = false;
+    }
+
+    /**
+     * 实测各视频编码器编码width x height的速度，耗时数秒，需在后台线程中调用。
+     * 暂停时或已有线程在测速时直接返回，中途暂停的编码器下次测速时继续。
+     */
+    public void probeThroughput(String mimeType, int width, int height) {
+        synchronized (this) {
+            if (isProbing || isProbePaused)
+                return;
+            isProbing = true;
+        }
+        try {
+            List<EncoderCapability> candidates = getRanked(mimeType, true);
+            for (EncoderCapability capability : candidates) {
+                if (isProbePaused)
+                    break;
+                if (capability.isFailed() || !capability.needsProbe())
+                    continue;
+                float fps = probe(capability, width, height);
+                if (isProbePaused && fps <= 0)
+                    break;
+                synchronized (this) {
+                    if (fps > 0) {
+                        capability.setThroughputFps(fps);
+                    } else {
+                        // 可能与其他应用争用编码器，只降低排序，下次重试
+                        capability.onProbeFailed();
+                    }
+                }
+                if (RecordMp4.DEBUG)
+                    Log.i(TAG, "编码器测速：" + capability);
+            }
+            synchronized (this) {
+                if (!needsProbe(candidates)) {
+                    mProbedTypes.add(mimeType);
+                }
+                save();
+            }
+        } finally {
+            synchronized (this) {
+                isProbing = false;
+            }
+        }
+    }
+
+    // 测速失败或被暂停时返回-1
+    private float probe(EncoderCapability capability, int width, int height) {
+        synchronized (mProbeLock) {
+            if (isProbePaused)
+                return -1;
+            try {
+                return measure(capability, width, height);
+            } catch (IOException | RuntimeException e) {
+                if (RecordMp4.DEBUG)
+                    Log.w(TAG, "编码器测速失败：" + capability.getName() + "，" + e.getMessage());
+                return -1;
+            }
+        }
+    }
+
+    private static boolean needsProbe(List<EncoderCapability> candidates) {
+        for (EncoderCapability capability : candidates) {
+            if (capability.needsProbe())
+                return true;
+        }
+        return false;
+    }
+
+    private float measure(EncoderCapability capability, int width, int height) throws IOException {
+        MediaFormat format = MediaFormat.createVideoFormat(capability.getMimeType(), width, height);
+        format.setInteger(MediaFormat.KEY_BIT_RATE, width * height * 4);
+        format.setInteger(MediaFormat.KEY_FRAME_RATE, 30);
+        format.setInteger(MediaFormat.KEY_COLOR_FORMAT, capability.getColorFormat());
+        format.setInteger(MediaFormat.KEY_I_FRAME_INTERVAL, 1);
+        final int[] outputCount = new int[1];
+        SyncEncoderEngine engine = new SyncEncoderEngine();
+        try {
+            engine.start(capability.getName(), format, new EncoderEngine.OutputListener() {
+                @Override
+                public void onOutputFormatChanged(MediaFormat format) {
+                }
+
+                @Override
+                public void onOutputBuffer(ByteBuffer buffer, MediaCodec.BufferInfo info) {
+                    if ((info.flags & MediaCodec.BUFFER_FLAG_CODEC_CONFIG) == 0) {
+                        outputCount[0]++;
+                    }
+                }
+            });
+            // 随机噪声比实际画面难编码，只用于编码器之间的比较
+            byte[] frame = new byte[width * height * 3 / 2];
+            new Random(1).nextBytes(frame);
+            ByteArrayInputWriter writer = new ByteArrayInputWriter();
+            long begin = System.nanoTime();
+            long deadline = begin + PROBE_TIMEOUT_MS * 1000000;
+            int queued = 0;
+            while (outputCount[0] < PROBE_FRAMES && System.nanoTime() < deadline && !isProbePaused) {
+                if (queued < PROBE_FRAMES
+                        && engine.queueInput(writer.set(frame, frame.length), queued * 33333L, 0, PROBE_TIMEOUT_US)) {
+                    queued++;
+                }
+                engine.drainOutput(queued < PROBE_FRAMES ? 0 : PROBE_TIMEOUT_US);
+            }
+            long elapsed = System.nanoTime() - begin;
+            if (isProbePaused)
+                return -1;
+            if (outputCount[0] == 0)
+                throw new IOException("no output in " + PROBE_TIMEOUT_MS + "ms");
+            return outputCount[0] * 1e9f / elapsed;
+        } finally {
+            engine.stop();
+        }
+    }
+
+    private List<EncoderCapability> scan(String mimeType) {
+        List<EncoderCapability> list = new ArrayList<>();
+        int numCodecs = MediaCodecList.getCodecCount();
+        for (int i = 0; i < numCodecs; i++) {
+            MediaCodecInfo codecInfo = MediaCodecList.getCodecInfoAt(i);
+            if (!codecInfo.isEncoder() || !supportsType(codecInfo, mimeType))
+                continue;
+            MediaCodecInfo.CodecCapabilities capabilities;
+            try {
+                capabilities = codecInfo.getCapabilitiesForType(mimeType);
+            } catch (IllegalArgumentException e) {
+                continue;
+            }
+            list.add(new EncoderCapability(codecInfo.getName(), mimeType,
+                    !EncoderCapability.isSoftwareName(codecInfo.getName()),
+                    recognizedColorFormats(capabilities.colorFormats),
+                    maxProfileLevels(capabilities.profileLevels), bitrateModes(capabilities)));
+        }
+        if (RecordMp4.DEBUG)
+            Log.i(TAG, "扫描编码器" + mimeType + "：" + list);
+        return list;
+    }
+
+    private static boolean supportsType(MediaCodecInfo codecInfo, String mimeType) {
+        for (String type : codecInfo.getSupportedTypes()) {
+            if (type.equalsIgnoreCase(mimeType))
+                return true;
+        }
+        return false;
+    }
+
+    private static int[] recognizedColorFormats(int[] colorFormats) {
+        if (colorFormats == null)
+            return new int[0];
+        int count = 0;
+        int[] result = new int[colorFormats.length];
+        for (int format : colorFormats) {
+            for (int preferred : EncoderCapability.PREFERRED_COLOR_FORMATS) {
+                if (format == preferred) {
+                    result[count++] = format;
+                    break;
+                }
+            }
+        }
+        int[] trimmed = new int[count];
+        System.arraycopy(result, 0, trimmed, 0, count);
+        return trimmed;
+    }
+
+    // 每个profile只保留最高的level
+    private static int[] maxProfileLevels(MediaCodecInfo.CodecProfileLevel[] profileLevels) {
+        if (profileLevels == null)
+            return new int[0];
+        Map<Integer, Integer> maxLevels = new HashMap<>();
+        for (MediaCodecInfo.CodecProfileLevel profileLevel : profileLevels) {
+            Integer level = maxLevels.get(profileLevel.profile);
+            if (level == null || profileLevel.level > level) {
+                maxLevels.put(profileLevel.profile, profileLevel.level);
+            }
+        }
+        int[] result = new int[maxLevels.size() * 2];
+        int i = 0;
+        for (Map.Entry<Integer, Integer> entry : maxLevels.entrySet()) {
+            result[i++] = entry.getKey();
+            result[i++] = entry.getValue();
+        }
+        return result;
+    }
+
+    private static int bitrateModes(MediaCodecInfo.CodecCapabilities capabilities) {
+        // EncoderCapabilities需要API 21以上
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.LOLLIPOP)
+            return 0;
+        MediaCodecInfo.EncoderCapabilities encoderCapabilities = capabilities.getEncoderCapabilities();
+        if (encoderCapabilities == null)
+            return 0;
+        int modes = 0;
+        int[] all = {MediaCodecInfo.EncoderCapabilities.BITRATE_MODE_CQ, MediaCodecInfo.EncoderCapabilities.BITRATE_MODE_VBR,
+                MediaCodecInfo.EncoderCapabilities.BITRATE_MODE_CBR};
+        for (int mode : all) {
+            if (encoderCapabilities.isBitrateModeSupported(mode)) {
+                modes |= 1 << mode;
+            }
+        }
+        return modes;
+    }
+
+    private void save() {
+        if (mFile == null)
+            return;
+        Writer writer = null;
+        try {
+            writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(mFile), "UTF-8"));
+            write(writer);
+        } catch (IOException e) {
+            if (RecordMp4.DEBUG)
+                Log.w(TAG, "保存编码器缓存失败：" + e.getMessage());
+        } finally {
+            closeQuietly(writer);
+        }
+    }
+
+    // 第一行为版本和系统指纹，之后每行一条记录
+    synchronized void write(Writer writer) throws IOException {
+        writer.write(VERSION + '\t' + mFingerprint + '\n');
+        for (String type : mProbedTypes) {
+            writer.write(KEY_PROBED + '\t' + type + '\n');
+        }
+        for (List<EncoderCapability> list : mCapabilities.values()) {
+            for (EncoderCapability capability : list) {
+                writer.write(KEY_CODEC + '\t' + capability.toLine() + '\n');
+            }
+        }
+        writer.flush();
+    }
+
+    /** @return 版本或系统指纹不一致时不加载，返回false */
+    synchronized boolean read(Reader reader) throws IOException {
+        BufferedReader in = new BufferedReader(reader);
+        String header = in.readLine();
+        if (header == null || !header.equals(VERSION + '\t' + mFingerprint))
+            return false;
+        Map<String, List<EncoderCapability>> capabilities = new HashMap<>();
+        Set<String> probed = new HashSet<>();
+        String line;
+        while ((line = in.readLine()) != null) {
+            int tab = line.indexOf('\t');
+            if (tab < 0)
+                return false;
+            String key = line.substring(0, tab);
+            String value = line.substring(tab + 1);
+            if (KEY_PROBED.equals(key)) {
+                probed.add(value);
+            } else if (KEY_CODEC.equals(key)) {
+                EncoderCapability capability = EncoderCapability.parse(value);
+                if (capability == null)
+                    return false;
+                List<EncoderCapability> list = capabilities.get(capability.getMimeType());
+                if (list == null) {
+                    list = new ArrayList<>();
+                    capabilities.put(capability.getMimeType(), list);
+                }
+                list.add(capability);
+            }
+        }
+        mCapabilities.clear();
+        mCapabilities.putAll(capabilities);
+        mProbedTypes.clear();
+        mProbedTypes.addAll(probed);
+        return true;
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        if (closeable == null)
+            return;
+        try {
+            closeable.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+}
@@ -0,0 +1,85 @@
+package com.jiangdg.mediacodec4mp4.model;
+
+import android.media.MediaCodec;
+import android.media.MediaFormat;
+import android.view.Surface;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/** MediaCodec编码驱动接口
+ * <p>
+ * 同步模式(SyncEncoderEngine)轮询dequeueInputBuffer/dequeueOutputBuffer，适用于API 18~20；
+ * 异步模式(AsyncEncoderEngine)基于MediaCodec.setCallback，在独立的HandlerThread中处理回调，
+ * 需要API 21以上。两者接口一致，便于对比测试。
+ */
+public interface EncoderEngine {
+
+    /** 驱动模式 */
+    enum Mode {
+        /** API 21以上使用异步模式，否则使用同步模式 */
+        AUTO,
+        SYNC,
+        ASYNC
+    }
+
+    /** 编码输出回调，异步模式下在编码器回调线程中执行 */
+    interface OutputListener {
+        void onOutputFormatChanged(MediaFormat format);
+
+        /** buffer的position、limit已按info设置好，回调返回后缓存区即被释放 */
+        void onOutputBuffer(ByteBuffer buffer, MediaCodec.BufferInfo info);
+    }
+
+    /** 向编码器输入缓存区写入数据 */
+    interface InputWriter {
+        /** @return 写入的字节数 */
+        int write(ByteBuffer inputBuffer);
+    }
+
+    /** 创建、配置并启动编码器，format的颜色格式为COLOR_FormatSurface时同时创建输入Surface */
+    void start(String codecName, MediaFormat format, OutputListener listener) throws IOException;
+
+    /**
+     * 取得一个输入缓存区，交给writer写入后提交编码
+     *
+     * @return timeoutUs内没有可用的输入缓存区时返回false
+     */
+    boolean queueInput(InputWriter writer, long presentationTimeUs, int flags, long timeoutUs);
+
+    /** 同步模式下在调用线程中取出编码输出，异步模式下输出由回调线程处理，直接返回 */
+    void drainOutput(long timeoutUs);
+
+    boolean isAsync();
+
+    boolean isStarted();
+
+    /** 正在使用的编码器，未启动时为null */
+    MediaCodec getCodec();
+
+    /**
+     * Surface输入模式下编码器的输入Surface，画面由渲染线程画到上面，不再调用queueInput()
+     *
+     * @return 未启动或使用缓存区输入时返回null
+     */
+    Surface getInputSurface();
+
+    /** 停止并释放编码器 */
+    void stop();
+
+    /**
+     * 挂起编码器留待复用(EncoderPool)：flush()清空其中的数据并解除监听，编码器保持配置和启动状态
+     *
+     * @return 未启动、还没有输出格式、使用Surface输入或flush失败时返回false，此时应调用stop()
+     */
+    boolean park();
+
+    /**
+     * 复用park()挂起的编码器，立即以上次的输出格式回调listener.onOutputFormatChanged()
+     *
+     * @throws IllegalStateException 编码器不能再启动，此时应调用stop()
+     */
+    void reuse(OutputListener listener);
+
+    EncoderEngineStats getStats();
+}
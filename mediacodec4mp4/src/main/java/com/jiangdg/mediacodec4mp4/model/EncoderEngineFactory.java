@@ -0,0 +1,30 @@
+package com.jiangdg.mediacodec4mp4.model;
+
+import android.media.MediaCodecInfo;
+import android.media.MediaFormat;
+import android.os.Build;
+
+/** 根据驱动模式和系统版本创建EncoderEngine
+ */
+public final class EncoderEngineFactory {
+
+    private EncoderEngineFactory() {}
+
+    /**
+     * @param mode 驱动模式，为null时按AUTO处理；API 21以下总是使用同步模式
+     * @param name 异步模式下回调线程的名称
+     */
+    public static EncoderEngine create(EncoderEngine.Mode mode, String name) {
+        boolean supportAsync = Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP;
+        if (mode == EncoderEngine.Mode.SYNC || !supportAsync) {
+            return new SyncEncoderEngine();
+        }
+        return new AsyncEncoderEngine(name);
+    }
+
+    /** 颜色格式为COLOR_FormatSurface时，编码器从createInputSurface()创建的Surface取画面 */
+    static boolean isSurfaceInput(MediaFormat format) {
+        return format.containsKey(MediaFormat.KEY_COLOR_FORMAT) && format.getInteger(MediaFormat.KEY_COLOR_FORMAT)
+                == MediaCodecInfo.CodecCapabilities.COLOR_FormatSurface;
+    }
+}
@@ -0,0 +1,73 @@
+package com.jiangdg.mediacodec4mp4.model;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/** 编码驱动统计信息，用于对比同步、异步两种模式
+ */
+public class EncoderEngineStats {
+    private final AtomicLong mInputCount = new AtomicLong();
+    private final AtomicLong mInputTimeoutCount = new AtomicLong();
+    private final AtomicLong mInputWaitNanos = new AtomicLong();
+    private final AtomicLong mOutputCount = new AtomicLong();
+    private final AtomicLong mEmptyPollCount = new AtomicLong();
+    private final AtomicLong mErrorCount = new AtomicLong();
+
+    void onInputQueued(long waitNanos) {
+        mInputCount.incrementAndGet();
+        mInputWaitNanos.addAndGet(waitNanos);
+    }
+
+    void onInputTimeout(long waitNanos) {
+        mInputTimeoutCount.incrementAndGet();
+        mInputWaitNanos.addAndGet(waitNanos);
+    }
+
+    void onOutput() {
+        mOutputCount.incrementAndGet();
+    }
+
+    void onEmptyPoll() {
+        mEmptyPollCount.incrementAndGet();
+    }
+
+    void onError() {
+        mErrorCount.incrementAndGet();
+    }
+
+    /** 已提交的输入帧数 */
+    public long getInputCount() {
+        return mInputCount.get();
+    }
+
+    /** 等待输入缓存区超时的次数 */
+    public long getInputTimeoutCount() {
+        return mInputTimeoutCount.get();
+    }
+
+    /** 等待输入缓存区的平均耗时，单位微秒 */
+    public long getAverageInputWaitUs() {
+        long count = mInputCount.get() + mInputTimeoutCount.get();
+        return count == 0 ? 0 : mInputWaitNanos.get() / count / 1000;
+    }
+
+    /** 取得的编码输出个数 */
+    public long getOutputCount() {
+        return mOutputCount.get();
+    }
+
+    /** 轮询输出时没有数据的次数，即无效唤醒 */
+    public long getEmptyPollCount() {
+        return mEmptyPollCount.get();
+    }
+
+    public long getErrorCount() {
+        return mErrorCount.get();
+    }
+
+    @Override
+    public String toString() {
+        return "EncoderEngineStats{input=" + getInputCount() + ", inputTimeout=" + getInputTimeoutCount()
+                + ", avgInputWaitUs=" + getAverageInputWaitUs() + ", output=" + getOutputCount()
+                + ", emptyPoll=" + getEmptyPollCount() + ", error=" + getErrorCount() + "}";
+    }
+}
@@ -0,0 +1,114 @@
+package com.jiangdg.mediacodec4mp4.model;
+
+import android.media.MediaFormat;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/** 停止录制后保留已配置、已启动的编码器，下次以相同参数录制时直接复用，省去创建、配置、启动编码器的时间
+ * <p>
+ * 编码器按"编码器名称 + 驱动模式 + 编码格式"匹配。归还时调用EncoderEngine.park()清空数据，
+ * 不能挂起的直接停止。空闲编码器最多保留maxIdle个，超出时停止最早归还的。
+ * 空闲的硬件编码器仍占用资源，不再录制时(如关闭相机)需调用clear()。线程安全。
+ */
+public class EncoderPool {
+    /** 默认保留一个视频编码器和一个音频编码器 */
+    public static final int DEFAULT_MAX_IDLE = 2;
+
+    private static final class Entry {
+        final String key;
+        final EncoderEngine engine;
+
+        Entry(String key, EncoderEngine engine) {
+            this.key = key;
+            this.engine = engine;
+        }
+    }
+
+    private final int mMaxIdle;
+    // 按归还顺序排列，最早的在前
+    private final List<Entry> mIdle = new ArrayList<>();
+    private long mHitCount;
+    private long mMissCount;
+
+    public EncoderPool() {
+        this(DEFAULT_MAX_IDLE);
+    }
+
+    public EncoderPool(int maxIdle) {
+        if (maxIdle < 0)
+            throw new IllegalArgumentException("invalid max idle " + maxIdle);
+        mMaxIdle = maxIdle;
+    }
+
+    /** 匹配编码器用的键，format需为传给EncoderEngine.start()的格式 */
+    public static String key(String codecName, EncoderEngine.Mode mode, MediaFormat format) {
+        return codecName + '|' + mode + '|' + format;
+    }
+
+    /**
+     * 取出一个匹配的空闲编码器，取出后需调用EncoderEngine.reuse()
+     *
+     * @return 没有匹配的返回null
+     */
+    public synchronized EncoderEngine acquire(String key) {
+        for (int i = mIdle.size() - 1; i >= 0; i--) {
+            if (mIdle.get(i).key.equals(key)) {
+                mHitCount++;
+                return mIdle.remove(i).engine;
+            }
+        }
+        mMissCount++;
+        return null;
+    }
+
+    /** 归还编码器，挂起失败或空闲数已满时停止编码器 */
+    public void recycle(String key, EncoderEngine engine) {
+        // flush可能耗时，不在锁内执行
+        if (mMaxIdle == 0 || !engine.park()) {
+            engine.stop();
+            return;
+        }
+        Entry evicted = null;
+        synchronized (this) {
+            mIdle.add(new Entry(key, engine));
+            if (mIdle.size() > mMaxIdle) {
+                evicted = mIdle.remove(0);
+            }
+        }
+        if (evicted != null) {
+            evicted.engine.stop();
+        }
+    }
+
+    /** 停止所有空闲编码器 */
+    public void clear() {
+        List<Entry> idle;
+        synchronized (this) {
+            idle = new ArrayList<>(mIdle);
+            mIdle.clear();
+        }
+        for (Entry entry : idle) {
+            entry.engine.stop();
+        }
+    }
+
+    public synchronized int getIdleCount() {
+        return mIdle.size();
+    }
+
+    /** 复用成功的次数 */
+    public synchronized long getHitCount() {
+        return mHitCount;
+    }
+
+    /** 没有可复用编码器的次数 */
+    public synchronized long getMissCount() {
+        return mMissCount;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "EncoderPool{idle=" + mIdle.size() + ", hits=" + mHitCount + ", misses=" + mMissCount + "}";
+    }
+}
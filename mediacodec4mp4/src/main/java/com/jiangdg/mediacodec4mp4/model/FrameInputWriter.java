@@ -0,0 +1,37 @@
+package com.jiangdg.mediacodec4mp4.model;
+
+import java.nio.ByteBuffer;
+
+/** 把H264EncodeConsumer.FrameWriter适配为编码器的InputWriter，可重复使用，避免每帧创建对象
+ */
+public class FrameInputWriter implements EncoderEngine.InputWriter {
+    private H264EncodeConsumer.FrameWriter mWriter;
+    private byte[] mData;
+    private int mWidth;
+    private int mHeight;
+    private long mTimestampNs;
+    private int mColorFormat;
+
+    public FrameInputWriter set(H264EncodeConsumer.FrameWriter writer, byte[] data, int width, int height,
+                                long timestampNs, int colorFormat) {
+        this.mWriter = writer;
+        this.mData = data;
+        this.mWidth = width;
+        this.mHeight = height;
+        this.mTimestampNs = timestampNs;
+        this.mColorFormat = colorFormat;
+        return this;
+    }
+
+    @Override
+    public int write(ByteBuffer inputBuffer) {
+        if (mWriter == null || mData == null)
+            return 0;
+        try {
+            return mWriter.writeFrame(mData, mWidth, mHeight, mTimestampNs, inputBuffer, mColorFormat);
+        } finally {
+            // 写完后不再持有外部数组
+            mData = null;
+        }
+    }
+}
@@ -1,23 +1,34 @@
 package com.jiangdg.mediacodec4mp4.model;
 
-import android.annotation.TargetApi;
+import android.graphics.SurfaceTexture;
 import android.media.MediaCodec;
 import android.media.MediaCodecInfo;
-import android.media.MediaCodecList;
 import android.media.MediaFormat;
 import android.os.Build;
+import android.os.Bundle;
 import android.util.Log;
+import android.view.Surface;
 
 import com.jiangdg.mediacodec4mp4.RecordMp4;
 import com.jiangdg.mediacodec4mp4.bean.EncoderParams;
-import com.jiangdg.yuvosd.YuvUtils;
+import com.jiangdg.mediacodec4mp4.render.FrameRenderer;
+import com.jiangdg.mediacodec4mp4.render.FrameTransform;
+import com.jiangdg.mediacodec4mp4.render.SurfaceRenderPipeline;
+import com.jiangdg.mediacodec4mp4.utils.FrameBufferPool;
+import com.jiangdg.mediacodec4mp4.utils.FrameRingBuffer;
+import com.jiangdg.mediacodec4mp4.utils.FrameScheduler;
+import com.jiangdg.yuvosd.FrameOverlay;
+import com.jiangdg.yuvosd.FusedFrameProcessor;
+import com.jiangdg.yuvosd.ParallelFrameProcessor;
+import com.jiangdg.yuvosd.YuvConverter;
+import com.jiangdg.yuvosd.YuvConverterFactory;
 
 import org.easydarwin.sw.JNIUtil;
 
 import java.io.IOException;
 import java.lang.ref.WeakReference;
 import java.nio.ByteBuffer;
-import static android.media.MediaCodecInfo.CodecCapabilities.COLOR_FormatYUV420PackedPlanar;
+import java.util.concurrent.TimeUnit;
 
 /**
  * 对YUV视频流进行编码
@@ -27,21 +38,85 @@ import static android.media.MediaCodecInfo.CodecCapabilities.COLOR_FormatYUV420P
 public class H264EncodeConsumer extends Thread {
     private static final String TAG = "H264EncodeConsumer";
     private static final String MIME_TYPE = "video/avc";
-    // 间隔1s插入一帧关键帧
-    private static final int FRAME_INTERVAL = 1;
+    // MediaFormat.KEY_LATENCY，API 26加入，compileSdk中没有该常量
+    private static final String KEY_LATENCY = "latency";
     // 绑定编码器缓存区超时时间为10s
     private static final int TIMES_OUT = 10000;
 
-    // 硬编码器
-    private MediaCodec mVideoEncodec;
+    // 硬编码器驱动(同步轮询或异步回调)
+    private EncoderEngine mEngine;
     private int mColorFormat;
-    private boolean isExit = false;
-    private boolean isEncoderStart = false;
+    // 颜色格式转换(native或纯Java实现)
+    private YuvConverter mYuvConverter;
+    private volatile boolean isExit = false;
+    private volatile boolean isEncoderStart = false;
 
     private boolean isAddKeyFrame = false;
     private WeakReference<EncoderParams> mParamsRef;
     private MediaFormat newFormat;
     private WeakReference<MediaMuxerUtil> mMuxerRef;
+    // 预览帧队列，Camera回调线程写入，编码线程读取
+    private volatile FrameRingBuffer mFrameRing;
+    // 按采集时间戳抽帧，使编码帧率与配置一致
+    private volatile FrameScheduler mFrameScheduler;
+    private OnFrameProcessListener mFrameProcessListener;
+    // 预览帧写入编码器输入缓存区的方式，为null时使用内置的单趟处理或颜色转换
+    private volatile FrameWriter mFrameWriter;
+    private final FrameInputWriter mInputWriter = new FrameInputWriter();
+    // 单趟处理：旋转、颜色转换、水印一次完成，直接写入编码器输入缓存区
+    private volatile boolean isFusedProcessing;
+    private int mFusedDegree;
+    private boolean isFusedMirror;
+    private OnOverlayListener mOverlayListener;
+    private ParallelFrameProcessor mFusedProcessor;
+    // 动态码率
+    private volatile BitrateController mBitrateController;
+    private BitrateController.ControlLaw mBitrateControlLaw;
+    private volatile boolean isKeyFrameRequested;
+    // 音视频共用的录制时钟，为null时直接使用采集时间作为时间戳
+    private volatile RecordingClock mRecordingClock;
+    // 编码器复用池，为null时每次录制都创建编码器
+    private volatile EncoderPool mEncoderPool;
+    private String mPoolKey;
+    // Surface输入：相机画面由渲染线程直接画到编码器的输入Surface，为null时使用YUV数据输入
+    private FrameRenderer mSurfaceRenderer;
+    private int mSurfaceDegree;
+    private boolean isSurfaceMirror;
+    private OnInputTextureListener mInputTextureListener;
+    private volatile SurfaceRenderPipeline mRenderPipeline;
+    // 启动到第一个编码帧输出的耗时统计
+    private long mStartNs;
+    private volatile long mFirstFrameNs;
+
+    /** 编码前对预览帧的处理(如旋转、叠加水印)，在编码线程中回调 */
+    public interface OnFrameProcessListener {
+        void onProcessFrame(byte[] yuvData, int width, int height);
+    }
+
+    /** 单趟处理模式下提供当前帧的水印，在编码线程中回调(Surface输入时在渲染线程中回调)，返回null表示不叠加 */
+    public interface OnOverlayListener {
+        FrameOverlay onOverlay(long timestampNs);
+    }
+
+    /** Surface输入模式启动结果，在编码线程中回调 */
+    public interface OnInputTextureListener {
+        /**
+         * @param texture 相机预览应输出到该SurfaceTexture；为null表示Surface输入不可用，
+         *                已回退到YUV数据输入(或使用软件渲染)，相机应恢复预览回调
+         */
+        void onInputTexture(SurfaceTexture texture);
+    }
+
+    /** 把预览帧写入编码器输入缓存区，在编码线程中回调，预处理可以直接在编码器内存上完成 */
+    public interface FrameWriter {
+        /**
+         * @param yuvData NV21预览帧
+         * @param inputBuffer 编码器输入缓存区，从position开始写入
+         * @param colorFormat 编码器的颜色格式
+         * @return 写入的字节数，返回0时该帧不编码
+         */
+        int writeFrame(byte[] yuvData, int width, int height, long timestampNs, ByteBuffer inputBuffer, int colorFormat);
+    }
 
     // 码率等级
     public enum Quality{
@@ -51,10 +126,33 @@ public class H264EncodeConsumer extends Thread {
     public enum FrameRate{
         _20fps,_25fps,_30fps
     }
+    // 码率控制模式
+    public enum BitrateMode{
+        // 编码器默认
+        DEFAULT,
+        // 固定码率，适合直播
+        CBR,
+        // 可变码率，适合本地录制
+        VBR,
+        // 固定质量，不限制码率
+        CQ
+    }
 
     public synchronized void setTmpuMuxer(MediaMuxerUtil mMuxer,EncoderParams mParams){
         this.mMuxerRef =  new WeakReference<>(mMuxer);
+        if (mMuxer != null) {
+            // 分段切换时立即请求关键帧，不必等到下一个GOP
+            mMuxer.setOnKeyFrameRequestListener(mKeyFrameRequestListener);
+        }
         this.mParamsRef = new WeakReference<>(mParams);
+        if (mParams != null && mFrameRing == null) {
+            mFrameRing = new FrameRingBuffer(mParams.getFrameQueueCapacity(),
+                    FrameBufferPool.yuv420Size(mParams.getFrameWidth(), mParams.getFrameHeight()),
+                    mParams.getFrameOverflowPolicy());
+        }
+        if (mParams != null && mFrameScheduler == null) {
+            mFrameScheduler = new FrameScheduler(getFrameRate());
+        }
         MediaMuxerUtil muxer = mMuxerRef.get();
 
         if (muxer != null && newFormat != null) {
@@ -123,20 +221,103 @@ public class H264EncodeConsumer extends Thread {
         if(mParamsRef == null)
             return;
         EncoderParams mParams = mParamsRef.get();
+        // 编码器按评分选择，扫描结果缓存在EncoderCapabilityCache中
+        EncoderCapabilityCache cache = EncoderCapabilityCache.getInstance();
+        EncoderCapability capability = cache.select(MIME_TYPE, true);
+        if (capability == null) {
+            if(RecordMp4.DEBUG)
+                Log.d(TAG, "匹配编码器失败" + MIME_TYPE);
+            return;
+        }
+        mColorFormat = capability.getColorFormat();
+        mYuvConverter = YuvConverterFactory.create(mParams.getYuvConverterType());
+        int bitrate = getBitrate();
+        MediaFormat mFormat = createFormat(mParams, bitrate);
+        boolean isTuned = tuneFormat(mFormat, capability, mParams);
+        EncoderPool pool = mEncoderPool;
+        String poolKey = EncoderPool.key(capability.getName(), mParams.getEncoderEngineMode(), mFormat);
+        // Surface输入的编码器不能复用
+        if (pool != null && mSurfaceRenderer == null && reuseCodec(pool, poolKey, mParams, bitrate))
+            return;
+        mEngine = EncoderEngineFactory.create(mParams.getEncoderEngineMode(), TAG);
         try {
-            MediaCodecInfo mCodecInfo = selectSupportCodec(MIME_TYPE);
-            if (mCodecInfo == null) {
+            try {
+                mEngine.start(capability.getName(), mFormat, mOutputListener);
+            } catch (IllegalArgumentException | IllegalStateException e) {
+                // 部分编码器不接受profile、码率模式等参数，去掉后重试
+                if (!isTuned)
+                    throw new IOException(e);
                 if(RecordMp4.DEBUG)
-                    Log.d(TAG, "匹配编码器失败" + MIME_TYPE);
-                return;
+                    Log.w(TAG, "编码器不接受编码参数，使用默认参数：" + e.getMessage());
+                mEngine.stop();
+                mFormat = createFormat(mParams, bitrate);
+                mEngine = EncoderEngineFactory.create(mParams.getEncoderEngineMode(), TAG);
+                mEngine.start(capability.getName(), mFormat, mOutputListener);
             }
-            mColorFormat = selectSupportColorFormat(mCodecInfo, MIME_TYPE);
-            mVideoEncodec = MediaCodec.createByCodecName(mCodecInfo.getName());
-        } catch (IOException e) {
+            // 按请求的参数归还，下次相同参数时即使调整过格式也能匹配
+            mPoolKey = poolKey;
+            isEncoderStart = true;
+            if (mParams.isAdaptiveBitrate()) {
+                mBitrateController = createBitrateController(mParams, bitrate);
+            }
+            if(RecordMp4.DEBUG)
+                Log.d(TAG, "配置、启动视频编码器，异步模式：" + mEngine.isAsync() + "，" + mFormat);
+        } catch (IOException | RuntimeException e) {
             if(RecordMp4.DEBUG)
                 Log.e(TAG, "创建编码器失败" + e.getMessage());
             e.printStackTrace();
+            // 本次运行中下次启动时优先选择下一个编码器；Surface输入失败时会回退，不算编码器不可用
+            if (mSurfaceRenderer == null) {
+                cache.markFailed(MIME_TYPE, capability.getName());
+            }
+            mEngine.stop();
+            mEngine = null;
+        }
+    }
+
+    // 复用上次录制留下的编码器：恢复初始码率并请求关键帧
+    private boolean reuseCodec(EncoderPool pool, String poolKey, EncoderParams mParams, int bitrate) {
+        EncoderEngine engine = pool.acquire(poolKey);
+        if (engine == null)
+            return false;
+        try {
+            engine.reuse(mOutputListener);
+        } catch (IllegalStateException e) {
+            if(RecordMp4.DEBUG)
+                Log.w(TAG, "复用视频编码器失败：" + e.getMessage());
+            engine.stop();
+            return false;
         }
+        mEngine = engine;
+        mPoolKey = poolKey;
+        isEncoderStart = true;
+        // 上次录制可能动态调整过码率
+        setCodecBitrate(engine, bitrate);
+        if (mParams.isAdaptiveBitrate()) {
+            mBitrateController = createBitrateController(mParams, bitrate);
+        }
+        requestKeyFrame();
+        if(RecordMp4.DEBUG)
+            Log.d(TAG, "复用视频编码器，异步模式：" + engine.isAsync() + "，" + pool);
+        return true;
+    }
+
+    /** 设置复用编码器的池，需在start()之前调用，为null时停止录制即释放编码器 */
+    public void setEncoderPool(EncoderPool pool) {
+        this.mEncoderPool = pool;
+    }
+
+    /**
+     * 从编码线程启动到输出第一个编码帧的耗时
+     *
+     * @return 还没有输出时返回-1，单位毫秒
+     */
+    public long getTimeToFirstFrameMs() {
+        long first = mFirstFrameNs;
+        return first == 0 ? -1 : (first - mStartNs) / 1000000;
+    }
+
+    private MediaFormat createFormat(EncoderParams mParams, int bitrate) {
         MediaFormat mFormat;
         if(mParams.isVertical()){
             // 手机垂直拍摄
@@ -145,256 +326,533 @@ public class H264EncodeConsumer extends Thread {
             // 手机水平拍摄
             mFormat = MediaFormat.createVideoFormat(MIME_TYPE, mParams.getFrameWidth(), mParams.getFrameHeight());
         }
-        mFormat.setInteger(MediaFormat.KEY_BIT_RATE, getBitrate());
+        mFormat.setInteger(MediaFormat.KEY_BIT_RATE, bitrate);
         mFormat.setInteger(MediaFormat.KEY_FRAME_RATE, getFrameRate());
-        mFormat.setInteger(MediaFormat.KEY_COLOR_FORMAT, mColorFormat);         // 颜色格式
-        mFormat.setInteger(MediaFormat.KEY_I_FRAME_INTERVAL, FRAME_INTERVAL);
-        if (mVideoEncodec != null) {
-            mVideoEncodec.configure(mFormat, null, null, MediaCodec.CONFIGURE_FLAG_ENCODE);
-            mVideoEncodec.start();
-            isEncoderStart = true;
+        mFormat.setInteger(MediaFormat.KEY_COLOR_FORMAT, mSurfaceRenderer != null
+                ? MediaCodecInfo.CodecCapabilities.COLOR_FormatSurface : mColorFormat);         // 颜色格式
+        mFormat.setInteger(MediaFormat.KEY_I_FRAME_INTERVAL, mParams.getKeyFrameIntervalSec());
+        return mFormat;
+    }
+
+    /**
+     * 设置profile/level、码率模式和低延迟参数，编码器不支持的项跳过
+     *
+     * @return 是否设置了可选参数
+     */
+    private boolean tuneFormat(MediaFormat mFormat, EncoderCapability capability, EncoderParams mParams) {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.LOLLIPOP)
+            return false;
+        boolean isTuned = false;
+        int profile = mParams.getVideoProfile();
+        int level = mParams.getVideoLevel();
+        // 低延迟预设默认使用Baseline，没有B帧，解码端不需要等待后续帧
+        if (profile == 0 && mParams.isLowLatency()) {
+            profile = MediaCodecInfo.CodecProfileLevel.AVCProfileBaseline;
+            level = 0;
+        }
+        if (profile != 0) {
+            int maxLevel = capability.getMaxLevel(profile);
+            if (maxLevel == 0) {
+                if(RecordMp4.DEBUG)
+                    Log.w(TAG, "编码器不支持profile：" + profile);
+            } else {
+                mFormat.setInteger(MediaFormat.KEY_PROFILE, profile);
+                // KEY_LEVEL需要API 23以上，level超出编码器能力时由编码器选择
+                if (level != 0 && level <= maxLevel && Build.VERSION.SDK_INT >= Build.VERSION_CODES.M) {
+                    mFormat.setInteger(MediaFormat.KEY_LEVEL, level);
+                }
+                isTuned = true;
+            }
+        }
+        BitrateMode bitrateMode = mParams.getBitrateMode();
+        if (bitrateMode == null || bitrateMode == BitrateMode.DEFAULT) {
+            bitrateMode = mParams.isLowLatency() ? BitrateMode.CBR : BitrateMode.DEFAULT;
+        }
+        if (bitrateMode != BitrateMode.DEFAULT) {
+            int mode = bitrateMode == BitrateMode.CBR ? MediaCodecInfo.EncoderCapabilities.BITRATE_MODE_CBR
+                    : (bitrateMode == BitrateMode.VBR ? MediaCodecInfo.EncoderCapabilities.BITRATE_MODE_VBR
+                    : MediaCodecInfo.EncoderCapabilities.BITRATE_MODE_CQ);
+            if (capability.isBitrateModeSupported(mode)) {
+                mFormat.setInteger(MediaFormat.KEY_BITRATE_MODE, mode);
+                isTuned = true;
+            } else if(RecordMp4.DEBUG) {
+                Log.w(TAG, "编码器不支持码率模式：" + bitrateMode);
+            }
+        }
+        if (mParams.isLowLatency() && Build.VERSION.SDK_INT >= Build.VERSION_CODES.M) {
+            // 实时优先级
+            mFormat.setInteger(MediaFormat.KEY_PRIORITY, 0);
+            isTuned = true;
+        }
+        if (mParams.isLowLatency() && Build.VERSION.SDK_INT >= 26) {
+            // 每输入一帧就输出一帧
+            mFormat.setInteger(KEY_LATENCY, 1);
+        }
+        return isTuned;
+    }
+
+    private BitrateController createBitrateController(EncoderParams mParams, int bitrate) {
+        int min = mParams.getMinBitrate() > 0 ? mParams.getMinBitrate() : bitrate / 4;
+        int max = mParams.getMaxBitrate() > 0 ? mParams.getMaxBitrate() : bitrate * 3 / 2;
+        long interval = mParams.getBitrateAdjustIntervalMs() > 0 ? mParams.getBitrateAdjustIntervalMs() : 1000;
+        BitrateController controller = new BitrateController(bitrate, min, Math.max(min, max), interval);
+        if (mBitrateControlLaw != null) {
+            controller.setControlLaw(mBitrateControlLaw);
+        }
+        return controller;
+    }
+
+    // 在编码线程中调用，统计窗口结束时按需调整编码器码率
+    private void adjustBitrate() {
+        BitrateController controller = mBitrateController;
+        if (controller == null || mEngine == null)
+            return;
+        MediaMuxerUtil muxer = mMuxerRef == null ? null : mMuxerRef.get();
+        FrameRingBuffer ring = mFrameRing;
+        float backlog = ring == null ? 0 : (float) ring.size() / ring.getCapacity();
+        if (!controller.update(System.nanoTime() / 1000000, muxer == null ? null : muxer.getWriterStats(), backlog))
+            return;
+        if (setCodecBitrate(mEngine, controller.getTargetBitrate()) && RecordMp4.DEBUG)
+            Log.i(TAG, "调整视频码率：" + controller);
+    }
+
+    // 运行中修改码率，setParameters需要API 19以上
+    private boolean setCodecBitrate(EncoderEngine engine, int bitrate) {
+        MediaCodec codec = engine.getCodec();
+        if (codec == null || Build.VERSION.SDK_INT < Build.VERSION_CODES.KITKAT)
+            return false;
+        Bundle params = new Bundle();
+        params.putInt(MediaCodec.PARAMETER_KEY_VIDEO_BITRATE, bitrate);
+        try {
+            codec.setParameters(params);
+            return true;
+        } catch (IllegalStateException e) {
             if(RecordMp4.DEBUG)
-                Log.d(TAG, "配置、启动视频编码器");
+                Log.w(TAG, "调整视频码率失败：" + e.getMessage());
+            return false;
         }
     }
 
+    /**
+     * 自定义动态码率的控制规则，需在start()之前调用，EncoderParams开启动态码率时生效
+     */
+    public void setBitrateControlLaw(BitrateController.ControlLaw law) {
+        this.mBitrateControlLaw = law;
+    }
+
+    /** 动态码率控制器，未开启动态码率时为null */
+    public BitrateController getBitrateController() {
+        return mBitrateController;
+    }
+
     private void stopCodec() {
-        if (mVideoEncodec != null) {
-            mVideoEncodec.stop();
-            mVideoEncodec.release();
-            mVideoEncodec = null;
-            isAddKeyFrame = false;
-            isEncoderStart = false;
+        isEncoderStart = false;
+        // 渲染线程释放EGL后才能停止编码器
+        SurfaceRenderPipeline pipeline = mRenderPipeline;
+        if (pipeline != null) {
+            mRenderPipeline = null;
+            pipeline.stop();
             if(RecordMp4.DEBUG)
-                Log.d(TAG, "关闭视频编码器");
+                Log.i(TAG, "Surface输入统计：" + pipeline);
         }
+        if (mEngine != null) {
+            if(RecordMp4.DEBUG)
+                Log.d(TAG, "关闭视频编码器：" + mEngine.getStats() + "，码率控制：" + mBitrateController);
+            EncoderPool pool = mEncoderPool;
+            if (pool != null && mPoolKey != null) {
+                // 留给下次录制复用
+                pool.recycle(mPoolKey, mEngine);
+            } else {
+                mEngine.stop();
+            }
+            mEngine = null;
+            mPoolKey = null;
+            isAddKeyFrame = false;
+        }
+    }
+
+    // 编码器启动后由编码线程设置，单元测试中直接设置以驱动预览帧入队、出队流程
+    void setEncoderStarted(boolean started) {
+        this.isEncoderStart = started;
+    }
+
+    /** 视频编码驱动，可用于查看统计信息 */
+    public EncoderEngine getEncoderEngine() {
+        return mEngine;
+    }
+
+    public void setOnFrameProcessListener(OnFrameProcessListener listener) {
+        this.mFrameProcessListener = listener;
+    }
+
+    /**
+     * 开启单趟处理，开启后不再回调OnFrameProcessListener，需在start()之前调用
+     *
+     * @param degree 预览帧顺时针旋转角度，旋转后的宽高需与编码器配置一致
+     * @param mirror 旋转后是否水平镜像
+     * @param listener 提供水印图层，可以为null
+     */
+    public void setFusedProcessing(int degree, boolean mirror, OnOverlayListener listener) {
+        this.mFusedDegree = degree;
+        this.isFusedMirror = mirror;
+        this.mOverlayListener = listener;
+        this.isFusedProcessing = true;
+    }
+
+    /**
+     * 自定义预览帧写入编码器的方式，设置后不再使用OnFrameProcessListener和单趟处理
+     *
+     * @param writer 为null时恢复内置处理
+     */
+    public void setFrameWriter(FrameWriter writer) {
+        this.mFrameWriter = writer;
+    }
+
+    /**
+     * 开启Surface输入：相机画面经renderer旋转、叠加水印后直接画到编码器的输入Surface，不再经过addData()，
+     * 需在start()之前调用。编码器或设备不支持时回退到YUV数据输入，此时按单趟处理或OnFrameProcessListener处理预览帧
+     *
+     * @param degree 相机画面顺时针旋转角度，旋转后的宽高需与编码器配置一致
+     * @param mirror 旋转后是否水平镜像
+     * @param overlayListener 提供水印，可以为null；GPU渲染只支持OsdCompositor和OverlayMask
+     * @param textureListener 渲染环境准备好或回退时回调，用于切换相机的预览输出
+     */
+    public void setSurfaceInput(FrameRenderer renderer, int degree, boolean mirror, OnOverlayListener overlayListener,
+                                OnInputTextureListener textureListener) {
+        this.mSurfaceRenderer = renderer;
+        this.mSurfaceDegree = degree;
+        this.isSurfaceMirror = mirror;
+        this.mOverlayListener = overlayListener;
+        this.mInputTextureListener = textureListener;
     }
 
-    long millisPerframe = 1000 / 20;
-    long lastPush = 0;
+    /** Surface输入的渲染流程，可查看渲染、丢帧统计，未使用Surface输入时为null */
+    public SurfaceRenderPipeline getRenderPipeline() {
+        return mRenderPipeline;
+    }
+
+    // 在编码线程中调用，编码器已按COLOR_FormatSurface启动
+    private boolean startRenderPipeline() {
+        EncoderEngine engine = mEngine;
+        Surface surface = engine == null ? null : engine.getInputSurface();
+        EncoderParams mParams = mParamsRef == null ? null : mParamsRef.get();
+        if (surface == null || mParams == null)
+            return false;
+        SurfaceRenderPipeline pipeline = new SurfaceRenderPipeline(mSurfaceRenderer,
+                new FrameTransform(mParams.getFrameWidth(), mParams.getFrameHeight(), mSurfaceDegree, isSurfaceMirror));
+        pipeline.setFrameScheduler(mFrameScheduler);
+        pipeline.setRecordingClock(mRecordingClock);
+        pipeline.setOverlayListener(mOverlayListener);
+        if (!pipeline.start(surface))
+            return false;
+        mRenderPipeline = pipeline;
+        if(RecordMp4.DEBUG)
+            Log.i(TAG, "使用Surface输入：" + pipeline);
+        return true;
+    }
 
+    /** 预览帧入队，只做一次拷贝，旋转、水印及编码均在编码线程完成 */
+    public void addData(byte[] yuvData, int width, int height) {
+        addData(yuvData, width, height, System.nanoTime());
+    }
+
+    /**
+     * @param timestampNs 采集时间戳，单位纳秒，用于帧率控制和编码时间戳
+     */
+    public void addData(byte[] yuvData, int width, int height, long timestampNs) {
+        FrameRingBuffer ring = mFrameRing;
+        // Surface输入时画面由相机直接送到渲染线程
+        if(! isEncoderStart || ring == null || mRenderPipeline != null)
+            return;
+        // 超出目标帧率的帧直接丢弃，不阻塞Camera回调线程
+        FrameScheduler scheduler = mFrameScheduler;
+        if (scheduler != null && !scheduler.accept(timestampNs))
+            return;
+        ring.offer(yuvData, width, height, timestampNs);
+    }
 
     public void addData(byte[] yuvData) {
-        if(! isEncoderStart || mParamsRef == null)
+        if(mParamsRef == null)
+            return;
+        EncoderParams mParams = mParamsRef.get();
+        if(mParams == null)
             return;
+        addData(yuvData, mParams.getFrameWidth(), mParams.getFrameHeight());
+    }
+
+    /** 预览帧队列，可用于查看丢帧等统计信息 */
+    public FrameRingBuffer getFrameRing() {
+        return mFrameRing;
+    }
+
+    /** 帧率控制器，可用于查看实际帧率和抖动 */
+    public FrameScheduler getFrameScheduler() {
+        return mFrameScheduler;
+    }
+
+    private void encodeFrame(FrameRingBuffer.Frame frame) {
+        EncoderEngine engine = mEngine;
+        if(mParamsRef == null || engine == null)
+            return;
+        FrameWriter writer = mFrameWriter;
+        if (writer == null) {
+            writer = isFusedProcessing ? mFusedFrameWriter : mConvertFrameWriter;
+        }
+        // 时间戳换算为录制时间，开始前和暂停期间采集的帧丢弃
+        RecordingClock clock = mRecordingClock;
+        long ptsUs = clock == null ? frame.getTimestampNs() / 1000
+                : clock.toPresentationUs(RecordingClock.TRACK_VIDEO, frame.getTimestampNs(), System.nanoTime());
+        if (ptsUs < 0)
+            return;
+        if (isKeyFrameRequested) {
+            isKeyFrameRequested = false;
+            requestSyncFrame(engine);
+        }
+        // 将数据写入编码器；关键帧由编码器按GOP或requestKeyFrame()决定
+        engine.queueInput(mInputWriter.set(writer, frame.getData(), frame.getWidth(), frame.getHeight(),
+                frame.getTimestampNs(), mColorFormat), ptsUs, 0, TIMES_OUT);
+    }
+
+    /** 设置音视频共用的录制时钟，需在start()之前调用 */
+    public void setRecordingClock(RecordingClock clock) {
+        this.mRecordingClock = clock;
+    }
+
+    /**
+     * 请求编码器尽快输出一个关键帧(IDR)，用于分段切换、直播中途加入，可在任意线程调用，
+     * 在编码线程处理下一帧前生效，需要API 19以上
+     */
+    public void requestKeyFrame() {
+        isKeyFrameRequested = true;
+    }
+
+    private void requestSyncFrame(EncoderEngine engine) {
+        MediaCodec codec = engine.getCodec();
+        if (codec == null || Build.VERSION.SDK_INT < Build.VERSION_CODES.KITKAT)
+            return;
+        Bundle params = new Bundle();
+        params.putInt(MediaCodec.PARAMETER_KEY_REQUEST_SYNC_FRAME, 0);
         try {
-            if (lastPush == 0) {
-                lastPush = System.currentTimeMillis();
-            }
-            long time = System.currentTimeMillis() - lastPush;
-            if (time >= 0) {
-                time = millisPerframe - time;
-                if (time > 0)
-                    Thread.sleep(time / 2);
-            }
+            codec.setParameters(params);
+            if(RecordMp4.DEBUG)
+                Log.i(TAG, "请求关键帧");
+        } catch (IllegalStateException e) {
+            if(RecordMp4.DEBUG)
+                Log.w(TAG, "请求关键帧失败：" + e.getMessage());
+        }
+    }
 
+    // 默认处理：回调OnFrameProcessListener(旋转、水印)后转换颜色格式，结果直接写入编码器输入缓存区
+    private final FrameWriter mConvertFrameWriter = new FrameWriter() {
+        @Override
+        public int writeFrame(byte[] yuvData, int width, int height, long timestampNs, ByteBuffer inputBuffer, int colorFormat) {
+            if (mFrameProcessListener != null) {
+                mFrameProcessListener.onProcessFrame(yuvData, width, height);
+            }
             //前置摄像头旋转270度，后置摄像头旋转90度
-            EncoderParams mParams = mParamsRef.get();
-            int mWidth = mParams.getFrameWidth();
-            int mHeight = mParams.getFrameHeight();
-            // 转换颜色格式
-//            if(mColorFormat == COLOR_FormatYUV420PackedPlanar){
-//                JNIUtil.nV21To420SP(yuvData, mWidth, mHeight);
-//                // 将数据写入编码器
-//                feedMediaCodecData(yuvData);
-//            }else{
-                byte[] resultBytes = new byte[mWidth * mHeight *3 / 2];
-                YuvUtils.transferColorFormat(yuvData,mWidth,mHeight,resultBytes,mColorFormat);
-                // 将数据写入编码器
-                feedMediaCodecData(resultBytes);
-//            }
-//            JNIUtil.nV21To420SP(yuvData, mWidth, mHeight);
-//            feedMediaCodecData(yuvData);
-
-            if (time > 0)
-                Thread.sleep(time / 2);
-            lastPush = System.currentTimeMillis();
-        } catch (InterruptedException e) {
-            e.printStackTrace();
+            EncoderParams mParams = mParamsRef == null ? null : mParamsRef.get();
+            if(mParams == null)
+                return 0;
+            return mYuvConverter.convert(yuvData, YuvConverter.FORMAT_NV21, inputBuffer,
+                    YuvConverterFactory.formatOfColorFormat(colorFormat), mParams.getFrameWidth(), mParams.getFrameHeight());
         }
-    }
+    };
 
-    @TargetApi(21)
-    private void feedMediaCodecData(byte[] data) {
-        ByteBuffer[] inputBuffers = mVideoEncodec.getInputBuffers();
-        int inputBufferIndex = mVideoEncodec.dequeueInputBuffer(TIMES_OUT);
-        if (inputBufferIndex >= 0) {
-            // 绑定一个被空的、可写的输入缓存区inputBuffer到客户端
-            ByteBuffer inputBuffer = null;
-            if (!isLollipop()) {
-                inputBuffer = inputBuffers[inputBufferIndex];
-            } else {
-                inputBuffer = mVideoEncodec.getInputBuffer(inputBufferIndex);
+    // 单趟处理：旋转、颜色转换、水印在写入编码器输入缓存区时一次完成
+    private final FrameWriter mFusedFrameWriter = new FrameWriter() {
+        @Override
+        public int writeFrame(byte[] yuvData, int width, int height, long timestampNs, ByteBuffer inputBuffer, int colorFormat) {
+            FusedFrameProcessor processor = mFusedProcessor == null ? null : mFusedProcessor.getProcessor();
+            if (processor == null || processor.getWidth() != width || processor.getHeight() != height) {
+                EncoderParams mParams = mParamsRef == null ? null : mParamsRef.get();
+                if(mParams == null)
+                    return 0;
+                releaseFusedProcessor();
+                processor = new FusedFrameProcessor(width, height, YuvConverter.FORMAT_NV21,
+                        YuvConverterFactory.formatOfColorFormat(colorFormat), mFusedDegree, isFusedMirror);
+                mFusedProcessor = new ParallelFrameProcessor(processor, mParams.getFrameProcessThreads());
+                if(RecordMp4.DEBUG)
+                    Log.i(TAG, "单趟处理线程数：" + mFusedProcessor.getThreadCount());
             }
-            // 向输入缓存区写入有效原始数据，并提交到编码器中进行编码处理
-            inputBuffer.clear();
-            inputBuffer.put(data);
-            inputBuffer.clear();
-            mVideoEncodec.queueInputBuffer(inputBufferIndex, 0, data.length, System.nanoTime() / 1000, MediaCodec.BUFFER_FLAG_KEY_FRAME);
+            if (inputBuffer.remaining() < mFusedProcessor.getFrameSize()) {
+                if(RecordMp4.DEBUG)
+                    Log.w(TAG, "编码器输入缓存区太小：" + inputBuffer.remaining());
+                return 0;
+            }
+            FrameOverlay overlay = mOverlayListener == null ? null : mOverlayListener.onOverlay(timestampNs);
+            return mFusedProcessor.process(yuvData, inputBuffer, overlay);
         }
-    }
+    };
 
-    @TargetApi(Build.VERSION_CODES.LOLLIPOP)
     @Override
     public void run() {
-        // 初始化编码器
+        // 初始化编码器，混合器在start()之前已设置好，不需要等待
+        mStartNs = System.nanoTime();
         if (!isEncoderStart) {
-            try {
-                Thread.sleep(200);
-            } catch (InterruptedException e) {
-                e.printStackTrace();
-            }
             startCodec();
-        }
-        // 如果编码器没有启动或者没有图像数据，线程阻塞等待
-        while (!isExit) {
-            ByteBuffer[] outputBuffers = mVideoEncodec.getOutputBuffers();
-
-            // 返回一个输出缓存区句柄，当为-1时表示当前没有可用的输出缓存区
-            // mBufferInfo参数包含被编码好的数据，timesOut参数为超时等待的时间
-            MediaCodec.BufferInfo mBufferInfo = new MediaCodec.BufferInfo();
-            int outputBufferIndex = -1;
-            do {
-                outputBufferIndex = mVideoEncodec.dequeueOutputBuffer(mBufferInfo, TIMES_OUT);
-                if (outputBufferIndex == MediaCodec.INFO_TRY_AGAIN_LATER) {
-                    if(RecordMp4.DEBUG)
-                        Log.i(TAG, "获得编码器输出缓存区超时");
-                } else if (outputBufferIndex == MediaCodec.INFO_OUTPUT_BUFFERS_CHANGED) {
-                    // 如果API小于21，APP需要重新绑定编码器的输入缓存区；
-                    // 如果API大于21，则无需处理INFO_OUTPUT_BUFFERS_CHANGED
-                    if (!isLollipop()) {
-                        outputBuffers = mVideoEncodec.getOutputBuffers();
-                    }
-                } else if (outputBufferIndex == MediaCodec.INFO_OUTPUT_FORMAT_CHANGED) {
-                    // 编码器输出缓存区格式改变，通常在存储数据之前且只会改变一次
-                    // 这里设置混合器视频轨道，如果音频已经添加则启动混合器（保证音视频同步）
-                    synchronized (H264EncodeConsumer.this) {
-                        newFormat = mVideoEncodec.getOutputFormat();
-                        if(mMuxerRef != null){
-                            MediaMuxerUtil muxer = mMuxerRef.get();
-                            if (muxer != null) {
-                                muxer.addTrack(newFormat, true);
-                            }
-                        }
-                    }
+            if (mSurfaceRenderer != null) {
+                if (!startRenderPipeline()) {
+                    // 编码器不支持Surface输入或没有可录制的EGL配置，改用YUV数据输入
                     if(RecordMp4.DEBUG)
-                        Log.i(TAG, "编码器输出缓存区格式改变，添加视频轨道到混合器");
-                } else {
-                    // 获取一个只读的输出缓存区inputBuffer ，它包含被编码好的数据
-                    ByteBuffer outputBuffer = null;
-                    if (!isLollipop()) {
-                        outputBuffer = outputBuffers[outputBufferIndex];
-                    } else {
-                        outputBuffer = mVideoEncodec.getOutputBuffer(outputBufferIndex);
-                    }
-                    // 如果API<=19，需要根据BufferInfo的offset偏移量调整ByteBuffer的位置
-                    // 并且限定将要读取缓存区数据的长度，否则输出数据会混乱
-                    if (isKITKAT()) {
-                        outputBuffer.position(mBufferInfo.offset);
-                        outputBuffer.limit(mBufferInfo.offset + mBufferInfo.size);
-                    }
-                    // 根据NALU类型判断帧类型
-                    int type = outputBuffer.get(4) & 0x1F;
-                    if(RecordMp4.DEBUG)
-                        Log.d(TAG, "------还有数据---->" + type);
-                    if (type == 7 || type == 8) {
-                        if(RecordMp4.DEBUG)
-                            Log.e(TAG, "------PPS、SPS帧(非图像数据)，忽略-------");
-                        mBufferInfo.size = 0;
-                    } else if (type == 5) {
-                        // 录像时，第1秒画面会静止，这是由于音视轨没有完全被添加
-                        // Muxer没有启动
-                        // 添加视频流到混合器
-                        if(mMuxerRef != null){
-                            MediaMuxerUtil muxer = mMuxerRef.get();
-                            if (muxer != null) {
-                                Log.i(TAG,"------编码混合  视频关键帧数据-----");
-                                muxer.pumpStream(outputBuffer, mBufferInfo, true);
-                            }
-                            isAddKeyFrame = true;
-                        }
-                    } else {
-                        if (isAddKeyFrame) {
-                            // 添加视频流到混合器
-                            if(isAddKeyFrame && mMuxerRef != null){
-                                MediaMuxerUtil muxer = mMuxerRef.get();
-                                if (muxer != null) {
-                                    Log.i(TAG,"------编码混合  视频普通帧数据-----"+mBufferInfo.size);
-                                    muxer.pumpStream(outputBuffer, mBufferInfo, true);
-                                }
-                            }
-                        }
-                    }
-                    // 处理结束，释放输出缓存区资源
-                    mVideoEncodec.releaseOutputBuffer(outputBufferIndex, false);
+                        Log.w(TAG, "Surface输入不可用，回退到YUV数据输入");
+                    mSurfaceRenderer = null;
+                    stopCodec();
+                    startCodec();
+                }
+                if (mInputTextureListener != null) {
+                    SurfaceRenderPipeline pipeline = mRenderPipeline;
+                    mInputTextureListener.onInputTexture(pipeline == null ? null : pipeline.getInputTexture());
                 }
-            } while (outputBufferIndex >= 0);
+            }
         }
-        stopCodec();
-    }
-
-    public void exit() {
-        isExit = true;
-    }
-
-    /**
-     * 遍历所有编解码器，返回第一个与指定MIME类型匹配的编码器
-     * 判断是否有支持指定mime类型的编码器
-     */
-    private MediaCodecInfo selectSupportCodec(String mimeType) {
-        int numCodecs = MediaCodecList.getCodecCount();
-        for (int i = 0; i < numCodecs; i++) {
-            MediaCodecInfo codecInfo = MediaCodecList.getCodecInfoAt(i);
-            // 判断是否为编码器，否则直接进入下一次循环
-            if (!codecInfo.isEncoder()) {
+        // 从预览帧队列取帧编码；同步模式下在本线程中取编码输出，异步模式下由回调线程处理
+        while (!isExit && mEngine != null) {
+            SurfaceRenderPipeline pipeline = mRenderPipeline;
+            if (pipeline != null) {
+                if (!drainSurfaceInput(pipeline))
+                    break;
+                continue;
+            }
+            FrameRingBuffer ring = mFrameRing;
+            FrameRingBuffer.Frame frame = null;
+            try {
+                if (ring != null) {
+                    frame = mEngine.isAsync() ? ring.poll(TIMES_OUT, TimeUnit.MICROSECONDS) : ring.poll();
+                }
+            } catch (InterruptedException e) {
+                // stopRecord中断线程，回到循环判断isExit
                 continue;
             }
-            // 如果是编码器，判断是否支持Mime类型
-            String[] types = codecInfo.getSupportedTypes();
-            for (int j = 0; j < types.length; j++) {
-                if (types[j].equalsIgnoreCase(mimeType)) {
-                    return codecInfo;
+            if (frame != null) {
+                try {
+                    encodeFrame(frame);
+                } finally {
+                    ring.release(frame);
                 }
             }
+            boolean hasPendingFrame = ring != null && !ring.isEmpty();
+            mEngine.drainOutput(hasPendingFrame ? 0 : TIMES_OUT);
+            adjustBitrate();
         }
-        return null;
+        if (mFrameRing != null) {
+            if(RecordMp4.DEBUG)
+                Log.i(TAG, "预览帧队列统计：" + mFrameRing + "，帧率统计：" + mFrameScheduler);
+            mFrameRing.close();
+        }
+        stopCodec();
+        releaseFusedProcessor();
     }
 
-    /**
-     * 根据mime类型匹配编码器支持的颜色格式
-     */
-    private int selectSupportColorFormat(MediaCodecInfo mCodecInfo, String mimeType) {
-        MediaCodecInfo.CodecCapabilities capabilities = mCodecInfo.getCapabilitiesForType(mimeType);
-        for (int i = 0; i < capabilities.colorFormats.length; i++) {
-            int colorFormat = capabilities.colorFormats[i];
-            if (isCodecRecognizedFormat(colorFormat)) {
-                return colorFormat;
+    // Surface输入时编码线程只处理关键帧请求、编码输出和码率调整，渲染线程出错时返回false
+    private boolean drainSurfaceInput(SurfaceRenderPipeline pipeline) {
+        if (!pipeline.isRunning()) {
+            if(RecordMp4.DEBUG)
+                Log.e(TAG, "渲染线程已结束：" + pipeline.getError());
+            return false;
+        }
+        if (isKeyFrameRequested) {
+            isKeyFrameRequested = false;
+            requestSyncFrame(mEngine);
+        }
+        if (mEngine.isAsync()) {
+            try {
+                Thread.sleep(TIMES_OUT / 1000);
+            } catch (InterruptedException e) {
+                // stopRecord中断线程，回到循环判断isExit
+                return true;
             }
+        } else {
+            mEngine.drainOutput(TIMES_OUT);
         }
-        return 0;
+        adjustBitrate();
+        return true;
     }
 
-    private boolean isCodecRecognizedFormat(int colorFormat) {
-        switch (colorFormat) {
-            case MediaCodecInfo.CodecCapabilities.COLOR_FormatYUV420Planar:
-            case MediaCodecInfo.CodecCapabilities.COLOR_FormatYUV420PackedPlanar:
-                //video/avc编码器支持COLOR_FormatYUV420SemiPlanar格式
-            case MediaCodecInfo.CodecCapabilities.COLOR_FormatYUV420SemiPlanar:
-            case MediaCodecInfo.CodecCapabilities.COLOR_FormatYUV420PackedSemiPlanar:
-            case MediaCodecInfo.CodecCapabilities.COLOR_TI_FormatYUV420PackedSemiPlanar:
-                return true;
-            default:
-                return false;
+    private void releaseFusedProcessor() {
+        if (mFusedProcessor != null) {
+            mFusedProcessor.release();
+            mFusedProcessor = null;
         }
     }
 
-    private boolean isLollipop() {
-        // API>=21
-        return Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP;
-    }
+    private final MediaMuxerUtil.OnKeyFrameRequestListener mKeyFrameRequestListener = new MediaMuxerUtil.OnKeyFrameRequestListener() {
+        @Override
+        public void onKeyFrameRequest() {
+            requestKeyFrame();
+        }
+    };
+
+    // 处理编码输出，异步模式下在编码器回调线程中执行
+    private final EncoderEngine.OutputListener mOutputListener = new EncoderEngine.OutputListener() {
+        @Override
+        public void onOutputFormatChanged(MediaFormat format) {
+            // 编码器输出缓存区格式改变，通常在存储数据之前且只会改变一次
+            // 这里设置混合器视频轨道，如果音频已经添加则启动混合器（保证音视频同步）
+            synchronized (H264EncodeConsumer.this) {
+                newFormat = format;
+                if(mMuxerRef != null){
+                    MediaMuxerUtil muxer = mMuxerRef.get();
+                    if (muxer != null) {
+                        muxer.addTrack(newFormat, true);
+                    }
+                }
+            }
+            if(RecordMp4.DEBUG)
+                Log.i(TAG, "编码器输出缓存区格式改变，添加视频轨道到混合器");
+        }
+
+        @Override
+        public void onOutputBuffer(ByteBuffer outputBuffer, MediaCodec.BufferInfo mBufferInfo) {
+            BitrateController controller = mBitrateController;
+            if (controller != null) {
+                controller.onEncodedBytes(mBufferInfo.size);
+            }
+            if (mFirstFrameNs == 0 && (mBufferInfo.flags & MediaCodec.BUFFER_FLAG_CODEC_CONFIG) == 0) {
+                mFirstFrameNs = System.nanoTime();
+                if(RecordMp4.DEBUG)
+                    Log.i(TAG, "启动到第一个视频编码帧耗时：" + getTimeToFirstFrameMs() + "ms");
+            }
+            // 根据NALU类型判断帧类型
+            int type = outputBuffer.get(mBufferInfo.offset + 4) & 0x1F;
+            if(RecordMp4.DEBUG)
+                Log.d(TAG, "------还有数据---->" + type);
+            if (type == 7 || type == 8) {
+                if(RecordMp4.DEBUG)
+                    Log.e(TAG, "------PPS、SPS帧(非图像数据)，忽略-------");
+                mBufferInfo.size = 0;
+            } else if (type == 5) {
+                // 录像时，第1秒画面会静止，这是由于音视轨没有完全被添加
+                // Muxer没有启动
+                // 添加视频流到混合器
+                if(mMuxerRef != null){
+                    MediaMuxerUtil muxer = mMuxerRef.get();
+                    if (muxer != null) {
+                        if(RecordMp4.DEBUG)
+                            Log.i(TAG,"------编码混合  视频关键帧数据-----");
+                        muxer.pumpStream(outputBuffer, mBufferInfo, true);
+                    }
+                    isAddKeyFrame = true;
+                }
+            } else {
+                if (isAddKeyFrame) {
+                    // 添加视频流到混合器
+                    if(isAddKeyFrame && mMuxerRef != null){
+                        MediaMuxerUtil muxer = mMuxerRef.get();
+                        if (muxer != null) {
+                            if(RecordMp4.DEBUG)
+                                Log.i(TAG,"------编码混合  视频普通帧数据-----"+mBufferInfo.size);
+                            muxer.pumpStream(outputBuffer, mBufferInfo, true);
+                        }
+                    }
+                }
+            }
+        }
+    };
 
-    private boolean isKITKAT() {
-        // API<=19
-        return Build.VERSION.SDK_INT <= Build.VERSION_CODES.KITKAT;
+    public void exit() {
+        isExit = true;
+        if (mFrameRing != null) {
+            mFrameRing.close();
+        }
     }
 }
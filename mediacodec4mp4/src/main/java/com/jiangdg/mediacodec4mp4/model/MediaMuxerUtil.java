@@ -2,146 +2,518 @@ package com.jiangdg.mediacodec4mp4.model;
 
 import android.media.MediaCodec;
 import android.media.MediaFormat;
-import android.media.MediaMuxer;
-import android.os.Build;
 import android.util.Log;
 
 
 import com.jiangdg.mediacodec4mp4.RecordMp4;
+import com.jiangdg.mediacodec4mp4.bean.EncoderParams;
 
 import java.io.File;
 import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
 
 /**Mp4封装混合器
+ * <p>
+ * 编码线程调用pumpStream()只把编码样本拷贝到有界队列，由独立的写线程写文件，
+ * 存储卡写入变慢时不会阻塞音频、视频编码线程；队列深度和写入耗时见getWriterStats()。
+ * <p>
+ * 文件分段：录制时长到达durationMillis后，在下一个视频关键帧处切换到新文件，
+ * 保证每个分段以关键帧开头(SPS/PPS保存在新文件的avcC中)。下一个文件提前在后台线程中
+ * 创建并添加好轨道，旧文件的stop()/release()也在后台线程中执行，不阻塞编码线程。
  *
  * Created by jianddongguo on 2017/7/28.
  */
 
 public class MediaMuxerUtil {
     private static final String TAG = MediaMuxerUtil.class.getSimpleName();
+    // 提前多久在后台准备下一个分段
+    private static final long PREPARE_AHEAD_MILLIS = 3000;
+    // 停止录制时等待后台关闭文件的最长时间
+    private static final long RELEASE_TIMEOUT_MILLIS = 5000;
+    // 默认的样本队列长度，约2秒的音视频样本
+    public static final int DEFAULT_QUEUE_CAPACITY = 120;
+    private static final long WRITER_POLL_MILLIS = 100;
     private final String mFilePath;
-    private MediaMuxer mMuxer;
+    private final MuxerBackend.Type mMuxerType;
+    private final long mFragmentDurationMs;
     private final long durationMillis;
+    private final ExecutorService mSegmentExecutor;
+    private final MuxerWriterStats mWriterStats = new MuxerWriterStats();
+    private final EncodedSampleQueue mSampleQueue;
+    private final WriterThread mWriterThread;
+    private volatile boolean isMuxerStarted;
+    // 预录缓存，不使用预录时为null
+    private final PreRollBuffer mPreRollBuffer;
+    private volatile boolean isPreRollTriggered;
+    private volatile PreRollBuffer mPendingPreRoll;
+    // 以下字段在混合器启动后只由写线程访问
+    private final MediaCodec.BufferInfo mWriteInfo = new MediaCodec.BufferInfo();
+    private final TimestampNormalizer mNormalizer = new TimestampNormalizer();
     private int index = 0;
-    private int mVideoTrackIndex = -1;
-    private int mAudioTrackIndex = -1;
-    private long mBeginMillis;
-    private MediaFormat mVideoFormat;
-    private MediaFormat mAudioFormat;
+    private Segment mSegment;
+    private Future<Segment> mNextSegment;
+    private boolean isRotatePending;
+    // 编码线程在addTrack()中写入，写线程读取
+    private volatile MediaFormat mVideoFormat;
+    private volatile MediaFormat mAudioFormat;
+    private volatile OnKeyFrameRequestListener mKeyFrameRequestListener;
+
+    /** 需要视频关键帧时回调(如分段时长已到)，在写线程中执行 */
+    public interface OnKeyFrameRequestListener {
+        void onKeyFrameRequest();
+    }
+
+    /** 一个分段文件及其轨道索引 */
+    private static class Segment {
+        final String path;
+        final MuxerBackend muxer;
+        int videoTrackIndex = -1;
+        int audioTrackIndex = -1;
+        long beginMillis;
+
+        Segment(String path, MuxerBackend muxer) {
+            this.path = path;
+            this.muxer = muxer;
+        }
+    }
 
     // 文件路径；文件时长
     public MediaMuxerUtil(String path, long durationMillis) {
+        this(path, durationMillis, null);
+    }
+
+    // 录制参数；文件时长
+    public MediaMuxerUtil(EncoderParams params, long durationMillis) {
+        this(params.getVideoPath(), durationMillis, params);
+    }
+
+    // 文件路径；文件时长；录制参数，为null时使用MediaMuxer、不分片、不预录
+    private MediaMuxerUtil(String path, long durationMillis, EncoderParams params) {
         mFilePath = path;
         this.durationMillis = durationMillis;
-        Object mux = null;
-        try {
-            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR2) {
-                mux = new MediaMuxer(path, MediaMuxer.OutputFormat.MUXER_OUTPUT_MPEG_4);
+        MuxerBackend.Type muxerType = params == null ? null : params.getMuxerType();
+        this.mFragmentDurationMs = params == null ? 0 : params.getFragmentDurationMs();
+        if (mFragmentDurationMs > 0 && muxerType != MuxerBackend.Type.MP4_WRITER) {
+            Log.w(TAG, "MediaMuxer can not write fragmented mp4, use Mp4Writer instead");
+            muxerType = MuxerBackend.Type.MP4_WRITER;
+        }
+        this.mMuxerType = muxerType == null ? MuxerBackend.Type.ANDROID : muxerType;
+        mSegmentExecutor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                return new Thread(r, "MuxerSegment");
+            }
+        });
+        int preRollBudget = params == null ? 0 : params.getPreRollBudgetBytes();
+        if (preRollBudget > 0) {
+            // 预录模式：触发前只缓存，不创建文件
+            mPreRollBuffer = new PreRollBuffer(preRollBudget, params.getPreRollDurationMs());
+        } else {
+            mPreRollBuffer = null;
+            try {
+                mSegment = new Segment(path, createBackend(path));
+            } catch (IOException e) {
+                e.printStackTrace();
             }
-        } catch (IOException e) {
-            e.printStackTrace();
-        } finally {
-            mMuxer = (MediaMuxer) mux;
         }
+        int queueCapacity = params == null ? DEFAULT_QUEUE_CAPACITY : params.getMuxerQueueCapacity();
+        if (queueCapacity <= 0) {
+            queueCapacity = DEFAULT_QUEUE_CAPACITY;
+        }
+        mSampleQueue = new EncodedSampleQueue(queueCapacity, mWriterStats);
+        mWriterStats.setQueueCapacity(queueCapacity);
+        mWriterThread = new WriterThread();
+        mWriterThread.start();
+    }
+
+    private MuxerBackend createBackend(String path) throws IOException {
+        if (RecordMp4.DEBUG)
+            Log.i(TAG, "create " + mMuxerType + " muxer：" + path);
+        if (mMuxerType == MuxerBackend.Type.MP4_WRITER) {
+            return new Mp4WriterBackend(path, mFragmentDurationMs);
+        }
+        return new AndroidMuxerBackend(path);
     }
 
     public synchronized void addTrack(MediaFormat format, boolean isVideo) {
         // now that we have the Magic Goodies, start the muxer
-        if (mAudioTrackIndex != -1 && mVideoTrackIndex != -1)
-            throw new RuntimeException("already add all tracks");
-
-        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR2) {
-            int track = mMuxer.addTrack(format);
-            if (RecordMp4.DEBUG)
-                Log.i(TAG, String.format("addTrack %s result %d", isVideo ? "video" : "audio", track));
+        if (mPreRollBuffer != null && !isPreRollTriggered) {
+            // 预录模式下只记录输出格式，触发时再创建文件
             if (isVideo) {
                 mVideoFormat = format;
-                mVideoTrackIndex = track;
-                if (mAudioTrackIndex != -1) {
-                    if (RecordMp4.DEBUG)
-                        Log.i(TAG, "both audio and video added,and muxer is started");
-                    mMuxer.start();
-                    mBeginMillis = System.currentTimeMillis();
-                }
             } else {
                 mAudioFormat = format;
-                mAudioTrackIndex = track;
-                if (mVideoTrackIndex != -1) {
-                    mMuxer.start();
-                    mBeginMillis = System.currentTimeMillis();
-                }
             }
+            isMuxerStarted = mVideoFormat != null && mAudioFormat != null;
+            return;
+        }
+        Segment segment = mSegment;
+        if (segment == null)
+            return;
+        if (segment.audioTrackIndex != -1 && segment.videoTrackIndex != -1)
+            throw new RuntimeException("already add all tracks");
+
+        int track = segment.muxer.addTrack(format, isVideo);
+        if (RecordMp4.DEBUG)
+            Log.i(TAG, String.format("addTrack %s result %d", isVideo ? "video" : "audio", track));
+        if (isVideo) {
+            mVideoFormat = format;
+            segment.videoTrackIndex = track;
+        } else {
+            mAudioFormat = format;
+            segment.audioTrackIndex = track;
+        }
+        if (segment.audioTrackIndex != -1 && segment.videoTrackIndex != -1) {
+            if (RecordMp4.DEBUG)
+                Log.i(TAG, "both audio and video added,and muxer is started");
+            segment.muxer.start();
+            segment.beginMillis = System.currentTimeMillis();
+            isMuxerStarted = true;
         }
     }
 
-    public synchronized void pumpStream(ByteBuffer outputBuffer, MediaCodec.BufferInfo bufferInfo, boolean isVideo) {
-        if (mAudioTrackIndex == -1 || mVideoTrackIndex == -1) {
+    /** 编码线程调用：拷贝编码样本到队列后立即返回，调用后即可释放编码器的输出缓存区 */
+    public void pumpStream(ByteBuffer outputBuffer, MediaCodec.BufferInfo bufferInfo, boolean isVideo) {
+        if (!isMuxerStarted) {
             return;
         }
         if ((bufferInfo.flags & MediaCodec.BUFFER_FLAG_CODEC_CONFIG) != 0) {
             // The codec config data was pulled out and fed to the muxer when we got
             // the INFO_OUTPUT_FORMAT_CHANGED status.  Ignore it.
         } else if (bufferInfo.size != 0) {
-            if (isVideo && mVideoTrackIndex == -1) {
-                throw new RuntimeException("muxer hasn't started");
-            }
-
             outputBuffer.position(bufferInfo.offset);
             outputBuffer.limit(bufferInfo.offset + bufferInfo.size);
-
-            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR2) {
-                mMuxer.writeSampleData(isVideo ? mVideoTrackIndex : mAudioTrackIndex, outputBuffer, bufferInfo);
+            PreRollBuffer preRoll = mPreRollBuffer;
+            // 锁只在拷贝样本和触发交接时持有，写文件不持有该锁；取得锁后再检查一次是否已触发
+            if (preRoll != null && !isPreRollTriggered) {
+                synchronized (preRoll) {
+                    if (!isPreRollTriggered) {
+                        preRoll.add(outputBuffer, bufferInfo.presentationTimeUs, bufferInfo.flags, isVideo);
+                        return;
+                    }
+                }
+            }
+            try {
+                mSampleQueue.put(outputBuffer, bufferInfo.presentationTimeUs, bufferInfo.flags, isVideo);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
             }
-            if (RecordMp4.DEBUG)
-                Log.d(TAG, String.format("sent %s [" + bufferInfo.size + "] with timestamp:[%d] to muxer", isVideo ? "video" : "audio", bufferInfo.presentationTimeUs / 1000));
         }
 
         if ((bufferInfo.flags & MediaCodec.BUFFER_FLAG_END_OF_STREAM) != 0) {
             if (RecordMp4.DEBUG)
                 Log.i(TAG, "BUFFER_FLAG_END_OF_STREAM received");
         }
+    }
 
-        if (System.currentTimeMillis() - mBeginMillis >= durationMillis) {
-            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR2) {
-                if (RecordMp4.DEBUG)
-                    Log.i(TAG, String.format("record file reach expiration.create new file:" + index));
-                mMuxer.stop();
-                mMuxer.release();
-                mMuxer = null;
-                mVideoTrackIndex = mAudioTrackIndex = -1;
+    /**
+     * 预录模式：把缓存的最近一段数据写入新文件，之后继续实时录制到该文件
+     *
+     * @return 未开启预录或已经触发过返回false
+     */
+    public boolean triggerPreRoll() {
+        PreRollBuffer preRoll = mPreRollBuffer;
+        if (preRoll == null || isPreRollTriggered)
+            return false;
+        synchronized (preRoll) {
+            if (isPreRollTriggered)
+                return false;
+            // 先交给写线程再切换标志，保证写线程先写预录数据，再写触发后入队的样本
+            mPendingPreRoll = preRoll;
+            isPreRollTriggered = true;
+        }
+        return true;
+    }
+
+    public boolean isPreRollEnabled() {
+        return mPreRollBuffer != null;
+    }
+
+    /** 预录缓存，不使用预录时为null */
+    public PreRollBuffer getPreRollBuffer() {
+        return mPreRollBuffer;
+    }
+
+    public void setOnKeyFrameRequestListener(OnKeyFrameRequestListener listener) {
+        this.mKeyFrameRequestListener = listener;
+    }
+
+    /** 混合器写线程统计信息 */
+    public MuxerWriterStats getWriterStats() {
+        return mWriterStats;
+    }
+
+    /** 分段时间戳整理的统计，由写线程更新 */
+    public TimestampNormalizer getTimestampNormalizer() {
+        return mNormalizer;
+    }
+
+    /** 写线程：把队列中的样本依次写入当前分段 */
+    private class WriterThread extends Thread {
+        WriterThread() {
+            super("MuxerWriter");
+        }
+
+        @Override
+        public void run() {
+            while (true) {
+                EncodedSampleQueue.Sample sample;
                 try {
-                    mMuxer = new MediaMuxer(mFilePath + "-" + ++index + ".mp4", MediaMuxer.OutputFormat.MUXER_OUTPUT_MPEG_4);
-                    addTrack(mVideoFormat, true);
-                    addTrack(mAudioFormat, false);
-                } catch (IOException e) {
-                    e.printStackTrace();
+                    sample = mSampleQueue.take(WRITER_POLL_MILLIS, TimeUnit.MILLISECONDS);
+                } catch (InterruptedException e) {
+                    break;
+                }
+                flushPendingPreRoll();
+                if (sample == null) {
+                    // 队列已关闭且样本已全部写完
+                    if (mSampleQueue.isClosed())
+                        break;
+                    continue;
                 }
+                long begin = System.nanoTime();
+                writeSample(sample);
+                mSampleQueue.recycle(sample);
+                mWriterStats.onWritten(System.nanoTime() - begin, mSampleQueue.size());
             }
+            if (RecordMp4.DEBUG)
+                Log.i(TAG, "muxer writer exit：" + mWriterStats + "，" + mNormalizer);
         }
     }
 
-    public synchronized void release() {
-        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR2) {
-            if (mMuxer != null) {
-                if (mAudioTrackIndex != -1 && mVideoTrackIndex != -1) {
-                    if (RecordMp4.DEBUG)
-                        Log.i(TAG, String.format("muxer is started. now it will be stoped."));
-                    try {
-                        mMuxer.stop();
-                        mMuxer.release();
-                    } catch (IllegalStateException ex) {
-                        ex.printStackTrace();
-                    }
+    // 写线程：预录已触发时创建文件，先写入缓存的数据
+    private void flushPendingPreRoll() {
+        PreRollBuffer preRoll = mPendingPreRoll;
+        if (preRoll == null)
+            return;
+        // triggerPreRoll()在锁内置位isPreRollTriggered，之后编码线程不再写入缓存，缓存交给写线程独占。
+        // 锁内只完成交接，创建文件和写入缓存数据都在锁外，不阻塞编码输出和再次触发
+        synchronized (preRoll) {
+            mPendingPreRoll = null;
+        }
+        // 不持有this锁：release()会在写线程结束前等待
+        MediaFormat videoFormat = mVideoFormat;
+        MediaFormat audioFormat = mAudioFormat;
+        try {
+            Segment segment = openSegment(segmentPath(index), videoFormat, audioFormat);
+            segment.muxer.start();
+            segment.beginMillis = System.currentTimeMillis();
+            mSegment = segment;
+            mNormalizer.startSegment();
+        } catch (Exception e) {
+            e.printStackTrace();
+            preRoll.clear();
+            return;
+        }
+        if (RecordMp4.DEBUG)
+            Log.i(TAG, "pre-roll triggered，flush " + preRoll);
+        preRoll.drainTo(mPreRollSink);
+    }
 
-                    if (System.currentTimeMillis() - mBeginMillis <= 1500){
-                        new File(mFilePath + "-" + index + ".mp4").delete();
-                    }
-                    mAudioTrackIndex = mVideoTrackIndex = -1;
-                }else{
-                    if (RecordMp4.DEBUG)
-                        Log.i(TAG, String.format("muxer is failed to be stoped."));
+    private final PreRollBuffer.SampleSink mPreRollSink = new PreRollBuffer.SampleSink() {
+        @Override
+        public void onSample(ByteBuffer data, long presentationTimeUs, int flags, boolean isVideo) {
+            writeSample(data, presentationTimeUs, flags, isVideo);
+        }
+    };
+
+    private void writeSample(EncodedSampleQueue.Sample sample) {
+        writeSample(sample.getData(), sample.getPresentationTimeUs(), sample.getFlags(), sample.isVideo());
+    }
+
+    private void writeSample(ByteBuffer data, long presentationTimeUs, int flags, boolean isVideo) {
+        Segment segment = mSegment;
+        if (segment == null)
+            return;
+        // 分段时长已到，在视频关键帧处切换文件
+        if (isVideo && isRotatePending && (flags & MediaCodec.BUFFER_FLAG_KEY_FRAME) != 0) {
+            segment = rotateSegment(segment);
+        }
+        // 分段内的时间戳从0开始
+        presentationTimeUs = mNormalizer.normalize(isVideo ? RecordingClock.TRACK_VIDEO : RecordingClock.TRACK_AUDIO,
+                presentationTimeUs);
+        if (presentationTimeUs < 0)
+            return;
+        int size = data.remaining();
+        mWriteInfo.set(data.position(), size, presentationTimeUs, flags);
+        segment.muxer.writeSampleData(isVideo ? segment.videoTrackIndex : segment.audioTrackIndex, data, mWriteInfo);
+        if (RecordMp4.DEBUG)
+            Log.d(TAG, String.format("sent %s [" + size + "] with timestamp:[%d] to muxer", isVideo ? "video" : "audio", presentationTimeUs / 1000));
+
+        long elapsed = System.currentTimeMillis() - segment.beginMillis;
+        if (mNextSegment == null && elapsed >= durationMillis - Math.min(PREPARE_AHEAD_MILLIS, durationMillis / 2)) {
+            mNextSegment = mSegmentExecutor.submit(new PrepareSegmentTask(segmentPath(index + 1),
+                    mVideoFormat, mAudioFormat));
+        }
+        if (!isRotatePending && elapsed >= durationMillis) {
+            if (RecordMp4.DEBUG)
+                Log.i(TAG, "record file reach expiration，wait for key frame to create new file:" + (index + 1));
+            isRotatePending = true;
+            OnKeyFrameRequestListener listener = mKeyFrameRequestListener;
+            if (listener != null) {
+                listener.onKeyFrameRequest();
+            }
+        }
+    }
+
+    // 切换到已准备好的下一个分段，旧分段交给后台线程关闭
+    private Segment rotateSegment(Segment current) {
+        if (mNextSegment == null || !mNextSegment.isDone()) {
+            // 下一个文件还没准备好，继续写当前文件，等下一个关键帧
+            if (RecordMp4.DEBUG)
+                Log.w(TAG, "next segment is not ready yet");
+            return current;
+        }
+        Segment next;
+        try {
+            next = mNextSegment.get();
+        } catch (Exception e) {
+            next = null;
+        }
+        mNextSegment = null;
+        if (next == null) {
+            // 准备失败，下次关键帧重试
+            return current;
+        }
+        next.muxer.start();
+        next.beginMillis = System.currentTimeMillis();
+        mSegment = next;
+        mNormalizer.startSegment();
+        index++;
+        isRotatePending = false;
+        mSegmentExecutor.execute(new FinishSegmentTask(current, false));
+        if (RecordMp4.DEBUG)
+            Log.i(TAG, "switch to new file:" + next.path);
+        return next;
+    }
+
+    private String segmentPath(int segmentIndex) {
+        return segmentIndex == 0 ? mFilePath : mFilePath + "-" + segmentIndex + ".mp4";
+    }
+
+    /** 后台创建下一个分段文件并添加轨道，不启动，切换时再启动；轨道格式在提交时取得，执行时不加锁 */
+    private class PrepareSegmentTask implements Callable<Segment> {
+        private final String mPath;
+        private final MediaFormat mVideoFormat;
+        private final MediaFormat mAudioFormat;
+
+        PrepareSegmentTask(String path, MediaFormat videoFormat, MediaFormat audioFormat) {
+            this.mPath = path;
+            this.mVideoFormat = videoFormat;
+            this.mAudioFormat = audioFormat;
+        }
+
+        @Override
+        public Segment call() throws Exception {
+            return openSegment(mPath, mVideoFormat, mAudioFormat);
+        }
+    }
+
+    // 创建分段文件并添加音视频轨道，不启动
+    private Segment openSegment(String path, MediaFormat videoFormat, MediaFormat audioFormat) throws IOException {
+        Segment segment = new Segment(path, createBackend(path));
+        segment.videoTrackIndex = segment.muxer.addTrack(videoFormat, true);
+        segment.audioTrackIndex = segment.muxer.addTrack(audioFormat, false);
+        return segment;
+    }
+
+    /** 后台关闭分段文件，isDiscard为true时删除未使用或过短的文件 */
+    private static class FinishSegmentTask implements Runnable {
+        private final Segment mSegment;
+        private final boolean isDiscard;
+
+        FinishSegmentTask(Segment segment, boolean isDiscard) {
+            this.mSegment = segment;
+            this.isDiscard = isDiscard;
+        }
+
+        @Override
+        public void run() {
+            long begin = System.currentTimeMillis();
+            try {
+                if (!isDiscard) {
+                    mSegment.muxer.stop();
                 }
+                mSegment.muxer.release();
+            } catch (IllegalStateException ex) {
+                ex.printStackTrace();
+            }
+            if (isDiscard) {
+                new File(mSegment.path).delete();
+            }
+            if (RecordMp4.DEBUG)
+                Log.i(TAG, String.format("finish %s in %dms", mSegment.path, System.currentTimeMillis() - begin));
+        }
+    }
+
+    /** 后台删除提前准备但未使用的分段，排在PrepareSegmentTask之后执行，调用方不必等待准备完成 */
+    private static class DiscardSegmentTask implements Runnable {
+        private final Future<Segment> mFuture;
+
+        DiscardSegmentTask(Future<Segment> future) {
+            this.mFuture = future;
+        }
+
+        @Override
+        public void run() {
+            Segment segment;
+            try {
+                segment = mFuture.get();
+            } catch (Exception e) {
+                e.printStackTrace();
+                return;
+            }
+            if (segment != null) {
+                new FinishSegmentTask(segment, true).run();
+            }
+        }
+    }
+
+    public void release() {
+        // 先让写线程写完队列中剩余的样本(包括待写入的预录数据)，等待时不持有this锁
+        mSampleQueue.close();
+        try {
+            mWriterThread.join(RELEASE_TIMEOUT_MILLIS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        synchronized (this) {
+            releaseSegments();
+        }
+        // 等待所有分段文件关闭完成
+        mSegmentExecutor.shutdown();
+        try {
+            mSegmentExecutor.awaitTermination(RELEASE_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // 写线程结束后关闭当前分段，丢弃未使用的分段
+    private void releaseSegments() {
+        isMuxerStarted = false;
+        Segment segment = mSegment;
+        mSegment = null;
+        // 丢弃提前准备但未使用的分段，准备任务可能还排在队列中，不在这里等待
+        if (mNextSegment != null) {
+            mSegmentExecutor.execute(new DiscardSegmentTask(mNextSegment));
+            mNextSegment = null;
+        }
+        if (segment != null) {
+            if (segment.audioTrackIndex != -1 && segment.videoTrackIndex != -1) {
+                if (RecordMp4.DEBUG)
+                    Log.i(TAG, String.format("muxer is started. now it will be stoped."));
+                boolean isTooShort = System.currentTimeMillis() - segment.beginMillis <= 1500;
+                mSegmentExecutor.execute(new FinishSegmentTask(segment, isTooShort));
+            }else{
+                if (RecordMp4.DEBUG)
+                    Log.i(TAG, String.format("muxer is failed to be stoped."));
+                mSegmentExecutor.execute(new FinishSegmentTask(segment, true));
             }
         }
     }
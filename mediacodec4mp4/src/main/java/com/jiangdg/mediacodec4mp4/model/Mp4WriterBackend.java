@@ -0,0 +1,82 @@
+package com.jiangdg.mediacodec4mp4.model;
+
+import android.media.MediaCodec;
+import android.media.MediaFormat;
+import android.util.Log;
+
+import com.jiangdg.mediacodec4mp4.mp4.AvcUtil;
+import com.jiangdg.mediacodec4mp4.mp4.Mp4Writer;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/** 基于纯Java Mp4Writer的封装器后端
+ * <p>
+ * SPS、PPS和AudioSpecificConfig从编码器输出格式的csd-0、csd-1中取得。
+ * 写文件出错时只记录日志，不向编码线程抛出异常。
+ */
+public class Mp4WriterBackend implements MuxerBackend {
+    private static final String TAG = "Mp4WriterBackend";
+    private final Mp4Writer mWriter;
+
+    public Mp4WriterBackend(String path) throws IOException {
+        this(path, 0);
+    }
+
+    /**
+     * @param fragmentDurationMs 分片时长，大于0时输出分片MP4
+     */
+    public Mp4WriterBackend(String path, long fragmentDurationMs) throws IOException {
+        mWriter = new Mp4Writer(new File(path), fragmentDurationMs);
+    }
+
+    @Override
+    public int addTrack(MediaFormat format, boolean isVideo) {
+        if (isVideo) {
+            byte[] sps = AvcUtil.stripStartCode(format.getByteBuffer("csd-0"));
+            byte[] pps = AvcUtil.stripStartCode(format.getByteBuffer("csd-1"));
+            return mWriter.addVideoTrack(format.getInteger(MediaFormat.KEY_WIDTH),
+                    format.getInteger(MediaFormat.KEY_HEIGHT), sps, pps);
+        }
+        ByteBuffer csd = format.getByteBuffer("csd-0").duplicate();
+        byte[] asc = new byte[csd.remaining()];
+        csd.get(asc);
+        return mWriter.addAudioTrack(format.getInteger(MediaFormat.KEY_SAMPLE_RATE),
+                format.getInteger(MediaFormat.KEY_CHANNEL_COUNT), asc);
+    }
+
+    @Override
+    public void start() {
+        try {
+            mWriter.start();
+        } catch (IOException e) {
+            Log.e(TAG, "start failed：" + e.getMessage());
+        }
+    }
+
+    @Override
+    public void writeSampleData(int trackIndex, ByteBuffer buffer, MediaCodec.BufferInfo bufferInfo) {
+        try {
+            mWriter.writeSample(trackIndex, buffer, bufferInfo.presentationTimeUs,
+                    (bufferInfo.flags & MediaCodec.BUFFER_FLAG_KEY_FRAME) != 0);
+        } catch (IOException e) {
+            Log.e(TAG, "write sample failed：" + e.getMessage());
+        }
+    }
+
+    @Override
+    public void stop() {
+        try {
+            mWriter.close();
+        } catch (IOException e) {
+            Log.e(TAG, "close failed：" + e.getMessage());
+        }
+    }
+
+    @Override
+    public void release() {
+        // 未调用stop()时也要关闭文件，close()可重复调用
+        stop();
+    }
+}
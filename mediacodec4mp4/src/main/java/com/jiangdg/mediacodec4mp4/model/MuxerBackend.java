@@ -0,0 +1,29 @@
+package com.jiangdg.mediacodec4mp4.model;
+
+import android.media.MediaCodec;
+import android.media.MediaFormat;
+
+import java.nio.ByteBuffer;
+
+/** MP4封装器后端，接口与MediaMuxer保持一致，由MediaMuxerUtil按录制参数选择
+ */
+public interface MuxerBackend {
+
+    enum Type {
+        /** android.media.MediaMuxer */
+        ANDROID,
+        /** 纯Java实现的Mp4Writer */
+        MP4_WRITER
+    }
+
+    /** 添加轨道，format为编码器INFO_OUTPUT_FORMAT_CHANGED时的输出格式，返回轨道索引 */
+    int addTrack(MediaFormat format, boolean isVideo);
+
+    void start();
+
+    void writeSampleData(int trackIndex, ByteBuffer buffer, MediaCodec.BufferInfo bufferInfo);
+
+    void stop();
+
+    void release();
+}
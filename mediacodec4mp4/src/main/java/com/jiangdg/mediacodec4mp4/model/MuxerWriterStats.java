@@ -0,0 +1,101 @@
+package com.jiangdg.mediacodec4mp4.model;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/** 混合器写线程统计信息：样本队列深度、编码线程等待时间、写文件耗时
+ */
+public class MuxerWriterStats {
+    private final AtomicLong mEnqueuedCount = new AtomicLong();
+    private final AtomicLong mPeakQueueDepth = new AtomicLong();
+    private final AtomicLong mStallCount = new AtomicLong();
+    private final AtomicLong mStallNanos = new AtomicLong();
+    private final AtomicLong mWrittenCount = new AtomicLong();
+    private final AtomicLong mWriteNanos = new AtomicLong();
+    private final AtomicLong mMaxWriteNanos = new AtomicLong();
+    private volatile int mQueueDepth;
+    private volatile int mQueueCapacity;
+
+    void setQueueCapacity(int queueCapacity) {
+        mQueueCapacity = queueCapacity;
+    }
+
+    void onEnqueued(int queueDepth) {
+        mEnqueuedCount.incrementAndGet();
+        mQueueDepth = queueDepth;
+        long peak = mPeakQueueDepth.get();
+        while (queueDepth > peak && !mPeakQueueDepth.compareAndSet(peak, queueDepth)) {
+            peak = mPeakQueueDepth.get();
+        }
+    }
+
+    void onStall(long stallNanos) {
+        mStallCount.incrementAndGet();
+        mStallNanos.addAndGet(stallNanos);
+    }
+
+    void onWritten(long writeNanos, int queueDepth) {
+        mWrittenCount.incrementAndGet();
+        mWriteNanos.addAndGet(writeNanos);
+        mQueueDepth = queueDepth;
+        long max = mMaxWriteNanos.get();
+        while (writeNanos > max && !mMaxWriteNanos.compareAndSet(max, writeNanos)) {
+            max = mMaxWriteNanos.get();
+        }
+    }
+
+    /** 当前排队等待写入的样本数 */
+    public int getQueueDepth() {
+        return mQueueDepth;
+    }
+
+    /** 样本队列长度 */
+    public int getQueueCapacity() {
+        return mQueueCapacity;
+    }
+
+    public long getPeakQueueDepth() {
+        return mPeakQueueDepth.get();
+    }
+
+    public long getEnqueuedCount() {
+        return mEnqueuedCount.get();
+    }
+
+    /** 队列满导致编码线程等待的次数 */
+    public long getStallCount() {
+        return mStallCount.get();
+    }
+
+    /** 编码线程因队列满累计等待的时间，单位毫秒 */
+    public long getStallMillis() {
+        return mStallNanos.get() / 1000000;
+    }
+
+    public long getWrittenCount() {
+        return mWrittenCount.get();
+    }
+
+    /** 写入样本的累计耗时，单位微秒 */
+    public long getTotalWriteUs() {
+        return mWriteNanos.get() / 1000;
+    }
+
+    /** 写入一个样本的平均耗时，单位微秒 */
+    public long getAverageWriteUs() {
+        long count = mWrittenCount.get();
+        return count == 0 ? 0 : mWriteNanos.get() / count / 1000;
+    }
+
+    /** 写入一个样本的最大耗时，单位微秒 */
+    public long getMaxWriteUs() {
+        return mMaxWriteNanos.get() / 1000;
+    }
+
+    @Override
+    public String toString() {
+        return "MuxerWriterStats{depth=" + getQueueDepth() + ", peakDepth=" + getPeakQueueDepth()
+                + ", enqueued=" + getEnqueuedCount() + ", written=" + getWrittenCount()
+                + ", avgWriteUs=" + getAverageWriteUs() + ", maxWriteUs=" + getMaxWriteUs()
+                + ", stalls=" + getStallCount() + ", stallMs=" + getStallMillis() + "}";
+    }
+}
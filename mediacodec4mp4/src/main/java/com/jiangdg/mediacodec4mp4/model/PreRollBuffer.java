@@ -0,0 +1,248 @@
+package com.jiangdg.mediacodec4mp4.model;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/** 预录缓存(行车记录仪模式)，在内存中循环保存最近一段编码样本
+ * <p>
+ * 样本数据拷贝到一块固定大小的直接内存中循环使用，内存占用由字节预算决定，不随样本数增长。
+ * 空间不足或超过最大时长时按GOP整体淘汰最旧的数据，缓存中的第一个样本总是视频关键帧，
+ * 保证写出的文件可以从头解码。非线程安全，调用者负责同步。
+ */
+public class PreRollBuffer {
+    // 同MediaCodec.BUFFER_FLAG_KEY_FRAME
+    public static final int BUFFER_FLAG_KEY_FRAME = 1;
+
+    /** 接收缓存样本的回调，data的position~limit为样本数据，只在回调内有效 */
+    public interface SampleSink {
+        void onSample(ByteBuffer data, long presentationTimeUs, int flags, boolean isVideo);
+    }
+
+    private final ByteBuffer mArena;
+    private final ByteBuffer mView;
+    private final long mMaxDurationUs;
+    private int mWritePos;
+    // 样本索引，循环数组，mHead为最旧的样本
+    private int[] mOffsets = new int[512];
+    private int[] mSizes = new int[512];
+    private long[] mPtsUs = new long[512];
+    private int[] mFlags = new int[512];
+    private boolean[] mIsVideo = new boolean[512];
+    private int mHead;
+    private int mCount;
+    private int mKeyFrameCount;
+    private long mBufferedBytes;
+    // 统计信息
+    private long mEvictedGopCount;
+    private long mDroppedCount;
+
+    /**
+     * @param budgetBytes 缓存的字节预算
+     * @param maxDurationMs 最多保留的时长，小于等于0时只受字节预算限制
+     */
+    public PreRollBuffer(int budgetBytes, long maxDurationMs) {
+        if (budgetBytes <= 0)
+            throw new IllegalArgumentException("budgetBytes must be positive");
+        mArena = ByteBuffer.allocateDirect(budgetBytes);
+        mView = mArena.duplicate();
+        mMaxDurationUs = Math.max(0, maxDurationMs) * 1000L;
+    }
+
+    /**
+     * 缓存一个样本，拷贝src的position~limit，src的position不变
+     *
+     * @return false表示样本被丢弃：缓存为空时等待视频关键帧，或样本比整个预算还大
+     */
+    public boolean add(ByteBuffer src, long presentationTimeUs, int flags, boolean isVideo) {
+        int size = src.remaining();
+        boolean isKeyFrame = isVideo && (flags & BUFFER_FLAG_KEY_FRAME) != 0;
+        if (size > mArena.capacity()) {
+            clear();
+            mDroppedCount++;
+            return false;
+        }
+        int offset;
+        while (true) {
+            if (mCount == 0 && !isKeyFrame) {
+                mDroppedCount++;
+                return false;
+            }
+            offset = allocate(size);
+            if (offset >= 0)
+                break;
+            evictOldestGop();
+        }
+        int position = src.position();
+        mView.clear();
+        mView.position(offset);
+        mView.put(src);
+        src.position(position);
+        mWritePos = offset + size;
+        append(offset, size, presentationTimeUs, flags, isVideo, isKeyFrame);
+        // 超过最大时长时淘汰最旧的GOP，但保证剩余数据仍不短于最大时长
+        while (mMaxDurationUs > 0 && mKeyFrameCount >= 2
+                && presentationTimeUs - secondKeyFramePtsUs() >= mMaxDurationUs) {
+            evictOldestGop();
+        }
+        return true;
+    }
+
+    // 在循环内存中找一段连续空间，找不到返回-1
+    private int allocate(int size) {
+        if (mCount == 0) {
+            mWritePos = 0;
+            return 0;
+        }
+        int oldest = mOffsets[mHead];
+        if (mWritePos > oldest) {
+            if (mArena.capacity() - mWritePos >= size)
+                return mWritePos;
+            // 尾部不够，绕回开头，尾部剩余空间暂时浪费
+            return size <= oldest ? 0 : -1;
+        }
+        if (mWritePos < oldest && oldest - mWritePos >= size)
+            return mWritePos;
+        return -1;
+    }
+
+    private void append(int offset, int size, long ptsUs, int flags, boolean isVideo, boolean isKeyFrame) {
+        if (mCount == mSizes.length) {
+            grow();
+        }
+        int index = (mHead + mCount) % mSizes.length;
+        mOffsets[index] = offset;
+        mSizes[index] = size;
+        mPtsUs[index] = ptsUs;
+        mFlags[index] = flags;
+        mIsVideo[index] = isVideo;
+        mCount++;
+        mBufferedBytes += size;
+        if (isKeyFrame) {
+            mKeyFrameCount++;
+        }
+    }
+
+    private void grow() {
+        int capacity = mSizes.length * 2;
+        int[] offsets = new int[capacity];
+        int[] sizes = new int[capacity];
+        long[] pts = new long[capacity];
+        int[] flags = new int[capacity];
+        boolean[] isVideo = new boolean[capacity];
+        for (int i = 0; i < mCount; i++) {
+            int index = (mHead + i) % mSizes.length;
+            offsets[i] = mOffsets[index];
+            sizes[i] = mSizes[index];
+            pts[i] = mPtsUs[index];
+            flags[i] = mFlags[index];
+            isVideo[i] = mIsVideo[index];
+        }
+        mOffsets = offsets;
+        mSizes = sizes;
+        mPtsUs = pts;
+        mFlags = flags;
+        mIsVideo = isVideo;
+        mHead = 0;
+    }
+
+    private boolean isKeyFrame(int index) {
+        return mIsVideo[index] && (mFlags[index] & BUFFER_FLAG_KEY_FRAME) != 0;
+    }
+
+    private long secondKeyFramePtsUs() {
+        for (int i = 1; i < mCount; i++) {
+            int index = (mHead + i) % mSizes.length;
+            if (isKeyFrame(index))
+                return mPtsUs[index];
+        }
+        return Long.MAX_VALUE;
+    }
+
+    // 淘汰最旧的GOP：从队首的关键帧开始，直到下一个视频关键帧，期间的音频一并淘汰
+    private void evictOldestGop() {
+        if (mCount == 0)
+            return;
+        removeHead();
+        while (mCount > 0 && !isKeyFrame(mHead)) {
+            removeHead();
+        }
+        mEvictedGopCount++;
+    }
+
+    private void removeHead() {
+        if (isKeyFrame(mHead)) {
+            mKeyFrameCount--;
+        }
+        mBufferedBytes -= mSizes[mHead];
+        mHead = (mHead + 1) % mSizes.length;
+        mCount--;
+    }
+
+    /** 按写入顺序输出所有缓存样本，然后清空 */
+    public void drainTo(SampleSink sink) {
+        for (int i = 0; i < mCount; i++) {
+            int index = (mHead + i) % mSizes.length;
+            mView.clear();
+            mView.position(mOffsets[index]);
+            mView.limit(mOffsets[index] + mSizes[index]);
+            sink.onSample(mView, mPtsUs[index], mFlags[index], mIsVideo[index]);
+        }
+        clear();
+    }
+
+    public void clear() {
+        mHead = 0;
+        mCount = 0;
+        mKeyFrameCount = 0;
+        mBufferedBytes = 0;
+        mWritePos = 0;
+    }
+
+    public int getBudgetBytes() {
+        return mArena.capacity();
+    }
+
+    public int getSampleCount() {
+        return mCount;
+    }
+
+    /** 缓存中样本数据的总字节数 */
+    public long getBufferedBytes() {
+        return mBufferedBytes;
+    }
+
+    /** 缓存覆盖的时长，单位微秒 */
+    public long getBufferedDurationUs() {
+        if (mCount == 0)
+            return 0;
+        long first = Long.MAX_VALUE;
+        long last = Long.MIN_VALUE;
+        for (int i = 0; i < mCount; i++) {
+            long pts = mPtsUs[(mHead + i) % mSizes.length];
+            first = Math.min(first, pts);
+            last = Math.max(last, pts);
+        }
+        return last - first;
+    }
+
+    /** 第一个样本是否为视频关键帧(缓存不为空时总是成立) */
+    public boolean startsWithKeyFrame() {
+        return mCount > 0 && isKeyFrame(mHead);
+    }
+
+    public long getEvictedGopCount() {
+        return mEvictedGopCount;
+    }
+
+    /** 等待关键帧或样本过大而丢弃的样本数 */
+    public long getDroppedCount() {
+        return mDroppedCount;
+    }
+
+    @Override
+    public String toString() {
+        return "PreRollBuffer{bytes=" + mBufferedBytes + "/" + mArena.capacity() + ", samples=" + mCount
+                + ", durationMs=" + getBufferedDurationUs() / 1000 + ", evictedGops=" + mEvictedGopCount
+                + ", dropped=" + mDroppedCount + "}";
+    }
+}
@@ -0,0 +1,178 @@
+package com.jiangdg.mediacodec4mp4.model;
+
+/** 一次录制的音视频主时钟，两个编码线程共用，不依赖MediaCodec，可脱离设备测试
+ * <p>
+ * 音视频的采集时间都基于System.nanoTime()(视频为预览回调时间，音频由AudioClock推算)，
+ * 送入编码器前由toPresentationUs()换算为录制时间：减去开始时间和此前暂停的总时长，
+ * 开始之前和暂停期间采集的数据返回-1，由调用方丢弃。每个轨道的时间戳保证严格递增。
+ * 同时统计每个轨道从采集到送入编码器的延迟，以及音频相对视频的偏移(漂移)。
+ */
+public class RecordingClock {
+    public static final int TRACK_VIDEO = 0;
+    public static final int TRACK_AUDIO = 1;
+    // 偏移的平滑系数
+    private static final float LEAD_SMOOTHING = 0.05f;
+
+    /** 单个轨道的统计 */
+    public static final class TrackStats {
+        private long mCount;
+        private long mDroppedCount;
+        private long mCorrectedCount;
+        private long mLastPtsUs = -1;
+        private long mLastLatencyUs;
+        private long mMaxLatencyUs;
+        private long mTotalLatencyUs;
+        // 时间戳与送入时录制时间之差的平滑值，负数表示时间戳落后
+        private float mLeadUs;
+
+        /** 换算成功的样本数 */
+        public long getCount() {
+            return mCount;
+        }
+
+        /** 因开始前或暂停期间采集而丢弃的样本数 */
+        public long getDroppedCount() {
+            return mDroppedCount;
+        }
+
+        /** 时间戳不递增而被修正的次数 */
+        public long getCorrectedCount() {
+            return mCorrectedCount;
+        }
+
+        public long getLastPtsUs() {
+            return mLastPtsUs;
+        }
+
+        /** 最近一个样本从采集到送入编码器的延迟，单位微秒 */
+        public long getLastLatencyUs() {
+            return mLastLatencyUs;
+        }
+
+        public long getMaxLatencyUs() {
+            return mMaxLatencyUs;
+        }
+
+        public long getAverageLatencyUs() {
+            return mCount == 0 ? 0 : mTotalLatencyUs / mCount;
+        }
+
+        @Override
+        public String toString() {
+            return "{count=" + mCount + ", dropped=" + mDroppedCount + ", corrected=" + mCorrectedCount
+                    + ", latencyUs=" + getAverageLatencyUs() + "/" + mMaxLatencyUs + "}";
+        }
+    }
+
+    private final TrackStats[] mTracks = {new TrackStats(), new TrackStats()};
+    private long mStartNs = -1;
+    private boolean isPaused;
+    private long mPauseBeginNs;
+    // 已结束的暂停总时长，以及最近一次暂停的区间
+    private long mPausedTotalNs;
+    private long mLastPauseBeginNs = -1;
+    private long mLastPauseEndNs = -1;
+
+    /** 开始录制，之前采集的数据被丢弃 */
+    public synchronized void start(long nowNs) {
+        mStartNs = nowNs;
+        isPaused = false;
+        mPausedTotalNs = 0;
+        mLastPauseBeginNs = -1;
+        mLastPauseEndNs = -1;
+    }
+
+    public synchronized boolean isStarted() {
+        return mStartNs >= 0;
+    }
+
+    /** 暂停录制，暂停期间采集的数据被丢弃，恢复后时间戳从暂停处继续 */
+    public synchronized void pause(long nowNs) {
+        if (mStartNs < 0 || isPaused)
+            return;
+        isPaused = true;
+        mPauseBeginNs = nowNs;
+    }
+
+    public synchronized void resume(long nowNs) {
+        if (!isPaused)
+            return;
+        isPaused = false;
+        mLastPauseBeginNs = mPauseBeginNs;
+        mLastPauseEndNs = Math.max(nowNs, mPauseBeginNs);
+        mPausedTotalNs += mLastPauseEndNs - mLastPauseBeginNs;
+    }
+
+    public synchronized boolean isPaused() {
+        return isPaused;
+    }
+
+    /** 已暂停的总时长，包括正在进行的暂停 */
+    public synchronized long getPausedNs(long nowNs) {
+        return mPausedTotalNs + (isPaused ? nowNs - mPauseBeginNs : 0);
+    }
+
+    /** 录制时长，不含暂停 */
+    public synchronized long getElapsedUs(long nowNs) {
+        if (mStartNs < 0)
+            return 0;
+        return (nowNs - mStartNs - getPausedNs(nowNs)) / 1000;
+    }
+
+    /**
+     * 采集时间换算为编码器时间戳
+     *
+     * @param track TRACK_VIDEO或TRACK_AUDIO
+     * @param captureNs 采集时间，System.nanoTime()
+     * @param nowNs 送入编码器的时间，用于统计延迟
+     * @return 录制时间，单位微秒；需要丢弃时返回-1
+     */
+    public synchronized long toPresentationUs(int track, long captureNs, long nowNs) {
+        TrackStats stats = mTracks[track];
+        if (mStartNs < 0 || captureNs < mStartNs || (isPaused && captureNs >= mPauseBeginNs)
+                || (captureNs >= mLastPauseBeginNs && captureNs < mLastPauseEndNs)) {
+            stats.mDroppedCount++;
+            return -1;
+        }
+        // 最近一次暂停之前采集的数据(延迟较大时)不减去这次暂停
+        long pausedNs = captureNs < mLastPauseBeginNs ? mPausedTotalNs - (mLastPauseEndNs - mLastPauseBeginNs)
+                : mPausedTotalNs;
+        long ptsUs = (captureNs - mStartNs - pausedNs) / 1000;
+        if (ptsUs <= stats.mLastPtsUs) {
+            ptsUs = stats.mLastPtsUs + 1;
+            stats.mCorrectedCount++;
+        }
+        stats.mLastPtsUs = ptsUs;
+        stats.mCount++;
+        long latencyUs = Math.max(0, (nowNs - captureNs) / 1000);
+        stats.mLastLatencyUs = latencyUs;
+        stats.mMaxLatencyUs = Math.max(stats.mMaxLatencyUs, latencyUs);
+        stats.mTotalLatencyUs += latencyUs;
+        float leadUs = ptsUs - (nowNs - mStartNs - mPausedTotalNs) / 1000;
+        stats.mLeadUs = stats.mCount == 1 ? leadUs : stats.mLeadUs + (leadUs - stats.mLeadUs) * LEAD_SMOOTHING;
+        return ptsUs;
+    }
+
+    /** 轨道统计，返回的对象由时钟持续更新 */
+    public TrackStats getTrackStats(int track) {
+        return mTracks[track];
+    }
+
+    /**
+     * 音频相对视频的偏移(平滑值)，正数表示音频时间戳超前，单位微秒，
+     * 即两个轨道从采集到送入编码器的延迟之差；任一轨道还没有数据时为0
+     */
+    public synchronized long getAvDriftUs() {
+        TrackStats video = mTracks[TRACK_VIDEO];
+        TrackStats audio = mTracks[TRACK_AUDIO];
+        if (video.mCount == 0 || audio.mCount == 0)
+            return 0;
+        return (long) (audio.mLeadUs - video.mLeadUs);
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "RecordingClock{video=" + mTracks[TRACK_VIDEO] + ", audio=" + mTracks[TRACK_AUDIO]
+                + ", avDriftUs=" + getAvDriftUs() + ", pausedMs=" + mPausedTotalNs / 1000000 + "}";
+    }
+}
@@ -17,6 +17,9 @@ import android.os.AsyncTask;
 import android.util.Log;
 
 import com.jiangdg.mediacodec4mp4.bean.YUVBean;
+import com.jiangdg.mediacodec4mp4.utils.FrameBufferPool;
+import com.jiangdg.yuvosd.JavaYuvConverter;
+import com.jiangdg.yuvosd.YuvConverter;
 
 /**保存YUV格式图片
  *	YV12格式，则先转换为NV21格式，实现Java回调机制返回操作结果
@@ -24,44 +27,95 @@ import com.jiangdg.mediacodec4mp4.bean.YUVBean;
  */
 public class SaveYuvImageTask extends AsyncTask<Void, Void, Void> {
 	private static final String TAG = "SaveYuvImageTask";	
+	private static final YuvConverter YUV_CONVERTER = new JavaYuvConverter();
 	private YUVBean yuvBean;
+	// 复制、转换所用的缓存池，为null时直接分配
+	private FrameBufferPool mFramePool;
 	//转换结果回调接口
 	private OnSaveYuvResultListener mListener;
+	private OnYuvDataReleaseListener mReleaseListener;
 	
 	public interface OnSaveYuvResultListener{
 		void onSaveResult(boolean result, String savePath);
 	}
 
+	/** 原始YUV数据拷贝完成，可以归还给Camera */
+	public interface OnYuvDataReleaseListener{
+		void onYuvDataRelease(byte[] yuvData);
+	}
+
 	public SaveYuvImageTask(YUVBean yuvBean, OnSaveYuvResultListener mListener) {
+		this(yuvBean, null, mListener);
+	}
+
+	public SaveYuvImageTask(YUVBean yuvBean, FrameBufferPool framePool, OnSaveYuvResultListener mListener) {
 		this.yuvBean = yuvBean;
+		this.mFramePool = framePool;
 		this.mListener = mListener;
 	}
 	
+	public void setOnYuvDataReleaseListener(OnYuvDataReleaseListener listener) {
+		this.mReleaseListener = listener;
+	}
+
 	@Override
 	protected Void doInBackground(Void... params) {   
 		if (yuvBean == null || yuvBean.getWidth() == 0
 				|| yuvBean.getHeight() == 0 || yuvBean.getYuvData() == null) {
+			releaseYuvData();
 			return null;
 		}
 		int width = yuvBean.getWidth();
 		int height = yuvBean.getHeight();
 		// 复制一份，防止再操作原始数据时出现异常
-		byte[] mData = new byte[width * height * 3 /2];
-		System.arraycopy(yuvBean.getYuvData(),0,mData,0,yuvBean.getYuvData().length);
+		byte[] mData = acquireBuffer(width, height);
+		try {
+			try {
+				System.arraycopy(yuvBean.getYuvData(),0,mData,0,yuvBean.getYuvData().length);
+			} finally {
+				releaseYuvData();
+			}
 
-		boolean isEnableSoftCodec = yuvBean.isEnableSoftCodec();
-		if(isEnableSoftCodec){
-			byte[] mFrameData = new byte[width*height*3/2];
-			YV12toNV21(mData,mFrameData,width,height);				
-			saveYuv2Jpeg(mFrameData,width,height);
-			Log.i(TAG, "使用软编码，将YV12转换为NV21");
-		}else{			
-			saveYuv2Jpeg(mData,width,height);			
-			Log.i(TAG, "使用硬编码，无需转换");
-		} 
+			boolean isEnableSoftCodec = yuvBean.isEnableSoftCodec();
+			if(isEnableSoftCodec){
+				byte[] mFrameData = acquireBuffer(width, height);
+				try {
+					YV12toNV21(mData,mFrameData,width,height);
+					saveYuv2Jpeg(mFrameData,width,height);
+				} finally {
+					releaseBuffer(mFrameData);
+				}
+				Log.i(TAG, "使用软编码，将YV12转换为NV21");
+			}else{
+				saveYuv2Jpeg(mData,width,height);
+				Log.i(TAG, "使用硬编码，无需转换");
+			}
+		} finally {
+			releaseBuffer(mData);
+		}
 		return null;
 	}
 
+	private void releaseYuvData() {
+		if (mReleaseListener != null && yuvBean != null) {
+			mReleaseListener.onYuvDataRelease(yuvBean.getYuvData());
+			mReleaseListener = null;
+		}
+	}
+
+	private byte[] acquireBuffer(int width, int height) {
+		if (mFramePool != null && mFramePool.getBufferSize() == FrameBufferPool.yuv420Size(width, height)) {
+			return mFramePool.acquire();
+		}
+		return new byte[FrameBufferPool.yuv420Size(width, height)];
+	}
+
+	private void releaseBuffer(byte[] buffer) {
+		if (mFramePool != null) {
+			mFramePool.release(buffer);
+		}
+	}
+
 	private void saveYuv2Jpeg(byte[] data,int width,int height){
 		YuvImage yuvImage = new YuvImage(data, ImageFormat.NV21, width, height, null);
 		ByteArrayOutputStream bos = new ByteArrayOutputStream(data.length);
@@ -100,20 +154,14 @@ public class SaveYuvImageTask extends AsyncTask<Void, Void, Void> {
     private void YV12toNV21(final byte[] input, final byte[] output,
 			final int width, final int height) {
 		final int frameSize = width * height;  //YUV格式Y分量的长度  一帧Y =w*h个像素(字节);  U=Z=Y/4字节   一帧图像内存大小 = Y+U+Z字节
-		final int qFrameSize = frameSize / 4;
-		final int tempFrameSize = frameSize * 5 / 4;
 		if(input==null || output==null){
 			return;
 		}
 		//处理修改分辨率时，报的ArrayOutOfBoundsException
-		if(input.length < frameSize){
+		if(input.length < frameSize * 3 / 2){
 			return;
 		}
-		System.arraycopy(input, 0, output, 0, frameSize); // Y
-		for (int i = 0; i < qFrameSize; i++) {
-			output[frameSize + i * 2] = input[frameSize + i]; // Cb (U)
-			output[frameSize + i * 2 + 1] = input[tempFrameSize + i]; // Cr (V)
-		}
+		YUV_CONVERTER.convert(input, YuvConverter.FORMAT_YV12, output, YuvConverter.FORMAT_NV21, width, height);
 	}
    
 	private Bitmap rotatingImageView(Bitmap bitmap){
@@ -0,0 +1,194 @@
+package com.jiangdg.mediacodec4mp4.model;
+
+import android.annotation.TargetApi;
+import android.media.MediaCodec;
+import android.media.MediaFormat;
+import android.os.Build;
+import android.util.Log;
+import android.view.Surface;
+
+import com.jiangdg.mediacodec4mp4.RecordMp4;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/** 同步轮询方式驱动MediaCodec，兼容API 18~20
+ * <p>
+ * 输入、输出缓存区数组只在启动和INFO_OUTPUT_BUFFERS_CHANGED时获取一次，
+ * 不再每次轮询都调用getInputBuffers()/getOutputBuffers()。
+ */
+public class SyncEncoderEngine implements EncoderEngine {
+    private static final String TAG = "SyncEncoderEngine";
+    private final EncoderEngineStats mStats = new EncoderEngineStats();
+    private final MediaCodec.BufferInfo mBufferInfo = new MediaCodec.BufferInfo();
+    private MediaCodec mCodec;
+    private OutputListener mListener;
+    private ByteBuffer[] mInputBuffers;
+    private ByteBuffer[] mOutputBuffers;
+    // 最近的输出格式，复用时回放给新的监听者
+    private MediaFormat mOutputFormat;
+    private Surface mInputSurface;
+    private volatile boolean isStarted;
+
+    @Override
+    public void start(String codecName, MediaFormat format, OutputListener listener) throws IOException {
+        mListener = listener;
+        mCodec = MediaCodec.createByCodecName(codecName);
+        mCodec.configure(format, null, null, MediaCodec.CONFIGURE_FLAG_ENCODE);
+        // 需在configure()之后、start()之前创建
+        if (EncoderEngineFactory.isSurfaceInput(format)) {
+            mInputSurface = mCodec.createInputSurface();
+        }
+        mCodec.start();
+        if (!isLollipop()) {
+            mInputBuffers = mInputSurface == null ? mCodec.getInputBuffers() : null;
+            mOutputBuffers = mCodec.getOutputBuffers();
+        }
+        isStarted = true;
+    }
+
+    @TargetApi(21)
+    @Override
+    public boolean queueInput(InputWriter writer, long presentationTimeUs, int flags, long timeoutUs) {
+        if (!isStarted)
+            return false;
+        long begin = System.nanoTime();
+        int inputBufferIndex = mCodec.dequeueInputBuffer(timeoutUs);
+        if (inputBufferIndex < 0) {
+            mStats.onInputTimeout(System.nanoTime() - begin);
+            return false;
+        }
+        mStats.onInputQueued(System.nanoTime() - begin);
+        ByteBuffer inputBuffer = isLollipop() ? mCodec.getInputBuffer(inputBufferIndex)
+                : mInputBuffers[inputBufferIndex];
+        inputBuffer.clear();
+        int size = writer == null ? 0 : writer.write(inputBuffer);
+        mCodec.queueInputBuffer(inputBufferIndex, 0, size, presentationTimeUs, flags);
+        return true;
+    }
+
+    @TargetApi(21)
+    @Override
+    public void drainOutput(long timeoutUs) {
+        if (!isStarted)
+            return;
+        long timeout = timeoutUs;
+        while (true) {
+            int outputBufferIndex = mCodec.dequeueOutputBuffer(mBufferInfo, timeout);
+            // 只有第一次等待，之后有数据就一次取完
+            timeout = 0;
+            if (outputBufferIndex == MediaCodec.INFO_TRY_AGAIN_LATER) {
+                mStats.onEmptyPoll();
+                break;
+            } else if (outputBufferIndex == MediaCodec.INFO_OUTPUT_BUFFERS_CHANGED) {
+                // 如果API小于21，APP需要重新绑定编码器的输出缓存区
+                if (!isLollipop()) {
+                    mOutputBuffers = mCodec.getOutputBuffers();
+                }
+            } else if (outputBufferIndex == MediaCodec.INFO_OUTPUT_FORMAT_CHANGED) {
+                mOutputFormat = mCodec.getOutputFormat();
+                if (mListener != null) {
+                    mListener.onOutputFormatChanged(mOutputFormat);
+                }
+            } else if (outputBufferIndex >= 0) {
+                ByteBuffer outputBuffer = isLollipop() ? mCodec.getOutputBuffer(outputBufferIndex)
+                        : mOutputBuffers[outputBufferIndex];
+                if (outputBuffer == null) {
+                    throw new RuntimeException("encodecOutputBuffer" + outputBufferIndex + "was null");
+                }
+                // 根据BufferInfo的offset偏移量调整ByteBuffer的位置，否则API<=19时输出数据会混乱
+                outputBuffer.position(mBufferInfo.offset);
+                outputBuffer.limit(mBufferInfo.offset + mBufferInfo.size);
+                mStats.onOutput();
+                if (mListener != null) {
+                    mListener.onOutputBuffer(outputBuffer, mBufferInfo);
+                }
+                mCodec.releaseOutputBuffer(outputBufferIndex, false);
+                // 数据流结束标志，结束本次循环
+                if ((mBufferInfo.flags & MediaCodec.BUFFER_FLAG_END_OF_STREAM) != 0) {
+                    if (RecordMp4.DEBUG)
+                        Log.i(TAG, "数据流结束，退出循环");
+                    break;
+                }
+            } else {
+                break;
+            }
+        }
+    }
+
+    @Override
+    public boolean isAsync() {
+        return false;
+    }
+
+    @Override
+    public boolean isStarted() {
+        return isStarted;
+    }
+
+    @Override
+    public MediaCodec getCodec() {
+        return mCodec;
+    }
+
+    @Override
+    public Surface getInputSurface() {
+        return mInputSurface;
+    }
+
+    @Override
+    public void stop() {
+        isStarted = false;
+        if (mCodec != null) {
+            try {
+                mCodec.stop();
+            } catch (IllegalStateException e) {
+                e.printStackTrace();
+            }
+            mCodec.release();
+            mCodec = null;
+        }
+        if (mInputSurface != null) {
+            mInputSurface.release();
+            mInputSurface = null;
+        }
+        mInputBuffers = null;
+        mOutputBuffers = null;
+        mOutputFormat = null;
+    }
+
+    @Override
+    public boolean park() {
+        // 输入Surface与上次的渲染环境绑定，不复用
+        if (!isStarted || mOutputFormat == null || mInputSurface != null)
+            return false;
+        mListener = null;
+        try {
+            // 同步模式下flush后编码器仍处于运行状态，输入、输出缓存区数组不变
+            mCodec.flush();
+        } catch (IllegalStateException e) {
+            return false;
+        }
+        return true;
+    }
+
+    @Override
+    public void reuse(OutputListener listener) {
+        if (!isStarted || mOutputFormat == null)
+            throw new IllegalStateException("encoder is not parked");
+        mListener = listener;
+        if (listener != null) {
+            listener.onOutputFormatChanged(mOutputFormat);
+        }
+    }
+
+    @Override
+    public EncoderEngineStats getStats() {
+        return mStats;
+    }
+
+    private static boolean isLollipop() {
+        // API>=21
+        return Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP;
+    }
+}
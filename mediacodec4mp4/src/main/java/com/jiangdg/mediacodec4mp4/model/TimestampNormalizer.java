@@ -0,0 +1,81 @@
+package com.jiangdg.mediacodec4mp4.model;
+
+/** 写入混合器前按分段整理时间戳，只在混合器写线程中使用
+ * <p>
+ * 每个分段以写入的第一个样本(切换分段时为视频关键帧)为零点，之后的样本减去该零点，
+ * 分段文件的时间戳都从0开始。零点之前的样本(切换时还在队列中的旧音频)丢弃。
+ * 音频在分段内严格递增，不递增时改为上一个值加1。视频按解码顺序写入，
+ * 有B帧时显示时间戳本来就不递增，只做平移，不做修正。
+ */
+public class TimestampNormalizer {
+    private static final int TRACK_COUNT = 2;
+
+    private long mBaseUs = -1;
+    private final long[] mLastUs = new long[TRACK_COUNT];
+    private final long[] mDroppedCount = new long[TRACK_COUNT];
+    private final long[] mCorrectedCount = new long[TRACK_COUNT];
+    private int mSegmentCount;
+
+    public TimestampNormalizer() {
+        startSegment();
+    }
+
+    /** 开始新的分段，下一个样本作为零点 */
+    public void startSegment() {
+        mBaseUs = -1;
+        mLastUs[RecordingClock.TRACK_VIDEO] = -1;
+        mLastUs[RecordingClock.TRACK_AUDIO] = -1;
+        mSegmentCount++;
+    }
+
+    /**
+     * @param track RecordingClock.TRACK_VIDEO或TRACK_AUDIO
+     * @return 分段内的时间戳，需要丢弃时返回-1
+     */
+    public long normalize(int track, long presentationTimeUs) {
+        if (mBaseUs < 0) {
+            mBaseUs = presentationTimeUs;
+        }
+        if (presentationTimeUs < mBaseUs) {
+            mDroppedCount[track]++;
+            return -1;
+        }
+        long us = presentationTimeUs - mBaseUs;
+        if (track == RecordingClock.TRACK_AUDIO && us <= mLastUs[track]) {
+            us = mLastUs[track] + 1;
+            mCorrectedCount[track]++;
+        }
+        mLastUs[track] = us;
+        return us;
+    }
+
+    /** 当前分段的零点，对应输入时间戳，还没有样本时为-1 */
+    public long getBaseUs() {
+        return mBaseUs;
+    }
+
+    /** 当前分段内最后一个样本的时间戳，还没有样本时为-1 */
+    public long getLastUs(int track) {
+        return mLastUs[track];
+    }
+
+    public long getDroppedCount(int track) {
+        return mDroppedCount[track];
+    }
+
+    public long getCorrectedCount(int track) {
+        return mCorrectedCount[track];
+    }
+
+    public int getSegmentCount() {
+        return mSegmentCount;
+    }
+
+    @Override
+    public String toString() {
+        return "TimestampNormalizer{segments=" + mSegmentCount + ", video dropped/corrected="
+                + mDroppedCount[RecordingClock.TRACK_VIDEO] + "/" + mCorrectedCount[RecordingClock.TRACK_VIDEO]
+                + ", audio dropped/corrected=" + mDroppedCount[RecordingClock.TRACK_AUDIO] + "/"
+                + mCorrectedCount[RecordingClock.TRACK_AUDIO] + "}";
+    }
+}
@@ -0,0 +1,113 @@
+package com.jiangdg.mediacodec4mp4.mp4;
+
+import java.nio.ByteBuffer;
+
+/** H.264码流工具：Annex-B起始码查找、转换为MP4使用的长度前缀格式 */
+public final class AvcUtil {
+    public static final int NAL_TYPE_SLICE = 1;
+    public static final int NAL_TYPE_IDR = 5;
+    public static final int NAL_TYPE_SEI = 6;
+    public static final int NAL_TYPE_SPS = 7;
+    public static final int NAL_TYPE_PPS = 8;
+    public static final int NAL_TYPE_AUD = 9;
+
+    private AvcUtil() {
+    }
+
+    /**
+     * 从from开始查找起始码00 00 01
+     *
+     * @return 起始码第一个字节的位置，找不到返回-1
+     */
+    public static int findStartCode(ByteBuffer buffer, int from, int limit) {
+        for (int i = from; i + 2 < limit; i++) {
+            if ((buffer.get(i + 2) & 0xFF) > 1) {
+                // 快速跳过：第三个字节大于1时，i、i+1、i+2都不可能是起始码的开头
+                i += 2;
+            } else if (buffer.get(i) == 0 && buffer.get(i + 1) == 0 && buffer.get(i + 2) == 1) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /** 数据是否以Annex-B起始码(00 00 01或00 00 00 01)开头 */
+    public static boolean isAnnexB(ByteBuffer buffer) {
+        int pos = buffer.position();
+        int remaining = buffer.remaining();
+        if (remaining >= 3 && buffer.get(pos) == 0 && buffer.get(pos + 1) == 0) {
+            if (buffer.get(pos + 2) == 1)
+                return true;
+            return remaining >= 4 && buffer.get(pos + 2) == 0 && buffer.get(pos + 3) == 1;
+        }
+        return false;
+    }
+
+    /** 去掉起始码，返回NAL单元内容，如从csd-0中取出SPS */
+    public static byte[] stripStartCode(ByteBuffer buffer) {
+        ByteBuffer src = buffer.duplicate();
+        int pos = src.position();
+        int limit = src.limit();
+        int start = findStartCode(src, pos, limit);
+        if (start == pos || (start == pos + 1 && src.get(pos) == 0)) {
+            src.position(start + 3);
+        }
+        byte[] nal = new byte[src.remaining()];
+        src.get(nal);
+        return nal;
+    }
+
+    /** 一帧Annex-B数据中是否包含IDR图像 */
+    public static boolean containsIdr(ByteBuffer buffer) {
+        int limit = buffer.limit();
+        int start = findStartCode(buffer, buffer.position(), limit);
+        while (start >= 0 && start + 3 < limit) {
+            if ((buffer.get(start + 3) & 0x1F) == NAL_TYPE_IDR)
+                return true;
+            start = findStartCode(buffer, start + 3, limit);
+        }
+        return false;
+    }
+
+    /** 转换后最多需要的字节数：3字节起始码换成4字节长度时数据会变长 */
+    public static int maxAvccSize(int annexBSize) {
+        return annexBSize + annexBSize / 4 + 4;
+    }
+
+    /**
+     * 把src(position~limit)中的Annex-B数据转换为4字节长度前缀格式写入dst，
+     * 不移动src的position。src不是Annex-B格式时原样拷贝。
+     *
+     * @return 写入dst的字节数
+     */
+    public static int annexBToAvcc(ByteBuffer src, ByteBuffer dst) {
+        int pos = src.position();
+        int limit = src.limit();
+        int begin = dst.position();
+        if (!isAnnexB(src)) {
+            dst.put(src.duplicate());
+            return dst.position() - begin;
+        }
+        ByteBuffer nal = src.duplicate();
+        int start = findStartCode(src, pos, limit);
+        while (start >= 0) {
+            int nalStart = start + 3;
+            int next = findStartCode(src, nalStart, limit);
+            int nalEnd = next < 0 ? limit : next;
+            // 去掉NAL尾部的0，包括4字节起始码的第一个0
+            while (nalEnd > nalStart && src.get(nalEnd - 1) == 0) {
+                nalEnd--;
+            }
+            int length = nalEnd - nalStart;
+            if (length > 0) {
+                dst.putInt(length);
+                nal.limit(nalEnd);
+                nal.position(nalStart);
+                dst.put(nal);
+                nal.limit(limit);
+            }
+            start = next;
+        }
+        return dst.position() - begin;
+    }
+}
@@ -0,0 +1,118 @@
+package com.jiangdg.mediacodec4mp4.mp4;
+
+import java.nio.ByteBuffer;
+
+/** 在内存中构造ISO BMFF box，支持嵌套，box长度在endBox()时回填 */
+final class Mp4BoxWriter {
+    private static final int MAX_DEPTH = 16;
+    private ByteBuffer mBuffer;
+    private final int[] mBoxStarts = new int[MAX_DEPTH];
+    private int mDepth;
+
+    Mp4BoxWriter(int initialCapacity) {
+        mBuffer = ByteBuffer.allocate(initialCapacity);
+    }
+
+    void reset() {
+        mBuffer.clear();
+        mDepth = 0;
+    }
+
+    void startBox(String type) {
+        if (mDepth >= MAX_DEPTH)
+            throw new IllegalStateException("box nesting too deep");
+        mBoxStarts[mDepth++] = mBuffer.position();
+        putInt(0);
+        putFourCC(type);
+    }
+
+    void startFullBox(String type, int version, int flags) {
+        startBox(type);
+        putInt((version << 24) | (flags & 0xFFFFFF));
+    }
+
+    void endBox() {
+        if (mDepth <= 0)
+            throw new IllegalStateException("no open box");
+        int start = mBoxStarts[--mDepth];
+        mBuffer.putInt(start, mBuffer.position() - start);
+    }
+
+    void putByte(int value) {
+        ensure(1);
+        mBuffer.put((byte) value);
+    }
+
+    void putShort(int value) {
+        ensure(2);
+        mBuffer.putShort((short) value);
+    }
+
+    void putInt24(int value) {
+        ensure(3);
+        mBuffer.put((byte) (value >> 16));
+        mBuffer.put((byte) (value >> 8));
+        mBuffer.put((byte) value);
+    }
+
+    void putInt(int value) {
+        ensure(4);
+        mBuffer.putInt(value);
+    }
+
+    /** 回填之前写入的int，如表项个数 */
+    void putIntAt(int position, int value) {
+        mBuffer.putInt(position, value);
+    }
+
+    void putLong(long value) {
+        ensure(8);
+        mBuffer.putLong(value);
+    }
+
+    void putFourCC(String type) {
+        ensure(4);
+        for (int i = 0; i < 4; i++) {
+            mBuffer.put((byte) type.charAt(i));
+        }
+    }
+
+    void putBytes(byte[] data) {
+        putBytes(data, 0, data.length);
+    }
+
+    void putBytes(byte[] data, int offset, int length) {
+        ensure(length);
+        mBuffer.put(data, offset, length);
+    }
+
+    void putZeros(int count) {
+        ensure(count);
+        for (int i = 0; i < count; i++) {
+            mBuffer.put((byte) 0);
+        }
+    }
+
+    int position() {
+        return mBuffer.position();
+    }
+
+    /** 返回已写入内容的只读视图，position为0，limit为已写入长度 */
+    ByteBuffer toBuffer() {
+        if (mDepth != 0)
+            throw new IllegalStateException("unclosed box");
+        ByteBuffer out = mBuffer.duplicate();
+        out.flip();
+        return out;
+    }
+
+    private void ensure(int bytes) {
+        if (mBuffer.remaining() >= bytes)
+            return;
+        int capacity = Math.max(mBuffer.capacity() * 2, mBuffer.position() + bytes);
+        ByteBuffer bigger = ByteBuffer.allocate(capacity);
+        mBuffer.flip();
+        bigger.put(mBuffer);
+        mBuffer = bigger;
+    }
+}
@@ -0,0 +1,129 @@
+package com.jiangdg.mediacodec4mp4.mp4;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/** 一条音频或视频轨道：编码参数和样本表 */
+final class Mp4Track {
+    static final int VIDEO_TIMESCALE = 90000;
+    // AAC每帧固定1024个采样点
+    static final int AAC_SAMPLES_PER_FRAME = 1024;
+
+    final int trackId;
+    final boolean isVideo;
+    final int timescale;
+    // 视频参数
+    int width;
+    int height;
+    byte[] sps;
+    byte[] pps;
+    // 音频参数
+    int sampleRate;
+    int channelCount;
+    byte[] audioSpecificConfig;
+
+    // 样本表，按解码顺序存放
+    private long[] mPtsUs = new long[256];
+    private int[] mSizes = new int[256];
+    private long[] mOffsets = new long[256];
+    private boolean[] mSyncs = new boolean[256];
+    private int mSampleCount;
+    // 分片模式下缓存当前分片的样本数据，写分片时整体写入mdat
+    private ByteBuffer mFragmentData;
+
+    Mp4Track(int trackId, boolean isVideo, int timescale) {
+        this.trackId = trackId;
+        this.isVideo = isVideo;
+        this.timescale = timescale;
+    }
+
+    void addSample(long offset, int size, long ptsUs, boolean isSync) {
+        if (mSampleCount == mSizes.length) {
+            int capacity = mSizes.length * 2;
+            mPtsUs = Arrays.copyOf(mPtsUs, capacity);
+            mSizes = Arrays.copyOf(mSizes, capacity);
+            mOffsets = Arrays.copyOf(mOffsets, capacity);
+            mSyncs = Arrays.copyOf(mSyncs, capacity);
+        }
+        mPtsUs[mSampleCount] = ptsUs;
+        mSizes[mSampleCount] = size;
+        mOffsets[mSampleCount] = offset;
+        mSyncs[mSampleCount] = !isVideo || isSync;
+        mSampleCount++;
+    }
+
+    /** 清空样本表，分片模式下每个分片写完后调用 */
+    void clearSamples() {
+        mSampleCount = 0;
+    }
+
+    /** 保证分片缓存至少还能写入bytes字节，返回position位于已有数据末尾的缓存 */
+    ByteBuffer fragmentData(int bytes) {
+        if (mFragmentData == null) {
+            mFragmentData = ByteBuffer.allocateDirect(Math.max(bytes, 256 * 1024));
+        } else if (mFragmentData.remaining() < bytes) {
+            ByteBuffer bigger = ByteBuffer.allocateDirect(Math.max(mFragmentData.capacity() * 2,
+                    mFragmentData.position() + bytes));
+            mFragmentData.flip();
+            bigger.put(mFragmentData);
+            mFragmentData = bigger;
+        }
+        return mFragmentData;
+    }
+
+    /** 当前分片已缓存的数据，position为0 */
+    ByteBuffer flipFragmentData() {
+        if (mFragmentData == null)
+            return null;
+        mFragmentData.flip();
+        return mFragmentData;
+    }
+
+    int getFragmentDataSize() {
+        return mFragmentData == null ? 0 : mFragmentData.position();
+    }
+
+    void clearFragmentData() {
+        if (mFragmentData != null) {
+            mFragmentData.clear();
+        }
+    }
+
+    int getSampleCount() {
+        return mSampleCount;
+    }
+
+    long getPtsUs(int index) {
+        return mPtsUs[index];
+    }
+
+    int getSize(int index) {
+        return mSizes[index];
+    }
+
+    long getOffset(int index) {
+        return mOffsets[index];
+    }
+
+    boolean isSync(int index) {
+        return mSyncs[index];
+    }
+
+    /** 样本是否与前一个样本在文件中连续，连续的样本归入同一个chunk */
+    boolean isContinuation(int index) {
+        return index > 0 && mOffsets[index] == mOffsets[index - 1] + mSizes[index - 1];
+    }
+
+    long usToTimescale(long us) {
+        return (us * timescale + 500000L) / 1000000L;
+    }
+
+    /** 最后一个样本的默认时长，单位为轨道timescale */
+    long defaultSampleDuration() {
+        if (isVideo) {
+            return timescale / 30;
+        }
+        return timescale == sampleRate ? AAC_SAMPLES_PER_FRAME
+                : (long) AAC_SAMPLES_PER_FRAME * timescale / Math.max(sampleRate, 1);
+    }
+}
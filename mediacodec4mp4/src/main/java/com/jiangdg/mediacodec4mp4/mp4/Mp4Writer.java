@@ -0,0 +1,742 @@
+package com.jiangdg.mediacodec4mp4.mp4;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/** 纯Java实现的MP4(ISO BMFF)封装器，不依赖android.media.MediaMuxer
+ * <p>
+ * 普通模式的文件结构为ftyp + mdat + moov：start()写入ftyp和mdat头，样本数据顺序追加到mdat，
+ * close()回填mdat长度(使用64位largesize，支持超过4G的文件)，并在文件末尾写入moov。
+ * <p>
+ * 分片模式(fragmentDurationMs大于0)的文件结构为ftyp + moov + (moof + mdat)*：
+ * start()即写入不含样本的moov，样本在内存中按轨道缓存，达到分片时长后在下一个视频关键帧处
+ * 写出一个moof + mdat并force()落盘(关键帧迟迟不来时，超过两倍分片时长强制切分)。
+ * 进程被杀时最多丢失最后一个未写出的分片，录制过程中文件即可播放。
+ * H.264样本由Annex-B起始码格式转换为4字节长度前缀格式；AAC样本为不带ADTS头的原始帧。
+ * 非线程安全，调用者需保证串行调用。
+ */
+public class Mp4Writer implements Closeable {
+    private static final int MOVIE_TIMESCALE = 1000;
+    // mdat头：size(1) + 'mdat' + largesize
+    private static final int MDAT_HEADER_SIZE = 16;
+    private static final int LANGUAGE_UND = 0x55C4;
+    // trun：data-offset、sample-duration、sample-size、sample-flags、sample-composition-time-offset
+    private static final int TRUN_FLAGS = 0x000001 | 0x000100 | 0x000200 | 0x000400 | 0x000800;
+    // tfhd：default-base-is-moof
+    private static final int TFHD_FLAGS = 0x020000;
+    private static final int SAMPLE_FLAGS_SYNC = 0x02000000;
+    private static final int SAMPLE_FLAGS_NON_SYNC = 0x01010000;
+    private static final int[] UNITY_MATRIX = {0x00010000, 0, 0, 0, 0x00010000, 0, 0, 0, 0x40000000};
+
+    private final File mFile;
+    private final RandomAccessFile mRandomAccessFile;
+    private final FileChannel mChannel;
+    private final List<Mp4Track> mTracks = new ArrayList<>();
+    private final Mp4BoxWriter mBoxWriter = new Mp4BoxWriter(4096);
+    // H.264格式转换用的缓存，按需扩容
+    private ByteBuffer mScratch;
+    private long mMdatStart;
+    private long mWritePosition;
+    private boolean isStarted;
+    private boolean isClosed;
+    // 分片模式
+    private final long mFragmentDurationUs;
+    private long mBasePtsUs = -1;
+    private long mFragmentStartUs = -1;
+    private int mSequenceNumber;
+    private boolean hasVideoTrack;
+
+    public Mp4Writer(File file) throws IOException {
+        this(file, 0);
+    }
+
+    /**
+     * @param fragmentDurationMs 分片时长，大于0时输出分片MP4
+     */
+    public Mp4Writer(File file, long fragmentDurationMs) throws IOException {
+        this.mFile = file;
+        this.mFragmentDurationUs = Math.max(0, fragmentDurationMs) * 1000L;
+        this.mRandomAccessFile = new RandomAccessFile(file, "rw");
+        this.mRandomAccessFile.setLength(0);
+        this.mChannel = mRandomAccessFile.getChannel();
+    }
+
+    /**
+     * 添加H.264视频轨道
+     *
+     * @param sps 不带起始码的SPS
+     * @param pps 不带起始码的PPS
+     * @return 轨道索引
+     */
+    public int addVideoTrack(int width, int height, byte[] sps, byte[] pps) {
+        if (sps == null || sps.length < 4 || pps == null)
+            throw new IllegalArgumentException("invalid sps/pps");
+        Mp4Track track = newTrack(true, Mp4Track.VIDEO_TIMESCALE);
+        hasVideoTrack = true;
+        track.width = width;
+        track.height = height;
+        track.sps = sps;
+        track.pps = pps;
+        return mTracks.size() - 1;
+    }
+
+    /**
+     * 添加AAC音频轨道
+     *
+     * @param audioSpecificConfig AudioSpecificConfig，即AAC编码器输出的csd-0
+     * @return 轨道索引
+     */
+    public int addAudioTrack(int sampleRate, int channelCount, byte[] audioSpecificConfig) {
+        if (sampleRate <= 0 || audioSpecificConfig == null)
+            throw new IllegalArgumentException("invalid audio config");
+        Mp4Track track = newTrack(false, sampleRate);
+        track.sampleRate = sampleRate;
+        track.channelCount = channelCount;
+        track.audioSpecificConfig = audioSpecificConfig;
+        return mTracks.size() - 1;
+    }
+
+    private Mp4Track newTrack(boolean isVideo, int timescale) {
+        if (isStarted)
+            throw new IllegalStateException("can not add track after start");
+        Mp4Track track = new Mp4Track(mTracks.size() + 1, isVideo, timescale);
+        mTracks.add(track);
+        return track;
+    }
+
+    /** 写入ftyp和mdat头，之后才能写入样本 */
+    public void start() throws IOException {
+        if (isStarted)
+            throw new IllegalStateException("already started");
+        if (mTracks.isEmpty())
+            throw new IllegalStateException("no track added");
+        isStarted = true;
+        mBoxWriter.reset();
+        writeFtyp(mBoxWriter);
+        mWritePosition = 0;
+        if (isFragmented()) {
+            writeMoov(mBoxWriter);
+            writeFully(mBoxWriter.toBuffer());
+            mChannel.force(false);
+            return;
+        }
+        mBoxWriter.putInt(1);
+        mBoxWriter.putFourCC("mdat");
+        mBoxWriter.putLong(0);
+        mMdatStart = mBoxWriter.position() - MDAT_HEADER_SIZE;
+        writeFully(mBoxWriter.toBuffer());
+    }
+
+    /**
+     * 写入一个样本(一帧)，data的position~limit为有效数据，调用后position不变
+     *
+     * @param ptsUs 显示时间戳，单位微秒
+     * @param isSyncFrame 是否为关键帧，音频忽略
+     */
+    public void writeSample(int trackIndex, ByteBuffer data, long ptsUs, boolean isSyncFrame) throws IOException {
+        if (!isStarted || isClosed)
+            throw new IllegalStateException("writer is not started");
+        Mp4Track track = mTracks.get(trackIndex);
+        if (isFragmented()) {
+            writeFragmentSample(track, data, ptsUs, isSyncFrame);
+            return;
+        }
+        long offset = mWritePosition;
+        int size;
+        if (track.isVideo) {
+            ensureScratch(AvcUtil.maxAvccSize(data.remaining()));
+            mScratch.clear();
+            size = AvcUtil.annexBToAvcc(data, mScratch);
+            mScratch.flip();
+            writeFully(mScratch);
+        } else {
+            int position = data.position();
+            size = data.remaining();
+            writeFully(data);
+            data.position(position);
+        }
+        track.addSample(offset, size, ptsUs, isSyncFrame);
+    }
+
+    /** 回填mdat长度并写入moov，关闭文件 */
+    @Override
+    public void close() throws IOException {
+        if (isClosed)
+            return;
+        isClosed = true;
+        try {
+            if (isStarted && isFragmented()) {
+                flushFragment();
+            } else if (isStarted) {
+                ByteBuffer largeSize = ByteBuffer.allocate(8);
+                largeSize.putLong(0, mWritePosition - mMdatStart);
+                mChannel.write(largeSize, mMdatStart + 8);
+                mBoxWriter.reset();
+                writeMoov(mBoxWriter);
+                writeFully(mBoxWriter.toBuffer());
+                mChannel.force(false);
+            }
+        } finally {
+            mChannel.close();
+            mRandomAccessFile.close();
+        }
+    }
+
+    public File getFile() {
+        return mFile;
+    }
+
+    public boolean isStarted() {
+        return isStarted;
+    }
+
+    public boolean isFragmented() {
+        return mFragmentDurationUs > 0;
+    }
+
+    /** 已写出的分片个数 */
+    public int getFragmentCount() {
+        return mSequenceNumber;
+    }
+
+    /** 已写入文件的字节数，普通模式不含moov，分片模式不含缓存中的分片 */
+    public long getWrittenBytes() {
+        return mWritePosition;
+    }
+
+    public int getSampleCount(int trackIndex) {
+        return mTracks.get(trackIndex).getSampleCount();
+    }
+
+    private void ensureScratch(int size) {
+        if (mScratch == null || mScratch.capacity() < size) {
+            mScratch = ByteBuffer.allocateDirect(Math.max(size, mScratch == null ? 0 : mScratch.capacity() * 2));
+        }
+    }
+
+    private void writeFully(ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            mWritePosition += mChannel.write(buffer, mWritePosition);
+        }
+    }
+
+    private void writeFragmentSample(Mp4Track track, ByteBuffer data, long ptsUs, boolean isSyncFrame) throws IOException {
+        if (mBasePtsUs < 0) {
+            mBasePtsUs = ptsUs;
+        }
+        if (mFragmentStartUs >= 0) {
+            long elapsed = ptsUs - mFragmentStartUs;
+            boolean isCutPoint = !hasVideoTrack || (track.isVideo && isSyncFrame);
+            if ((isCutPoint && elapsed >= mFragmentDurationUs) || elapsed >= 2 * mFragmentDurationUs) {
+                flushFragment();
+            }
+        }
+        if (mFragmentStartUs < 0) {
+            mFragmentStartUs = ptsUs;
+        }
+        int size;
+        if (track.isVideo) {
+            size = AvcUtil.annexBToAvcc(data, track.fragmentData(AvcUtil.maxAvccSize(data.remaining())));
+        } else {
+            int position = data.position();
+            size = data.remaining();
+            track.fragmentData(size).put(data);
+            data.position(position);
+        }
+        track.addSample(track.getFragmentDataSize() - size, size, ptsUs, isSyncFrame);
+    }
+
+    /** 把缓存的样本写成一个moof + mdat并落盘 */
+    private void flushFragment() throws IOException {
+        int dataSize = 0;
+        for (Mp4Track track : mTracks) {
+            dataSize += track.getFragmentDataSize();
+        }
+        mFragmentStartUs = -1;
+        if (dataSize == 0)
+            return;
+        Mp4BoxWriter w = mBoxWriter;
+        w.reset();
+        w.startBox("moof");
+        w.startFullBox("mfhd", 0, 0);
+        w.putInt(++mSequenceNumber);
+        w.endBox();
+        int[] dataOffsetPositions = new int[mTracks.size()];
+        for (int t = 0; t < mTracks.size(); t++) {
+            Mp4Track track = mTracks.get(t);
+            int count = track.getSampleCount();
+            dataOffsetPositions[t] = -1;
+            if (count == 0)
+                continue;
+            // 解码时间取分片内排序后的显示时间，合成时间偏移允许为负(trun version 1)
+            long[] pts = new long[count];
+            for (int i = 0; i < count; i++) {
+                pts[i] = track.usToTimescale(track.getPtsUs(i) - mBasePtsUs);
+            }
+            long[] dts = pts.clone();
+            Arrays.sort(dts);
+            w.startBox("traf");
+            w.startFullBox("tfhd", 0, TFHD_FLAGS);
+            w.putInt(track.trackId);
+            w.endBox();
+            w.startFullBox("tfdt", 1, 0);
+            w.putLong(Math.max(0, dts[0]));
+            w.endBox();
+            w.startFullBox("trun", 1, TRUN_FLAGS);
+            w.putInt(count);
+            dataOffsetPositions[t] = w.position();
+            w.putInt(0);
+            long lastDuration = track.defaultSampleDuration();
+            for (int i = 0; i < count; i++) {
+                long duration = i + 1 < count ? dts[i + 1] - dts[i] : lastDuration;
+                lastDuration = duration;
+                w.putInt((int) duration);
+                w.putInt(track.getSize(i));
+                w.putInt(track.isSync(i) ? SAMPLE_FLAGS_SYNC : SAMPLE_FLAGS_NON_SYNC);
+                w.putInt((int) (pts[i] - dts[i]));
+            }
+            w.endBox();
+            w.endBox();
+        }
+        w.endBox();
+        // data_offset相对moof起点，各轨道数据在mdat中依次排列
+        int dataOffset = w.position() + 8;
+        for (int t = 0; t < mTracks.size(); t++) {
+            if (dataOffsetPositions[t] >= 0) {
+                w.putIntAt(dataOffsetPositions[t], dataOffset);
+                dataOffset += mTracks.get(t).getFragmentDataSize();
+            }
+        }
+        w.putInt(8 + dataSize);
+        w.putFourCC("mdat");
+        writeFully(w.toBuffer());
+        for (Mp4Track track : mTracks) {
+            ByteBuffer data = track.flipFragmentData();
+            if (data != null) {
+                writeFully(data);
+            }
+            track.clearFragmentData();
+            track.clearSamples();
+        }
+        mChannel.force(false);
+    }
+
+    private void writeFtyp(Mp4BoxWriter w) {
+        w.startBox("ftyp");
+        if (isFragmented()) {
+            w.putFourCC("iso5");
+            w.putInt(0x200);
+            w.putFourCC("iso5");
+            w.putFourCC("iso6");
+            w.putFourCC("avc1");
+            w.putFourCC("mp41");
+            w.endBox();
+            return;
+        }
+        w.putFourCC("isom");
+        w.putInt(0x200);
+        w.putFourCC("isom");
+        w.putFourCC("iso2");
+        w.putFourCC("avc1");
+        w.putFourCC("mp41");
+        w.endBox();
+    }
+
+    /** 由样本的显示时间戳推算解码时间、样本时长和合成时间偏移(ctts) */
+    private static final class Timing {
+        long startUs;
+        long[] durations;
+        int[] compositionOffsets;
+        // 合成时间偏移整体右移量，保证ctts非负，由编辑列表抵消
+        long shift;
+        long mediaDuration;
+        boolean hasCompositionOffsets;
+    }
+
+    private static Timing computeTiming(Mp4Track track) {
+        int count = track.getSampleCount();
+        Timing timing = new Timing();
+        timing.durations = new long[count];
+        timing.compositionOffsets = new int[count];
+        if (count == 0)
+            return timing;
+        long startUs = Long.MAX_VALUE;
+        for (int i = 0; i < count; i++) {
+            startUs = Math.min(startUs, track.getPtsUs(i));
+        }
+        timing.startUs = startUs;
+        long[] pts = new long[count];
+        for (int i = 0; i < count; i++) {
+            pts[i] = track.usToTimescale(track.getPtsUs(i) - startUs);
+        }
+        // 解码时间取排序后的显示时间，有B帧时显示顺序与解码顺序不同
+        long[] dts = pts.clone();
+        Arrays.sort(dts);
+        long minOffset = 0;
+        for (int i = 0; i < count; i++) {
+            timing.durations[i] = i + 1 < count ? dts[i + 1] - dts[i]
+                    : (count > 1 ? timing.durations[i - 1] : track.defaultSampleDuration());
+            long offset = pts[i] - dts[i];
+            timing.compositionOffsets[i] = (int) offset;
+            minOffset = Math.min(minOffset, offset);
+        }
+        if (count > 1 && timing.durations[count - 1] <= 0) {
+            timing.durations[count - 1] = track.defaultSampleDuration();
+        }
+        timing.shift = -minOffset;
+        for (int i = 0; i < count; i++) {
+            timing.compositionOffsets[i] += timing.shift;
+            if (timing.compositionOffsets[i] != 0) {
+                timing.hasCompositionOffsets = true;
+            }
+        }
+        timing.mediaDuration = dts[count - 1] + timing.durations[count - 1];
+        return timing;
+    }
+
+    private void writeMoov(Mp4BoxWriter w) {
+        Timing[] timings = new Timing[mTracks.size()];
+        long baseUs = Long.MAX_VALUE;
+        for (int i = 0; i < timings.length; i++) {
+            timings[i] = computeTiming(mTracks.get(i));
+            if (mTracks.get(i).getSampleCount() > 0) {
+                baseUs = Math.min(baseUs, timings[i].startUs);
+            }
+        }
+        long movieDuration = 0;
+        long[] trackDurations = new long[timings.length];
+        long[] emptyEdits = new long[timings.length];
+        for (int i = 0; i < timings.length; i++) {
+            Mp4Track track = mTracks.get(i);
+            if (track.getSampleCount() > 0) {
+                // 轨道晚于整个文件的起点开始，用空编辑补齐，保持音视频同步
+                emptyEdits[i] = (timings[i].startUs - baseUs) * MOVIE_TIMESCALE / 1000000L;
+            }
+            trackDurations[i] = emptyEdits[i] + timings[i].mediaDuration * MOVIE_TIMESCALE / track.timescale;
+            movieDuration = Math.max(movieDuration, trackDurations[i]);
+        }
+
+        w.startBox("moov");
+        w.startFullBox("mvhd", 0, 0);
+        w.putInt(0);
+        w.putInt(0);
+        w.putInt(MOVIE_TIMESCALE);
+        w.putInt((int) movieDuration);
+        w.putInt(0x00010000);
+        w.putShort(0x0100);
+        w.putZeros(10);
+        putMatrix(w);
+        w.putZeros(24);
+        w.putInt(mTracks.size() + 1);
+        w.endBox();
+        for (int i = 0; i < timings.length; i++) {
+            writeTrak(w, mTracks.get(i), timings[i], trackDurations[i], emptyEdits[i]);
+        }
+        if (isFragmented()) {
+            w.startBox("mvex");
+            for (Mp4Track track : mTracks) {
+                w.startFullBox("trex", 0, 0);
+                w.putInt(track.trackId);
+                w.putInt(1);
+                w.putInt(0);
+                w.putInt(0);
+                w.putInt(0);
+                w.endBox();
+            }
+            w.endBox();
+        }
+        w.endBox();
+    }
+
+    private static void putMatrix(Mp4BoxWriter w) {
+        for (int value : UNITY_MATRIX) {
+            w.putInt(value);
+        }
+    }
+
+    private void writeTrak(Mp4BoxWriter w, Mp4Track track, Timing timing, long duration, long emptyEdit) {
+        w.startBox("trak");
+        w.startFullBox("tkhd", 0, 0x7);
+        w.putInt(0);
+        w.putInt(0);
+        w.putInt(track.trackId);
+        w.putInt(0);
+        w.putInt((int) duration);
+        w.putZeros(8);
+        w.putShort(0);
+        w.putShort(track.isVideo ? 0 : 1);
+        w.putShort(track.isVideo ? 0 : 0x0100);
+        w.putShort(0);
+        putMatrix(w);
+        w.putInt(track.isVideo ? track.width << 16 : 0);
+        w.putInt(track.isVideo ? track.height << 16 : 0);
+        w.endBox();
+
+        if (emptyEdit > 0 || timing.shift > 0) {
+            w.startBox("edts");
+            w.startFullBox("elst", 0, 0);
+            w.putInt(emptyEdit > 0 ? 2 : 1);
+            if (emptyEdit > 0) {
+                w.putInt((int) emptyEdit);
+                w.putInt(-1);
+                w.putInt(0x00010000);
+            }
+            w.putInt((int) (duration - emptyEdit));
+            w.putInt((int) timing.shift);
+            w.putInt(0x00010000);
+            w.endBox();
+            w.endBox();
+        }
+
+        w.startBox("mdia");
+        w.startFullBox("mdhd", 0, 0);
+        w.putInt(0);
+        w.putInt(0);
+        w.putInt(track.timescale);
+        w.putInt((int) timing.mediaDuration);
+        w.putShort(LANGUAGE_UND);
+        w.putShort(0);
+        w.endBox();
+        w.startFullBox("hdlr", 0, 0);
+        w.putInt(0);
+        w.putFourCC(track.isVideo ? "vide" : "soun");
+        w.putZeros(12);
+        w.putBytes((track.isVideo ? "VideoHandle\0" : "SoundHandle\0").getBytes());
+        w.endBox();
+
+        w.startBox("minf");
+        if (track.isVideo) {
+            w.startFullBox("vmhd", 0, 1);
+            w.putZeros(8);
+        } else {
+            w.startFullBox("smhd", 0, 0);
+            w.putZeros(4);
+        }
+        w.endBox();
+        w.startBox("dinf");
+        w.startFullBox("dref", 0, 0);
+        w.putInt(1);
+        w.startFullBox("url ", 0, 1);
+        w.endBox();
+        w.endBox();
+        w.endBox();
+        writeStbl(w, track, timing);
+        w.endBox();
+        w.endBox();
+        w.endBox();
+    }
+
+    private void writeStbl(Mp4BoxWriter w, Mp4Track track, Timing timing) {
+        int count = track.getSampleCount();
+        w.startBox("stbl");
+        w.startFullBox("stsd", 0, 0);
+        w.putInt(1);
+        writeSampleEntry(w, track);
+        w.endBox();
+
+        // stts：相同时长的连续样本合并为一项
+        w.startFullBox("stts", 0, 0);
+        int entryCountPos = w.position();
+        w.putInt(0);
+        int entries = 0;
+        for (int i = 0; i < count; ) {
+            int run = 1;
+            while (i + run < count && timing.durations[i + run] == timing.durations[i]) {
+                run++;
+            }
+            w.putInt(run);
+            w.putInt((int) timing.durations[i]);
+            entries++;
+            i += run;
+        }
+        w.putIntAt(entryCountPos, entries);
+        w.endBox();
+
+        if (timing.hasCompositionOffsets) {
+            w.startFullBox("ctts", 0, 0);
+            entryCountPos = w.position();
+            w.putInt(0);
+            entries = 0;
+            for (int i = 0; i < count; ) {
+                int run = 1;
+                while (i + run < count && timing.compositionOffsets[i + run] == timing.compositionOffsets[i]) {
+                    run++;
+                }
+                w.putInt(run);
+                w.putInt(timing.compositionOffsets[i]);
+                entries++;
+                i += run;
+            }
+            w.putIntAt(entryCountPos, entries);
+            w.endBox();
+        }
+
+        // stss：全部为关键帧时省略
+        int syncCount = 0;
+        for (int i = 0; i < count; i++) {
+            if (track.isSync(i))
+                syncCount++;
+        }
+        if (syncCount < count) {
+            w.startFullBox("stss", 0, 0);
+            w.putInt(syncCount);
+            for (int i = 0; i < count; i++) {
+                if (track.isSync(i))
+                    w.putInt(i + 1);
+            }
+            w.endBox();
+        }
+
+        // stsc：每个chunk的样本数，相同的连续chunk合并为一项
+        w.startFullBox("stsc", 0, 0);
+        entryCountPos = w.position();
+        w.putInt(0);
+        entries = 0;
+        int chunkCount = 0;
+        int lastSamplesPerChunk = -1;
+        boolean needCo64 = false;
+        for (int i = 0; i < count; ) {
+            int run = 1;
+            while (i + run < count && track.isContinuation(i + run)) {
+                run++;
+            }
+            chunkCount++;
+            if (run != lastSamplesPerChunk) {
+                w.putInt(chunkCount);
+                w.putInt(run);
+                w.putInt(1);
+                entries++;
+                lastSamplesPerChunk = run;
+            }
+            if (track.getOffset(i) > 0xFFFFFFFFL) {
+                needCo64 = true;
+            }
+            i += run;
+        }
+        w.putIntAt(entryCountPos, entries);
+        w.endBox();
+
+        w.startFullBox("stsz", 0, 0);
+        boolean isConstantSize = count > 0;
+        for (int i = 1; i < count && isConstantSize; i++) {
+            isConstantSize = track.getSize(i) == track.getSize(0);
+        }
+        w.putInt(isConstantSize ? track.getSize(0) : 0);
+        w.putInt(count);
+        if (!isConstantSize) {
+            for (int i = 0; i < count; i++) {
+                w.putInt(track.getSize(i));
+            }
+        }
+        w.endBox();
+
+        // 文件偏移超过4G时使用co64
+        w.startFullBox(needCo64 ? "co64" : "stco", 0, 0);
+        w.putInt(chunkCount);
+        for (int i = 0; i < count; i++) {
+            if (!track.isContinuation(i)) {
+                long offset = track.getOffset(i);
+                if (needCo64) {
+                    w.putLong(offset);
+                } else {
+                    w.putInt((int) offset);
+                }
+            }
+        }
+        w.endBox();
+        w.endBox();
+    }
+
+    private static void writeSampleEntry(Mp4BoxWriter w, Mp4Track track) {
+        if (track.isVideo) {
+            w.startBox("avc1");
+            w.putZeros(6);
+            w.putShort(1);
+            w.putZeros(16);
+            w.putShort(track.width);
+            w.putShort(track.height);
+            w.putInt(0x00480000);
+            w.putInt(0x00480000);
+            w.putInt(0);
+            w.putShort(1);
+            w.putZeros(32);
+            w.putShort(0x0018);
+            w.putShort(-1);
+            writeAvcC(w, track.sps, track.pps);
+            w.endBox();
+        } else {
+            w.startBox("mp4a");
+            w.putZeros(6);
+            w.putShort(1);
+            w.putZeros(8);
+            w.putShort(track.channelCount);
+            w.putShort(16);
+            w.putShort(0);
+            w.putShort(0);
+            w.putInt(track.sampleRate << 16);
+            writeEsds(w, track.audioSpecificConfig);
+            w.endBox();
+        }
+    }
+
+    private static void writeAvcC(Mp4BoxWriter w, byte[] sps, byte[] pps) {
+        int profile = sps[1] & 0xFF;
+        w.startBox("avcC");
+        w.putByte(1);
+        w.putByte(profile);
+        w.putByte(sps[2]);
+        w.putByte(sps[3]);
+        // 4字节NAL长度
+        w.putByte(0xFF);
+        w.putByte(0xE1);
+        w.putShort(sps.length);
+        w.putBytes(sps);
+        w.putByte(1);
+        w.putShort(pps.length);
+        w.putBytes(pps);
+        if (profile == 100 || profile == 110 || profile == 122 || profile == 144) {
+            // High profile需要的扩展字段，编码器输出均为8bit YUV420
+            w.putByte(0xFC | 1);
+            w.putByte(0xF8);
+            w.putByte(0xF8);
+            w.putByte(0);
+        }
+        w.endBox();
+    }
+
+    private static void writeEsds(Mp4BoxWriter w, byte[] asc) {
+        int decoderSpecificInfoSize = 2 + asc.length;
+        int decoderConfigSize = 13 + decoderSpecificInfoSize;
+        int esSize = 3 + 2 + decoderConfigSize + 3;
+        w.startFullBox("esds", 0, 0);
+        // ES_Descriptor
+        w.putByte(0x03);
+        w.putByte(esSize);
+        w.putShort(0);
+        w.putByte(0);
+        // DecoderConfigDescriptor：MPEG-4 Audio，音频流
+        w.putByte(0x04);
+        w.putByte(decoderConfigSize);
+        w.putByte(0x40);
+        w.putByte(0x15);
+        w.putInt24(0);
+        w.putInt(0);
+        w.putInt(0);
+        // DecoderSpecificInfo
+        w.putByte(0x05);
+        w.putByte(asc.length);
+        w.putBytes(asc);
+        // SLConfigDescriptor
+        w.putByte(0x06);
+        w.putByte(1);
+        w.putByte(0x02);
+        w.endBox();
+    }
+}
@@ -0,0 +1,51 @@
+package com.jiangdg.mediacodec4mp4.render;
+
+import android.graphics.SurfaceTexture;
+import android.view.Surface;
+
+import com.jiangdg.yuvosd.FrameOverlay;
+
+/** Surface输入模式下的渲染阶段：把相机画面旋转、叠加水印后画到编码器的输入Surface上
+ * <p>
+ * GlFrameRenderer基于EGL/OpenGL ES在GPU上完成，YUV数据不经过Java层；
+ * SoftwareFrameRenderer在CPU上完成，用于脱离设备测试SurfaceRenderPipeline。
+ * 除getInputTexture()外，所有方法都在渲染线程中调用。
+ */
+public interface FrameRenderer {
+
+    /** 有新的相机画面可以渲染，可能在任意线程中回调 */
+    interface Callback {
+        void onFrameAvailable();
+    }
+
+    /**
+     * 创建渲染环境
+     *
+     * @param output 编码器的输入Surface(MediaCodec.createInputSurface())，软件实现可以为null
+     * @throws RuntimeException 设备不支持(如没有可录制的EGL配置)，调用方应回退到YUV数据输入
+     */
+    void prepare(Surface output, FrameTransform transform, Callback callback);
+
+    /** 相机预览的输出目标(Camera.setPreviewTexture())，prepare()之前或软件实现返回null */
+    SurfaceTexture getInputTexture();
+
+    /**
+     * 取出下一帧相机画面
+     *
+     * @return 采集时间(System.nanoTime()时基)，没有新画面时返回-1
+     */
+    long latchFrame();
+
+    /**
+     * 绘制最近取出的一帧
+     *
+     * @param overlay 水印，可以为null
+     */
+    void drawFrame(FrameOverlay overlay);
+
+    /** 以presentationTimeNs为时间戳提交给编码器 */
+    void present(long presentationTimeNs);
+
+    /** 释放渲染环境，之后不能再使用 */
+    void release();
+}
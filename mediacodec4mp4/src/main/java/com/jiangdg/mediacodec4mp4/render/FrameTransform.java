@@ -0,0 +1,145 @@
+package com.jiangdg.mediacodec4mp4.render;
+
+/** GPU渲染时相机画面的旋转、镜像以及水印位置，不依赖OpenGL，可脱离设备测试
+ * <p>
+ * 旋转和镜像的含义与FusedFrameProcessor相同：先顺时针旋转degree度，再水平镜像。
+ * 纹理矩阵把输出图像的纹理坐标(左下角为原点)换算为相机画面的纹理坐标，
+ * 与SurfaceTexture.getTransformMatrix()相乘后在顶点着色器中使用。矩阵均按列存放(与OpenGL一致)。
+ */
+public class FrameTransform {
+    private final int mInputWidth;
+    private final int mInputHeight;
+    private final int mDegree;
+    private final boolean isMirror;
+    private final float[] mTextureMatrix = new float[16];
+
+    /**
+     * @param inputWidth 相机预览宽度
+     * @param degree 顺时针旋转角度，0、90、180或270
+     * @param mirror 旋转后是否水平镜像
+     */
+    public FrameTransform(int inputWidth, int inputHeight, int degree, boolean mirror) {
+        if (inputWidth <= 0 || inputHeight <= 0)
+            throw new IllegalArgumentException("invalid frame size " + inputWidth + "x" + inputHeight);
+        if (degree != 0 && degree != 90 && degree != 180 && degree != 270)
+            throw new IllegalArgumentException("unsupported degree " + degree);
+        mInputWidth = inputWidth;
+        mInputHeight = inputHeight;
+        mDegree = degree;
+        isMirror = mirror;
+        // 输出坐标(u', v')镜像后为(m, v')，m = mirror ? 1 - u' : u'，再按旋转换算为输入坐标(u, v)
+        float mu = mirror ? -1 : 1;
+        float mc = mirror ? 1 : 0;
+        float[] m = mTextureMatrix;
+        m[10] = 1;
+        m[15] = 1;
+        switch (degree) {
+            case 0:
+                // u = m, v = v'
+                m[0] = mu;
+                m[12] = mc;
+                m[5] = 1;
+                break;
+            case 90:
+                // u = 1 - v', v = m
+                m[4] = -1;
+                m[12] = 1;
+                m[1] = mu;
+                m[13] = mc;
+                break;
+            case 180:
+                // u = 1 - m, v = 1 - v'
+                m[0] = -mu;
+                m[12] = 1 - mc;
+                m[5] = -1;
+                m[13] = 1;
+                break;
+            default:
+                // u = v', v = 1 - m
+                m[4] = 1;
+                m[1] = -mu;
+                m[13] = 1 - mc;
+                break;
+        }
+    }
+
+    public int getInputWidth() {
+        return mInputWidth;
+    }
+
+    public int getInputHeight() {
+        return mInputHeight;
+    }
+
+    /** 旋转后的宽度，即编码器的宽度 */
+    public int getOutputWidth() {
+        return mDegree % 180 == 0 ? mInputWidth : mInputHeight;
+    }
+
+    public int getOutputHeight() {
+        return mDegree % 180 == 0 ? mInputHeight : mInputWidth;
+    }
+
+    public int getDegree() {
+        return mDegree;
+    }
+
+    public boolean isMirror() {
+        return isMirror;
+    }
+
+    /** 输出纹理坐标到相机画面纹理坐标的矩阵，返回内部数组，不要修改 */
+    public float[] getTextureMatrix() {
+        return mTextureMatrix;
+    }
+
+    /**
+     * 与SurfaceTexture的变换矩阵合并：先按本矩阵旋转、镜像，再按surfaceMatrix换算到相机缓存区
+     *
+     * @param out 16个元素，不能与surfaceMatrix为同一数组
+     */
+    public void concat(float[] surfaceMatrix, float[] out) {
+        multiply(surfaceMatrix, mTextureMatrix, out);
+    }
+
+    /** out = a * b，4x4按列存放，out不能与a、b为同一数组 */
+    static void multiply(float[] a, float[] b, float[] out) {
+        for (int col = 0; col < 4; col++) {
+            for (int row = 0; row < 4; row++) {
+                float sum = 0;
+                for (int k = 0; k < 4; k++) {
+                    sum += a[k * 4 + row] * b[col * 4 + k];
+                }
+                out[col * 4 + row] = sum;
+            }
+        }
+    }
+
+    /**
+     * 水印在输出图像中的矩形换算为标准化设备坐标，按三角形带顺序：左下、右下、左上、右上
+     *
+     * @param left 水印左上角在输出图像中的位置(左上角为原点)
+     * @param out 8个元素，依次为4个顶点的x、y
+     */
+    public void overlayQuad(int left, int top, int width, int height, float[] out) {
+        float outWidth = getOutputWidth();
+        float outHeight = getOutputHeight();
+        float x0 = left / outWidth * 2 - 1;
+        float x1 = (left + width) / outWidth * 2 - 1;
+        float y0 = 1 - (top + height) / outHeight * 2;
+        float y1 = 1 - top / outHeight * 2;
+        out[0] = x0;
+        out[1] = y0;
+        out[2] = x1;
+        out[3] = y0;
+        out[4] = x0;
+        out[5] = y1;
+        out[6] = x1;
+        out[7] = y1;
+    }
+
+    @Override
+    public String toString() {
+        return "FrameTransform{" + mInputWidth + "x" + mInputHeight + ", degree=" + mDegree + ", mirror=" + isMirror + "}";
+    }
+}
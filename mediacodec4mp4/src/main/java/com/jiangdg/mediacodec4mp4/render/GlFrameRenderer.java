@@ -0,0 +1,426 @@
+package com.jiangdg.mediacodec4mp4.render;
+
+import android.annotation.TargetApi;
+import android.graphics.SurfaceTexture;
+import android.opengl.EGL14;
+import android.opengl.EGLConfig;
+import android.opengl.EGLContext;
+import android.opengl.EGLDisplay;
+import android.opengl.EGLExt;
+import android.opengl.EGLSurface;
+import android.opengl.GLES11Ext;
+import android.opengl.GLES20;
+import android.util.Log;
+import android.view.Surface;
+
+import com.jiangdg.mediacodec4mp4.RecordMp4;
+import com.jiangdg.yuvosd.FrameOverlay;
+import com.jiangdg.yuvosd.OsdCompositor;
+import com.jiangdg.yuvosd.OverlayMask;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/** 基于EGL/OpenGL ES 2.0的渲染阶段，需要API 18以上
+ * <p>
+ * 相机画面输出到外部纹理(SurfaceTexture)，按FrameTransform的纹理矩阵旋转、镜像后画满编码器的输入Surface，
+ * 水印图层作为RGBA纹理按各自的位置画成半透明矩形，图层内容不变时不重新上传。
+ * 可同时把画面画到预览Surface上，录制期间相机只输出到SurfaceTexture，屏幕预览由这里绘制。
+ */
+@TargetApi(18)
+public class GlFrameRenderer implements FrameRenderer {
+    private static final String TAG = "GlFrameRenderer";
+    // API 26才在EGLExt中公开
+    private static final int EGL_RECORDABLE_ANDROID = 0x3142;
+
+    private static final String VERTEX_SHADER =
+            "uniform mat4 uTexMatrix;\n" +
+            "attribute vec4 aPosition;\n" +
+            "attribute vec4 aTexCoord;\n" +
+            "varying vec2 vTexCoord;\n" +
+            "void main() {\n" +
+            "    gl_Position = aPosition;\n" +
+            "    vTexCoord = (uTexMatrix * aTexCoord).xy;\n" +
+            "}\n";
+    private static final String CAMERA_FRAGMENT_SHADER =
+            "#extension GL_OES_EGL_image_external : require\n" +
+            "precision mediump float;\n" +
+            "varying vec2 vTexCoord;\n" +
+            "uniform samplerExternalOES sTexture;\n" +
+            "void main() {\n" +
+            "    gl_FragColor = texture2D(sTexture, vTexCoord);\n" +
+            "}\n";
+    private static final String OVERLAY_FRAGMENT_SHADER =
+            "precision mediump float;\n" +
+            "varying vec2 vTexCoord;\n" +
+            "uniform sampler2D sTexture;\n" +
+            "void main() {\n" +
+            "    gl_FragColor = texture2D(sTexture, vTexCoord);\n" +
+            "}\n";
+    // 三角形带：左下、右下、左上、右上
+    private static final float[] FULL_QUAD = {-1, -1, 1, -1, -1, 1, 1, 1};
+    private static final float[] FULL_TEX_COORD = {0, 0, 1, 0, 0, 1, 1, 1};
+    // 水印纹理第一行为图层顶部
+    private static final float[] OVERLAY_TEX_COORD = {0, 1, 1, 1, 0, 0, 1, 0};
+    private static final float[] IDENTITY = {1, 0, 0, 0, 0, 1, 0, 0, 0, 0, 1, 0, 0, 0, 0, 1};
+
+    /** 已上传的水印纹理 */
+    private static final class OverlayTexture {
+        final OverlayMask mask;
+        final int textureId;
+        int version = -1;
+
+        OverlayTexture(OverlayMask mask, int textureId) {
+            this.mask = mask;
+            this.textureId = textureId;
+        }
+    }
+
+    private final Object mDisplaySurface;
+    private EGLDisplay mEglDisplay = EGL14.EGL_NO_DISPLAY;
+    private EGLContext mEglContext = EGL14.EGL_NO_CONTEXT;
+    private EGLSurface mEncoderSurface = EGL14.EGL_NO_SURFACE;
+    private EGLSurface mPreviewSurface = EGL14.EGL_NO_SURFACE;
+    private FrameTransform mTransform;
+    private SurfaceTexture mSurfaceTexture;
+    private int mCameraTexture;
+    private Program mCameraProgram;
+    private Program mOverlayProgram;
+    private final float[] mSurfaceMatrix = new float[16];
+    private final float[] mTexMatrix = new float[16];
+    private final FloatBuffer mFullQuad = floatBuffer(FULL_QUAD);
+    private final FloatBuffer mFullTexCoord = floatBuffer(FULL_TEX_COORD);
+    private final FloatBuffer mOverlayTexCoord = floatBuffer(OVERLAY_TEX_COORD);
+    private final FloatBuffer mOverlayQuad = floatBuffer(new float[8]);
+    private final float[] mQuad = new float[8];
+    private final int[] mPreviewSize = new int[2];
+    private final List<OverlayTexture> mOverlayTextures = new ArrayList<>();
+    private ByteBuffer mRgba;
+    private FrameOverlay mOverlay;
+    private boolean isUnsupportedOverlayLogged;
+
+    /**
+     * @param displaySurface 同时绘制的预览Surface(如SurfaceHolder.getSurface())，为null时只输出到编码器
+     */
+    public GlFrameRenderer(Object displaySurface) {
+        mDisplaySurface = displaySurface;
+    }
+
+    @Override
+    public void prepare(Surface output, FrameTransform transform, final Callback callback) {
+        if (output == null)
+            throw new IllegalArgumentException("encoder input surface can not be null");
+        mTransform = transform;
+        try {
+            createEgl(output);
+            mCameraProgram = new Program(VERTEX_SHADER, CAMERA_FRAGMENT_SHADER);
+            mOverlayProgram = new Program(VERTEX_SHADER, OVERLAY_FRAGMENT_SHADER);
+            int[] textures = new int[1];
+            GLES20.glGenTextures(1, textures, 0);
+            mCameraTexture = textures[0];
+            GLES20.glBindTexture(GLES11Ext.GL_TEXTURE_EXTERNAL_OES, mCameraTexture);
+            setTextureParameters(GLES11Ext.GL_TEXTURE_EXTERNAL_OES);
+            checkGl("create camera texture");
+            mSurfaceTexture = new SurfaceTexture(mCameraTexture);
+            mSurfaceTexture.setDefaultBufferSize(transform.getInputWidth(), transform.getInputHeight());
+            mSurfaceTexture.setOnFrameAvailableListener(new SurfaceTexture.OnFrameAvailableListener() {
+                @Override
+                public void onFrameAvailable(SurfaceTexture surfaceTexture) {
+                    callback.onFrameAvailable();
+                }
+            });
+        } catch (RuntimeException e) {
+            release();
+            throw e;
+        }
+    }
+
+    private void createEgl(Surface output) {
+        mEglDisplay = EGL14.eglGetDisplay(EGL14.EGL_DEFAULT_DISPLAY);
+        if (mEglDisplay == EGL14.EGL_NO_DISPLAY)
+            throw new RuntimeException("unable to get EGL display");
+        int[] version = new int[2];
+        if (!EGL14.eglInitialize(mEglDisplay, version, 0, version, 1)) {
+            mEglDisplay = EGL14.EGL_NO_DISPLAY;
+            throw new RuntimeException("unable to initialize EGL");
+        }
+        int[] attribs = {
+                EGL14.EGL_RED_SIZE, 8,
+                EGL14.EGL_GREEN_SIZE, 8,
+                EGL14.EGL_BLUE_SIZE, 8,
+                EGL14.EGL_ALPHA_SIZE, 8,
+                EGL14.EGL_RENDERABLE_TYPE, EGL14.EGL_OPENGL_ES2_BIT,
+                EGL_RECORDABLE_ANDROID, 1,
+                EGL14.EGL_NONE
+        };
+        EGLConfig[] configs = new EGLConfig[1];
+        int[] count = new int[1];
+        if (!EGL14.eglChooseConfig(mEglDisplay, attribs, 0, configs, 0, configs.length, count, 0) || count[0] <= 0)
+            throw new RuntimeException("no recordable EGL config");
+        int[] contextAttribs = {EGL14.EGL_CONTEXT_CLIENT_VERSION, 2, EGL14.EGL_NONE};
+        mEglContext = EGL14.eglCreateContext(mEglDisplay, configs[0], EGL14.EGL_NO_CONTEXT, contextAttribs, 0);
+        checkEgl("eglCreateContext");
+        int[] surfaceAttribs = {EGL14.EGL_NONE};
+        mEncoderSurface = EGL14.eglCreateWindowSurface(mEglDisplay, configs[0], output, surfaceAttribs, 0);
+        checkEgl("eglCreateWindowSurface");
+        if (mDisplaySurface != null) {
+            mPreviewSurface = EGL14.eglCreateWindowSurface(mEglDisplay, configs[0], mDisplaySurface, surfaceAttribs, 0);
+            if (EGL14.eglGetError() != EGL14.EGL_SUCCESS) {
+                // 预览Surface不可用时只输出到编码器
+                if(RecordMp4.DEBUG)
+                    Log.w(TAG, "创建预览EGLSurface失败，只输出到编码器");
+                mPreviewSurface = EGL14.EGL_NO_SURFACE;
+            }
+        }
+        makeCurrent(mEncoderSurface);
+    }
+
+    private void makeCurrent(EGLSurface surface) {
+        if (!EGL14.eglMakeCurrent(mEglDisplay, surface, surface, mEglContext))
+            throw new RuntimeException("eglMakeCurrent failed: 0x" + Integer.toHexString(EGL14.eglGetError()));
+    }
+
+    @Override
+    public SurfaceTexture getInputTexture() {
+        return mSurfaceTexture;
+    }
+
+    @Override
+    public long latchFrame() {
+        if (mSurfaceTexture == null)
+            return -1;
+        mSurfaceTexture.updateTexImage();
+        mSurfaceTexture.getTransformMatrix(mSurfaceMatrix);
+        long timestampNs = mSurfaceTexture.getTimestamp();
+        // 部分设备不填写时间戳，以取出的时刻为准
+        return timestampNs > 0 ? timestampNs : System.nanoTime();
+    }
+
+    @Override
+    public void drawFrame(FrameOverlay overlay) {
+        mOverlay = overlay;
+        draw(mTransform.getOutputWidth(), mTransform.getOutputHeight());
+    }
+
+    private void draw(int width, int height) {
+        GLES20.glViewport(0, 0, width, height);
+        GLES20.glClearColor(0, 0, 0, 1);
+        GLES20.glClear(GLES20.GL_COLOR_BUFFER_BIT);
+        mTransform.concat(mSurfaceMatrix, mTexMatrix);
+        mCameraProgram.draw(GLES11Ext.GL_TEXTURE_EXTERNAL_OES, mCameraTexture, mTexMatrix, mFullQuad, mFullTexCoord);
+        FrameOverlay overlay = mOverlay;
+        if (overlay == null || overlay.isEmpty())
+            return;
+        GLES20.glEnable(GLES20.GL_BLEND);
+        GLES20.glBlendFunc(GLES20.GL_SRC_ALPHA, GLES20.GL_ONE_MINUS_SRC_ALPHA);
+        if (overlay instanceof OsdCompositor) {
+            OsdCompositor compositor = (OsdCompositor) overlay;
+            for (int i = 0; i < compositor.getActiveCount(); i++) {
+                drawOverlay(compositor.getActiveMask(i));
+            }
+        } else if (overlay instanceof OverlayMask) {
+            drawOverlay((OverlayMask) overlay);
+        } else if (!isUnsupportedOverlayLogged) {
+            // 自定义的FrameOverlay只能按YUV行混合，GPU上无法绘制
+            isUnsupportedOverlayLogged = true;
+            if(RecordMp4.DEBUG)
+                Log.w(TAG, "不支持的水印类型：" + overlay.getClass().getName());
+        }
+        GLES20.glDisable(GLES20.GL_BLEND);
+    }
+
+    private void drawOverlay(OverlayMask mask) {
+        OverlayTexture texture = obtainOverlayTexture(mask);
+        if (texture.version != mask.getVersion()) {
+            int size = mask.getWidth() * mask.getHeight() * 4;
+            if (mRgba == null || mRgba.capacity() < size) {
+                mRgba = ByteBuffer.allocateDirect(size).order(ByteOrder.nativeOrder());
+            }
+            mRgba.clear();
+            mask.writeRgba(mRgba);
+            mRgba.flip();
+            GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, texture.textureId);
+            GLES20.glTexImage2D(GLES20.GL_TEXTURE_2D, 0, GLES20.GL_RGBA, mask.getWidth(), mask.getHeight(), 0,
+                    GLES20.GL_RGBA, GLES20.GL_UNSIGNED_BYTE, mRgba);
+            texture.version = mask.getVersion();
+        }
+        mTransform.overlayQuad(mask.getLeft(), mask.getTop(), mask.getWidth(), mask.getHeight(), mQuad);
+        mOverlayQuad.clear();
+        mOverlayQuad.put(mQuad).position(0);
+        mOverlayProgram.draw(GLES20.GL_TEXTURE_2D, texture.textureId, IDENTITY, mOverlayQuad, mOverlayTexCoord);
+    }
+
+    private OverlayTexture obtainOverlayTexture(OverlayMask mask) {
+        for (OverlayTexture texture : mOverlayTextures) {
+            if (texture.mask == mask)
+                return texture;
+        }
+        int[] textures = new int[1];
+        GLES20.glGenTextures(1, textures, 0);
+        GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, textures[0]);
+        setTextureParameters(GLES20.GL_TEXTURE_2D);
+        OverlayTexture texture = new OverlayTexture(mask, textures[0]);
+        mOverlayTextures.add(texture);
+        return texture;
+    }
+
+    @Override
+    public void present(long presentationTimeNs) {
+        EGLExt.eglPresentationTimeANDROID(mEglDisplay, mEncoderSurface, presentationTimeNs);
+        if (!EGL14.eglSwapBuffers(mEglDisplay, mEncoderSurface))
+            throw new RuntimeException("eglSwapBuffers failed: 0x" + Integer.toHexString(EGL14.eglGetError()));
+        if (mPreviewSurface != EGL14.EGL_NO_SURFACE) {
+            makeCurrent(mPreviewSurface);
+            EGL14.eglQuerySurface(mEglDisplay, mPreviewSurface, EGL14.EGL_WIDTH, mPreviewSize, 0);
+            EGL14.eglQuerySurface(mEglDisplay, mPreviewSurface, EGL14.EGL_HEIGHT, mPreviewSize, 1);
+            draw(mPreviewSize[0], mPreviewSize[1]);
+            EGL14.eglSwapBuffers(mEglDisplay, mPreviewSurface);
+            makeCurrent(mEncoderSurface);
+        }
+        mOverlay = null;
+    }
+
+    @Override
+    public void release() {
+        if (mEglDisplay != EGL14.EGL_NO_DISPLAY) {
+            if (mEglContext != EGL14.EGL_NO_CONTEXT && mEncoderSurface != EGL14.EGL_NO_SURFACE) {
+                // GL对象需在当前上下文中删除
+                EGL14.eglMakeCurrent(mEglDisplay, mEncoderSurface, mEncoderSurface, mEglContext);
+                deleteGlObjects();
+            }
+            EGL14.eglMakeCurrent(mEglDisplay, EGL14.EGL_NO_SURFACE, EGL14.EGL_NO_SURFACE, EGL14.EGL_NO_CONTEXT);
+            if (mPreviewSurface != EGL14.EGL_NO_SURFACE) {
+                EGL14.eglDestroySurface(mEglDisplay, mPreviewSurface);
+            }
+            if (mEncoderSurface != EGL14.EGL_NO_SURFACE) {
+                EGL14.eglDestroySurface(mEglDisplay, mEncoderSurface);
+            }
+            if (mEglContext != EGL14.EGL_NO_CONTEXT) {
+                EGL14.eglDestroyContext(mEglDisplay, mEglContext);
+            }
+            EGL14.eglReleaseThread();
+            EGL14.eglTerminate(mEglDisplay);
+        }
+        if (mSurfaceTexture != null) {
+            mSurfaceTexture.setOnFrameAvailableListener(null);
+            mSurfaceTexture.release();
+            mSurfaceTexture = null;
+        }
+        mOverlayTextures.clear();
+        mCameraProgram = null;
+        mOverlayProgram = null;
+        mRgba = null;
+        mEglDisplay = EGL14.EGL_NO_DISPLAY;
+        mEglContext = EGL14.EGL_NO_CONTEXT;
+        mEncoderSurface = EGL14.EGL_NO_SURFACE;
+        mPreviewSurface = EGL14.EGL_NO_SURFACE;
+    }
+
+    private void deleteGlObjects() {
+        int[] textures = new int[mOverlayTextures.size() + 1];
+        for (int i = 0; i < mOverlayTextures.size(); i++) {
+            textures[i] = mOverlayTextures.get(i).textureId;
+        }
+        textures[textures.length - 1] = mCameraTexture;
+        GLES20.glDeleteTextures(textures.length, textures, 0);
+        if (mCameraProgram != null) {
+            mCameraProgram.delete();
+        }
+        if (mOverlayProgram != null) {
+            mOverlayProgram.delete();
+        }
+    }
+
+    private static void setTextureParameters(int target) {
+        GLES20.glTexParameteri(target, GLES20.GL_TEXTURE_MIN_FILTER, GLES20.GL_LINEAR);
+        GLES20.glTexParameteri(target, GLES20.GL_TEXTURE_MAG_FILTER, GLES20.GL_LINEAR);
+        GLES20.glTexParameteri(target, GLES20.GL_TEXTURE_WRAP_S, GLES20.GL_CLAMP_TO_EDGE);
+        GLES20.glTexParameteri(target, GLES20.GL_TEXTURE_WRAP_T, GLES20.GL_CLAMP_TO_EDGE);
+    }
+
+    private static FloatBuffer floatBuffer(float[] values) {
+        FloatBuffer buffer = ByteBuffer.allocateDirect(values.length * 4).order(ByteOrder.nativeOrder()).asFloatBuffer();
+        buffer.put(values).position(0);
+        return buffer;
+    }
+
+    private static void checkEgl(String op) {
+        int error = EGL14.eglGetError();
+        if (error != EGL14.EGL_SUCCESS)
+            throw new RuntimeException(op + " failed: 0x" + Integer.toHexString(error));
+    }
+
+    private static void checkGl(String op) {
+        int error = GLES20.glGetError();
+        if (error != GLES20.GL_NO_ERROR)
+            throw new RuntimeException(op + " failed: 0x" + Integer.toHexString(error));
+    }
+
+    /** 画一个带纹理的矩形的着色器程序 */
+    private static final class Program {
+        private final int mProgram;
+        private final int mPositionLoc;
+        private final int mTexCoordLoc;
+        private final int mTexMatrixLoc;
+        private final int mTextureLoc;
+
+        Program(String vertexSource, String fragmentSource) {
+            int vertex = loadShader(GLES20.GL_VERTEX_SHADER, vertexSource);
+            int fragment = loadShader(GLES20.GL_FRAGMENT_SHADER, fragmentSource);
+            mProgram = GLES20.glCreateProgram();
+            GLES20.glAttachShader(mProgram, vertex);
+            GLES20.glAttachShader(mProgram, fragment);
+            GLES20.glLinkProgram(mProgram);
+            GLES20.glDeleteShader(vertex);
+            GLES20.glDeleteShader(fragment);
+            int[] status = new int[1];
+            GLES20.glGetProgramiv(mProgram, GLES20.GL_LINK_STATUS, status, 0);
+            if (status[0] == 0) {
+                String log = GLES20.glGetProgramInfoLog(mProgram);
+                GLES20.glDeleteProgram(mProgram);
+                throw new RuntimeException("link program failed: " + log);
+            }
+            mPositionLoc = GLES20.glGetAttribLocation(mProgram, "aPosition");
+            mTexCoordLoc = GLES20.glGetAttribLocation(mProgram, "aTexCoord");
+            mTexMatrixLoc = GLES20.glGetUniformLocation(mProgram, "uTexMatrix");
+            mTextureLoc = GLES20.glGetUniformLocation(mProgram, "sTexture");
+        }
+
+        private static int loadShader(int type, String source) {
+            int shader = GLES20.glCreateShader(type);
+            GLES20.glShaderSource(shader, source);
+            GLES20.glCompileShader(shader);
+            int[] status = new int[1];
+            GLES20.glGetShaderiv(shader, GLES20.GL_COMPILE_STATUS, status, 0);
+            if (status[0] == 0) {
+                String log = GLES20.glGetShaderInfoLog(shader);
+                GLES20.glDeleteShader(shader);
+                throw new RuntimeException("compile shader failed: " + log);
+            }
+            return shader;
+        }
+
+        void draw(int target, int texture, float[] texMatrix, FloatBuffer position, FloatBuffer texCoord) {
+            GLES20.glUseProgram(mProgram);
+            GLES20.glActiveTexture(GLES20.GL_TEXTURE0);
+            GLES20.glBindTexture(target, texture);
+            GLES20.glUniform1i(mTextureLoc, 0);
+            GLES20.glUniformMatrix4fv(mTexMatrixLoc, 1, false, texMatrix, 0);
+            GLES20.glEnableVertexAttribArray(mPositionLoc);
+            GLES20.glVertexAttribPointer(mPositionLoc, 2, GLES20.GL_FLOAT, false, 8, position);
+            GLES20.glEnableVertexAttribArray(mTexCoordLoc);
+            GLES20.glVertexAttribPointer(mTexCoordLoc, 2, GLES20.GL_FLOAT, false, 8, texCoord);
+            GLES20.glDrawArrays(GLES20.GL_TRIANGLE_STRIP, 0, 4);
+            GLES20.glDisableVertexAttribArray(mPositionLoc);
+            GLES20.glDisableVertexAttribArray(mTexCoordLoc);
+            GLES20.glBindTexture(target, 0);
+        }
+
+        void delete() {
+            GLES20.glDeleteProgram(mProgram);
+        }
+    }
+}
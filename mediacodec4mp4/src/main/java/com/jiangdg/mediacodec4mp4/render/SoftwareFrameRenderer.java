@@ -0,0 +1,129 @@
+package com.jiangdg.mediacodec4mp4.render;
+
+import android.graphics.SurfaceTexture;
+import android.view.Surface;
+
+import com.jiangdg.yuvosd.FrameOverlay;
+import com.jiangdg.yuvosd.FusedFrameProcessor;
+import com.jiangdg.yuvosd.YuvConverter;
+
+import java.nio.ByteBuffer;
+
+/** 在CPU上模拟GPU渲染阶段，不依赖EGL，可脱离设备测试SurfaceRenderPipeline
+ * <p>
+ * 预览帧(NV21)由queueFrame()送入，只保留最新的一帧(与SurfaceTexture相同)；
+ * 渲染时由FusedFrameProcessor完成旋转、镜像和水印，输出I420交给FrameSink。
+ */
+public class SoftwareFrameRenderer implements FrameRenderer {
+    private final FrameSink mSink;
+    private final Object mLock = new Object();
+    private FusedFrameProcessor mProcessor;
+    private Callback mCallback;
+    // 待渲染的帧，由queueFrame()写入
+    private byte[] mPending;
+    private long mPendingNs = -1;
+    private long mOverwrittenCount;
+    // 已取出的帧，只在渲染线程中使用
+    private byte[] mCurrent;
+    private ByteBuffer mOutput;
+
+    /** 接收渲染结果，在渲染线程中回调 */
+    public interface FrameSink {
+        /**
+         * @param i420 渲染结果，position到limit为一帧，回调返回后被下一帧覆盖
+         */
+        void onFrame(ByteBuffer i420, int width, int height, long presentationTimeNs);
+    }
+
+    public SoftwareFrameRenderer(FrameSink sink) {
+        mSink = sink;
+    }
+
+    @Override
+    public void prepare(Surface output, FrameTransform transform, Callback callback) {
+        FusedFrameProcessor processor = new FusedFrameProcessor(transform.getInputWidth(), transform.getInputHeight(),
+                YuvConverter.FORMAT_NV21, YuvConverter.FORMAT_I420, transform.getDegree(), transform.isMirror());
+        synchronized (mLock) {
+            mProcessor = processor;
+            mCallback = callback;
+            mPending = new byte[processor.getFrameSize()];
+            mCurrent = new byte[processor.getFrameSize()];
+            mPendingNs = -1;
+        }
+        mOutput = ByteBuffer.allocateDirect(processor.getFrameSize());
+    }
+
+    /**
+     * 送入一帧预览数据，相当于相机画面到达SurfaceTexture，可在任意线程调用
+     *
+     * @return 未prepare()或已释放时返回false
+     */
+    public boolean queueFrame(byte[] nv21, long timestampNs) {
+        Callback callback;
+        synchronized (mLock) {
+            if (mPending == null)
+                return false;
+            System.arraycopy(nv21, 0, mPending, 0, mPending.length);
+            if (mPendingNs >= 0) {
+                mOverwrittenCount++;
+            }
+            mPendingNs = timestampNs;
+            callback = mCallback;
+        }
+        if (callback != null) {
+            callback.onFrameAvailable();
+        }
+        return true;
+    }
+
+    /** 渲染前就被下一帧覆盖的帧数 */
+    public long getOverwrittenCount() {
+        synchronized (mLock) {
+            return mOverwrittenCount;
+        }
+    }
+
+    @Override
+    public SurfaceTexture getInputTexture() {
+        return null;
+    }
+
+    @Override
+    public long latchFrame() {
+        synchronized (mLock) {
+            if (mPendingNs < 0 || mPending == null)
+                return -1;
+            byte[] frame = mCurrent;
+            mCurrent = mPending;
+            mPending = frame;
+            long timestampNs = mPendingNs;
+            mPendingNs = -1;
+            return timestampNs;
+        }
+    }
+
+    @Override
+    public void drawFrame(FrameOverlay overlay) {
+        mOutput.clear();
+        mProcessor.process(mCurrent, mOutput, overlay);
+        mOutput.flip();
+    }
+
+    @Override
+    public void present(long presentationTimeNs) {
+        if (mSink != null) {
+            mSink.onFrame(mOutput, mProcessor.getOutputWidth(), mProcessor.getOutputHeight(), presentationTimeNs);
+        }
+    }
+
+    @Override
+    public void release() {
+        synchronized (mLock) {
+            mPending = null;
+            mCurrent = null;
+            mCallback = null;
+            mPendingNs = -1;
+        }
+        mOutput = null;
+    }
+}
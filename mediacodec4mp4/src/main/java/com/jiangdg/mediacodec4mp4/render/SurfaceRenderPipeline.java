@@ -0,0 +1,260 @@
+package com.jiangdg.mediacodec4mp4.render;
+
+import android.graphics.SurfaceTexture;
+import android.util.Log;
+import android.view.Surface;
+
+import com.jiangdg.mediacodec4mp4.RecordMp4;
+import com.jiangdg.mediacodec4mp4.model.H264EncodeConsumer;
+import com.jiangdg.mediacodec4mp4.model.RecordingClock;
+import com.jiangdg.mediacodec4mp4.utils.FrameScheduler;
+import com.jiangdg.yuvosd.FrameOverlay;
+
+/** Surface输入模式的渲染线程：相机画面 → FrameRenderer(旋转、水印) → 编码器输入Surface
+ * <p>
+ * 相机画面到达时只记一个信号，渲染线程被唤醒后取出最新一帧，按FrameScheduler抽帧、
+ * 按RecordingClock换算时间戳(开始前和暂停期间的帧丢弃)，绘制后以该时间戳提交给编码器。
+ * 渲染环境在渲染线程中创建，创建失败时start()返回false，调用方回退到YUV数据输入。
+ * 流程本身不依赖OpenGL，换成SoftwareFrameRenderer即可脱离设备测试。
+ */
+public class SurfaceRenderPipeline {
+    private static final String TAG = "SurfaceRenderPipeline";
+
+    private final FrameRenderer mRenderer;
+    private final FrameTransform mTransform;
+    private final Object mLock = new Object();
+    private volatile FrameScheduler mFrameScheduler;
+    private volatile RecordingClock mRecordingClock;
+    private volatile H264EncodeConsumer.OnOverlayListener mOverlayListener;
+    private Thread mThread;
+    // 未处理的画面信号，渲染线程每次醒来全部处理
+    private int mPendingFrames;
+    private boolean isStopping;
+    private volatile RuntimeException mError;
+    private volatile long mRenderedCount;
+    private volatile long mDroppedCount;
+    private volatile long mSkippedCount;
+
+    public SurfaceRenderPipeline(FrameRenderer renderer, FrameTransform transform) {
+        if (renderer == null || transform == null)
+            throw new IllegalArgumentException("renderer and transform can not be null");
+        mRenderer = renderer;
+        mTransform = transform;
+    }
+
+    /** 按采集时间戳抽帧，为null时每帧都渲染 */
+    public void setFrameScheduler(FrameScheduler scheduler) {
+        this.mFrameScheduler = scheduler;
+    }
+
+    /** 为null时直接使用采集时间作为时间戳 */
+    public void setRecordingClock(RecordingClock clock) {
+        this.mRecordingClock = clock;
+    }
+
+    /** 提供每帧的水印，在渲染线程中回调 */
+    public void setOverlayListener(H264EncodeConsumer.OnOverlayListener listener) {
+        this.mOverlayListener = listener;
+    }
+
+    /**
+     * 启动渲染线程并在其中创建渲染环境，创建完成后返回
+     *
+     * @param output 编码器的输入Surface
+     * @return 渲染环境创建失败时返回false，失败原因见getError()
+     */
+    public boolean start(final Surface output) {
+        synchronized (mLock) {
+            if (mThread != null)
+                throw new IllegalStateException("pipeline already started");
+            isStopping = false;
+            mPendingFrames = 0;
+            mError = null;
+        }
+        final Object prepared = new Object();
+        final boolean[] isDone = new boolean[1];
+        Thread thread = new Thread("SurfaceRender") {
+            @Override
+            public void run() {
+                boolean isPrepared = false;
+                try {
+                    mRenderer.prepare(output, mTransform, mFrameCallback);
+                    isPrepared = true;
+                } catch (RuntimeException e) {
+                    mError = e;
+                    mRenderer.release();
+                } finally {
+                    synchronized (prepared) {
+                        isDone[0] = true;
+                        prepared.notifyAll();
+                    }
+                }
+                if (isPrepared) {
+                    renderLoop();
+                }
+            }
+        };
+        thread.start();
+        boolean isInterrupted = false;
+        synchronized (prepared) {
+            while (!isDone[0]) {
+                try {
+                    prepared.wait();
+                } catch (InterruptedException e) {
+                    // 渲染线程很快会结束准备
+                    isInterrupted = true;
+                }
+            }
+        }
+        if (isInterrupted) {
+            Thread.currentThread().interrupt();
+        }
+        if (mError != null) {
+            if(RecordMp4.DEBUG)
+                Log.w(TAG, "创建渲染环境失败：" + mError.getMessage());
+            return false;
+        }
+        synchronized (mLock) {
+            mThread = thread;
+        }
+        return true;
+    }
+
+    private final FrameRenderer.Callback mFrameCallback = new FrameRenderer.Callback() {
+        @Override
+        public void onFrameAvailable() {
+            synchronized (mLock) {
+                mPendingFrames++;
+                mLock.notifyAll();
+            }
+        }
+    };
+
+    private void renderLoop() {
+        try {
+            while (true) {
+                int frames;
+                synchronized (mLock) {
+                    while (mPendingFrames == 0 && !isStopping) {
+                        try {
+                            mLock.wait();
+                        } catch (InterruptedException e) {
+                            // 只通过stop()结束
+                        }
+                    }
+                    if (isStopping)
+                        break;
+                    frames = mPendingFrames;
+                    mPendingFrames = 0;
+                }
+                // 每个信号对应一个相机缓存区，全部取出，避免相机因缓存区占满而阻塞
+                for (int i = 0; i < frames; i++) {
+                    renderFrame();
+                }
+            }
+        } catch (RuntimeException e) {
+            // EGL环境丢失等，编码线程通过getError()得知
+            mError = e;
+            if(RecordMp4.DEBUG)
+                Log.e(TAG, "渲染失败：" + e.getMessage());
+        } finally {
+            mRenderer.release();
+        }
+    }
+
+    private void renderFrame() {
+        long captureNs = mRenderer.latchFrame();
+        if (captureNs < 0)
+            return;
+        FrameScheduler scheduler = mFrameScheduler;
+        if (scheduler != null && !scheduler.accept(captureNs)) {
+            mDroppedCount++;
+            return;
+        }
+        RecordingClock clock = mRecordingClock;
+        long ptsUs = clock == null ? captureNs / 1000
+                : clock.toPresentationUs(RecordingClock.TRACK_VIDEO, captureNs, System.nanoTime());
+        if (ptsUs < 0) {
+            mSkippedCount++;
+            return;
+        }
+        H264EncodeConsumer.OnOverlayListener listener = mOverlayListener;
+        FrameOverlay overlay = listener == null ? null : listener.onOverlay(captureNs);
+        mRenderer.drawFrame(overlay);
+        mRenderer.present(ptsUs * 1000);
+        mRenderedCount++;
+    }
+
+    /** 结束渲染线程并释放渲染环境，返回时编码器的输入Surface已不再使用 */
+    public void stop() {
+        Thread thread;
+        synchronized (mLock) {
+            thread = mThread;
+            mThread = null;
+            isStopping = true;
+            mLock.notifyAll();
+        }
+        if (thread == null)
+            return;
+        boolean isInterrupted = false;
+        while (thread.isAlive()) {
+            try {
+                thread.join();
+            } catch (InterruptedException e) {
+                // 必须等渲染线程释放EGL后才能停止编码器
+                isInterrupted = true;
+            }
+        }
+        if (isInterrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /** 相机预览的输出目标，软件渲染时为null */
+    public SurfaceTexture getInputTexture() {
+        return mRenderer.getInputTexture();
+    }
+
+    public FrameRenderer getRenderer() {
+        return mRenderer;
+    }
+
+    public FrameTransform getTransform() {
+        return mTransform;
+    }
+
+    /** 渲染线程是否仍在运行，渲染出错后返回false */
+    public boolean isRunning() {
+        Thread thread;
+        synchronized (mLock) {
+            thread = mThread;
+        }
+        return thread != null && thread.isAlive() && mError == null;
+    }
+
+    /** 创建渲染环境或渲染时的错误，没有错误时为null */
+    public RuntimeException getError() {
+        return mError;
+    }
+
+    /** 已提交给编码器的帧数 */
+    public long getRenderedCount() {
+        return mRenderedCount;
+    }
+
+    /** 超出目标帧率而丢弃的帧数 */
+    public long getDroppedCount() {
+        return mDroppedCount;
+    }
+
+    /** 录制开始前或暂停期间采集而丢弃的帧数 */
+    public long getSkippedCount() {
+        return mSkippedCount;
+    }
+
+    @Override
+    public String toString() {
+        return "SurfaceRenderPipeline{" + mTransform + ", rendered=" + mRenderedCount + ", dropped=" + mDroppedCount
+                + ", skipped=" + mSkippedCount + "}";
+    }
+}
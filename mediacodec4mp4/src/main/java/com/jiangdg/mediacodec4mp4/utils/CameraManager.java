@@ -3,6 +3,7 @@ package com.jiangdg.mediacodec4mp4.utils;
 import android.app.Activity;
 import android.content.Context;
 import android.graphics.ImageFormat;
+import android.graphics.SurfaceTexture;
 import android.hardware.Camera;
 import android.hardware.Camera.AutoFocusCallback;
 import android.hardware.Camera.CameraInfo;
@@ -16,6 +17,8 @@ import java.io.IOException;
 import java.lang.ref.WeakReference;
 import java.util.Iterator;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 /** Camera操作封装类
  * Created by jiangdongguo on 2017/5/6.
@@ -25,11 +28,28 @@ public class CameraManager {
 	public static int PREVIEW_WIDTH = 1280;
 	public static int PREVIEW_HEIGHT = 720;
 	public static boolean isUsingYv12 = false;
+	// 默认预览回调缓存个数
+	public static final int DEFAULT_CALLBACK_BUFFER_COUNT = 3;
 	private Camera mCamera;
 	private static Context mContext;
 	private boolean isFrontCamera = false;
 	private OnPreviewFrameResult mPreviewListener;
 	private WeakReference<SurfaceHolder> mHolderRef;
+	// 不为null时预览输出到该纹理(Surface输入录制)，屏幕预览由渲染线程绘制
+	private SurfaceTexture mPreviewTexture;
+	// 预览回调缓存，轮流交给Camera填充，使用者处理完后调用releaseCallbackBuffer归还
+	private int mCallbackBufferCount = DEFAULT_CALLBACK_BUFFER_COUNT;
+	private volatile byte[][] mCallbackBuffers;
+	// 预览尺寸，开始预览时记录，预览回调中不再调用getParameters()(每次都会创建对象并解析参数字符串)
+	private volatile int mPreviewWidth;
+	private volatile int mPreviewHeight;
+	private volatile int mCallbackBufferSize;
+	// 当前在Camera手中的缓存个数，为0时Camera会丢帧
+	private final AtomicInteger mQueuedBufferCount = new AtomicInteger();
+	private final AtomicLong mStarvedSinceNanos = new AtomicLong();
+	private final AtomicLong mPreviewFrameCount = new AtomicLong();
+	private final AtomicLong mSkippedFrameCount = new AtomicLong();
+	private long mFrameIntervalNanos = 1000000000L / 30;
 
 
 	private static CameraManager mCameraManager;
@@ -61,10 +81,76 @@ public class CameraManager {
 		
 		@Override
 		public void onPreviewFrame(byte[] data, Camera camera) {
-			mPreviewListener.onPreviewResult(data, camera);
+			mPreviewFrameCount.incrementAndGet();
+			if (mQueuedBufferCount.decrementAndGet() <= 0) {
+				// Camera已没有可用缓存，记录开始时间，用于估算丢帧数
+				mStarvedSinceNanos.compareAndSet(0, System.nanoTime());
+			}
+			if (mPreviewListener != null) {
+				mPreviewListener.onPreviewResult(data, camera);
+			} else {
+				releaseCallbackBuffer(data);
+			}
 		}
 	};
 
+	/** 设置预览回调缓存个数，下次startPreview时生效 */
+	public void setCallbackBufferCount(int count) {
+		if (count < 1)
+			throw new IllegalArgumentException("callback buffer count must be at least 1");
+		mCallbackBufferCount = count;
+	}
+
+	public int getCallbackBufferCount() {
+		return mCallbackBufferCount;
+	}
+
+	/** 使用者处理完预览数据后调用，将缓存还给Camera继续填充 */
+	public void releaseCallbackBuffer(byte[] data) {
+		Camera camera = mCamera;
+		// 分辨率改变或相机重启前的旧缓存直接丢弃
+		if (camera == null || data == null || data.length != mCallbackBufferSize
+				|| !isCurrentCallbackBuffer(data)) {
+			return;
+		}
+		long starvedSince = mStarvedSinceNanos.getAndSet(0);
+		if (starvedSince != 0) {
+			long starvedNanos = System.nanoTime() - starvedSince;
+			long skipped = starvedNanos / mFrameIntervalNanos;
+			if (skipped > 0) {
+				mSkippedFrameCount.addAndGet(skipped);
+			}
+		}
+		mQueuedBufferCount.incrementAndGet();
+		camera.addCallbackBuffer(data);
+	}
+
+	private boolean isCurrentCallbackBuffer(byte[] data) {
+		byte[][] buffers = mCallbackBuffers;
+		if (buffers == null)
+			return false;
+		for (byte[] buffer : buffers) {
+			if (buffer == data)
+				return true;
+		}
+		return false;
+	}
+
+	/** 收到的预览帧数 */
+	public long getPreviewFrameCount() {
+		return mPreviewFrameCount.get();
+	}
+
+	/** 因没有空闲回调缓存而被Camera跳过的帧数(按帧间隔估算) */
+	public long getSkippedFrameCount() {
+		return mSkippedFrameCount.get();
+	}
+
+	/** 当前在Camera手中的回调缓存个数 */
+	public int getQueuedBufferCount() {
+		return mQueuedBufferCount.get();
+	}
+
 	public void setOnPreviewResult(OnPreviewFrameResult mPreviewListener){
 		this.mPreviewListener = mPreviewListener;
 	}
@@ -77,6 +163,15 @@ public class CameraManager {
 		mHolderRef = new WeakReference<SurfaceHolder>(mSurfaceHolder);
 	}
 
+	/** 预览输出到SurfaceTexture，为null时恢复输出到SurfaceHolder，下次startPreview时生效 */
+	public void setPreviewTexture(SurfaceTexture texture){
+		mPreviewTexture = texture;
+	}
+
+	public SurfaceTexture getPreviewTexture() {
+		return mPreviewTexture;
+	}
+
 	public void startPreview() {		
 		if (mCamera == null) {
 			return;
@@ -84,7 +179,11 @@ public class CameraManager {
 		//设定预览控件
 			try {
 				Log.i(TAG, "CameraManager-->开始相机预览");
-				mCamera.setPreviewDisplay(mHolderRef.get());
+				if (mPreviewTexture != null) {
+					mCamera.setPreviewTexture(mPreviewTexture);
+				} else {
+					mCamera.setPreviewDisplay(mHolderRef.get());
+				}
 			} catch (IOException e) {
 				e.printStackTrace();
 			}
@@ -104,7 +203,21 @@ public class CameraManager {
         int previewFormat = mCamera.getParameters().getPreviewFormat();
         Size previewSize = mCamera.getParameters().getPreviewSize();
         int size = previewSize.width * previewSize.height * ImageFormat.getBitsPerPixel(previewFormat) / 8;
-        mCamera.addCallbackBuffer(new byte[size]);        
+		mPreviewWidth = previewSize.width;
+		mPreviewHeight = previewSize.height;
+		// 每次预览都重新分配，避免上一次预览中仍被占用的缓存重复加入Camera
+		byte[][] buffers = new byte[mCallbackBufferCount][];
+		for (int i = 0; i < buffers.length; i++) {
+			buffers[i] = new byte[size];
+		}
+		mCallbackBuffers = buffers;
+		mCallbackBufferSize = size;
+		mQueuedBufferCount.set(0);
+		mStarvedSinceNanos.set(0);
+		for (byte[] buffer : buffers) {
+			mQueuedBufferCount.incrementAndGet();
+			mCamera.addCallbackBuffer(buffer);
+		}
         mCamera.setPreviewCallbackWithBuffer(previewCallback);
 	}
 
@@ -113,9 +226,14 @@ public class CameraManager {
 			return;
 		}
 		try {
+			// 断开预览输出，之后该Surface可以交给EGL绘制
 			mCamera.setPreviewDisplay(null);
+			if (mPreviewTexture != null) {
+				mCamera.setPreviewTexture(null);
+			}
 			mCamera.setPreviewCallbackWithBuffer(null);
 			mCamera.stopPreview();
+			mCallbackBuffers = null;
 			Log.i(TAG, "CameraManager-->停止相机预览");
 		} catch (IOException e) {
 			e.printStackTrace();
@@ -191,7 +309,11 @@ public class CameraManager {
 		params.setPreviewSize(PREVIEW_WIDTH,PREVIEW_HEIGHT);
 		//设置预览的最大、最小像素
 		int[] max = determineMaximumSupportedFramerate(params);
-		params.setPreviewFpsRange(max[0], max[1]);		
+		params.setPreviewFpsRange(max[0], max[1]);
+		if (max[1] > 0) {
+			// fps范围的单位为帧/千秒
+			mFrameIntervalNanos = 1000000000L * 1000 / max[1];
+		}
 		//使参数配置生效
 		mCamera.setParameters(params);
 		//旋转预览方向
@@ -282,6 +404,15 @@ public class CameraManager {
 		return mCamera;
 	}
 
+	/** 当前预览宽度，开始预览前为0 */
+	public int getPreviewWidth() {
+		return mPreviewWidth;
+	}
+
+	public int getPreviewHeight() {
+		return mPreviewHeight;
+	}
+
 	public SurfaceHolder getSurfaceHolder() {
 		if(mHolderRef == null){
 			return null;
@@ -0,0 +1,125 @@
+package com.jiangdg.mediacodec4mp4.utils;
+
+/** 定长YUV帧缓存池
+ * <p>
+ * 预览帧处理路径(颜色转换、旋转、抓拍)统一从这里借用byte[]，用完归还，
+ * 稳态录制时不再为每一帧分配新的数组，避免频繁GC导致的掉帧。
+ * acquire()在池为空时才会新建数组(记为一次miss)，池中最多缓存capacity个数组，
+ * 超出部分在release()时直接丢弃。
+ */
+public class FrameBufferPool {
+    private final int mBufferSize;
+    private final byte[][] mFreeBuffers;
+    private int mFreeCount;
+    // 统计信息
+    private long mHitCount;
+    private long mMissCount;
+    private int mInUseCount;
+    private int mPeakInUseCount;
+
+    /**
+     * @param bufferSize 每个缓存的字节数，如YUV420为width*height*3/2
+     * @param capacity 池中最多保留的缓存个数
+     */
+    public FrameBufferPool(int bufferSize, int capacity) {
+        if (bufferSize <= 0 || capacity <= 0)
+            throw new IllegalArgumentException("bufferSize and capacity must be positive");
+        this.mBufferSize = bufferSize;
+        this.mFreeBuffers = new byte[capacity][];
+    }
+
+    /** YUV420格式一帧图像所需的字节数 */
+    public static int yuv420Size(int width, int height) {
+        return width * height * 3 / 2;
+    }
+
+    /** 预先分配缓存，避免录制开始后的首帧分配 */
+    public synchronized void prefill(int count) {
+        count = Math.min(count, mFreeBuffers.length);
+        while (mFreeCount < count) {
+            mFreeBuffers[mFreeCount++] = new byte[mBufferSize];
+        }
+    }
+
+    /** 借用一个缓存，使用完毕后必须调用release归还 */
+    public synchronized byte[] acquire() {
+        byte[] buffer;
+        if (mFreeCount > 0) {
+            buffer = mFreeBuffers[--mFreeCount];
+            mFreeBuffers[mFreeCount] = null;
+            mHitCount++;
+        } else {
+            buffer = new byte[mBufferSize];
+            mMissCount++;
+        }
+        if (++mInUseCount > mPeakInUseCount) {
+            mPeakInUseCount = mInUseCount;
+        }
+        return buffer;
+    }
+
+    /** 归还缓存，大小不匹配(如分辨率已改变)的数组直接丢弃 */
+    public synchronized void release(byte[] buffer) {
+        if (buffer == null)
+            return;
+        if (mInUseCount > 0) {
+            mInUseCount--;
+        }
+        if (buffer.length != mBufferSize || mFreeCount >= mFreeBuffers.length) {
+            return;
+        }
+        mFreeBuffers[mFreeCount++] = buffer;
+    }
+
+    /** 释放池中缓存的所有数组 */
+    public synchronized void clear() {
+        for (int i = 0; i < mFreeCount; i++) {
+            mFreeBuffers[i] = null;
+        }
+        mFreeCount = 0;
+    }
+
+    public int getBufferSize() {
+        return mBufferSize;
+    }
+
+    public int getCapacity() {
+        return mFreeBuffers.length;
+    }
+
+    public synchronized int getFreeCount() {
+        return mFreeCount;
+    }
+
+    /** 从池中直接取得缓存的次数 */
+    public synchronized long getHitCount() {
+        return mHitCount;
+    }
+
+    /** 池为空、需要新分配数组的次数 */
+    public synchronized long getMissCount() {
+        return mMissCount;
+    }
+
+    public synchronized int getInUseCount() {
+        return mInUseCount;
+    }
+
+    /** 同时借出缓存个数的峰值 */
+    public synchronized int getPeakInUseCount() {
+        return mPeakInUseCount;
+    }
+
+    public synchronized void resetStats() {
+        mHitCount = 0;
+        mMissCount = 0;
+        mPeakInUseCount = mInUseCount;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "FrameBufferPool{size=" + mBufferSize + ", free=" + mFreeCount + "/" + mFreeBuffers.length
+                + ", hits=" + mHitCount + ", misses=" + mMissCount
+                + ", inUse=" + mInUseCount + ", peak=" + mPeakInUseCount + "}";
+    }
+}
@@ -0,0 +1,279 @@
+package com.jiangdg.mediacodec4mp4.utils;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/** 单生产者/单消费者无锁帧队列
+ * <p>
+ * 生产者(Camera预览回调线程)调用offer()把一帧数据拷贝到槽位后立即返回，
+ * 消费者(编码线程)调用poll()取出帧，处理完成后调用release()归还槽位。
+ * 槽位数组在创建时一次性分配，稳态运行不产生垃圾。
+ * <p>
+ * 实现说明：mHead为下一个写入序号，只由生产者推进；mTail为下一个读取序号，
+ * 消费者取帧、生产者丢弃最旧帧时均通过CAS推进；mReading记录消费者正在读取的序号，
+ * 生产者不会覆盖该槽位。物理槽位比队列容量多一个，供消费者读取时占用。
+ */
+public class FrameRingBuffer {
+    private static final long NOT_READING = Long.MAX_VALUE;
+    // 阻塞等待时的轮询间隔
+    private static final long PARK_NANOS = TimeUnit.MICROSECONDS.toNanos(200);
+
+    /** 队列满时的处理策略 */
+    public enum OverflowPolicy {
+        /** 丢弃最旧的一帧，保证编码的总是最新画面；消费者正在读取的槽位不会被覆盖，此时丢弃新帧 */
+        DROP_OLDEST,
+        /** 丢弃当前要写入的帧 */
+        DROP_NEWEST,
+        /** 阻塞生产者，直到消费者腾出槽位 */
+        BLOCK
+    }
+
+    /** 帧槽位，消费者调用release()之前内容保持有效 */
+    public static class Frame {
+        private byte[] data;
+        private int length;
+        private int width;
+        private int height;
+        private long timestampNs;
+
+        Frame(int frameSize) {
+            data = new byte[frameSize];
+        }
+
+        public byte[] getData() {
+            return data;
+        }
+
+        public int getLength() {
+            return length;
+        }
+
+        public int getWidth() {
+            return width;
+        }
+
+        public int getHeight() {
+            return height;
+        }
+
+        /** 采集时间戳，单位纳秒 */
+        public long getTimestampNs() {
+            return timestampNs;
+        }
+    }
+
+    private final Frame[] mSlots;
+    private final int mCapacity;
+    private final OverflowPolicy mPolicy;
+    private final AtomicLong mHead = new AtomicLong();
+    private final AtomicLong mTail = new AtomicLong();
+    private final AtomicLong mReading = new AtomicLong(NOT_READING);
+    private volatile Thread mConsumerWaiter;
+    private volatile Thread mProducerWaiter;
+    private volatile boolean isClosed;
+    // 统计信息
+    private final AtomicLong mPublishedCount = new AtomicLong();
+    private final AtomicLong mConsumedCount = new AtomicLong();
+    private final AtomicLong mDroppedOldestCount = new AtomicLong();
+    private final AtomicLong mDroppedNewestCount = new AtomicLong();
+
+    /**
+     * @param capacity 可缓存的帧数
+     * @param frameSize 每帧的字节数
+     * @param policy 队列满时的处理策略
+     */
+    public FrameRingBuffer(int capacity, int frameSize, OverflowPolicy policy) {
+        if (capacity <= 0 || frameSize <= 0)
+            throw new IllegalArgumentException("capacity and frameSize must be positive");
+        if (policy == null)
+            throw new IllegalArgumentException("policy can not be null");
+        this.mCapacity = capacity;
+        this.mPolicy = policy;
+        this.mSlots = new Frame[capacity + 1];
+        for (int i = 0; i < mSlots.length; i++) {
+            mSlots[i] = new Frame(frameSize);
+        }
+    }
+
+    /** 生产者：拷贝一帧到队列，返回false表示该帧被丢弃 */
+    public boolean offer(byte[] src, int length, int width, int height, long timestampNs) {
+        if (isClosed || src == null)
+            return false;
+        long head = mHead.get();
+        while (!hasRoom(head)) {
+            if (mPolicy == OverflowPolicy.DROP_OLDEST) {
+                long tail = mTail.get();
+                // 还有未读的旧帧，尝试丢弃；否则最旧的槽位正在被读取，只能丢弃新帧
+                if (tail < head && head - tail >= mCapacity) {
+                    if (mTail.compareAndSet(tail, tail + 1)) {
+                        mDroppedOldestCount.incrementAndGet();
+                    }
+                    continue;
+                }
+                if (hasRoom(head))
+                    break;
+                mDroppedNewestCount.incrementAndGet();
+                return false;
+            } else if (mPolicy == OverflowPolicy.DROP_NEWEST) {
+                mDroppedNewestCount.incrementAndGet();
+                return false;
+            } else {
+                mProducerWaiter = Thread.currentThread();
+                if (!hasRoom(head)) {
+                    LockSupport.parkNanos(this, PARK_NANOS);
+                }
+                mProducerWaiter = null;
+                if (isClosed || Thread.currentThread().isInterrupted())
+                    return false;
+            }
+        }
+        Frame slot = mSlots[(int) (head % mSlots.length)];
+        if (slot.data.length < length) {
+            // 分辨率变大，该槽位此时只属于生产者，可以安全地重新分配
+            slot.data = new byte[length];
+        }
+        System.arraycopy(src, 0, slot.data, 0, length);
+        slot.length = length;
+        slot.width = width;
+        slot.height = height;
+        slot.timestampNs = timestampNs;
+        mHead.lazySet(head + 1);
+        mPublishedCount.incrementAndGet();
+        Thread waiter = mConsumerWaiter;
+        if (waiter != null) {
+            LockSupport.unpark(waiter);
+        }
+        return true;
+    }
+
+    public boolean offer(byte[] src, int width, int height, long timestampNs) {
+        return offer(src, src == null ? 0 : src.length, width, height, timestampNs);
+    }
+
+    // 队列未满，且要写入的槽位没有被消费者占用
+    private boolean hasRoom(long head) {
+        long tail = mTail.get();
+        if (head - tail >= mCapacity)
+            return false;
+        long lowest = Math.min(tail, mReading.get());
+        return head - lowest < mSlots.length;
+    }
+
+    /** 消费者：取出最旧的一帧，队列为空时返回null */
+    public Frame poll() {
+        while (true) {
+            long tail = mTail.get();
+            if (tail >= mHead.get())
+                return null;
+            // 先声明正在读取的序号，再占有该帧，防止生产者覆盖
+            mReading.set(tail);
+            if (mTail.compareAndSet(tail, tail + 1)) {
+                return mSlots[(int) (tail % mSlots.length)];
+            }
+            // 该帧刚被生产者丢弃，重新读取
+            mReading.set(NOT_READING);
+        }
+    }
+
+    /** 消费者：取出最旧的一帧，队列为空时最多等待timeout */
+    public Frame poll(long timeout, TimeUnit unit) throws InterruptedException {
+        Frame frame = poll();
+        if (frame != null || timeout <= 0)
+            return frame;
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        while (!isClosed) {
+            long remaining = deadline - System.nanoTime();
+            if (remaining <= 0)
+                return null;
+            mConsumerWaiter = Thread.currentThread();
+            if (isEmpty()) {
+                LockSupport.parkNanos(this, remaining);
+            }
+            mConsumerWaiter = null;
+            if (Thread.interrupted())
+                throw new InterruptedException();
+            frame = poll();
+            if (frame != null)
+                return frame;
+        }
+        return null;
+    }
+
+    /** 消费者：处理完一帧后归还槽位 */
+    public void release(Frame frame) {
+        if (frame == null)
+            return;
+        mReading.set(NOT_READING);
+        mConsumedCount.incrementAndGet();
+        Thread waiter = mProducerWaiter;
+        if (waiter != null) {
+            LockSupport.unpark(waiter);
+        }
+    }
+
+    /** 关闭队列，唤醒阻塞的生产者和消费者 */
+    public void close() {
+        isClosed = true;
+        Thread waiter = mProducerWaiter;
+        if (waiter != null) {
+            LockSupport.unpark(waiter);
+        }
+        waiter = mConsumerWaiter;
+        if (waiter != null) {
+            LockSupport.unpark(waiter);
+        }
+    }
+
+    public boolean isClosed() {
+        return isClosed;
+    }
+
+    public boolean isEmpty() {
+        return mTail.get() >= mHead.get();
+    }
+
+    /** 队列中等待编码的帧数 */
+    public int size() {
+        long size = mHead.get() - mTail.get();
+        return size < 0 ? 0 : (int) size;
+    }
+
+    public int getCapacity() {
+        return mCapacity;
+    }
+
+    public OverflowPolicy getOverflowPolicy() {
+        return mPolicy;
+    }
+
+    public long getPublishedCount() {
+        return mPublishedCount.get();
+    }
+
+    public long getConsumedCount() {
+        return mConsumedCount.get();
+    }
+
+    /** 因队列满被丢弃的旧帧数 */
+    public long getDroppedOldestCount() {
+        return mDroppedOldestCount.get();
+    }
+
+    /** 因队列满被丢弃的新帧数 */
+    public long getDroppedNewestCount() {
+        return mDroppedNewestCount.get();
+    }
+
+    public long getDroppedCount() {
+        return mDroppedOldestCount.get() + mDroppedNewestCount.get();
+    }
+
+    @Override
+    public String toString() {
+        return "FrameRingBuffer{policy=" + mPolicy + ", size=" + size() + "/" + mCapacity
+                + ", published=" + getPublishedCount() + ", consumed=" + getConsumedCount()
+                + ", droppedOldest=" + getDroppedOldestCount()
+                + ", droppedNewest=" + getDroppedNewestCount() + "}";
+    }
+}
@@ -0,0 +1,112 @@
+package com.jiangdg.mediacodec4mp4.utils;
+
+/** 基于采集时间戳的帧率控制器
+ * <p>
+ * 按目标帧率计算下一帧的期望时间，采集帧早于期望时间则丢弃(抽帧)，
+ * 否则放行，期望时间按固定间隔推进，长期输出帧率严格等于目标帧率；
+ * 输入帧率低于目标帧率时全部放行。整个过程不阻塞调用线程。
+ * 同时统计实际输出帧率和帧间隔抖动。
+ */
+public class FrameScheduler {
+    private static final long NANOS_PER_SECOND = 1000000000L;
+    // 容忍的时间戳提前量(目标间隔的1/4)，吸收采集时间戳的抖动
+    private static final int TOLERANCE_DIVISOR = 4;
+    // 抖动平滑系数，同RFC 3550
+    private static final int JITTER_GAIN = 16;
+
+    private final int mTargetFps;
+    private final long mIntervalNanos;
+    private final long mToleranceNanos;
+    private long mNextDueNanos;
+    private long mFirstAcceptedNanos;
+    private long mLastAcceptedNanos;
+    private boolean isStarted;
+    // 统计信息，由生产者线程更新，其他线程读取
+    private volatile long mAcceptedCount;
+    private volatile long mDroppedCount;
+    private volatile double mAchievedFps;
+    private volatile double mJitterNanos;
+
+    public FrameScheduler(int targetFps) {
+        if (targetFps <= 0)
+            throw new IllegalArgumentException("targetFps must be positive");
+        this.mTargetFps = targetFps;
+        this.mIntervalNanos = NANOS_PER_SECOND / targetFps;
+        this.mToleranceNanos = mIntervalNanos / TOLERANCE_DIVISOR;
+    }
+
+    /**
+     * 判断采集时间戳为timestampNs的帧是否需要编码
+     *
+     * @param timestampNs 采集时间戳，单位纳秒，需单调递增
+     * @return true放行，false丢弃
+     */
+    public boolean accept(long timestampNs) {
+        if (!isStarted) {
+            isStarted = true;
+            mFirstAcceptedNanos = timestampNs;
+            mLastAcceptedNanos = timestampNs;
+            mNextDueNanos = timestampNs + mIntervalNanos;
+            mAcceptedCount++;
+            return true;
+        }
+        if (timestampNs + mToleranceNanos < mNextDueNanos) {
+            mDroppedCount++;
+            return false;
+        }
+        if (timestampNs - mNextDueNanos >= mIntervalNanos) {
+            // 输入中断过(如相机卡顿)，重新对齐，避免之后连续放行追赶
+            mNextDueNanos = timestampNs + mIntervalNanos;
+        } else {
+            mNextDueNanos += mIntervalNanos;
+        }
+        long delta = timestampNs - mLastAcceptedNanos;
+        long deviation = Math.abs(delta - mIntervalNanos);
+        mJitterNanos += (deviation - mJitterNanos) / JITTER_GAIN;
+        mLastAcceptedNanos = timestampNs;
+        mAcceptedCount++;
+        long elapsed = mLastAcceptedNanos - mFirstAcceptedNanos;
+        if (elapsed > 0) {
+            mAchievedFps = (mAcceptedCount - 1) * (double) NANOS_PER_SECOND / elapsed;
+        }
+        return true;
+    }
+
+    public void reset() {
+        isStarted = false;
+        mAcceptedCount = 0;
+        mDroppedCount = 0;
+        mAchievedFps = 0;
+        mJitterNanos = 0;
+    }
+
+    public int getTargetFps() {
+        return mTargetFps;
+    }
+
+    /** 放行的帧数 */
+    public long getAcceptedCount() {
+        return mAcceptedCount;
+    }
+
+    /** 抽帧丢弃的帧数 */
+    public long getDroppedCount() {
+        return mDroppedCount;
+    }
+
+    /** 实际输出帧率 */
+    public double getAchievedFps() {
+        return mAchievedFps;
+    }
+
+    /** 输出帧间隔相对目标间隔的平均抖动，单位毫秒 */
+    public double getJitterMillis() {
+        return mJitterNanos / 1000000.0;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("FrameScheduler{target=%dfps, achieved=%.2ffps, jitter=%.2fms, accepted=%d, dropped=%d}",
+                mTargetFps, getAchievedFps(), getJitterMillis(), getAcceptedCount(), getDroppedCount());
+    }
+}
@@ -0,0 +1,68 @@
+package com.jiangdg.yuvosd;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
+import android.graphics.Typeface;
+import android.text.TextUtils;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+
+/** 用Canvas绘制字形，字体通常为assets中的SIMYOU.ttf
+ */
+public class CanvasGlyphRasterizer implements GlyphRasterizer {
+    private final Paint mPaint;
+    private final int mGlyphHeight;
+    private final float mBaseline;
+    private final char[] mChar = new char[1];
+    private Bitmap mBitmap;
+    private Canvas mCanvas;
+    private ByteBuffer mPixels;
+
+    /**
+     * @param glyphHeight 字形高度，文字大小按高度计算
+     * @param fontPath 字体文件路径，为空或不存在时使用默认字体
+     */
+    public CanvasGlyphRasterizer(int glyphHeight, String fontPath) {
+        mGlyphHeight = glyphHeight;
+        mPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+        mPaint.setColor(Color.WHITE);
+        mPaint.setTextSize(glyphHeight * 0.8f);
+        if (!TextUtils.isEmpty(fontPath) && new File(fontPath).exists()) {
+            mPaint.setTypeface(Typeface.createFromFile(fontPath));
+        }
+        Paint.FontMetrics metrics = mPaint.getFontMetrics();
+        mBaseline = (glyphHeight - metrics.bottom - metrics.top) / 2;
+    }
+
+    @Override
+    public int getGlyphHeight() {
+        return mGlyphHeight;
+    }
+
+    @Override
+    public GlyphAtlas.Glyph rasterize(char c) {
+        mChar[0] = c;
+        int width = Math.max(1, (int) Math.ceil(mPaint.measureText(mChar, 0, 1)));
+        // ALPHA_8的行字节数按4对齐
+        int bitmapWidth = (width + 3) & ~3;
+        if (mBitmap == null || mBitmap.getWidth() < bitmapWidth) {
+            mBitmap = Bitmap.createBitmap(bitmapWidth, mGlyphHeight, Bitmap.Config.ALPHA_8);
+            mCanvas = new Canvas(mBitmap);
+            mPixels = ByteBuffer.allocate(mBitmap.getRowBytes() * mGlyphHeight);
+        }
+        mBitmap.eraseColor(Color.TRANSPARENT);
+        mCanvas.drawText(mChar, 0, 1, 0, mBaseline, mPaint);
+        mPixels.clear();
+        mBitmap.copyPixelsToBuffer(mPixels);
+        int rowBytes = mBitmap.getRowBytes();
+        byte[] pixels = mPixels.array();
+        byte[] alpha = new byte[width * mGlyphHeight];
+        for (int y = 0; y < mGlyphHeight; y++) {
+            System.arraycopy(pixels, y * rowBytes, alpha, y * width, width);
+        }
+        return new GlyphAtlas.Glyph(c, width, mGlyphHeight, alpha);
+    }
+}
@@ -0,0 +1,36 @@
+package com.jiangdg.yuvosd;
+
+/** 可以叠加到YUV帧上的内容，坐标为输出(旋转后)图像坐标
+ * <p>
+ * 单个图层(OverlayMask)和多图层合成(OsdCompositor)都实现此接口，
+ * FusedFrameProcessor按行调用，两趟处理时按整帧调用。
+ */
+public interface FrameOverlay {
+    /** 没有可见内容时返回true，调用方可以跳过混合 */
+    boolean isEmpty();
+
+    /**
+     * 混合到输出图像的一行亮度上
+     *
+     * @param row 输出行数据，row[offset]对应输出图像的第0列
+     * @param y 该行在输出图像中的行号
+     */
+    void blendLumaRow(byte[] row, int offset, int rowWidth, int y);
+
+    /**
+     * 混合到输出图像的一行色度上
+     *
+     * @param row 色度行数据，第cx列的U在row[uOffset + cx * step]，V在row[vOffset + cx * step]
+     * @param chromaWidth 色度行的像素数
+     * @param cy 色度行号(输出图像行号的一半)
+     */
+    void blendChromaRow(byte[] row, int uOffset, int vOffset, int step, int chromaWidth, int cy);
+
+    /**
+     * 混合到整帧YUV数据上(就地修改)
+     *
+     * @param width 帧宽度(旋转后的宽度)
+     * @param format YuvConverter中的四种格式之一
+     */
+    void blendFrame(byte[] frame, int width, int height, int format);
+}
@@ -0,0 +1,264 @@
+package com.jiangdg.yuvosd;
+
+import java.nio.ByteBuffer;
+
+/** 单趟完成旋转、颜色格式转换和水印叠加，结果直接写入编码器输入缓存区
+ * <p>
+ * 以BAND_ROWS行输出为一组：先从源图取像素填到一小块行缓存中(留在CPU缓存里)，
+ * 在行缓存上叠加水印，再整块写入目标ByteBuffer。每个源字节只读一次，每个目标字节只写一次，
+ * 不再需要旋转结果和颜色转换结果两块整帧缓存。非线程安全，每个编码线程使用一个实例；
+ * 需要多核并行时使用ParallelFrameProcessor。
+ */
+public class FusedFrameProcessor {
+    // 每组处理的输出行数
+    static final int BAND_ROWS = 16;
+
+    private final int mWidth;
+    private final int mHeight;
+    private final int mSrcFormat;
+    private final int mDstFormat;
+    private final int mDegree;
+    private final boolean isMirror;
+    private final int mOutWidth;
+    private final int mOutHeight;
+    private final int mFrameSize;
+    // 输出坐标(ox, oy)对应的源像素下标为 base + ox * dx + oy * dy
+    private final int[] mLumaMapping;
+    private final int[] mChromaMapping;
+    private final byte[] mLumaBand;
+    private final byte[] mChromaBand;
+
+    /**
+     * @param width 源图像宽度(旋转前)
+     * @param height 源图像高度(旋转前)
+     * @param srcFormat 源格式，YuvConverter.FORMAT_NV21或FORMAT_NV12
+     * @param dstFormat 编码器要求的格式，YuvConverter中的四种格式之一
+     * @param degree 顺时针旋转角度，0、90、180、270
+     * @param mirror 旋转后是否水平镜像
+     */
+    public FusedFrameProcessor(int width, int height, int srcFormat, int dstFormat, int degree, boolean mirror) {
+        if (width <= 0 || height <= 0 || (width & 1) != 0 || (height & 1) != 0)
+            throw new IllegalArgumentException("invalid frame size " + width + "x" + height);
+        if (JavaYuvConverter.isPlanar(srcFormat))
+            throw new IllegalArgumentException("source must be NV21 or NV12");
+        // 校验目标格式
+        JavaYuvConverter.isPlanar(dstFormat);
+        mWidth = width;
+        mHeight = height;
+        mSrcFormat = srcFormat;
+        mDstFormat = dstFormat;
+        mDegree = degree;
+        isMirror = mirror;
+        boolean isSwapSize = degree == 90 || degree == 270;
+        mOutWidth = isSwapSize ? height : width;
+        mOutHeight = isSwapSize ? width : height;
+        mFrameSize = width * height * 3 / 2;
+        mLumaMapping = inverseMapping(width, height, degree, mirror);
+        mChromaMapping = inverseMapping(width / 2, height / 2, degree, mirror);
+        mLumaBand = newBand();
+        // 平面格式时前一半放U，后一半放V；交错格式时按目标顺序交错存放
+        mChromaBand = newBand();
+    }
+
+    // 输出坐标到源坐标的映射，返回{base, dx, dy}
+    static int[] inverseMapping(int width, int height, int degree, boolean mirror) {
+        switch (degree) {
+            case 0:
+                return mirror ? new int[]{width - 1, -1, width} : new int[]{0, 1, width};
+            case 90:
+                return mirror ? new int[]{0, width, 1} : new int[]{(height - 1) * width, -width, 1};
+            case 180:
+                return mirror ? new int[]{(height - 1) * width, 1, -width} : new int[]{width * height - 1, -1, -width};
+            case 270:
+                return mirror ? new int[]{width * height - 1, -width, -1} : new int[]{width - 1, width, -1};
+            default:
+                throw new IllegalArgumentException("unsupported degree: " + degree);
+        }
+    }
+
+    public int getWidth() {
+        return mWidth;
+    }
+
+    public int getHeight() {
+        return mHeight;
+    }
+
+    /** 旋转后的宽度 */
+    public int getOutputWidth() {
+        return mOutWidth;
+    }
+
+    /** 旋转后的高度 */
+    public int getOutputHeight() {
+        return mOutHeight;
+    }
+
+    public int getFrameSize() {
+        return mFrameSize;
+    }
+
+    public int getDegree() {
+        return mDegree;
+    }
+
+    public boolean isMirror() {
+        return isMirror;
+    }
+
+    /**
+     * 处理一帧，从dst的position开始写入getFrameSize()字节，完成后position后移
+     *
+     * @param overlay 叠加的水印，为null时不叠加
+     * @return 写入的字节数
+     */
+    public int process(byte[] src, ByteBuffer dst, FrameOverlay overlay) {
+        if (src.length < mFrameSize)
+            throw new IllegalArgumentException("source buffer too small");
+        if (dst.remaining() < mFrameSize)
+            throw new IllegalArgumentException("output buffer too small: " + dst.remaining() + " < " + mFrameSize);
+        if (overlay != null && overlay.isEmpty()) {
+            overlay = null;
+        }
+        int start = dst.position();
+        processRows(src, dst, start, overlay, 0, mOutHeight, mLumaBand, mChromaBand);
+        dst.position(start + mFrameSize);
+        return mFrameSize;
+    }
+
+    /**
+     * 处理输出图像[beginRow, endRow)行的亮度和对应的色度，供ParallelFrameProcessor按条带并行调用
+     * <p>
+     * 只按绝对位置写dst中属于这些行的区间，不同条带使用各自的dst视图和行缓存时可以同时执行。
+     *
+     * @param start 整帧在dst中的起始位置
+     * @param beginRow 起始行，需为偶数
+     * @param endRow 结束行(不含)，需为偶数或输出高度
+     * @param lumaBand 亮度行缓存，长度为newBand()
+     * @param chromaBand 色度行缓存，长度为newBand()
+     */
+    void processRows(byte[] src, ByteBuffer dst, int start, FrameOverlay overlay, int beginRow, int endRow,
+                     byte[] lumaBand, byte[] chromaBand) {
+        if (beginRow >= endRow)
+            return;
+        processLuma(src, dst, start, overlay, beginRow, endRow, lumaBand);
+        processChroma(src, dst, start, overlay, beginRow / 2, endRow / 2, chromaBand);
+    }
+
+    /** 分配一块与内部相同大小的行缓存 */
+    byte[] newBand() {
+        return new byte[BAND_ROWS * mOutWidth];
+    }
+
+    private void processLuma(byte[] src, ByteBuffer dst, int start, FrameOverlay overlay, int beginRow, int endRow,
+                             byte[] band) {
+        int width = mOutWidth;
+        int base = mLumaMapping[0];
+        int dx = mLumaMapping[1];
+        int dy = mLumaMapping[2];
+        for (int oy0 = beginRow; oy0 < endRow; oy0 += BAND_ROWS) {
+            int rows = Math.min(BAND_ROWS, endRow - oy0);
+            if (dx == 1) {
+                // 不旋转：整行拷贝
+                for (int r = 0; r < rows; r++) {
+                    System.arraycopy(src, base + (oy0 + r) * dy, band, r * width, width);
+                }
+            } else if (dx == -1) {
+                // 180度或水平镜像：行内倒序
+                for (int r = 0; r < rows; r++) {
+                    int s = base + (oy0 + r) * dy;
+                    int d = r * width;
+                    for (int ox = 0; ox < width; ox++) {
+                        band[d + ox] = src[s - ox];
+                    }
+                }
+            } else {
+                // 90/270度：输出的一列对应源的一段连续字节，按列读取源数据
+                for (int ox = 0; ox < width; ox++) {
+                    int s = base + ox * dx + oy0 * dy;
+                    int d = ox;
+                    for (int r = 0; r < rows; r++) {
+                        band[d] = src[s];
+                        s += dy;
+                        d += width;
+                    }
+                }
+            }
+            if (overlay != null) {
+                for (int r = 0; r < rows; r++) {
+                    overlay.blendLumaRow(band, r * width, width, oy0 + r);
+                }
+            }
+            dst.position(start + oy0 * width);
+            dst.put(band, 0, rows * width);
+        }
+    }
+
+    private void processChroma(byte[] src, ByteBuffer dst, int start, FrameOverlay overlay, int beginRow, int endRow,
+                               byte[] band) {
+        int width = mOutWidth / 2;
+        int ySize = mWidth * mHeight;
+        int base = mChromaMapping[0];
+        int dx = mChromaMapping[1];
+        int dy = mChromaMapping[2];
+        // 源数据每个色度像素中U、V的字节位置
+        int srcU = mSrcFormat == YuvConverter.FORMAT_NV12 ? 0 : 1;
+        int srcV = 1 - srcU;
+        boolean isPlanar = JavaYuvConverter.isPlanar(mDstFormat);
+        int step = isPlanar ? 1 : 2;
+        int rowBytes = width * step;
+        int bandHalf = BAND_ROWS * width;
+        // 行缓存中U、V的起始位置
+        int bandU;
+        int bandV;
+        if (isPlanar) {
+            bandU = 0;
+            bandV = bandHalf;
+        } else {
+            bandU = mDstFormat == YuvConverter.FORMAT_NV12 ? 0 : 1;
+            bandV = 1 - bandU;
+        }
+        int uPlane = start + ySize + (mDstFormat == YuvConverter.FORMAT_YV12 ? ySize / 4 : 0);
+        int vPlane = start + ySize + (mDstFormat == YuvConverter.FORMAT_YV12 ? 0 : ySize / 4);
+        for (int oy0 = beginRow; oy0 < endRow; oy0 += BAND_ROWS) {
+            int rows = Math.min(BAND_ROWS, endRow - oy0);
+            if (dx == 1 || dx == -1) {
+                for (int r = 0; r < rows; r++) {
+                    int s = ySize + (base + (oy0 + r) * dy) * 2;
+                    int d = r * rowBytes;
+                    for (int ox = 0; ox < width; ox++) {
+                        band[d + bandU] = src[s + srcU];
+                        band[d + bandV] = src[s + srcV];
+                        s += dx * 2;
+                        d += step;
+                    }
+                }
+            } else {
+                for (int ox = 0; ox < width; ox++) {
+                    int s = ySize + (base + ox * dx + oy0 * dy) * 2;
+                    int d = ox * step;
+                    for (int r = 0; r < rows; r++) {
+                        band[d + bandU] = src[s + srcU];
+                        band[d + bandV] = src[s + srcV];
+                        s += dy * 2;
+                        d += rowBytes;
+                    }
+                }
+            }
+            if (overlay != null) {
+                for (int r = 0; r < rows; r++) {
+                    overlay.blendChromaRow(band, bandU + r * rowBytes, bandV + r * rowBytes, step, width, oy0 + r);
+                }
+            }
+            if (isPlanar) {
+                dst.position(uPlane + oy0 * width);
+                dst.put(band, 0, rows * width);
+                dst.position(vPlane + oy0 * width);
+                dst.put(band, bandHalf, rows * width);
+            } else {
+                dst.position(start + ySize + oy0 * rowBytes);
+                dst.put(band, 0, rows * rowBytes);
+            }
+        }
+    }
+}
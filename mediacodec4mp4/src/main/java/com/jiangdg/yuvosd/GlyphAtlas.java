@@ -0,0 +1,131 @@
+package com.jiangdg.yuvosd;
+
+import java.util.Arrays;
+
+/** 预先绘制的字形缓存，叠加文字时只拷贝透明度，不再每帧绘制字体
+ * <p>
+ * ASCII字符直接按下标查找，其他字符(如中文星期、固定文字)保存在有序数组中二分查找，
+ * 查找过程不分配对象。缺少的字形在第一次使用时绘制。非线程安全。
+ */
+public class GlyphAtlas {
+
+    /** 一个字符的透明度图，按width x height行存放 */
+    public static final class Glyph {
+        private final char mChar;
+        private final int mWidth;
+        private final int mHeight;
+        private final byte[] mAlpha;
+
+        public Glyph(char c, int width, int height, byte[] alpha) {
+            if (alpha.length < width * height)
+                throw new IllegalArgumentException("alpha too small for " + width + "x" + height);
+            mChar = c;
+            mWidth = width;
+            mHeight = height;
+            mAlpha = alpha;
+        }
+
+        public char getChar() {
+            return mChar;
+        }
+
+        public int getWidth() {
+            return mWidth;
+        }
+
+        public int getHeight() {
+            return mHeight;
+        }
+
+        public byte[] getAlpha() {
+            return mAlpha;
+        }
+    }
+
+    private final GlyphRasterizer mRasterizer;
+    private final Glyph[] mAscii = new Glyph[128];
+    private char[] mKeys = new char[0];
+    private Glyph[] mGlyphs = new Glyph[0];
+    private int mRasterizedCount;
+
+    public GlyphAtlas(GlyphRasterizer rasterizer) {
+        mRasterizer = rasterizer;
+    }
+
+    public int getGlyphHeight() {
+        return mRasterizer.getGlyphHeight();
+    }
+
+    /** 预先绘制text中的所有字符 */
+    public void preload(CharSequence text) {
+        if (text == null)
+            return;
+        for (int i = 0; i < text.length(); i++) {
+            getGlyph(text.charAt(i));
+        }
+    }
+
+    public Glyph getGlyph(char c) {
+        if (c < mAscii.length) {
+            Glyph glyph = mAscii[c];
+            if (glyph == null) {
+                glyph = rasterize(c);
+                mAscii[c] = glyph;
+            }
+            return glyph;
+        }
+        int index = Arrays.binarySearch(mKeys, c);
+        if (index >= 0)
+            return mGlyphs[index];
+        Glyph glyph = rasterize(c);
+        int insert = -index - 1;
+        char[] keys = new char[mKeys.length + 1];
+        Glyph[] glyphs = new Glyph[mGlyphs.length + 1];
+        System.arraycopy(mKeys, 0, keys, 0, insert);
+        System.arraycopy(mGlyphs, 0, glyphs, 0, insert);
+        keys[insert] = c;
+        glyphs[insert] = glyph;
+        System.arraycopy(mKeys, insert, keys, insert + 1, mKeys.length - insert);
+        System.arraycopy(mGlyphs, insert, glyphs, insert + 1, mGlyphs.length - insert);
+        mKeys = keys;
+        mGlyphs = glyphs;
+        return glyph;
+    }
+
+    private Glyph rasterize(char c) {
+        Glyph glyph = mRasterizer.rasterize(c);
+        if (glyph.getHeight() != getGlyphHeight())
+            throw new IllegalStateException("glyph height mismatch for '" + c + "'");
+        mRasterizedCount++;
+        return glyph;
+    }
+
+    /** 文字[start, end)的总宽度 */
+    public int measure(CharSequence text, int start, int end) {
+        int width = 0;
+        for (int i = start; i < end; i++) {
+            width += getGlyph(text.charAt(i)).getWidth();
+        }
+        return width;
+    }
+
+    /**
+     * 把文字[start, end)的字形拷贝到图层的(x, y)处，超出图层的部分被裁掉
+     *
+     * @param luma 文字亮度
+     * @return 文字结束处的x坐标
+     */
+    public int draw(CharSequence text, int start, int end, OverlayMask mask, int x, int y, int luma) {
+        for (int i = start; i < end; i++) {
+            Glyph glyph = getGlyph(text.charAt(i));
+            mask.drawAlpha(glyph.getAlpha(), glyph.getWidth(), glyph.getHeight(), x, y, luma);
+            x += glyph.getWidth();
+        }
+        return x;
+    }
+
+    /** 已绘制的字形数，用于确认字形只绘制一次 */
+    public int getRasterizedCount() {
+        return mRasterizedCount;
+    }
+}
@@ -0,0 +1,11 @@
+package com.jiangdg.yuvosd;
+
+/** 把单个字符绘制成透明度图，供GlyphAtlas缓存
+ */
+public interface GlyphRasterizer {
+    /** 所有字符的高度(行数)相同 */
+    int getGlyphHeight();
+
+    /** 绘制字符c，返回的字形高度必须为getGlyphHeight() */
+    GlyphAtlas.Glyph rasterize(char c);
+}
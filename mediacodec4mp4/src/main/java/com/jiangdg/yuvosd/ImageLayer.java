@@ -0,0 +1,70 @@
+package com.jiangdg.yuvosd;
+
+import android.graphics.Bitmap;
+
+/** 图片图层，如台标，按ARGB像素转换为YUV后缓存，只绘制一次
+ * <p>
+ * 颜色按BT.601(16~235)转换，色度取2x2像素按透明度加权的平均值。
+ */
+public class ImageLayer extends OsdLayer {
+    private final int[] mArgb;
+    private final int mImageWidth;
+    private final int mImageHeight;
+
+    /**
+     * @param argb 非预乘的ARGB像素，按width x height行存放
+     */
+    public ImageLayer(int[] argb, int width, int height) {
+        super(width, height, 0);
+        if (argb.length < width * height)
+            throw new IllegalArgumentException("pixels too small for " + width + "x" + height);
+        mArgb = argb;
+        mImageWidth = width;
+        mImageHeight = height;
+    }
+
+    public static ImageLayer fromBitmap(Bitmap bitmap) {
+        int width = bitmap.getWidth();
+        int height = bitmap.getHeight();
+        int[] argb = new int[width * height];
+        bitmap.getPixels(argb, 0, width, 0, 0, width, height);
+        return new ImageLayer(argb, width, height);
+    }
+
+    @Override
+    protected boolean render(OverlayMask mask, long millis) {
+        mask.clear();
+        int chromaWidth = (mImageWidth + 1) / 2;
+        int chromaHeight = (mImageHeight + 1) / 2;
+        for (int cy = 0; cy < chromaHeight; cy++) {
+            for (int cx = 0; cx < chromaWidth; cx++) {
+                int sumAlpha = 0;
+                int sumU = 0;
+                int sumV = 0;
+                for (int dy = 0; dy < 2; dy++) {
+                    int y = cy * 2 + dy;
+                    if (y >= mImageHeight)
+                        break;
+                    for (int dx = 0; dx < 2; dx++) {
+                        int x = cx * 2 + dx;
+                        if (x >= mImageWidth)
+                            break;
+                        int color = mArgb[y * mImageWidth + x];
+                        int a = color >>> 24;
+                        int r = (color >> 16) & 0xFF;
+                        int g = (color >> 8) & 0xFF;
+                        int b = color & 0xFF;
+                        mask.setPixel(x, y, ((66 * r + 129 * g + 25 * b + 128) >> 8) + 16, a);
+                        sumAlpha += a;
+                        sumU += a * (((-38 * r - 74 * g + 112 * b + 128) >> 8) + 128);
+                        sumV += a * (((112 * r - 94 * g - 18 * b + 128) >> 8) + 128);
+                    }
+                }
+                if (sumAlpha > 0) {
+                    mask.setChromaPixel(cx, cy, sumU / sumAlpha, sumV / sumAlpha);
+                }
+            }
+        }
+        return true;
+    }
+}
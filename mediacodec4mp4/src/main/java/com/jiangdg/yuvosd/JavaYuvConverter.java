@@ -0,0 +1,267 @@
+package com.jiangdg.yuvosd;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+
+/** 纯Java实现的YUV420颜色格式转换与旋转，可脱离设备运行和调试
+ * <p>
+ * 色度交错/拆分按long(8字节)一次处理，旋转按TILE x TILE分块进行，
+ * 使源和目标的访问都落在少量缓存行内。无状态，可在多个线程中共用。
+ */
+public class JavaYuvConverter implements YuvConverter {
+    // 旋转分块边长，32x32字节的块在读写两侧各占32条缓存行
+    static final int TILE = 32;
+
+    @Override
+    public void convert(byte[] src, int srcFormat, byte[] dst, int dstFormat, int width, int height) {
+        checkFrame(src, dst, width, height);
+        convertTo(src, srcFormat, ByteBuffer.wrap(dst), 0, dstFormat, width, height);
+    }
+
+    @Override
+    public int convert(byte[] src, int srcFormat, ByteBuffer dst, int dstFormat, int width, int height) {
+        int frameSize = checkFrame(src, dst, width, height);
+        int start = dst.position();
+        convertTo(src, srcFormat, dst, start, dstFormat, width, height);
+        dst.position(start + frameSize);
+        return frameSize;
+    }
+
+    // 从dst的dstOffset处开始写入，dst的position会被修改
+    private static void convertTo(byte[] src, int srcFormat, ByteBuffer dst, int dstOffset, int dstFormat,
+                                  int width, int height) {
+        int ySize = width * height;
+        int chromaCount = ySize / 4;
+        int chroma = dstOffset + ySize;
+        dst.position(dstOffset);
+        dst.put(src, 0, ySize);
+        if (srcFormat == dstFormat) {
+            dst.put(src, ySize, chromaCount * 2);
+            return;
+        }
+        boolean isSrcPlanar = isPlanar(srcFormat);
+        boolean isDstPlanar = isPlanar(dstFormat);
+        if (!isSrcPlanar && !isDstPlanar) {
+            // NV21 <-> NV12
+            swapPairs(src, ySize, dst, chroma, chromaCount);
+        } else if (isSrcPlanar && isDstPlanar) {
+            // I420 <-> YV12，U、V平面互换
+            dst.put(src, ySize + chromaCount, chromaCount);
+            dst.put(src, ySize, chromaCount);
+        } else if (isSrcPlanar) {
+            int uOffset = ySize + (srcFormat == FORMAT_I420 ? 0 : chromaCount);
+            int vOffset = ySize + (srcFormat == FORMAT_I420 ? chromaCount : 0);
+            if (dstFormat == FORMAT_NV12) {
+                interleave(src, uOffset, vOffset, dst, chroma, chromaCount);
+            } else {
+                interleave(src, vOffset, uOffset, dst, chroma, chromaCount);
+            }
+        } else {
+            int uOffset = chroma + (dstFormat == FORMAT_I420 ? 0 : chromaCount);
+            int vOffset = chroma + (dstFormat == FORMAT_I420 ? chromaCount : 0);
+            if (srcFormat == FORMAT_NV12) {
+                deinterleave(src, ySize, dst, uOffset, vOffset, chromaCount);
+            } else {
+                deinterleave(src, ySize, dst, vOffset, uOffset, chromaCount);
+            }
+        }
+    }
+
+    @Override
+    public void rotate(byte[] src, byte[] dst, int width, int height, int format, int degree, boolean mirror) {
+        checkFrame(src, dst, width, height);
+        int ySize = width * height;
+        rotatePlane(src, 0, dst, 0, width, height, 1, degree, mirror);
+        if (isPlanar(format)) {
+            int chromaCount = ySize / 4;
+            rotatePlane(src, ySize, dst, ySize, width / 2, height / 2, 1, degree, mirror);
+            rotatePlane(src, ySize + chromaCount, dst, ySize + chromaCount, width / 2, height / 2, 1, degree, mirror);
+        } else {
+            // 交错的一对色度值作为一个像素整体移动
+            rotatePlane(src, ySize, dst, ySize, width / 2, height / 2, 2, degree, mirror);
+        }
+    }
+
+    public static boolean isPlanar(int format) {
+        switch (format) {
+            case FORMAT_NV21:
+            case FORMAT_NV12:
+                return false;
+            case FORMAT_I420:
+            case FORMAT_YV12:
+                return true;
+            default:
+                throw new IllegalArgumentException("unsupported yuv format: " + format);
+        }
+    }
+
+    private static void checkFrame(byte[] src, byte[] dst, int width, int height) {
+        if (src == dst)
+            throw new IllegalArgumentException("src and dst must be different arrays");
+        int frameSize = checkFrameSize(src, width, height);
+        if (dst.length < frameSize)
+            throw new IllegalArgumentException("buffer too small for " + width + "x" + height);
+    }
+
+    private static int checkFrame(byte[] src, ByteBuffer dst, int width, int height) {
+        int frameSize = checkFrameSize(src, width, height);
+        if (dst.remaining() < frameSize)
+            throw new IllegalArgumentException("output buffer too small: " + dst.remaining() + " < " + frameSize);
+        return frameSize;
+    }
+
+    private static int checkFrameSize(byte[] src, int width, int height) {
+        if (width <= 0 || height <= 0 || (width & 1) != 0 || (height & 1) != 0)
+            throw new IllegalArgumentException("invalid frame size " + width + "x" + height);
+        int frameSize = width * height * 3 / 2;
+        if (src.length < frameSize)
+            throw new IllegalArgumentException("buffer too small for " + width + "x" + height);
+        return frameSize;
+    }
+
+    /**
+     * 旋转一个平面，pixelStride为每个像素的字节数(Y或平面色度为1，交错色度为2)
+     * <p>
+     * 源像素(x, y)写到目标的 base + x * dx + y * dy 处(以像素为单位)
+     */
+    public static void rotatePlane(byte[] src, int srcOffset, byte[] dst, int dstOffset,
+                                   int width, int height, int pixelStride, int degree, boolean mirror) {
+        if (degree == 0 && !mirror) {
+            System.arraycopy(src, srcOffset, dst, dstOffset, width * height * pixelStride);
+            return;
+        }
+        int base;
+        int dx;
+        int dy;
+        switch (degree) {
+            case 0:
+                base = mirror ? width - 1 : 0;
+                dx = mirror ? -1 : 1;
+                dy = width;
+                break;
+            case 90:
+                base = mirror ? 0 : height - 1;
+                dx = height;
+                dy = mirror ? 1 : -1;
+                break;
+            case 180:
+                base = mirror ? (height - 1) * width : width * height - 1;
+                dx = mirror ? 1 : -1;
+                dy = -width;
+                break;
+            case 270:
+                base = mirror ? width * height - 1 : (width - 1) * height;
+                dx = -height;
+                dy = mirror ? -1 : 1;
+                break;
+            default:
+                throw new IllegalArgumentException("unsupported degree: " + degree);
+        }
+        for (int tileY = 0; tileY < height; tileY += TILE) {
+            int endY = Math.min(tileY + TILE, height);
+            for (int tileX = 0; tileX < width; tileX += TILE) {
+                int endX = Math.min(tileX + TILE, width);
+                for (int y = tileY; y < endY; y++) {
+                    int s = srcOffset + (y * width + tileX) * pixelStride;
+                    int d = base + tileX * dx + y * dy;
+                    if (pixelStride == 1) {
+                        for (int x = tileX; x < endX; x++) {
+                            dst[dstOffset + d] = src[s++];
+                            d += dx;
+                        }
+                    } else {
+                        for (int x = tileX; x < endX; x++) {
+                            int p = dstOffset + d * 2;
+                            dst[p] = src[s];
+                            dst[p + 1] = src[s + 1];
+                            s += 2;
+                            d += dx;
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    // 交换每对相邻字节(VU <-> UV)，写到dst的dstIndex处
+    static void swapPairs(byte[] src, int srcOffset, ByteBuffer dst, int dstIndex, int pairCount) {
+        int byteCount = pairCount * 2;
+        int longCount = byteCount / 8;
+        LongBuffer in = longView(ByteBuffer.wrap(src), srcOffset, longCount);
+        LongBuffer out = longView(dst, dstIndex, longCount);
+        for (int i = 0; i < longCount; i++) {
+            long x = in.get(i);
+            out.put(i, ((x & 0x00FF00FF00FF00FFL) << 8) | ((x >>> 8) & 0x00FF00FF00FF00FFL));
+        }
+        for (int i = longCount * 8; i < byteCount; i += 2) {
+            dst.put(dstIndex + i, src[srcOffset + i + 1]);
+            dst.put(dstIndex + i + 1, src[srcOffset + i]);
+        }
+    }
+
+    // 两个平面交错为 a0 b0 a1 b1 ...，每次处理各4字节
+    static void interleave(byte[] src, int aOffset, int bOffset, ByteBuffer dst, int dstIndex, int count) {
+        int wordCount = count / 4;
+        ByteBuffer in = ByteBuffer.wrap(src);
+        IntBuffer a = intView(in, aOffset, wordCount);
+        IntBuffer b = intView(in, bOffset, wordCount);
+        LongBuffer out = longView(dst, dstIndex, wordCount);
+        for (int i = 0; i < wordCount; i++) {
+            out.put(i, spread(a.get(i)) | (spread(b.get(i)) << 8));
+        }
+        for (int i = wordCount * 4; i < count; i++) {
+            dst.put(dstIndex + i * 2, src[aOffset + i]);
+            dst.put(dstIndex + i * 2 + 1, src[bOffset + i]);
+        }
+    }
+
+    // interleave的逆过程，a、b为dst中两个平面的位置
+    static void deinterleave(byte[] src, int srcOffset, ByteBuffer dst, int aIndex, int bIndex, int count) {
+        int wordCount = count / 4;
+        LongBuffer in = longView(ByteBuffer.wrap(src), srcOffset, wordCount);
+        IntBuffer a = intView(dst, aIndex, wordCount);
+        IntBuffer b = intView(dst, bIndex, wordCount);
+        for (int i = 0; i < wordCount; i++) {
+            long x = in.get(i);
+            a.put(i, gather(x));
+            b.put(i, gather(x >>> 8));
+        }
+        for (int i = wordCount * 4; i < count; i++) {
+            dst.put(aIndex + i, src[srcOffset + i * 2]);
+            dst.put(bIndex + i, src[srcOffset + i * 2 + 1]);
+        }
+    }
+
+    // 按下标访问的long视图比ByteBuffer.getLong(index)少一次字节序和边界的处理，循环可以被JIT展开；
+    // 对直接缓存区(编码器输入缓存区)同样适用，结果直接写入编码器内存
+    private static LongBuffer longView(ByteBuffer buffer, int index, int longCount) {
+        return slice(buffer, index, longCount * 8).asLongBuffer();
+    }
+
+    private static IntBuffer intView(ByteBuffer buffer, int index, int intCount) {
+        return slice(buffer, index, intCount * 4).asIntBuffer();
+    }
+
+    private static ByteBuffer slice(ByteBuffer buffer, int index, int length) {
+        ByteBuffer view = buffer.duplicate();
+        view.limit(index + length);
+        view.position(index);
+        return view.slice().order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    // 4个字节分散到long的偶数字节位置
+    private static long spread(int v) {
+        long x = v & 0xFFFFFFFFL;
+        x = (x | (x << 16)) & 0x0000FFFF0000FFFFL;
+        return (x | (x << 8)) & 0x00FF00FF00FF00FFL;
+    }
+
+    // 取long偶数字节位置的4个字节
+    private static int gather(long x) {
+        x &= 0x00FF00FF00FF00FFL;
+        x = (x | (x >>> 8)) & 0x0000FFFF0000FFFFL;
+        return (int) (x | (x >>> 16));
+    }
+}
@@ -0,0 +1,64 @@
+package com.jiangdg.yuvosd;
+
+import android.media.MediaCodecInfo;
+
+import java.nio.ByteBuffer;
+
+/** 基于YuvUtils native库的实现，native库不支持的格式和旋转方式交给Java实现处理
+ * <p>
+ * native方法只接受byte[]，写入直接缓存区时需要先转换到中间数组再拷贝，该数组在实例内复用，
+ * 因此实例不能在多个线程中同时使用。
+ */
+public class NativeYuvConverter implements YuvConverter {
+    private final JavaYuvConverter mFallback = new JavaYuvConverter();
+    private byte[] mScratch;
+
+    @Override
+    public void convert(byte[] src, int srcFormat, byte[] dst, int dstFormat, int width, int height) {
+        if (srcFormat == FORMAT_NV21 && dstFormat == FORMAT_NV12) {
+            YuvUtils.transferColorFormat(src, width, height, dst,
+                    MediaCodecInfo.CodecCapabilities.COLOR_FormatYUV420SemiPlanar);
+        } else if (srcFormat == FORMAT_NV21 && dstFormat == FORMAT_I420) {
+            YuvUtils.transferColorFormat(src, width, height, dst,
+                    MediaCodecInfo.CodecCapabilities.COLOR_FormatYUV420Planar);
+        } else if (srcFormat == FORMAT_YV12 && dstFormat == FORMAT_NV21) {
+            YuvUtils.swYV12ToNV21(src, dst, width, height);
+        } else {
+            mFallback.convert(src, srcFormat, dst, dstFormat, width, height);
+        }
+    }
+
+    @Override
+    public int convert(byte[] src, int srcFormat, ByteBuffer dst, int dstFormat, int width, int height) {
+        if (!isNativeSupported(srcFormat, dstFormat))
+            return mFallback.convert(src, srcFormat, dst, dstFormat, width, height);
+        int frameSize = width * height * 3 / 2;
+        if (dst.remaining() < frameSize)
+            throw new IllegalArgumentException("output buffer too small: " + dst.remaining() + " < " + frameSize);
+        if (dst.hasArray() && dst.arrayOffset() + dst.position() == 0) {
+            convert(src, srcFormat, dst.array(), dstFormat, width, height);
+            dst.position(frameSize);
+            return frameSize;
+        }
+        if (mScratch == null || mScratch.length < frameSize) {
+            mScratch = new byte[frameSize];
+        }
+        convert(src, srcFormat, mScratch, dstFormat, width, height);
+        dst.put(mScratch, 0, frameSize);
+        return frameSize;
+    }
+
+    private static boolean isNativeSupported(int srcFormat, int dstFormat) {
+        return (srcFormat == FORMAT_NV21 && (dstFormat == FORMAT_NV12 || dstFormat == FORMAT_I420))
+                || (srcFormat == FORMAT_YV12 && dstFormat == FORMAT_NV21);
+    }
+
+    @Override
+    public void rotate(byte[] src, byte[] dst, int width, int height, int format, int degree, boolean mirror) {
+        if (format == FORMAT_NV21 && !mirror && degree != 0) {
+            YuvUtils.YUV420spRotateOfBack(src, dst, width, height, degree);
+        } else {
+            mFallback.rotate(src, dst, width, height, format, degree, mirror);
+        }
+    }
+}
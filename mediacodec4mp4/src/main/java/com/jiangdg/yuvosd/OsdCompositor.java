@@ -0,0 +1,118 @@
+package com.jiangdg.yuvosd;
+
+/** 多图层OSD合成，如台标、时间、设备编号、速度和经纬度
+ * <p>
+ * 每个图层有自己的位置、刷新间隔和缓存，静态图层只绘制一次，变化的图层按各自的间隔重绘。
+ * 每帧只混合非空图层中有内容的部分。图层可以在任意线程中添加、删除，
+ * update()和混合在编码线程中调用，过程不分配对象。
+ */
+public class OsdCompositor implements FrameOverlay {
+    private final Object mLock = new Object();
+    // 按添加顺序叠加，后添加的在上层
+    private volatile OsdLayer[] mLayers = new OsdLayer[0];
+    // 本帧需要混合的图层
+    private OverlayMask[] mActive = new OverlayMask[0];
+    private int mActiveCount;
+
+    public void addLayer(OsdLayer layer) {
+        if (layer == null)
+            throw new IllegalArgumentException("layer can not be null");
+        synchronized (mLock) {
+            OsdLayer[] layers = new OsdLayer[mLayers.length + 1];
+            System.arraycopy(mLayers, 0, layers, 0, mLayers.length);
+            layers[mLayers.length] = layer;
+            mLayers = layers;
+        }
+    }
+
+    public boolean removeLayer(OsdLayer layer) {
+        synchronized (mLock) {
+            OsdLayer[] old = mLayers;
+            for (int i = 0; i < old.length; i++) {
+                if (old[i] == layer) {
+                    OsdLayer[] layers = new OsdLayer[old.length - 1];
+                    System.arraycopy(old, 0, layers, 0, i);
+                    System.arraycopy(old, i + 1, layers, i, old.length - i - 1);
+                    mLayers = layers;
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+    public void clearLayers() {
+        synchronized (mLock) {
+            mLayers = new OsdLayer[0];
+        }
+    }
+
+    public int getLayerCount() {
+        return mLayers.length;
+    }
+
+    /**
+     * 每帧调用一次，重绘到期的图层并确定本帧要混合的图层
+     *
+     * @param millis 当前时间(毫秒)
+     */
+    public FrameOverlay update(long millis) {
+        OsdLayer[] layers = mLayers;
+        if (mActive.length < layers.length) {
+            mActive = new OverlayMask[layers.length];
+        }
+        int count = 0;
+        for (OsdLayer layer : layers) {
+            if (!layer.isVisible())
+                continue;
+            layer.update(millis);
+            OverlayMask mask = layer.getMask();
+            if (!mask.isEmpty()) {
+                mActive[count++] = mask;
+            }
+        }
+        for (int i = count; i < mActiveCount; i++) {
+            mActive[i] = null;
+        }
+        mActiveCount = count;
+        return this;
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return mActiveCount == 0;
+    }
+
+    /** 本帧需要混合的图层数，GPU渲染时按图层逐个绘制 */
+    public int getActiveCount() {
+        return mActiveCount;
+    }
+
+    /** 本帧第index个需要混合的图层，从下到上 */
+    public OverlayMask getActiveMask(int index) {
+        if (index < 0 || index >= mActiveCount)
+            throw new IndexOutOfBoundsException("index " + index + ", count " + mActiveCount);
+        return mActive[index];
+    }
+
+    @Override
+    public void blendLumaRow(byte[] row, int offset, int rowWidth, int y) {
+        for (int i = 0; i < mActiveCount; i++) {
+            mActive[i].blendLumaRow(row, offset, rowWidth, y);
+        }
+    }
+
+    @Override
+    public void blendChromaRow(byte[] row, int uOffset, int vOffset, int step, int chromaWidth, int cy) {
+        for (int i = 0; i < mActiveCount; i++) {
+            mActive[i].blendChromaRow(row, uOffset, vOffset, step, chromaWidth, cy);
+        }
+    }
+
+    @Override
+    public void blendFrame(byte[] frame, int width, int height, int format) {
+        for (int i = 0; i < mActiveCount; i++) {
+            mActive[i].blendFrame(frame, width, height, format);
+        }
+    }
+}
@@ -0,0 +1,91 @@
+package com.jiangdg.yuvosd;
+
+/** OSD中的一个图层，内容预先绘制到OverlayMask中缓存
+ * <p>
+ * 每帧由OsdCompositor调用update()，只有到了刷新时刻或被invalidate()后才调用render()重绘，
+ * 其余帧直接混合缓存的图层。刷新时刻按间隔对齐(如1000ms对齐到整秒)，间隔为0表示静态图层，
+ * 只在invalidate()后重绘。update()和render()在编码线程中调用。
+ */
+public abstract class OsdLayer {
+    private final OverlayMask mMask;
+    private final long mRefreshIntervalMs;
+    private long mNextRefresh = Long.MIN_VALUE;
+    private volatile boolean isInvalid = true;
+    private volatile boolean isVisible = true;
+    private long mRenderCount;
+
+    /**
+     * @param width 图层宽度
+     * @param height 图层高度
+     * @param refreshIntervalMs 刷新间隔，0为静态图层
+     */
+    protected OsdLayer(int width, int height, long refreshIntervalMs) {
+        if (refreshIntervalMs < 0)
+            throw new IllegalArgumentException("invalid refresh interval " + refreshIntervalMs);
+        mMask = new OverlayMask(width, height);
+        mRefreshIntervalMs = refreshIntervalMs;
+    }
+
+    /** 设置图层左上角在输出图像中的位置 */
+    public void setPosition(int left, int top) {
+        mMask.setPosition(left, top);
+    }
+
+    public void setVisible(boolean visible) {
+        isVisible = visible;
+    }
+
+    public boolean isVisible() {
+        return isVisible;
+    }
+
+    /** 下一帧重绘，可在任意线程调用 */
+    public void invalidate() {
+        isInvalid = true;
+    }
+
+    public long getRefreshIntervalMs() {
+        return mRefreshIntervalMs;
+    }
+
+    public OverlayMask getMask() {
+        return mMask;
+    }
+
+    /** 图层重绘的次数，用于确认缓存生效 */
+    public long getRenderCount() {
+        return mRenderCount;
+    }
+
+    /**
+     * 按需重绘
+     *
+     * @param millis 当前时间(毫秒)
+     * @return 图层内容是否改变
+     */
+    public final boolean update(long millis) {
+        boolean isDue = mRefreshIntervalMs > 0 && millis >= mNextRefresh;
+        if (!isInvalid && !isDue)
+            return false;
+        isInvalid = false;
+        if (isDue) {
+            long q = millis / mRefreshIntervalMs;
+            if (millis < 0 && q * mRefreshIntervalMs != millis) {
+                q--;
+            }
+            mNextRefresh = (q + 1) * mRefreshIntervalMs;
+        }
+        if (!render(mMask, millis))
+            return false;
+        mMask.commit();
+        mRenderCount++;
+        return true;
+    }
+
+    /**
+     * 重绘图层内容，内容没有变化时可以不修改mask直接返回false
+     *
+     * @return 是否修改了mask，返回true后会调用mask.commit()
+     */
+    protected abstract boolean render(OverlayMask mask, long millis);
+}
@@ -0,0 +1,268 @@
+package com.jiangdg.yuvosd;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/** 叠加到YUV帧上的半透明图层(如时间水印、台标)，坐标为输出(旋转后)图像坐标
+ * <p>
+ * 亮度和透明度按像素保存，色度按2x2像素保存，默认使用统一的颜色，透明度取2x2像素的平均值。
+ * 修改像素后需调用commit()更新色度透明度和每行的有效范围，混合时只处理有效范围内的像素。
+ */
+public class OverlayMask implements FrameOverlay {
+    private final int mWidth;
+    private final int mHeight;
+    private final byte[] mLuma;
+    private final byte[] mAlpha;
+    private final byte[] mChromaU;
+    private final byte[] mChromaV;
+    private final byte[] mChromaAlpha;
+    // 每个色度行(2行亮度)中透明度不为0的列范围[begin, end)，以亮度列计，begin >= end表示该行为空
+    private final int[] mRowBegin;
+    private final int[] mRowEnd;
+    private int mLeft;
+    private int mTop;
+    private boolean isEmpty = true;
+    // 每次clear()、commit()递增，GPU渲染时据此判断是否需要重新上传纹理
+    private int mVersion;
+
+    /**
+     * @param width 图层宽度，向上取偶数
+     * @param height 图层高度，向上取偶数
+     */
+    public OverlayMask(int width, int height) {
+        if (width <= 0 || height <= 0)
+            throw new IllegalArgumentException("invalid mask size " + width + "x" + height);
+        mWidth = (width + 1) & ~1;
+        mHeight = (height + 1) & ~1;
+        mLuma = new byte[mWidth * mHeight];
+        mAlpha = new byte[mWidth * mHeight];
+        mChromaU = new byte[mWidth * mHeight / 4];
+        mChromaV = new byte[mWidth * mHeight / 4];
+        mChromaAlpha = new byte[mWidth * mHeight / 4];
+        mRowBegin = new int[mHeight / 2];
+        mRowEnd = new int[mHeight / 2];
+        setChroma(128, 128);
+    }
+
+    /** 设置图层左上角在输出图像中的位置，会对齐到偶数 */
+    public void setPosition(int left, int top) {
+        mLeft = left & ~1;
+        mTop = top & ~1;
+    }
+
+    /** 把整个图层的色度设为同一颜色，默认为128(无色) */
+    public void setChroma(int u, int v) {
+        Arrays.fill(mChromaU, (byte) u);
+        Arrays.fill(mChromaV, (byte) v);
+    }
+
+    /**
+     * 设置一个2x2像素块的色度(如彩色台标)
+     *
+     * @param cx 色度列号，即像素列号的一半
+     * @param cy 色度行号，即像素行号的一半
+     */
+    public void setChromaPixel(int cx, int cy, int u, int v) {
+        int index = cy * (mWidth / 2) + cx;
+        mChromaU[index] = (byte) u;
+        mChromaV[index] = (byte) v;
+    }
+
+    /**
+     * @param luma 亮度，0~255
+     * @param alpha 透明度，0为完全透明，255为不透明
+     */
+    public void setPixel(int x, int y, int luma, int alpha) {
+        int index = y * mWidth + x;
+        mLuma[index] = (byte) luma;
+        mAlpha[index] = (byte) alpha;
+    }
+
+    /**
+     * 拷贝一块透明度图(如字形)到图层的(x, y)处，与已有内容重叠时取较大的透明度，超出图层的部分被裁掉
+     *
+     * @param luma 该块的亮度
+     */
+    public void drawAlpha(byte[] alpha, int width, int height, int x, int y, int luma) {
+        int beginX = Math.max(0, -x);
+        int endX = Math.min(width, mWidth - x);
+        int beginY = Math.max(0, -y);
+        int endY = Math.min(height, mHeight - y);
+        for (int row = beginY; row < endY; row++) {
+            int s = row * width;
+            int d = (y + row) * mWidth + x;
+            for (int col = beginX; col < endX; col++) {
+                int a = alpha[s + col] & 0xFF;
+                if (a > (mAlpha[d + col] & 0xFF)) {
+                    mAlpha[d + col] = (byte) a;
+                    mLuma[d + col] = (byte) luma;
+                }
+            }
+        }
+    }
+
+    public void clear() {
+        Arrays.fill(mAlpha, (byte) 0);
+        Arrays.fill(mChromaAlpha, (byte) 0);
+        Arrays.fill(mRowBegin, 0);
+        Arrays.fill(mRowEnd, 0);
+        isEmpty = true;
+        mVersion++;
+    }
+
+    /** 像素修改完成后调用，计算色度透明度和每行的有效范围 */
+    public void commit() {
+        int chromaWidth = mWidth / 2;
+        boolean empty = true;
+        for (int y = 0; y < mHeight / 2; y++) {
+            int row = y * 2 * mWidth;
+            int begin = chromaWidth;
+            int end = 0;
+            for (int x = 0; x < chromaWidth; x++) {
+                int i = row + x * 2;
+                int sum = (mAlpha[i] & 0xFF) + (mAlpha[i + 1] & 0xFF)
+                        + (mAlpha[i + mWidth] & 0xFF) + (mAlpha[i + mWidth + 1] & 0xFF);
+                mChromaAlpha[y * chromaWidth + x] = (byte) (sum >> 2);
+                if (sum != 0) {
+                    if (x < begin) {
+                        begin = x;
+                    }
+                    end = x + 1;
+                }
+            }
+            mRowBegin[y] = begin * 2;
+            mRowEnd[y] = end * 2;
+            if (end > begin) {
+                empty = false;
+            }
+        }
+        isEmpty = empty;
+        mVersion++;
+    }
+
+    public int getWidth() {
+        return mWidth;
+    }
+
+    public int getHeight() {
+        return mHeight;
+    }
+
+    public int getLeft() {
+        return mLeft;
+    }
+
+    public int getTop() {
+        return mTop;
+    }
+
+    /** 内容版本，图层内容改变时递增 */
+    public int getVersion() {
+        return mVersion;
+    }
+
+    /**
+     * 按BT.601(16~235)转换为非预乘的RGBA，用于上传到GPU纹理，每像素4字节，第一行为图层顶部
+     *
+     * @param dst 从position开始写入width x height x 4字节
+     */
+    public void writeRgba(ByteBuffer dst) {
+        if (dst.remaining() < mWidth * mHeight * 4)
+            throw new IllegalArgumentException("rgba buffer too small: " + dst.remaining());
+        int chromaWidth = mWidth / 2;
+        for (int y = 0; y < mHeight; y++) {
+            int c = (y >> 1) * chromaWidth;
+            for (int x = 0; x < mWidth; x++) {
+                int i = y * mWidth + x;
+                int l = 298 * ((mLuma[i] & 0xFF) - 16) + 128;
+                int u = (mChromaU[c + (x >> 1)] & 0xFF) - 128;
+                int v = (mChromaV[c + (x >> 1)] & 0xFF) - 128;
+                dst.put((byte) clamp((l + 409 * v) >> 8));
+                dst.put((byte) clamp((l - 100 * u - 208 * v) >> 8));
+                dst.put((byte) clamp((l + 516 * u) >> 8));
+                dst.put(mAlpha[i]);
+            }
+        }
+    }
+
+    private static int clamp(int value) {
+        return value < 0 ? 0 : (value > 255 ? 255 : value);
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return isEmpty;
+    }
+
+    @Override
+    public void blendLumaRow(byte[] row, int offset, int rowWidth, int y) {
+        int my = y - mTop;
+        if (isEmpty || my < 0 || my >= mHeight)
+            return;
+        int begin = Math.max(mRowBegin[my >> 1], -mLeft);
+        int end = Math.min(mRowEnd[my >> 1], rowWidth - mLeft);
+        int m = my * mWidth;
+        for (int x = begin; x < end; x++) {
+            int a = mAlpha[m + x] & 0xFF;
+            if (a == 0)
+                continue;
+            int p = offset + mLeft + x;
+            row[p] = (byte) blend(row[p] & 0xFF, mLuma[m + x] & 0xFF, a);
+        }
+    }
+
+    @Override
+    public void blendChromaRow(byte[] row, int uOffset, int vOffset, int step, int chromaWidth, int cy) {
+        int my = cy - mTop / 2;
+        if (isEmpty || my < 0 || my >= mHeight / 2)
+            return;
+        int maskChromaWidth = mWidth / 2;
+        int left = mLeft / 2;
+        int begin = Math.max(mRowBegin[my] / 2, -left);
+        int end = Math.min(mRowEnd[my] / 2, chromaWidth - left);
+        int m = my * maskChromaWidth;
+        for (int x = begin; x < end; x++) {
+            int a = mChromaAlpha[m + x] & 0xFF;
+            if (a == 0)
+                continue;
+            int p = (left + x) * step;
+            row[uOffset + p] = (byte) blend(row[uOffset + p] & 0xFF, mChromaU[m + x] & 0xFF, a);
+            row[vOffset + p] = (byte) blend(row[vOffset + p] & 0xFF, mChromaV[m + x] & 0xFF, a);
+        }
+    }
+
+    @Override
+    public void blendFrame(byte[] frame, int width, int height, int format) {
+        if (isEmpty)
+            return;
+        int beginY = Math.max(0, mTop);
+        int endY = Math.min(height, mTop + mHeight);
+        for (int y = beginY; y < endY; y++) {
+            blendLumaRow(frame, y * width, width, y);
+        }
+        int ySize = width * height;
+        int chromaWidth = width / 2;
+        for (int cy = beginY / 2; cy < endY / 2; cy++) {
+            switch (format) {
+                case YuvConverter.FORMAT_NV21:
+                    blendChromaRow(frame, ySize + cy * width + 1, ySize + cy * width, 2, chromaWidth, cy);
+                    break;
+                case YuvConverter.FORMAT_NV12:
+                    blendChromaRow(frame, ySize + cy * width, ySize + cy * width + 1, 2, chromaWidth, cy);
+                    break;
+                case YuvConverter.FORMAT_I420:
+                    blendChromaRow(frame, ySize + cy * chromaWidth, ySize * 5 / 4 + cy * chromaWidth, 1, chromaWidth, cy);
+                    break;
+                default:
+                    blendChromaRow(frame, ySize * 5 / 4 + cy * chromaWidth, ySize + cy * chromaWidth, 1, chromaWidth, cy);
+                    break;
+            }
+        }
+    }
+
+    // alpha为255时完全取图层值
+    private static int blend(int base, int value, int alpha) {
+        int a = alpha + (alpha >> 7);
+        return base + (((value - base) * a) >> 8);
+    }
+}
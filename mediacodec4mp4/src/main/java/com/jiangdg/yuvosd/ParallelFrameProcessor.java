@@ -0,0 +1,255 @@
+package com.jiangdg.yuvosd;
+
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/** 把FusedFrameProcessor的一帧按输出行切成水平条带，由固定数量的线程并行处理(4K预览时单线程处理不完一帧)
+ * <p>
+ * 调用线程处理第一条，其余条带交给常驻的工作线程，每帧在屏障上等待全部条带完成后返回。
+ * 各条带只写目标缓存区中属于自己的行，水印混合只读图层数据，条带之间不需要同步。
+ * 线程数为1时不创建工作线程，与直接使用FusedFrameProcessor相同。用完需调用release()结束工作线程。
+ * process()只能在一个线程中调用。
+ */
+public class ParallelFrameProcessor {
+    // 条带边界对齐的行数，保证色度条带也按BAND_ROWS对齐
+    static final int STRIPE_ALIGN = FusedFrameProcessor.BAND_ROWS * 2;
+
+    private final FusedFrameProcessor mProcessor;
+    private final int mThreadCount;
+    // 条带i为输出行[mStripeRows[i], mStripeRows[i + 1])
+    private final int[] mStripeRows;
+    private final byte[] mLumaBand;
+    private final byte[] mChromaBand;
+    private final Worker[] mWorkers;
+    private final Object mLock = new Object();
+    // 当前帧，由调用线程在mLock内设置后递增mGeneration
+    private byte[] mSrc;
+    private int mStart;
+    private FrameOverlay mOverlay;
+    private long mGeneration;
+    private int mPending;
+    private RuntimeException mError;
+    private boolean isReleased;
+
+    /**
+     * @param threadCount 并行线程数(含调用线程)，小于1时按getDefaultThreadCount()
+     */
+    public ParallelFrameProcessor(FusedFrameProcessor processor, int threadCount) {
+        if (threadCount < 1) {
+            threadCount = getDefaultThreadCount();
+        }
+        mProcessor = processor;
+        mThreadCount = threadCount;
+        mStripeRows = splitRows(processor.getOutputHeight(), threadCount);
+        mLumaBand = processor.newBand();
+        mChromaBand = processor.newBand();
+        mWorkers = new Worker[threadCount - 1];
+        for (int i = 0; i < mWorkers.length; i++) {
+            mWorkers[i] = new Worker(i + 1);
+            mWorkers[i].start();
+        }
+    }
+
+    // 把height行按对齐分成count条，行数不够时后面的条带为空
+    static int[] splitRows(int height, int count) {
+        int[] rows = new int[count + 1];
+        int stripe = (height + count - 1) / count;
+        stripe = (stripe + STRIPE_ALIGN - 1) / STRIPE_ALIGN * STRIPE_ALIGN;
+        for (int i = 0; i <= count; i++) {
+            rows[i] = Math.min(height, i * stripe);
+        }
+        return rows;
+    }
+
+    /**
+     * 按大核数选择线程数：读取各核的最高频率，排除频率最低的小核簇；读不到或各核相同时取全部核数，最多8个
+     */
+    public static int getDefaultThreadCount() {
+        int cpus = Runtime.getRuntime().availableProcessors();
+        long lowest = Long.MAX_VALUE;
+        long[] freqs = new long[cpus];
+        for (int i = 0; i < cpus; i++) {
+            freqs[i] = readMaxFreq(i);
+            if (freqs[i] <= 0)
+                return Math.min(8, cpus);
+            lowest = Math.min(lowest, freqs[i]);
+        }
+        int big = 0;
+        for (long freq : freqs) {
+            if (freq > lowest) {
+                big++;
+            }
+        }
+        return Math.min(8, big == 0 ? cpus : big);
+    }
+
+    private static long readMaxFreq(int cpu) {
+        BufferedReader reader = null;
+        try {
+            reader = new BufferedReader(new FileReader("/sys/devices/system/cpu/cpu" + cpu + "/cpufreq/cpuinfo_max_freq"));
+            String line = reader.readLine();
+            return line == null ? 0 : Long.parseLong(line.trim());
+        } catch (IOException | NumberFormatException e) {
+            return 0;
+        } finally {
+            if (reader != null) {
+                try {
+                    reader.close();
+                } catch (IOException e) {
+                    // ignore
+                }
+            }
+        }
+    }
+
+    public FusedFrameProcessor getProcessor() {
+        return mProcessor;
+    }
+
+    public int getThreadCount() {
+        return mThreadCount;
+    }
+
+    public int getFrameSize() {
+        return mProcessor.getFrameSize();
+    }
+
+    /** 同FusedFrameProcessor.process() */
+    public int process(byte[] src, ByteBuffer dst, FrameOverlay overlay) {
+        int frameSize = mProcessor.getFrameSize();
+        if (src.length < frameSize)
+            throw new IllegalArgumentException("source buffer too small");
+        if (dst.remaining() < frameSize)
+            throw new IllegalArgumentException("output buffer too small: " + dst.remaining() + " < " + frameSize);
+        if (overlay != null && overlay.isEmpty()) {
+            overlay = null;
+        }
+        int start = dst.position();
+        if (mWorkers.length > 0) {
+            synchronized (mLock) {
+                if (isReleased)
+                    throw new IllegalStateException("processor released");
+                mSrc = src;
+                for (Worker worker : mWorkers) {
+                    worker.setTarget(dst);
+                }
+                mStart = start;
+                mOverlay = overlay;
+                mError = null;
+                mPending = mWorkers.length;
+                mGeneration++;
+                mLock.notifyAll();
+            }
+        }
+        try {
+            mProcessor.processRows(src, dst, start, overlay, mStripeRows[0], mStripeRows[1], mLumaBand, mChromaBand);
+        } finally {
+            if (mWorkers.length > 0) {
+                awaitWorkers();
+            }
+        }
+        dst.position(start + frameSize);
+        return frameSize;
+    }
+
+    private void awaitWorkers() {
+        RuntimeException error;
+        synchronized (mLock) {
+            boolean isInterrupted = false;
+            while (mPending > 0) {
+                try {
+                    mLock.wait();
+                } catch (InterruptedException e) {
+                    // 工作线程还在写dst，必须等它们结束
+                    isInterrupted = true;
+                }
+            }
+            if (isInterrupted) {
+                Thread.currentThread().interrupt();
+            }
+            error = mError;
+            mSrc = null;
+            mOverlay = null;
+        }
+        if (error != null)
+            throw error;
+    }
+
+    /** 结束工作线程，之后不能再调用process() */
+    public void release() {
+        synchronized (mLock) {
+            isReleased = true;
+            mLock.notifyAll();
+        }
+    }
+
+    private class Worker extends Thread {
+        private final int mStripe;
+        private final byte[] mLumaBand;
+        private final byte[] mChromaBand;
+        // dst的视图，编码器输入缓存区会重复使用，同一个dst只创建一次
+        private ByteBuffer mSource;
+        private ByteBuffer mView;
+
+        Worker(int stripe) {
+            super("FrameStripe-" + stripe);
+            mStripe = stripe;
+            mLumaBand = mProcessor.newBand();
+            mChromaBand = mProcessor.newBand();
+            setDaemon(true);
+        }
+
+        @Override
+        public void run() {
+            long seen = 0;
+            while (true) {
+                byte[] src;
+                ByteBuffer dst;
+                int start;
+                FrameOverlay overlay;
+                synchronized (mLock) {
+                    while (mGeneration == seen && !isReleased) {
+                        try {
+                            mLock.wait();
+                        } catch (InterruptedException e) {
+                            // 只通过release()结束
+                        }
+                    }
+                    if (isReleased)
+                        return;
+                    seen = mGeneration;
+                    src = mSrc;
+                    dst = mView;
+                    start = mStart;
+                    overlay = mOverlay;
+                }
+                RuntimeException error = null;
+                try {
+                    mProcessor.processRows(src, dst, start, overlay, mStripeRows[mStripe], mStripeRows[mStripe + 1],
+                            mLumaBand, mChromaBand);
+                } catch (RuntimeException e) {
+                    error = e;
+                }
+                synchronized (mLock) {
+                    if (error != null && mError == null) {
+                        mError = error;
+                    }
+                    if (--mPending == 0) {
+                        mLock.notifyAll();
+                    }
+                }
+            }
+        }
+
+        // 由调用线程在mLock内、开始写dst之前调用
+        void setTarget(ByteBuffer dst) {
+            if (dst != mSource) {
+                mSource = dst;
+                mView = dst.duplicate();
+            }
+            mView.limit(dst.limit());
+        }
+    }
+}
@@ -0,0 +1,113 @@
+package com.jiangdg.yuvosd;
+
+/** 文字图层，如设备编号(静态)或速度、经纬度(按间隔刷新)
+ * <p>
+ * setText()可在任意线程(如定位回调)中调用，新内容在下一个刷新时刻才重绘，
+ * 内容与上次相同时不重绘。静态图层(间隔为0)在setText()后的下一帧重绘。
+ * 新字符第一次出现时在编码线程中绘制字形，可以事先调用preload()。
+ */
+public class TextLayer extends OsdLayer {
+    // 文字亮度(白色)
+    private static final int TEXT_LUMA = 235;
+
+    private final GlyphAtlas mAtlas;
+    private final Object mLock = new Object();
+    // 由setText()写入，mLock保护
+    private char[] mPending = new char[32];
+    private int mPendingLength;
+    private boolean isPendingChanged;
+    // 当前图层中的文字，只在编码线程中访问
+    private char[] mText = new char[32];
+    private int mLength = -1;
+    private final CharArraySequence mSequence = new CharArraySequence();
+
+    /**
+     * @param maxWidth 图层宽度，超出部分被裁掉
+     * @param refreshIntervalMs 刷新间隔，0为静态图层
+     */
+    public TextLayer(GlyphAtlas atlas, int maxWidth, long refreshIntervalMs) {
+        super(maxWidth, atlas.getGlyphHeight(), refreshIntervalMs);
+        mAtlas = atlas;
+    }
+
+    /** 预先绘制字形，需在开始录制前调用 */
+    public void preload(CharSequence chars) {
+        mAtlas.preload(chars);
+    }
+
+    public void setText(CharSequence text) {
+        int length = text == null ? 0 : text.length();
+        synchronized (mLock) {
+            if (mPending.length < length) {
+                mPending = new char[Math.max(length, mPending.length * 2)];
+            }
+            for (int i = 0; i < length; i++) {
+                mPending[i] = text.charAt(i);
+            }
+            mPendingLength = length;
+            isPendingChanged = true;
+        }
+        if (getRefreshIntervalMs() == 0) {
+            invalidate();
+        }
+    }
+
+    @Override
+    protected boolean render(OverlayMask mask, long millis) {
+        synchronized (mLock) {
+            if (!isPendingChanged && mLength >= 0)
+                return false;
+            isPendingChanged = false;
+            if (mPendingLength == mLength && equals(mPending, mText, mLength))
+                return false;
+            if (mText.length < mPendingLength) {
+                mText = new char[mPending.length];
+            }
+            System.arraycopy(mPending, 0, mText, 0, mPendingLength);
+            mLength = mPendingLength;
+        }
+        mask.clear();
+        mSequence.set(mText, mLength);
+        mAtlas.draw(mSequence, 0, mLength, mask, 0, 0, TEXT_LUMA);
+        return true;
+    }
+
+    private static boolean equals(char[] a, char[] b, int length) {
+        for (int i = 0; i < length; i++) {
+            if (a[i] != b[i])
+                return false;
+        }
+        return true;
+    }
+
+    // 包装char[]，避免每次重绘创建String
+    private static final class CharArraySequence implements CharSequence {
+        private char[] mChars;
+        private int mLength;
+
+        void set(char[] chars, int length) {
+            mChars = chars;
+            mLength = length;
+        }
+
+        @Override
+        public int length() {
+            return mLength;
+        }
+
+        @Override
+        public char charAt(int index) {
+            return mChars[index];
+        }
+
+        @Override
+        public CharSequence subSequence(int start, int end) {
+            return new String(mChars, start, end - start);
+        }
+
+        @Override
+        public String toString() {
+            return new String(mChars, 0, mLength);
+        }
+    }
+}
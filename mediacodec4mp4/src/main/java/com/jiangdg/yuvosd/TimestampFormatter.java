@@ -0,0 +1,142 @@
+package com.jiangdg.yuvosd;
+
+import java.nio.CharBuffer;
+import java.text.DateFormatSymbols;
+import java.util.TimeZone;
+
+/** 不分配对象的时间戳格式化，输出格式同SimpleDateFormat("yyyy-MM-dd EEEE HH:mm:ss")
+ * <p>
+ * 日期按公历直接从毫秒数计算，不使用Calendar；结果写入内部复用的字符缓存。非线程安全。
+ */
+public class TimestampFormatter {
+    private static final long MILLIS_PER_DAY = 24L * 3600 * 1000;
+
+    // 星期日~星期六
+    private final char[][] mWeekdays = new char[7][];
+    private final TimeZone mTimeZone;
+    private final char[] mChars;
+    private final CharBuffer mText;
+
+    /** 使用默认时区和默认语言的星期名称 */
+    public TimestampFormatter() {
+        this(defaultWeekdays(), TimeZone.getDefault());
+    }
+
+    /**
+     * @param weekdays 星期日~星期六的名称
+     */
+    public TimestampFormatter(String[] weekdays, TimeZone timeZone) {
+        if (weekdays.length != 7)
+            throw new IllegalArgumentException("need 7 weekday names");
+        int maxWeekday = 0;
+        for (int i = 0; i < 7; i++) {
+            mWeekdays[i] = weekdays[i].toCharArray();
+            maxWeekday = Math.max(maxWeekday, mWeekdays[i].length);
+        }
+        mTimeZone = timeZone;
+        // "yyyy-MM-dd " + 星期 + " HH:mm:ss"，年份按最多6位预留
+        mChars = new char[maxWeekday + 32];
+        mText = CharBuffer.wrap(mChars);
+    }
+
+    private static String[] defaultWeekdays() {
+        String[] symbols = DateFormatSymbols.getInstance().getWeekdays();
+        // DateFormatSymbols中下标1为星期日
+        String[] weekdays = new String[7];
+        System.arraycopy(symbols, 1, weekdays, 0, 7);
+        return weekdays;
+    }
+
+    /** 所有可能输出的字符，用于预先绘制字形 */
+    public String getCharset() {
+        StringBuilder sb = new StringBuilder("0123456789-: ");
+        for (char[] weekday : mWeekdays) {
+            sb.append(weekday);
+        }
+        return sb.toString();
+    }
+
+    /**
+     * 格式化时间戳
+     *
+     * @return 内部复用的字符缓存，下次调用后内容改变
+     */
+    public CharSequence format(long millis) {
+        int length = format(millis, mChars, 0);
+        mText.clear();
+        mText.limit(length);
+        return mText;
+    }
+
+    /**
+     * 格式化时间戳到out的offset处
+     *
+     * @return 写入的字符数
+     */
+    public int format(long millis, char[] out, int offset) {
+        long local = millis + mTimeZone.getOffset(millis);
+        long days = floorDiv(local, MILLIS_PER_DAY);
+        int millisOfDay = (int) (local - days * MILLIS_PER_DAY);
+        // 由1970-01-01起的天数计算年月日(Howard Hinnant的civil_from_days算法)
+        long z = days + 719468;
+        long era = floorDiv(z, 146097);
+        long doe = z - era * 146097;
+        long yoe = (doe - doe / 1460 + doe / 36524 - doe / 146096) / 365;
+        long doy = doe - (365 * yoe + yoe / 4 - yoe / 100);
+        long mp = (5 * doy + 2) / 153;
+        int day = (int) (doy - (153 * mp + 2) / 5 + 1);
+        int month = (int) (mp < 10 ? mp + 3 : mp - 9);
+        long year = yoe + era * 400 + (month <= 2 ? 1 : 0);
+        // 1970-01-01为星期四
+        int weekday = (int) floorMod(days + 4, 7);
+
+        int p = offset;
+        p = putNumber(out, p, year, 4);
+        out[p++] = '-';
+        p = putNumber(out, p, month, 2);
+        out[p++] = '-';
+        p = putNumber(out, p, day, 2);
+        out[p++] = ' ';
+        char[] name = mWeekdays[weekday];
+        System.arraycopy(name, 0, out, p, name.length);
+        p += name.length;
+        out[p++] = ' ';
+        int seconds = millisOfDay / 1000;
+        p = putNumber(out, p, seconds / 3600, 2);
+        out[p++] = ':';
+        p = putNumber(out, p, seconds / 60 % 60, 2);
+        out[p++] = ':';
+        p = putNumber(out, p, seconds % 60, 2);
+        return p - offset;
+    }
+
+    // 按最少digits位输出非负整数，不足补0
+    private static int putNumber(char[] out, int p, long value, int digits) {
+        int length = digits;
+        while (value >= pow10(length)) {
+            length++;
+        }
+        for (int i = length - 1; i >= 0; i--) {
+            out[p + i] = (char) ('0' + value % 10);
+            value /= 10;
+        }
+        return p + length;
+    }
+
+    private static long pow10(int n) {
+        long result = 1;
+        for (int i = 0; i < n; i++) {
+            result *= 10;
+        }
+        return result;
+    }
+
+    private static long floorDiv(long x, long y) {
+        long q = x / y;
+        return (x % y != 0 && (x ^ y) < 0) ? q - 1 : q;
+    }
+
+    private static long floorMod(long x, long y) {
+        return x - floorDiv(x, y) * y;
+    }
+}
@@ -0,0 +1,61 @@
+package com.jiangdg.yuvosd;
+
+/** 时间水印：时间戳 + 固定文字，由GlyphAtlas中的字形拼成一条图层
+ * <p>
+ * 时间每秒才变化一次，图层按秒缓存(刷新间隔1000ms，对齐到整秒)，同一秒内的帧直接使用缓存的图层，
+ * 每帧的开销只剩一次透明度混合。格式化和拼接都不分配对象。setContent()需在编码线程中调用。
+ */
+public class TimestampOverlay extends OsdLayer {
+    // 文字亮度(白色)
+    private static final int TEXT_LUMA = 235;
+
+    private final GlyphAtlas mAtlas;
+    private final TimestampFormatter mFormatter;
+    private boolean isShowTime = true;
+    private String mText;
+    private boolean isDirty = true;
+
+    /**
+     * @param maxWidth 图层宽度，超出部分被裁掉
+     */
+    public TimestampOverlay(GlyphAtlas atlas, TimestampFormatter formatter, int maxWidth) {
+        super(maxWidth, atlas.getGlyphHeight(), 1000);
+        mAtlas = atlas;
+        mFormatter = formatter;
+        // 数字、分隔符和星期提前绘制，录制过程中不再绘制字体
+        atlas.preload(formatter.getCharset());
+    }
+
+    /**
+     * @param showTime 是否显示时间
+     * @param text 时间后面的固定文字，可以为null
+     */
+    public void setContent(boolean showTime, String text) {
+        isShowTime = showTime;
+        mText = text;
+        mAtlas.preload(text);
+        isDirty = true;
+        invalidate();
+    }
+
+    @Override
+    protected boolean render(OverlayMask mask, long millis) {
+        // 只显示文字时每秒的刷新不需要重新拼接
+        if (!isDirty && !isShowTime)
+            return false;
+        isDirty = false;
+        mask.clear();
+        int x = 0;
+        if (isShowTime) {
+            CharSequence time = mFormatter.format(millis);
+            x = mAtlas.draw(time, 0, time.length(), mask, x, 0, TEXT_LUMA);
+            if (mText != null && mText.length() > 0) {
+                x = mAtlas.draw("  ", 0, 2, mask, x, 0, TEXT_LUMA);
+            }
+        }
+        if (mText != null) {
+            mAtlas.draw(mText, 0, mText.length(), mask, x, 0, TEXT_LUMA);
+        }
+        return true;
+    }
+}
@@ -0,0 +1,52 @@
+package com.jiangdg.yuvosd;
+
+import java.nio.ByteBuffer;
+
+/** YUV420颜色格式转换与旋转
+ * <p>
+ * 有native(YuvUtils、JNIUtil)和纯Java两种实现，通过YuvConverterFactory创建，可以互相替换。
+ * 宽高必须为偶数。
+ */
+public interface YuvConverter {
+    /** Y平面 + VU交错 */
+    int FORMAT_NV21 = 0;
+    /** Y平面 + UV交错，对应COLOR_FormatYUV420SemiPlanar */
+    int FORMAT_NV12 = 1;
+    /** Y平面 + U平面 + V平面，对应COLOR_FormatYUV420Planar */
+    int FORMAT_I420 = 2;
+    /** Y平面 + V平面 + U平面 */
+    int FORMAT_YV12 = 3;
+
+    /** 实现类型 */
+    enum Type {
+        // 优先使用native库，加载失败或格式不支持时使用Java实现
+        NATIVE,
+        JAVA
+    }
+
+    /**
+     * 颜色格式转换，src与dst不能是同一个数组
+     *
+     * @param srcFormat FORMAT_NV21、FORMAT_NV12、FORMAT_I420或FORMAT_YV12
+     * @param dstFormat 同上，与srcFormat相同时直接拷贝
+     */
+    void convert(byte[] src, int srcFormat, byte[] dst, int dstFormat, int width, int height);
+
+    /**
+     * 颜色格式转换，结果从dst的position开始写入，完成后position后移，
+     * dst可以是编码器的输入缓存区(直接缓存区)
+     *
+     * @return 写入的字节数
+     */
+    int convert(byte[] src, int srcFormat, ByteBuffer dst, int dstFormat, int width, int height);
+
+    /**
+     * 旋转(顺时针)并可选水平镜像，输出格式与输入相同，src与dst不能是同一个数组
+     *
+     * @param width 旋转前的宽度
+     * @param height 旋转前的高度
+     * @param degree 0、90、180、270，旋转90、270度时输出的宽高互换
+     * @param mirror 旋转后是否水平镜像(前置摄像头)
+     */
+    void rotate(byte[] src, byte[] dst, int width, int height, int format, int degree, boolean mirror);
+}
@@ -0,0 +1,45 @@
+package com.jiangdg.yuvosd;
+
+import android.media.MediaCodecInfo;
+import android.util.Log;
+
+/** 根据类型创建YuvConverter
+ */
+public final class YuvConverterFactory {
+    private static final String TAG = "YuvConverterFactory";
+    private static final JavaYuvConverter JAVA_CONVERTER = new JavaYuvConverter();
+
+    private YuvConverterFactory() {}
+
+    /**
+     * @param type 为null时按NATIVE处理；native库加载失败时返回Java实现
+     */
+    public static YuvConverter create(YuvConverter.Type type) {
+        if (type == YuvConverter.Type.JAVA) {
+            return JAVA_CONVERTER;
+        }
+        try {
+            // 触发YuvUtils加载native库
+            Class.forName(YuvUtils.class.getName());
+            return new NativeYuvConverter();
+        } catch (ClassNotFoundException | LinkageError e) {
+            Log.w(TAG, "load native yuv library failed, use java converter: " + e);
+            return JAVA_CONVERTER;
+        }
+    }
+
+    /** 编码器颜色格式对应的YUV格式，不支持时返回-1 */
+    public static int formatOfColorFormat(int colorFormat) {
+        switch (colorFormat) {
+            case MediaCodecInfo.CodecCapabilities.COLOR_FormatYUV420Planar:
+            case MediaCodecInfo.CodecCapabilities.COLOR_FormatYUV420PackedPlanar:
+                return YuvConverter.FORMAT_I420;
+            case MediaCodecInfo.CodecCapabilities.COLOR_FormatYUV420SemiPlanar:
+            case MediaCodecInfo.CodecCapabilities.COLOR_FormatYUV420PackedSemiPlanar:
+            case MediaCodecInfo.CodecCapabilities.COLOR_TI_FormatYUV420PackedSemiPlanar:
+                return YuvConverter.FORMAT_NV12;
+            default:
+                return -1;
+        }
+    }
+}
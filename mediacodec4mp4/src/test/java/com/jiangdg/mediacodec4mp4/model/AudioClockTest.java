@@ -0,0 +1,76 @@
+package com.jiangdg.mediacodec4mp4.model;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * AudioClock单元测试，模拟读取延迟抖动和采样时钟漂移
+ */
+public class AudioClockTest {
+    private static final int SAMPLE_RATE = 8000;
+    // 每块256帧，即32毫秒
+    private static final int FRAMES = 256;
+    private static final long CHUNK_NS = 32000000L;
+
+    @Test
+    public void derivesPtsFromFrameCount() throws Exception {
+        AudioClock clock = new AudioClock(SAMPLE_RATE);
+        Random random = new Random(1);
+        long start = 5000000000L;
+        long first = -1;
+        for (int i = 0; i < 100; i++) {
+            // 读完的时间有0~8毫秒的抖动
+            long now = start + (i + 1) * CHUNK_NS + random.nextInt(8000000);
+            long pts = clock.onFrames(FRAMES, now);
+            if (first < 0) {
+                first = pts;
+            }
+            assertEquals(first + i * 32000L, pts);
+        }
+        assertEquals(100 * FRAMES, clock.getFrameCount());
+        assertEquals(0, clock.getCorrectionUs());
+        assertEquals(first + 100 * 32000L, clock.getNextPtsUs());
+    }
+
+    @Test
+    public void correctsDriftMonotonically() throws Exception {
+        AudioClock clock = new AudioClock(SAMPLE_RATE);
+        // 采样时钟比系统时钟慢0.5%，一小时会落后18秒
+        long chunkNs = CHUNK_NS * 1005 / 1000;
+        long now = 0;
+        long last = -1;
+        for (int i = 0; i < 20000; i++) {
+            now += chunkNs;
+            long pts = clock.onFrames(FRAMES, now);
+            assertTrue(pts > last);
+            last = pts;
+        }
+        // 10分钟后偏差仍在容忍范围附近，而不是累计的3秒
+        assertTrue("skew " + clock.getSkewUs(), Math.abs(clock.getSkewUs()) <= AudioClock.TOLERANCE_US + 1000);
+        assertTrue(clock.getCorrectionUs() > 3000000);
+        assertEquals(0, clock.getGapCount());
+    }
+
+    @Test
+    public void skipsLostSamples() throws Exception {
+        AudioClock clock = new AudioClock(SAMPLE_RATE);
+        long now = 0;
+        for (int i = 0; i < 40; i++) {
+            now += CHUNK_NS;
+            clock.onFrames(FRAMES, now);
+        }
+        // 录音缓存溢出，丢了500毫秒的数据
+        now += 500000000L;
+        long before = clock.getNextPtsUs();
+        for (int i = 0; i < 80; i++) {
+            now += CHUNK_NS;
+            clock.onFrames(FRAMES, now);
+        }
+        assertEquals(1, clock.getGapCount());
+        assertTrue(clock.getMaxSkewUs() >= 500000);
+        assertTrue(clock.getNextPtsUs() - before >= 80 * 32000L + 490000);
+    }
+}
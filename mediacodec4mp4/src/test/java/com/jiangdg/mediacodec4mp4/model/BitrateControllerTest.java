@@ -0,0 +1,88 @@
+package com.jiangdg.mediacodec4mp4.model;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * BitrateController单元测试，用MuxerWriterStats模拟存储写入情况
+ */
+public class BitrateControllerTest {
+    private static final int INITIAL = 4000000;
+    private static final int MIN = 1000000;
+    private static final int MAX = 6000000;
+
+    // 按码率bitrate输出1秒的数据
+    private static void encodeOneSecond(BitrateController controller, int bitrate) {
+        for (int i = 0; i < 25; i++) {
+            controller.onEncodedBytes(bitrate / 8 / 25);
+        }
+    }
+
+    @Test
+    public void decreasesOnStorageCongestion() throws Exception {
+        BitrateController controller = new BitrateController(INITIAL, MIN, MAX, 1000);
+        MuxerWriterStats stats = new MuxerWriterStats();
+        stats.setQueueCapacity(100);
+        assertFalse(controller.update(0, stats, 0));
+        encodeOneSecond(controller, INITIAL);
+        // 窗口未结束不调整
+        stats.onStall(5000000);
+        assertFalse(controller.update(500, stats, 0));
+        assertTrue(controller.update(1000, stats, 0));
+        assertEquals(3000000, controller.getTargetBitrate());
+        assertEquals(1, controller.getLastSample().getStallCount());
+        assertEquals(INITIAL, controller.getLastSample().getEncodedBitrate(), INITIAL / 100);
+
+        // 写文件慢：平均30ms
+        for (int i = 0; i < 10; i++) {
+            stats.onWritten(30000000, 10);
+        }
+        assertTrue(controller.update(2000, stats, 0));
+        assertEquals(2250000, controller.getTargetBitrate());
+        assertEquals(30000, controller.getLastSample().getWriteLatencyUs());
+
+        // 持续拥塞时不低于下限
+        for (int i = 3; i < 10; i++) {
+            stats.onEnqueued(80);
+            controller.update(i * 1000, stats, 0);
+        }
+        assertEquals(MIN, controller.getTargetBitrate());
+    }
+
+    @Test
+    public void increasesAfterStableSaturatedWindows() throws Exception {
+        BitrateController controller = new BitrateController(INITIAL, MIN, MAX, 1000);
+        controller.update(0, null, 0);
+        for (int i = 1; i <= 3; i++) {
+            encodeOneSecond(controller, INITIAL);
+            assertEquals(i == 3, controller.update(i * 1000, null, 0.2f));
+        }
+        assertEquals(INITIAL + MAX / 20, controller.getTargetBitrate());
+
+        // 编码器用不满码率(静止画面)时不上升
+        for (int i = 4; i <= 10; i++) {
+            encodeOneSecond(controller, INITIAL / 2);
+            assertFalse(controller.update(i * 1000, null, 0));
+        }
+        // 预览帧积压视为拥塞
+        assertTrue(controller.update(11000, null, 1));
+        assertEquals(2, controller.getAdjustCount());
+    }
+
+    @Test
+    public void customControlLawIsClamped() throws Exception {
+        BitrateController controller = new BitrateController(INITIAL, MIN, MAX, 500);
+        controller.setControlLaw(new BitrateController.ControlLaw() {
+            @Override
+            public int nextBitrate(BitrateController.Sample sample) {
+                return sample.getTargetBitrate() * 2;
+            }
+        });
+        controller.update(0, null, 0);
+        assertTrue(controller.update(500, null, 0));
+        assertEquals(MAX, controller.getTargetBitrate());
+        assertFalse(controller.update(1000, null, 0));
+        assertEquals(1, controller.getAdjustCount());
+    }
+}
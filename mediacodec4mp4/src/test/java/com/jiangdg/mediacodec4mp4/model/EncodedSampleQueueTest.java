@@ -0,0 +1,113 @@
+package com.jiangdg.mediacodec4mp4.model;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.Assert.*;
+
+/**
+ * EncodedSampleQueue单元测试
+ */
+public class EncodedSampleQueueTest {
+
+    @Test
+    public void copiesSampleAndKeepsSourcePosition() throws Exception {
+        EncodedSampleQueue queue = new EncodedSampleQueue(4, null);
+        ByteBuffer src = ByteBuffer.wrap(new byte[]{9, 1, 2, 3});
+        src.position(1);
+        assertTrue(queue.put(src, 1000, 1, true));
+        assertEquals(1, src.position());
+        // 编码器复用输出缓存区后，队列中的样本不受影响
+        src.put(1, (byte) 7);
+
+        EncodedSampleQueue.Sample sample = queue.take(0, TimeUnit.MILLISECONDS);
+        assertNotNull(sample);
+        assertTrue(sample.getData().isDirect());
+        assertEquals(3, sample.getSize());
+        assertEquals(1, sample.getData().get(0));
+        assertEquals(1000, sample.getPresentationTimeUs());
+        assertEquals(1, sample.getFlags());
+        assertTrue(sample.isVideo());
+        assertEquals(1, queue.getStats().getEnqueuedCount());
+    }
+
+    @Test
+    public void reusesPooledBuffers() throws Exception {
+        EncodedSampleQueue queue = new EncodedSampleQueue(1, null);
+        ByteBuffer src = ByteBuffer.allocate(100);
+        queue.put(src, 0, 0, false);
+        EncodedSampleQueue.Sample first = queue.take(0, TimeUnit.MILLISECONDS);
+        ByteBuffer firstData = first.getData();
+        queue.recycle(first);
+        queue.put(src, 0, 0, false);
+        EncodedSampleQueue.Sample second = queue.take(0, TimeUnit.MILLISECONDS);
+        queue.recycle(second);
+        queue.put(src, 0, 0, false);
+        EncodedSampleQueue.Sample third = queue.take(0, TimeUnit.MILLISECONDS);
+        // 池中共两个样本，第三次又用回第一个样本的缓存
+        assertSame(firstData, third.getData());
+    }
+
+    @Test
+    public void producerWaitsWhenFullAndIsCounted() throws Exception {
+        final EncodedSampleQueue queue = new EncodedSampleQueue(2, null);
+        final ByteBuffer src = ByteBuffer.allocate(16);
+        for (int i = 0; i < 3; i++) {
+            assertTrue(queue.put(src, i, 0, true));
+        }
+        final CountDownLatch done = new CountDownLatch(1);
+        final AtomicBoolean result = new AtomicBoolean();
+        Thread producer = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    result.set(queue.put(src, 3, 0, true));
+                } catch (InterruptedException e) {
+                    e.printStackTrace();
+                }
+                done.countDown();
+            }
+        };
+        producer.start();
+        assertFalse(done.await(50, TimeUnit.MILLISECONDS));
+        // 写线程写完一个样本后，生产者继续
+        queue.recycle(queue.take(0, TimeUnit.MILLISECONDS));
+        assertTrue(done.await(1, TimeUnit.SECONDS));
+        assertTrue(result.get());
+        assertEquals(1, queue.getStats().getStallCount());
+        assertEquals(3, queue.size());
+    }
+
+    @Test
+    public void closeReleasesWaitingProducer() throws Exception {
+        final EncodedSampleQueue queue = new EncodedSampleQueue(1, null);
+        final ByteBuffer src = ByteBuffer.allocate(16);
+        queue.put(src, 0, 0, true);
+        queue.put(src, 1, 0, true);
+        final CountDownLatch done = new CountDownLatch(1);
+        final AtomicBoolean result = new AtomicBoolean(true);
+        Thread producer = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    result.set(queue.put(src, 2, 0, true));
+                } catch (InterruptedException e) {
+                    e.printStackTrace();
+                }
+                done.countDown();
+            }
+        };
+        producer.start();
+        queue.close();
+        assertTrue(done.await(1, TimeUnit.SECONDS));
+        assertFalse(result.get());
+        // 关闭后已排队的样本仍可取出
+        assertNotNull(queue.take(0, TimeUnit.MILLISECONDS));
+        assertNotNull(queue.take(0, TimeUnit.MILLISECONDS));
+        assertNull(queue.take(0, TimeUnit.MILLISECONDS));
+    }
+}
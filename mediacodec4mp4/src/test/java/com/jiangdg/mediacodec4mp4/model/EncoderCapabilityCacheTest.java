@@ -0,0 +1,138 @@
+package com.jiangdg.mediacodec4mp4.model;
+
+import org.junit.Test;
+
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * EncoderCapability排序和EncoderCapabilityCache持久化单元测试
+ */
+public class EncoderCapabilityCacheTest {
+    private static final String AVC = "video/avc";
+
+    private static EncoderCapability codec(String name, int... colorFormats) {
+        return new EncoderCapability(name, AVC, !EncoderCapability.isSoftwareName(name), colorFormats,
+                new int[]{1, 0x800, 8, 0x1000}, 1 << 2);
+    }
+
+    private static List<String> names(List<EncoderCapability> list) {
+        List<String> names = new ArrayList<>();
+        for (EncoderCapability capability : list) {
+            names.add(capability.getName());
+        }
+        return names;
+    }
+
+    @Test
+    public void ranksHardwareBeforeSoftwareUntilMeasured() throws Exception {
+        EncoderCapability google = codec("OMX.google.h264.encoder", 19, 21);
+        EncoderCapability qcom = codec("OMX.qcom.video.encoder.avc", 21);
+        EncoderCapability noFormat = codec("OMX.vendor.surface.only");
+        List<EncoderCapability> list = new ArrayList<>(Arrays.asList(google, noFormat, qcom));
+        EncoderCapabilityCache.sort(list, true);
+        assertEquals(Arrays.asList("OMX.qcom.video.encoder.avc", "OMX.google.h264.encoder", "OMX.vendor.surface.only"),
+                names(list));
+
+        // 实测速度优先于软硬件估计
+        qcom.setThroughputFps(20);
+        google.setThroughputFps(45);
+        EncoderCapabilityCache.sort(list, true);
+        assertEquals("OMX.google.h264.encoder", list.get(0).getName());
+
+        // 启动失败的排在最后
+        google.setFailed(true);
+        EncoderCapabilityCache.sort(list, true);
+        assertEquals(Arrays.asList("OMX.qcom.video.encoder.avc", "OMX.vendor.surface.only", "OMX.google.h264.encoder"),
+                names(list));
+    }
+
+    @Test
+    public void probeFailureRanksLowerAndRetries() throws Exception {
+        EncoderCapability google = codec("OMX.google.h264.encoder", 19, 21);
+        EncoderCapability qcom = codec("OMX.qcom.video.encoder.avc", 21);
+        List<EncoderCapability> list = new ArrayList<>(Arrays.asList(google, qcom));
+        assertTrue(qcom.needsProbe());
+
+        // 测速失败只降低排序，不算不可用
+        qcom.onProbeFailed();
+        assertFalse(qcom.isFailed());
+        EncoderCapabilityCache.sort(list, true);
+        assertEquals(Arrays.asList("OMX.google.h264.encoder", "OMX.qcom.video.encoder.avc"), names(list));
+        assertTrue(qcom.needsProbe());
+
+        // 重试成功后恢复
+        qcom.setThroughputFps(200);
+        assertEquals(0, qcom.getProbeFailures());
+        assertFalse(qcom.needsProbe());
+        EncoderCapabilityCache.sort(list, true);
+        assertEquals("OMX.qcom.video.encoder.avc", list.get(0).getName());
+
+        for (int i = 0; i < EncoderCapability.MAX_PROBE_FAILURES; i++) {
+            google.onProbeFailed();
+        }
+        assertFalse(google.needsProbe());
+    }
+
+    @Test
+    public void choosesPreferredColorFormat() throws Exception {
+        assertEquals(21, codec("a", 0x7f000100, 19, 21).getColorFormat());
+        assertEquals(19, codec("b", 20, 19).getColorFormat());
+        assertEquals(0, codec("c").getColorFormat());
+        assertTrue(EncoderCapability.isSoftwareName("c2.android.avc.encoder"));
+        assertFalse(EncoderCapability.isSoftwareName("c2.exynos.h264.encoder"));
+    }
+
+    @Test
+    public void persistsAndChecksFingerprint() throws Exception {
+        EncoderCapabilityCache cache = new EncoderCapabilityCache("device/1");
+        StringWriter out = new StringWriter();
+        cache.write(out);
+        // 空缓存也能读回
+        assertTrue(new EncoderCapabilityCache("device/1").read(new StringReader(out.toString())));
+
+        EncoderCapability capability = codec("OMX.qcom.video.encoder.avc", 21, 19);
+        capability.setThroughputFps(180.5f);
+        EncoderCapability parsed = EncoderCapability.parse(capability.toLine());
+        assertNotNull(parsed);
+        assertEquals(capability.getName(), parsed.getName());
+        assertTrue(parsed.isHardware());
+        assertArrayEquals(new int[]{21, 19}, parsed.getColorFormats());
+        assertEquals(0x1000, parsed.getMaxLevel(8));
+        assertEquals(0, parsed.getMaxLevel(2));
+        assertTrue(parsed.isBitrateModeSupported(2));
+        assertFalse(parsed.isBitrateModeSupported(1));
+        assertEquals(180.5f, parsed.getThroughputFps(), 0);
+        assertNull(EncoderCapability.parse("broken"));
+
+        EncoderCapability unstable = codec("OMX.vendor.video.encoder.avc", 21);
+        unstable.onProbeFailed();
+        assertEquals(1, EncoderCapability.parse(unstable.toLine()).getProbeFailures());
+
+        String text = "v2\tdevice/1\nprobed\tvideo/avc\ncodec\t" + capability.toLine() + "\n";
+        EncoderCapabilityCache loaded = new EncoderCapabilityCache("device/1");
+        assertTrue(loaded.read(new StringReader(text)));
+        assertTrue(loaded.isThroughputProbed(AVC));
+        assertEquals("OMX.qcom.video.encoder.avc", loaded.select(AVC, true).getName());
+        // 唯一的编码器启动失败过，仍然返回它再试一次
+        loaded.markFailed(AVC, "OMX.qcom.video.encoder.avc");
+        assertEquals("OMX.qcom.video.encoder.avc", loaded.select(AVC, true).getName());
+        assertTrue(loaded.select(AVC, true).isFailed());
+        // 启动失败不保存
+        StringWriter saved = new StringWriter();
+        loaded.write(saved);
+        EncoderCapabilityCache reloaded = new EncoderCapabilityCache("device/1");
+        assertTrue(reloaded.read(new StringReader(saved.toString())));
+        assertFalse(reloaded.select(AVC, true).isFailed());
+
+        // 系统升级后不使用旧缓存
+        EncoderCapabilityCache upgraded = new EncoderCapabilityCache("device/2");
+        assertFalse(upgraded.read(new StringReader(text)));
+        assertFalse(upgraded.isThroughputProbed(AVC));
+    }
+}
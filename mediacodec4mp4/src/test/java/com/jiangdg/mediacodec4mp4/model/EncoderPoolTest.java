@@ -0,0 +1,128 @@
+package com.jiangdg.mediacodec4mp4.model;
+
+import android.media.MediaCodec;
+import android.media.MediaFormat;
+import android.view.Surface;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * EncoderPool单元测试，使用不依赖MediaCodec的编码驱动
+ */
+public class EncoderPoolTest {
+
+    @Test
+    public void reusesParkedEngineWithSameKey() throws Exception {
+        EncoderPool pool = new EncoderPool();
+        FakeEngine engine = new FakeEngine(true);
+        assertNull(pool.acquire("avc|720p"));
+        pool.recycle("avc|720p", engine);
+        assertTrue(engine.isParked);
+        assertFalse(engine.isStopped);
+        assertEquals(1, pool.getIdleCount());
+
+        assertNull(pool.acquire("avc|1080p"));
+        assertSame(engine, pool.acquire("avc|720p"));
+        assertEquals(0, pool.getIdleCount());
+        assertEquals(1, pool.getHitCount());
+        assertEquals(2, pool.getMissCount());
+    }
+
+    @Test
+    public void stopsEnginesThatCanNotBeKept() throws Exception {
+        EncoderPool pool = new EncoderPool(2);
+        // 挂起失败的直接停止
+        FakeEngine broken = new FakeEngine(false);
+        pool.recycle("avc", broken);
+        assertTrue(broken.isStopped);
+        assertEquals(0, pool.getIdleCount());
+
+        // 超出空闲数时停止最早归还的
+        FakeEngine first = new FakeEngine(true);
+        FakeEngine second = new FakeEngine(true);
+        FakeEngine third = new FakeEngine(true);
+        pool.recycle("avc", first);
+        pool.recycle("aac", second);
+        pool.recycle("avc", third);
+        assertTrue(first.isStopped);
+        assertFalse(second.isStopped);
+        assertSame(third, pool.acquire("avc"));
+
+        pool.clear();
+        assertTrue(second.isStopped);
+        assertEquals(0, pool.getIdleCount());
+
+        // 不保留空闲编码器
+        FakeEngine engine = new FakeEngine(true);
+        new EncoderPool(0).recycle("avc", engine);
+        assertTrue(engine.isStopped);
+        assertFalse(engine.isParked);
+    }
+
+    private static class FakeEngine implements EncoderEngine {
+        private final boolean isParkable;
+        private final EncoderEngineStats mStats = new EncoderEngineStats();
+        boolean isParked;
+        boolean isStopped;
+
+        FakeEngine(boolean parkable) {
+            isParkable = parkable;
+        }
+
+        @Override
+        public void start(String codecName, MediaFormat format, OutputListener listener) {
+        }
+
+        @Override
+        public boolean queueInput(InputWriter writer, long presentationTimeUs, int flags, long timeoutUs) {
+            return false;
+        }
+
+        @Override
+        public void drainOutput(long timeoutUs) {
+        }
+
+        @Override
+        public boolean isAsync() {
+            return false;
+        }
+
+        @Override
+        public boolean isStarted() {
+            return !isStopped;
+        }
+
+        @Override
+        public MediaCodec getCodec() {
+            return null;
+        }
+
+        @Override
+        public Surface getInputSurface() {
+            return null;
+        }
+
+        @Override
+        public void stop() {
+            isStopped = true;
+        }
+
+        @Override
+        public boolean park() {
+            isParked = isParkable;
+            return isParkable;
+        }
+
+        @Override
+        public void reuse(OutputListener listener) {
+            isParked = false;
+        }
+
+        @Override
+        public EncoderEngineStats getStats() {
+            return mStats;
+        }
+    }
+}
@@ -0,0 +1,81 @@
+package com.jiangdg.mediacodec4mp4.model;
+
+import com.jiangdg.mediacodec4mp4.bean.EncoderParams;
+import com.jiangdg.mediacodec4mp4.utils.FrameBufferPool;
+import com.jiangdg.mediacodec4mp4.utils.FrameRingBuffer;
+
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+
+import static org.junit.Assert.*;
+
+/**
+ * 预览帧送入编码队列的单元测试：走与预览回调相同的addData()入队、编码线程出队归还流程
+ */
+public class H264EncodeConsumerFeedTest {
+    private static final int WIDTH = 1920;
+    private static final int HEIGHT = 1080;
+    // 20fps，低于目标帧率，不会被抽帧
+    private static final long FRAME_INTERVAL_NS = 50000000L;
+
+    private static H264EncodeConsumer newConsumer() {
+        EncoderParams params = new EncoderParams();
+        params.setFrameWidth(WIDTH);
+        params.setFrameHeight(HEIGHT);
+        params.setFrameRateDegree(H264EncodeConsumer.FrameRate._30fps);
+        H264EncodeConsumer consumer = new H264EncodeConsumer();
+        consumer.setTmpuMuxer(null, params);
+        consumer.setEncoderStarted(true);
+        return consumer;
+    }
+
+    // 预览回调调用addData()，编码线程取出后归还
+    private static void feed(H264EncodeConsumer consumer, FrameRingBuffer ring, byte[] preview, long timestampNs) {
+        consumer.addData(preview, WIDTH, HEIGHT, timestampNs);
+        FrameRingBuffer.Frame frame = ring.poll();
+        assertNotNull(frame);
+        ring.release(frame);
+    }
+
+    @Test
+    public void dropsFramesBeforeEncoderStarts() throws Exception {
+        H264EncodeConsumer consumer = newConsumer();
+        consumer.setEncoderStarted(false);
+        consumer.addData(new byte[FrameBufferPool.yuv420Size(WIDTH, HEIGHT)], WIDTH, HEIGHT, 0);
+        assertTrue(consumer.getFrameRing().isEmpty());
+    }
+
+    @Test
+    public void steadyStateRecording_allocatesNothingPerFrame() throws Exception {
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (!(bean instanceof com.sun.management.ThreadMXBean)) {
+            return;
+        }
+        com.sun.management.ThreadMXBean threadBean = (com.sun.management.ThreadMXBean) bean;
+        if (!threadBean.isThreadAllocatedMemorySupported()) {
+            return;
+        }
+        threadBean.setThreadAllocatedMemoryEnabled(true);
+        H264EncodeConsumer consumer = newConsumer();
+        FrameRingBuffer ring = consumer.getFrameRing();
+        byte[] preview = new byte[FrameBufferPool.yuv420Size(WIDTH, HEIGHT)];
+        long timestampNs = 0;
+        // 预热，让JIT完成编译
+        for (int i = 0; i < 200; i++) {
+            feed(consumer, ring, preview, timestampNs += FRAME_INTERVAL_NS);
+        }
+        long tid = Thread.currentThread().getId();
+        long before = threadBean.getThreadAllocatedBytes(tid);
+        int frames = 300;
+        for (int i = 0; i < frames; i++) {
+            feed(consumer, ring, preview, timestampNs += FRAME_INTERVAL_NS);
+        }
+        long allocated = threadBean.getThreadAllocatedBytes(tid) - before;
+        // 若每帧分配新数组，此处将达到 frames * 3MB
+        assertTrue("allocated " + allocated + " bytes in steady state", allocated < 64 * 1024);
+        assertEquals(500, ring.getPublishedCount());
+        assertEquals(0, ring.getDroppedCount());
+        assertEquals(0, consumer.getFrameScheduler().getDroppedCount());
+    }
+}
@@ -0,0 +1,119 @@
+package com.jiangdg.mediacodec4mp4.model;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * PreRollBuffer单元测试
+ */
+public class PreRollBufferTest {
+    private static final int KEY = PreRollBuffer.BUFFER_FLAG_KEY_FRAME;
+
+    @Test
+    public void dropsSamplesUntilFirstKeyFrame() throws Exception {
+        PreRollBuffer buffer = new PreRollBuffer(1024, 0);
+        assertFalse(buffer.add(sample(10, 0), 0, 0, false));
+        assertFalse(buffer.add(sample(10, 0), 0, 0, true));
+        assertTrue(buffer.add(sample(10, 0), 1, KEY, true));
+        assertTrue(buffer.add(sample(10, 0), 2, 0, false));
+        assertEquals(2, buffer.getSampleCount());
+        assertEquals(2, buffer.getDroppedCount());
+        assertTrue(buffer.startsWithKeyFrame());
+    }
+
+    @Test
+    public void evictsWholeGopsWithinByteBudget() throws Exception {
+        // 每个GOP：10个视频帧 + 10个音频帧，共 100 + 9*50 + 10*20 = 750字节
+        PreRollBuffer buffer = new PreRollBuffer(2000, 0);
+        long pts = 0;
+        for (int gop = 0; gop < 10; gop++) {
+            for (int i = 0; i < 10; i++) {
+                buffer.add(sample(i == 0 ? 100 : 50, gop), pts, i == 0 ? KEY : 0, true);
+                buffer.add(sample(20, gop), pts, 0, false);
+                pts += 33333;
+                assertTrue(buffer.getBufferedBytes() <= 2000);
+                assertTrue(buffer.startsWithKeyFrame());
+            }
+        }
+        assertTrue(buffer.getEvictedGopCount() >= 8);
+        // 只保留最近的两个完整GOP
+        final List<Integer> gops = new ArrayList<>();
+        final long[] lastPts = {-1};
+        buffer.drainTo(new PreRollBuffer.SampleSink() {
+            @Override
+            public void onSample(ByteBuffer data, long presentationTimeUs, int flags, boolean isVideo) {
+                assertTrue(presentationTimeUs >= lastPts[0]);
+                lastPts[0] = presentationTimeUs;
+                if (isVideo && (flags & KEY) != 0) {
+                    gops.add((int) data.get(data.position()));
+                }
+            }
+        });
+        assertEquals(2, gops.size());
+        assertEquals(8, (int) gops.get(0));
+        assertEquals(9, (int) gops.get(1));
+        assertEquals(0, buffer.getSampleCount());
+    }
+
+    @Test
+    public void wrapsAroundWithoutCorruptingData() throws Exception {
+        PreRollBuffer buffer = new PreRollBuffer(1000, 0);
+        for (int i = 0; i < 50; i++) {
+            // 每个样本都是关键帧，内容为序号
+            buffer.add(sample(90 + i % 7, i), i, KEY, true);
+        }
+        final int[] expected = {-1};
+        buffer.drainTo(new PreRollBuffer.SampleSink() {
+            @Override
+            public void onSample(ByteBuffer data, long presentationTimeUs, int flags, boolean isVideo) {
+                int value = data.get(data.position());
+                if (expected[0] >= 0) {
+                    assertEquals(expected[0], value);
+                }
+                for (int i = data.position(); i < data.limit(); i++) {
+                    assertEquals(value, data.get(i));
+                }
+                assertEquals(90 + presentationTimeUs % 7, data.remaining());
+                expected[0] = value + 1;
+            }
+        });
+        assertEquals(50, expected[0]);
+    }
+
+    @Test
+    public void limitsDurationButKeepsAtLeastMaxDuration() throws Exception {
+        // 1秒一个GOP，最多保留3秒
+        PreRollBuffer buffer = new PreRollBuffer(1 << 20, 3000);
+        for (int i = 0; i < 300; i++) {
+            buffer.add(sample(10, i), i * 40000L, i % 25 == 0 ? KEY : 0, true);
+        }
+        long duration = buffer.getBufferedDurationUs();
+        assertTrue(duration >= 3000000 - 40000);
+        assertTrue(duration < 4000000);
+        assertTrue(buffer.startsWithKeyFrame());
+    }
+
+    @Test
+    public void gopLargerThanBudgetRestartsAtNextKeyFrame() throws Exception {
+        PreRollBuffer buffer = new PreRollBuffer(300, 0);
+        assertTrue(buffer.add(sample(100, 0), 0, KEY, true));
+        assertTrue(buffer.add(sample(100, 0), 1, 0, true));
+        assertTrue(buffer.add(sample(100, 0), 2, 0, true));
+        // 放不下，唯一的GOP被淘汰，非关键帧被丢弃
+        assertFalse(buffer.add(sample(100, 0), 3, 0, true));
+        assertEquals(0, buffer.getSampleCount());
+        assertTrue(buffer.add(sample(100, 0), 4, KEY, true));
+        assertEquals(1, buffer.getSampleCount());
+    }
+
+    private static ByteBuffer sample(int size, int value) {
+        byte[] data = new byte[size];
+        java.util.Arrays.fill(data, (byte) value);
+        return ByteBuffer.wrap(data);
+    }
+}
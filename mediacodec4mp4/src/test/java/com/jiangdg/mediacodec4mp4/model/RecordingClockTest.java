@@ -0,0 +1,85 @@
+package com.jiangdg.mediacodec4mp4.model;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * RecordingClock单元测试：开始、暂停恢复、单调递增和统计
+ */
+public class RecordingClockTest {
+    private static final long MS = 1000000L;
+
+    @Test
+    public void rebasesToStartAndRemovesPauseGaps() throws Exception {
+        RecordingClock clock = new RecordingClock();
+        assertEquals(-1, clock.toPresentationUs(RecordingClock.TRACK_VIDEO, 500 * MS, 500 * MS));
+        clock.start(1000 * MS);
+        // 开始前采集的帧丢弃
+        assertEquals(-1, clock.toPresentationUs(RecordingClock.TRACK_VIDEO, 990 * MS, 1005 * MS));
+        assertEquals(0, clock.toPresentationUs(RecordingClock.TRACK_VIDEO, 1000 * MS, 1010 * MS));
+        assertEquals(100000, clock.toPresentationUs(RecordingClock.TRACK_VIDEO, 1100 * MS, 1110 * MS));
+
+        clock.pause(1200 * MS);
+        assertTrue(clock.isPaused());
+        assertEquals(-1, clock.toPresentationUs(RecordingClock.TRACK_VIDEO, 1300 * MS, 1310 * MS));
+        // 暂停前采集、暂停后才送入的帧保留
+        assertEquals(190000, clock.toPresentationUs(RecordingClock.TRACK_AUDIO, 1190 * MS, 1300 * MS));
+        clock.resume(2200 * MS);
+        assertEquals(1000 * MS, clock.getPausedNs(2300 * MS));
+        // 暂停期间采集、恢复后才送入的帧丢弃
+        assertEquals(-1, clock.toPresentationUs(RecordingClock.TRACK_VIDEO, 2100 * MS, 2210 * MS));
+        assertEquals(250000, clock.toPresentationUs(RecordingClock.TRACK_VIDEO, 2250 * MS, 2260 * MS));
+        assertEquals(300000, clock.getElapsedUs(2300 * MS));
+
+        RecordingClock.TrackStats video = clock.getTrackStats(RecordingClock.TRACK_VIDEO);
+        assertEquals(3, video.getCount());
+        assertEquals(4, video.getDroppedCount());
+        assertEquals(10000, video.getMaxLatencyUs());
+    }
+
+    @Test
+    public void accumulatesRepeatedPauses() throws Exception {
+        RecordingClock clock = new RecordingClock();
+        // 未开始时暂停无效
+        clock.pause(0);
+        assertFalse(clock.isPaused());
+        clock.start(0);
+        for (int i = 0; i < 3; i++) {
+            long base = i * 1000 * MS;
+            clock.pause(base + 400 * MS);
+            // 重复暂停不重新计时
+            clock.pause(base + 500 * MS);
+            clock.resume(base + 900 * MS);
+            clock.resume(base + 950 * MS);
+        }
+        assertFalse(clock.isPaused());
+        // 每秒录400ms、停500ms，3秒后录制时间为3000 - 1500
+        assertEquals(1500 * MS, clock.getPausedNs(3000 * MS));
+        assertEquals(1500000, clock.toPresentationUs(RecordingClock.TRACK_VIDEO, 3000 * MS, 3000 * MS));
+        // 恢复后的第一块紧接暂停前的最后一块
+        assertEquals(1399000, clock.toPresentationUs(RecordingClock.TRACK_AUDIO, 2399 * MS, 3000 * MS));
+        assertEquals(1400000, clock.toPresentationUs(RecordingClock.TRACK_AUDIO, 2900 * MS, 3000 * MS));
+    }
+
+    @Test
+    public void keepsTracksMonotonicAndMeasuresDrift() throws Exception {
+        RecordingClock clock = new RecordingClock();
+        clock.start(0);
+        assertEquals(40000, clock.toPresentationUs(RecordingClock.TRACK_VIDEO, 40 * MS, 50 * MS));
+        // 采集时间倒退时修正为上一个值加1
+        assertEquals(40001, clock.toPresentationUs(RecordingClock.TRACK_VIDEO, 30 * MS, 60 * MS));
+        assertEquals(1, clock.getTrackStats(RecordingClock.TRACK_VIDEO).getCorrectedCount());
+        // 轨道之间互不影响
+        assertEquals(20000, clock.toPresentationUs(RecordingClock.TRACK_AUDIO, 20 * MS, 60 * MS));
+
+        // 视频延迟10ms，音频延迟50ms：音频相对落后40ms
+        for (int i = 1; i <= 200; i++) {
+            long t = 100 * MS + i * 20 * MS;
+            clock.toPresentationUs(RecordingClock.TRACK_VIDEO, t, t + 10 * MS);
+            clock.toPresentationUs(RecordingClock.TRACK_AUDIO, t, t + 50 * MS);
+        }
+        assertEquals(-40000, clock.getAvDriftUs(), 1000);
+        assertEquals(50000, clock.getTrackStats(RecordingClock.TRACK_AUDIO).getLastLatencyUs());
+    }
+}
@@ -0,0 +1,61 @@
+package com.jiangdg.mediacodec4mp4.model;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * TimestampNormalizer单元测试：分段零点、丢弃旧样本、音频单调递增和B帧时间戳
+ */
+public class TimestampNormalizerTest {
+    private static final int VIDEO = RecordingClock.TRACK_VIDEO;
+    private static final int AUDIO = RecordingClock.TRACK_AUDIO;
+
+    @Test
+    public void rebasesEachSegment() throws Exception {
+        TimestampNormalizer normalizer = new TimestampNormalizer();
+        assertEquals(0, normalizer.normalize(AUDIO, 5000));
+        assertEquals(28000, normalizer.normalize(VIDEO, 33000));
+        assertEquals(5000, normalizer.normalize(AUDIO, 10000));
+
+        // 在关键帧处切换分段
+        normalizer.startSegment();
+        assertEquals(0, normalizer.normalize(VIDEO, 1000000));
+        // 切换时还在队列中的旧音频丢弃
+        assertEquals(-1, normalizer.normalize(AUDIO, 990000));
+        assertEquals(12000, normalizer.normalize(AUDIO, 1012000));
+        assertEquals(33000, normalizer.normalize(VIDEO, 1033000));
+        assertEquals(1, normalizer.getDroppedCount(AUDIO));
+        assertEquals(2, normalizer.getSegmentCount());
+    }
+
+    @Test
+    public void keepsAudioIncreasing() throws Exception {
+        TimestampNormalizer normalizer = new TimestampNormalizer();
+        assertEquals(0, normalizer.normalize(AUDIO, 100));
+        assertEquals(1, normalizer.normalize(AUDIO, 100));
+        assertEquals(2, normalizer.normalize(AUDIO, 101));
+        assertEquals(0, normalizer.normalize(VIDEO, 100));
+        assertEquals(2, normalizer.getCorrectedCount(AUDIO));
+        assertEquals(0, normalizer.getCorrectedCount(VIDEO));
+    }
+
+    @Test
+    public void keepsReorderedVideoTimestamps() throws Exception {
+        TimestampNormalizer normalizer = new TimestampNormalizer();
+        // 解码顺序I P B B，显示顺序I B B P
+        assertEquals(0, normalizer.normalize(VIDEO, 1000000));
+        assertEquals(99999, normalizer.normalize(VIDEO, 1099999));
+        assertEquals(33333, normalizer.normalize(VIDEO, 1033333));
+        assertEquals(66666, normalizer.normalize(VIDEO, 1066666));
+        assertEquals(0, normalizer.getCorrectedCount(VIDEO));
+
+        // 新分段同样只做平移
+        normalizer.startSegment();
+        assertEquals(0, normalizer.normalize(VIDEO, 2000000));
+        assertEquals(99999, normalizer.normalize(VIDEO, 2099999));
+        assertEquals(33333, normalizer.normalize(VIDEO, 2033333));
+        assertEquals(0, normalizer.getCorrectedCount(VIDEO));
+        assertEquals(0, normalizer.getDroppedCount(VIDEO));
+    }
+}
@@ -0,0 +1,243 @@
+package com.jiangdg.mediacodec4mp4.mp4;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.*;
+
+/**
+ * Mp4Writer单元测试，直接解析生成的文件校验box结构和样本表
+ */
+public class Mp4WriterTest {
+    private static final byte[] SPS = {0x67, 0x42, (byte) 0xC0, 0x1F, 0x11, 0x22};
+    private static final byte[] PPS = {0x68, (byte) 0xCE, 0x3C, (byte) 0x80};
+    private static final byte[] ASC = {0x12, 0x10};
+
+    private File mFile;
+
+    @Before
+    public void setUp() throws Exception {
+        mFile = File.createTempFile("mp4writer", ".mp4");
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        mFile.delete();
+    }
+
+    @Test
+    public void annexBIsConvertedToLengthPrefixed() throws Exception {
+        ByteBuffer src = ByteBuffer.wrap(new byte[]{0, 0, 0, 1, 0x65, 1, 2, 3, 0, 0, 1, 0x41, 9, 0});
+        ByteBuffer dst = ByteBuffer.allocate(AvcUtil.maxAvccSize(src.remaining()));
+        int size = AvcUtil.annexBToAvcc(src, dst);
+        assertEquals(4 + 4 + 4 + 2, size);
+        assertEquals(0, src.position());
+        dst.flip();
+        assertEquals(4, dst.getInt());
+        assertEquals(0x65, dst.get());
+        dst.position(8);
+        assertEquals(2, dst.getInt());
+        assertEquals(0x41, dst.get());
+        assertEquals(9, dst.get());
+        assertTrue(AvcUtil.containsIdr(src));
+    }
+
+    @Test
+    public void writesPlayableBoxLayout() throws Exception {
+        Mp4Writer writer = new Mp4Writer(mFile);
+        int video = writer.addVideoTrack(640, 480, SPS, PPS);
+        int audio = writer.addAudioTrack(44100, 1, ASC);
+        writer.start();
+        // 25fps视频30帧，每10帧一个关键帧；音频与视频交错写入
+        for (int i = 0; i < 30; i++) {
+            writer.writeSample(video, videoFrame(i % 10 == 0, 100 + i), 1000000L + i * 40000L, i % 10 == 0);
+            writer.writeSample(audio, ByteBuffer.wrap(new byte[50]), 1000000L + i * 23220L, true);
+            writer.writeSample(audio, ByteBuffer.wrap(new byte[50]), 1011610L + i * 23220L, true);
+        }
+        writer.close();
+
+        ByteBuffer file = readFile();
+        assertEquals("ftyp", boxType(file, 0));
+        int mdat = file.getInt(0);
+        assertEquals("mdat", boxType(file, mdat));
+        assertEquals(1, file.getInt(mdat));
+        long mdatSize = file.getLong(mdat + 8);
+        int moov = (int) (mdat + mdatSize);
+        assertEquals("moov", boxType(file, moov));
+        assertEquals(file.limit(), moov + file.getInt(moov));
+
+        int videoTrak = findBox(file, moov, "trak", 0);
+        int audioTrak = findBox(file, moov, "trak", 1);
+        int videoStbl = findPath(file, videoTrak, "mdia", "minf", "stbl");
+        int audioStbl = findPath(file, audioTrak, "mdia", "minf", "stbl");
+
+        // 视频：30个样本，3个关键帧，可变样本大小
+        int stsz = findBox(file, videoStbl, "stsz", 0);
+        assertEquals(0, file.getInt(stsz + 12));
+        assertEquals(30, file.getInt(stsz + 16));
+        int stss = findBox(file, videoStbl, "stss", 0);
+        assertEquals(3, file.getInt(stss + 12));
+        assertEquals(1, file.getInt(stss + 16));
+        assertEquals(11, file.getInt(stss + 20));
+        // 固定帧间隔只有一项stts
+        int stts = findBox(file, videoStbl, "stts", 0);
+        assertEquals(1, file.getInt(stts + 12));
+        assertEquals(30, file.getInt(stts + 16));
+        assertEquals(3600, file.getInt(stts + 20));
+        assertEquals(-1, findBox(file, videoStbl, "ctts", 0));
+        // 音视频交错，每个chunk一个视频样本
+        int stco = findBox(file, videoStbl, "stco", 0);
+        assertEquals(30, file.getInt(stco + 12));
+        int firstOffset = file.getInt(stco + 16);
+        assertEquals(mdat + 16, firstOffset);
+        // 样本数据为长度前缀格式，第一个NAL为IDR
+        assertEquals(0x65, file.get(firstOffset + 4));
+        // avc1样本描述之后紧跟avcC
+        int avc1 = findPath(file, videoStbl, "stsd", "avc1");
+        assertEquals("avcC", boxType(file, avc1 + 86));
+
+        // 音频：60个等长样本，每个chunk两个样本，无stss
+        stsz = findBox(file, audioStbl, "stsz", 0);
+        assertEquals(50, file.getInt(stsz + 12));
+        assertEquals(60, file.getInt(stsz + 16));
+        assertEquals(-1, findBox(file, audioStbl, "stss", 0));
+        int stsc = findBox(file, audioStbl, "stsc", 0);
+        assertEquals(1, file.getInt(stsc + 12));
+        assertEquals(2, file.getInt(stsc + 20));
+        stco = findBox(file, audioStbl, "stco", 0);
+        assertEquals(30, file.getInt(stco + 12));
+        assertEquals(firstOffset + 4 + 100, file.getInt(stco + 16));
+    }
+
+    @Test
+    public void reorderedFramesProduceCompositionOffsets() throws Exception {
+        Mp4Writer writer = new Mp4Writer(mFile);
+        int video = writer.addVideoTrack(320, 240, SPS, PPS);
+        writer.start();
+        // 解码顺序I P B P B，显示时间0 66 33 133 100(ms)
+        long[] pts = {0, 66666, 33333, 133333, 100000};
+        for (int i = 0; i < pts.length; i++) {
+            writer.writeSample(video, videoFrame(i == 0, 20), pts[i], i == 0);
+        }
+        writer.close();
+
+        ByteBuffer file = readFile();
+        int moov = (int) (file.getInt(0) + file.getLong(file.getInt(0) + 8));
+        int trak = findBox(file, moov, "trak", 0);
+        int ctts = findBox(file, findPath(file, trak, "mdia", "minf", "stbl"), "ctts", 0);
+        assertTrue(ctts > 0);
+        // 负的偏移被整体右移，编辑列表从右移量处开始播放
+        int elst = findPath(file, trak, "edts", "elst");
+        assertEquals(1, file.getInt(elst + 12));
+        assertTrue(file.getInt(elst + 20) > 0);
+    }
+
+    @Test
+    public void fragmentedModeWritesDurableFragmentsOnKeyFrames() throws Exception {
+        Mp4Writer writer = new Mp4Writer(mFile, 1000);
+        int video = writer.addVideoTrack(640, 480, SPS, PPS);
+        int audio = writer.addAudioTrack(44100, 1, ASC);
+        writer.start();
+        // 25fps，GOP为1.2秒(30帧)，共90帧
+        for (int i = 0; i < 90; i++) {
+            writer.writeSample(video, videoFrame(i % 30 == 0, 60), i * 40000L, i % 30 == 0);
+            writer.writeSample(audio, ByteBuffer.wrap(new byte[20]), i * 40000L, true);
+        }
+        // 未调用close()，模拟进程被杀：前两个GOP已经落盘
+        assertEquals(2, writer.getFragmentCount());
+        ByteBuffer file = readFile();
+        assertEquals("ftyp", boxType(file, 0));
+        int moov = file.getInt(0);
+        assertEquals("moov", boxType(file, moov));
+        assertTrue(findBox(file, moov, "mvex", 0) > 0);
+        int pos = moov + file.getInt(moov);
+        int fragments = 0;
+        while (pos < file.limit()) {
+            assertEquals("moof", boxType(file, pos));
+            int traf = findBox(file, pos, "traf", 0);
+            int trun = findBox(file, traf, "trun", 0);
+            assertEquals(30, file.getInt(trun + 12));
+            // data_offset指向本分片第一个视频样本，为关键帧
+            int sample = pos + file.getInt(trun + 16);
+            assertEquals(0x65, file.get(sample + 4));
+            int tfdt = findBox(file, traf, "tfdt", 0);
+            assertEquals(fragments * 30 * 3600L, file.getLong(tfdt + 12));
+            pos += file.getInt(pos);
+            assertEquals("mdat", boxType(file, pos));
+            pos += file.getInt(pos);
+            fragments++;
+        }
+        assertEquals(2, fragments);
+        assertEquals(file.limit(), pos);
+
+        writer.close();
+        assertEquals(3, writer.getFragmentCount());
+    }
+
+    private static ByteBuffer videoFrame(boolean isKeyFrame, int payloadSize) {
+        ByteBuffer frame = ByteBuffer.allocate(4 + payloadSize);
+        frame.putInt(1);
+        frame.put((byte) (isKeyFrame ? 0x65 : 0x41));
+        for (int i = 1; i < payloadSize; i++) {
+            frame.put((byte) 0x5A);
+        }
+        frame.flip();
+        return frame;
+    }
+
+    private ByteBuffer readFile() throws Exception {
+        RandomAccessFile raf = new RandomAccessFile(mFile, "r");
+        try {
+            byte[] data = new byte[(int) raf.length()];
+            raf.readFully(data);
+            return ByteBuffer.wrap(data);
+        } finally {
+            raf.close();
+        }
+    }
+
+    private static String boxType(ByteBuffer file, int offset) {
+        char[] type = new char[4];
+        for (int i = 0; i < 4; i++) {
+            type[i] = (char) file.get(offset + 4 + i);
+        }
+        return new String(type);
+    }
+
+    // 子box的起始位置，full box的头部长度按box类型判断
+    private static int childrenStart(ByteBuffer file, int box) {
+        String type = boxType(file, box);
+        if ("stsd".equals(type))
+            return box + 16;
+        if ("dref".equals(type))
+            return box + 16;
+        return box + 8;
+    }
+
+    /** 在parent的直接子box中查找第index个type类型的box */
+    private static int findBox(ByteBuffer file, int parent, String type, int index) {
+        int end = parent + file.getInt(parent);
+        int pos = childrenStart(file, parent);
+        while (pos + 8 <= end) {
+            if (type.equals(boxType(file, pos)) && index-- == 0)
+                return pos;
+            pos += file.getInt(pos);
+        }
+        return -1;
+    }
+
+    private static int findPath(ByteBuffer file, int parent, String... path) {
+        int box = parent;
+        for (String type : path) {
+            box = findBox(file, box, type, 0);
+            if (box < 0)
+                return -1;
+        }
+        return box;
+    }
+}
@@ -0,0 +1,83 @@
+package com.jiangdg.mediacodec4mp4.render;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * FrameTransform单元测试：纹理矩阵的旋转、镜像，与SurfaceTexture矩阵合并，水印位置
+ */
+public class FrameTransformTest {
+    private static final float EPSILON = 1e-6f;
+
+    // 输出四个角(左上、右上、左下、右下)对应的输入纹理坐标
+    private static float[] corners(float[] m) {
+        float[][] points = {{0, 1}, {1, 1}, {0, 0}, {1, 0}};
+        float[] result = new float[8];
+        for (int i = 0; i < points.length; i++) {
+            float u = points[i][0];
+            float v = points[i][1];
+            result[i * 2] = m[0] * u + m[4] * v + m[12];
+            result[i * 2 + 1] = m[1] * u + m[5] * v + m[13];
+        }
+        return result;
+    }
+
+    private static void assertFloats(float[] expected, float[] actual, float delta) {
+        assertEquals(expected.length, actual.length);
+        for (int i = 0; i < expected.length; i++) {
+            assertEquals("index " + i, expected[i], actual[i], delta);
+        }
+    }
+
+    @Test
+    public void rotatesClockwiseThenMirrors() throws Exception {
+        FrameTransform transform = new FrameTransform(1280, 720, 90, false);
+        assertEquals(720, transform.getOutputWidth());
+        assertEquals(1280, transform.getOutputHeight());
+        // 顺时针旋转90度：输出左上角为输入左下角，输出右上角为输入左上角
+        assertFloats(new float[]{0, 0, 0, 1, 1, 0, 1, 1}, corners(transform.getTextureMatrix()), EPSILON);
+
+        assertFloats(new float[]{0, 1, 1, 1, 0, 0, 1, 0},
+                corners(new FrameTransform(1280, 720, 0, false).getTextureMatrix()), EPSILON);
+        assertFloats(new float[]{1, 0, 0, 0, 1, 1, 0, 1},
+                corners(new FrameTransform(1280, 720, 180, false).getTextureMatrix()), EPSILON);
+        assertFloats(new float[]{1, 1, 1, 0, 0, 1, 0, 0},
+                corners(new FrameTransform(1280, 720, 270, false).getTextureMatrix()), EPSILON);
+        // 前置摄像头：旋转270度后镜像，左右交换
+        assertFloats(new float[]{1, 0, 1, 1, 0, 0, 0, 1},
+                corners(new FrameTransform(1280, 720, 270, true).getTextureMatrix()), EPSILON);
+        assertFloats(new float[]{1, 1, 0, 1, 1, 0, 0, 0},
+                corners(new FrameTransform(1280, 720, 0, true).getTextureMatrix()), EPSILON);
+
+        try {
+            new FrameTransform(1280, 720, 45, false);
+            fail("45 degree should be rejected");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void concatAppliesSurfaceMatrixLast() throws Exception {
+        FrameTransform transform = new FrameTransform(640, 480, 90, false);
+        // 常见的SurfaceTexture矩阵：上下翻转
+        float[] flip = {1, 0, 0, 0, 0, -1, 0, 0, 0, 0, 1, 0, 0, 1, 0, 1};
+        float[] out = new float[16];
+        transform.concat(flip, out);
+        float[] expected = corners(transform.getTextureMatrix());
+        for (int i = 1; i < expected.length; i += 2) {
+            expected[i] = 1 - expected[i];
+        }
+        assertFloats(expected, corners(out), EPSILON);
+    }
+
+    @Test
+    public void overlayQuadInNormalizedDeviceCoordinates() throws Exception {
+        FrameTransform transform = new FrameTransform(400, 200, 0, false);
+        float[] quad = new float[8];
+        transform.overlayQuad(100, 50, 100, 50, quad);
+        // 左下、右下、左上、右上
+        assertFloats(new float[]{-0.5f, 0, 0, 0, -0.5f, 0.5f, 0, 0.5f}, quad, EPSILON);
+    }
+}
@@ -0,0 +1,194 @@
+package com.jiangdg.mediacodec4mp4.render;
+
+import android.graphics.SurfaceTexture;
+import android.view.Surface;
+
+import com.jiangdg.mediacodec4mp4.model.RecordingClock;
+import com.jiangdg.mediacodec4mp4.utils.FrameScheduler;
+import com.jiangdg.yuvosd.FrameOverlay;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * SurfaceRenderPipeline单元测试：用SoftwareFrameRenderer代替GPU，验证渲染流程、时间戳和回退
+ */
+public class SurfaceRenderPipelineTest {
+    private static final int WIDTH = 16;
+    private static final int HEIGHT = 8;
+    private static final long MS = 1000000L;
+
+    private static class CollectingSink implements SoftwareFrameRenderer.FrameSink {
+        final List<Long> ptsNs = new ArrayList<>();
+        int width;
+        int height;
+        byte firstLuma;
+
+        @Override
+        public synchronized void onFrame(ByteBuffer i420, int width, int height, long presentationTimeNs) {
+            this.width = width;
+            this.height = height;
+            this.firstLuma = i420.get(i420.position());
+            ptsNs.add(presentationTimeNs);
+        }
+
+        synchronized List<Long> getPts() {
+            return new ArrayList<>(ptsNs);
+        }
+    }
+
+    private static byte[] frame() {
+        byte[] nv21 = new byte[WIDTH * HEIGHT * 3 / 2];
+        for (int y = 0; y < HEIGHT; y++) {
+            for (int x = 0; x < WIDTH; x++) {
+                nv21[y * WIDTH + x] = (byte) (y * WIDTH + x);
+            }
+        }
+        return nv21;
+    }
+
+    // 送入一帧并等待渲染线程处理完(渲染、抽帧丢弃或时钟丢弃)
+    private static void feed(SurfaceRenderPipeline pipeline, SoftwareFrameRenderer renderer, byte[] nv21,
+                             long timestampNs) throws InterruptedException {
+        long before = processed(pipeline);
+        assertTrue(renderer.queueFrame(nv21, timestampNs));
+        long deadline = System.currentTimeMillis() + 5000;
+        while (processed(pipeline) == before) {
+            assertTrue("frame not processed", System.currentTimeMillis() < deadline);
+            Thread.sleep(1);
+        }
+    }
+
+    private static long processed(SurfaceRenderPipeline pipeline) {
+        return pipeline.getRenderedCount() + pipeline.getDroppedCount() + pipeline.getSkippedCount();
+    }
+
+    @Test
+    public void rendersRotatedFramesWithRecordingTimestamps() throws Exception {
+        CollectingSink sink = new CollectingSink();
+        SoftwareFrameRenderer renderer = new SoftwareFrameRenderer(sink);
+        SurfaceRenderPipeline pipeline = new SurfaceRenderPipeline(renderer, new FrameTransform(WIDTH, HEIGHT, 90, false));
+        RecordingClock clock = new RecordingClock();
+        clock.start(1000 * MS);
+        pipeline.setRecordingClock(clock);
+        assertTrue(pipeline.start(null));
+        assertTrue(pipeline.isRunning());
+        assertNull(pipeline.getInputTexture());
+
+        byte[] nv21 = frame();
+        // 开始前采集的帧丢弃
+        feed(pipeline, renderer, nv21, 990 * MS);
+        feed(pipeline, renderer, nv21, 1000 * MS);
+        feed(pipeline, renderer, nv21, 1040 * MS);
+        clock.pause(1050 * MS);
+        feed(pipeline, renderer, nv21, 1080 * MS);
+        clock.resume(2050 * MS);
+        feed(pipeline, renderer, nv21, 2100 * MS);
+        pipeline.stop();
+        assertFalse(pipeline.isRunning());
+
+        assertEquals(3, pipeline.getRenderedCount());
+        assertEquals(2, pipeline.getSkippedCount());
+        List<Long> pts = sink.getPts();
+        assertEquals(0L, (long) pts.get(0));
+        assertEquals(40 * MS, (long) pts.get(1));
+        assertEquals(100 * MS, (long) pts.get(2));
+        // 顺时针旋转90度：输出左上角为输入左下角
+        assertEquals(HEIGHT, sink.width);
+        assertEquals(WIDTH, sink.height);
+        assertEquals((HEIGHT - 1) * WIDTH, sink.firstLuma & 0xFF);
+        // 释放后不再接收画面
+        assertFalse(renderer.queueFrame(nv21, 2200 * MS));
+    }
+
+    @Test
+    public void dropsFramesAboveTargetRate() throws Exception {
+        CollectingSink sink = new CollectingSink();
+        SoftwareFrameRenderer renderer = new SoftwareFrameRenderer(sink);
+        SurfaceRenderPipeline pipeline = new SurfaceRenderPipeline(renderer, new FrameTransform(WIDTH, HEIGHT, 0, false));
+        pipeline.setFrameScheduler(new FrameScheduler(15));
+        assertTrue(pipeline.start(null));
+        byte[] nv21 = frame();
+        // 30fps送入，目标15fps
+        for (int i = 0; i < 30; i++) {
+            feed(pipeline, renderer, nv21, 1000 * MS + i * 33333333L);
+        }
+        pipeline.stop();
+        assertEquals(30, pipeline.getRenderedCount() + pipeline.getDroppedCount());
+        assertTrue(pipeline.getDroppedCount() >= 10);
+        assertTrue(pipeline.getRenderedCount() >= 10);
+        assertEquals(pipeline.getRenderedCount(), sink.getPts().size());
+    }
+
+    @Test
+    public void reportsUnsupportedRenderer() throws Exception {
+        final boolean[] isReleased = new boolean[1];
+        FrameRenderer broken = new FrameRenderer() {
+            @Override
+            public void prepare(Surface output, FrameTransform transform, Callback callback) {
+                throw new RuntimeException("no recordable EGL config");
+            }
+
+            @Override
+            public SurfaceTexture getInputTexture() {
+                return null;
+            }
+
+            @Override
+            public long latchFrame() {
+                return -1;
+            }
+
+            @Override
+            public void drawFrame(FrameOverlay overlay) {
+            }
+
+            @Override
+            public void present(long presentationTimeNs) {
+            }
+
+            @Override
+            public void release() {
+                isReleased[0] = true;
+            }
+        };
+        SurfaceRenderPipeline pipeline = new SurfaceRenderPipeline(broken, new FrameTransform(WIDTH, HEIGHT, 0, false));
+        // 调用方据此回退到YUV数据输入
+        assertFalse(pipeline.start(null));
+        assertFalse(pipeline.isRunning());
+        assertEquals("no recordable EGL config", pipeline.getError().getMessage());
+        assertTrue(isReleased[0]);
+        pipeline.stop();
+    }
+
+    @Test
+    public void restartsAfterFailedPrepare() throws Exception {
+        CollectingSink sink = new CollectingSink();
+        final boolean[] isFailing = {true};
+        SoftwareFrameRenderer renderer = new SoftwareFrameRenderer(sink) {
+            @Override
+            public void prepare(Surface output, FrameTransform transform, Callback callback) {
+                if (isFailing[0])
+                    throw new RuntimeException("surface abandoned");
+                super.prepare(output, transform, callback);
+            }
+        };
+        SurfaceRenderPipeline pipeline = new SurfaceRenderPipeline(renderer, new FrameTransform(WIDTH, HEIGHT, 0, false));
+        assertFalse(pipeline.start(null));
+        assertNotNull(pipeline.getError());
+
+        // 上一次的错误不影响重新启动
+        isFailing[0] = false;
+        assertTrue(pipeline.start(null));
+        assertTrue(pipeline.isRunning());
+        assertNull(pipeline.getError());
+        feed(pipeline, renderer, frame(), 1000 * MS);
+        pipeline.stop();
+        assertEquals(1, pipeline.getRenderedCount());
+    }
+}
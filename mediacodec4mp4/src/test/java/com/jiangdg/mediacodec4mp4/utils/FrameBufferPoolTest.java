@@ -0,0 +1,43 @@
+package com.jiangdg.mediacodec4mp4.utils;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * FrameBufferPool单元测试，在开发机JVM上运行
+ */
+public class FrameBufferPoolTest {
+    private static final int WIDTH = 1920;
+    private static final int HEIGHT = 1080;
+
+    @Test
+    public void acquireRelease_reusesBuffers() throws Exception {
+        FrameBufferPool pool = new FrameBufferPool(FrameBufferPool.yuv420Size(WIDTH, HEIGHT), 2);
+        byte[] first = pool.acquire();
+        pool.release(first);
+        byte[] second = pool.acquire();
+        assertSame(first, second);
+        assertEquals(1, pool.getMissCount());
+        assertEquals(1, pool.getHitCount());
+        assertEquals(1, pool.getInUseCount());
+    }
+
+    @Test
+    public void pool_isBoundedAndTracksPeak() throws Exception {
+        FrameBufferPool pool = new FrameBufferPool(16, 2);
+        byte[] a = pool.acquire();
+        byte[] b = pool.acquire();
+        byte[] c = pool.acquire();
+        assertEquals(3, pool.getPeakInUseCount());
+        pool.release(a);
+        pool.release(b);
+        pool.release(c);
+        assertEquals(2, pool.getFreeCount());
+        assertEquals(0, pool.getInUseCount());
+        // 大小不匹配的数组不会进入池中
+        pool.acquire();
+        pool.release(new byte[8]);
+        assertEquals(1, pool.getFreeCount());
+    }
+}
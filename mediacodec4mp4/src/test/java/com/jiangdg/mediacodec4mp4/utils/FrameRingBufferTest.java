@@ -0,0 +1,139 @@
+package com.jiangdg.mediacodec4mp4.utils;
+
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * FrameRingBuffer单元测试
+ */
+public class FrameRingBufferTest {
+    private static final int FRAME_SIZE = 64;
+
+    @Test
+    public void pollReturnsFramesInOrder() throws Exception {
+        FrameRingBuffer ring = new FrameRingBuffer(3, FRAME_SIZE, FrameRingBuffer.OverflowPolicy.DROP_NEWEST);
+        assertNull(ring.poll());
+        assertTrue(ring.offer(frame(1), 8, 8, 100));
+        assertTrue(ring.offer(frame(2), 8, 8, 200));
+        FrameRingBuffer.Frame f = ring.poll();
+        assertEquals(1, f.getData()[0]);
+        assertEquals(100, f.getTimestampNs());
+        assertEquals(FRAME_SIZE, f.getLength());
+        ring.release(f);
+        f = ring.poll();
+        assertEquals(2, f.getData()[0]);
+        ring.release(f);
+        assertTrue(ring.isEmpty());
+        assertEquals(2, ring.getConsumedCount());
+    }
+
+    @Test
+    public void dropNewest_keepsQueuedFrames() throws Exception {
+        FrameRingBuffer ring = new FrameRingBuffer(2, FRAME_SIZE, FrameRingBuffer.OverflowPolicy.DROP_NEWEST);
+        assertTrue(ring.offer(frame(1), 8, 8, 1));
+        assertTrue(ring.offer(frame(2), 8, 8, 2));
+        assertFalse(ring.offer(frame(3), 8, 8, 3));
+        assertEquals(1, ring.getDroppedNewestCount());
+        assertEquals(1, ring.poll().getData()[0]);
+    }
+
+    @Test
+    public void dropOldest_keepsLatestFrames() throws Exception {
+        FrameRingBuffer ring = new FrameRingBuffer(2, FRAME_SIZE, FrameRingBuffer.OverflowPolicy.DROP_OLDEST);
+        for (int i = 1; i <= 5; i++) {
+            assertTrue(ring.offer(frame(i), 8, 8, i));
+        }
+        assertEquals(3, ring.getDroppedOldestCount());
+        FrameRingBuffer.Frame f = ring.poll();
+        assertEquals(4, f.getData()[0]);
+        // 消费者占用槽位期间继续写入，不能覆盖正在读取的帧
+        for (int i = 6; i <= 10; i++) {
+            ring.offer(frame(i), 8, 8, i);
+        }
+        assertEquals(4, f.getData()[0]);
+        // 环形槽位被占用时无法越过，只能丢弃新帧
+        assertTrue(ring.getDroppedNewestCount() > 0);
+        ring.release(f);
+        f = ring.poll();
+        assertEquals(6, f.getData()[0]);
+        ring.release(f);
+        // 槽位释放后恢复丢弃最旧帧
+        for (int i = 11; i <= 14; i++) {
+            assertTrue(ring.offer(frame(i), 8, 8, i));
+        }
+        f = ring.poll();
+        assertEquals(13, f.getData()[0]);
+        ring.release(f);
+    }
+
+    @Test
+    public void block_waitsForConsumer() throws Exception {
+        final FrameRingBuffer ring = new FrameRingBuffer(1, FRAME_SIZE, FrameRingBuffer.OverflowPolicy.BLOCK);
+        assertTrue(ring.offer(frame(1), 8, 8, 1));
+        Thread consumer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    Thread.sleep(50);
+                    ring.release(ring.poll());
+                } catch (InterruptedException e) {
+                    e.printStackTrace();
+                }
+            }
+        });
+        consumer.start();
+        long start = System.nanoTime();
+        assertTrue(ring.offer(frame(2), 8, 8, 2));
+        assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(40));
+        consumer.join();
+        assertEquals(0, ring.getDroppedCount());
+    }
+
+    @Test
+    public void concurrentProducerConsumer_framesStayIntact() throws Exception {
+        final FrameRingBuffer ring = new FrameRingBuffer(4, FRAME_SIZE, FrameRingBuffer.OverflowPolicy.DROP_OLDEST);
+        final int total = 200000;
+        Thread producer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                byte[] buf = new byte[FRAME_SIZE];
+                for (int i = 0; i < total; i++) {
+                    java.util.Arrays.fill(buf, (byte) i);
+                    ring.offer(buf, 8, 8, i);
+                }
+                ring.close();
+            }
+        });
+        producer.start();
+        long last = -1;
+        long received = 0;
+        while (true) {
+            FrameRingBuffer.Frame f = ring.poll(10, TimeUnit.MILLISECONDS);
+            if (f == null) {
+                if (ring.isClosed() && ring.isEmpty())
+                    break;
+                continue;
+            }
+            long ts = f.getTimestampNs();
+            byte expected = (byte) ts;
+            for (int i = 0; i < FRAME_SIZE; i++) {
+                assertEquals("torn frame " + ts, expected, f.getData()[i]);
+            }
+            assertTrue(ts > last);
+            last = ts;
+            received++;
+            ring.release(f);
+        }
+        producer.join();
+        assertEquals(total, received + ring.getDroppedCount());
+    }
+
+    private static byte[] frame(int value) {
+        byte[] data = new byte[FRAME_SIZE];
+        java.util.Arrays.fill(data, (byte) value);
+        return data;
+    }
+}
@@ -0,0 +1,79 @@
+package com.jiangdg.mediacodec4mp4.utils;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * FrameScheduler单元测试
+ */
+public class FrameSchedulerTest {
+    private static final long NANOS_PER_SECOND = 1000000000L;
+
+    @Test
+    public void decimates30fpsTo20fps() throws Exception {
+        FrameScheduler scheduler = new FrameScheduler(20);
+        int accepted = feed(scheduler, 30, 10, 0);
+        assertEquals(200, accepted, 1);
+        assertEquals(20.0, scheduler.getAchievedFps(), 0.2);
+    }
+
+    @Test
+    public void decimatesJitteryInputToTarget() throws Exception {
+        FrameScheduler scheduler = new FrameScheduler(25);
+        // 30fps输入，时间戳带±3ms抖动
+        int accepted = feed(scheduler, 30, 20, 3000000);
+        assertEquals(500, accepted, 2);
+        assertEquals(25.0, scheduler.getAchievedFps(), 0.3);
+    }
+
+    @Test
+    public void passesThroughSlowerInput() throws Exception {
+        FrameScheduler scheduler = new FrameScheduler(30);
+        int accepted = feed(scheduler, 15, 5, 0);
+        assertEquals(75, accepted);
+        assertEquals(0, scheduler.getDroppedCount());
+        assertEquals(15.0, scheduler.getAchievedFps(), 0.1);
+    }
+
+    @Test
+    public void doesNotBurstAfterGap() throws Exception {
+        FrameScheduler scheduler = new FrameScheduler(20);
+        assertTrue(scheduler.accept(0));
+        // 输入中断1秒后恢复，30fps输入下只应按目标间隔放行
+        long base = NANOS_PER_SECOND;
+        assertTrue(scheduler.accept(base));
+        assertFalse(scheduler.accept(base + NANOS_PER_SECOND / 30));
+    }
+
+    @Test
+    public void reportsJitterOfUnevenInput() throws Exception {
+        FrameScheduler scheduler = new FrameScheduler(30);
+        long ts = 0;
+        for (int i = 0; i < 300; i++) {
+            scheduler.accept(ts);
+            // 间隔在30ms和36.67ms之间交替，平均仍为30fps
+            ts += i % 2 == 0 ? 30000000L : 36666667L;
+        }
+        assertEquals(0, scheduler.getDroppedCount());
+        assertEquals(3.33, scheduler.getJitterMillis(), 0.1);
+    }
+
+    private static int feed(FrameScheduler scheduler, int inputFps, int seconds, long jitterNanos) {
+        Random random = new Random(1);
+        int accepted = 0;
+        int frames = inputFps * seconds;
+        for (int i = 0; i < frames; i++) {
+            long ts = i * NANOS_PER_SECOND / inputFps;
+            if (jitterNanos > 0) {
+                ts += (long) ((random.nextDouble() * 2 - 1) * jitterNanos);
+            }
+            if (scheduler.accept(ts)) {
+                accepted++;
+            }
+        }
+        return accepted;
+    }
+}
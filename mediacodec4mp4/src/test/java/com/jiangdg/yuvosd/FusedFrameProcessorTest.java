@@ -0,0 +1,115 @@
+package com.jiangdg.yuvosd;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.*;
+
+/**
+ * FusedFrameProcessor单元测试，结果与先旋转再转换的分步处理对比
+ */
+public class FusedFrameProcessorTest {
+    private static final int[] FORMATS = {YuvConverter.FORMAT_NV21, YuvConverter.FORMAT_NV12,
+            YuvConverter.FORMAT_I420, YuvConverter.FORMAT_YV12};
+    // 高度不是BAND_ROWS的整数倍，覆盖最后一组不满的情况
+    private static final int WIDTH = 52;
+    private static final int HEIGHT = 36;
+
+    private final JavaYuvConverter mConverter = new JavaYuvConverter();
+
+    @Test
+    public void matchesRotateThenConvert() throws Exception {
+        byte[] frame = JavaYuvConverterTest.randomFrame(WIDTH, HEIGHT, 7);
+        int[] degrees = {0, 90, 180, 270};
+        for (int srcFormat : new int[]{YuvConverter.FORMAT_NV21, YuvConverter.FORMAT_NV12}) {
+            for (int dstFormat : FORMATS) {
+                for (int degree : degrees) {
+                    for (int m = 0; m < 2; m++) {
+                        boolean mirror = m == 1;
+                        FusedFrameProcessor processor = new FusedFrameProcessor(WIDTH, HEIGHT, srcFormat, dstFormat, degree, mirror);
+                        ByteBuffer out = ByteBuffer.allocateDirect(frame.length + 10);
+                        out.position(3);
+                        assertEquals(frame.length, processor.process(frame, out, null));
+                        assertEquals(frame.length + 3, out.position());
+
+                        byte[] expected = expected(frame, srcFormat, dstFormat, degree, mirror);
+                        byte[] actual = new byte[frame.length];
+                        out.position(3);
+                        out.get(actual);
+                        assertArrayEquals(srcFormat + "->" + dstFormat + " " + degree + " " + mirror, expected, actual);
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    public void blendsOverlayInOutputCoordinates() throws Exception {
+        byte[] frame = JavaYuvConverterTest.randomFrame(WIDTH, HEIGHT, 8);
+        FusedFrameProcessor processor = new FusedFrameProcessor(WIDTH, HEIGHT, YuvConverter.FORMAT_NV21,
+                YuvConverter.FORMAT_I420, 90, false);
+        int outWidth = processor.getOutputWidth();
+        assertEquals(HEIGHT, outWidth);
+        assertEquals(WIDTH, processor.getOutputHeight());
+        OverlayMask mask = new OverlayMask(8, 4);
+        mask.setPosition(10, 20);
+        mask.setChroma(90, 200);
+        // 左半不透明，右半透明
+        for (int y = 0; y < 4; y++) {
+            for (int x = 0; x < 4; x++) {
+                mask.setPixel(x, y, 235, 255);
+            }
+        }
+        mask.commit();
+        ByteBuffer out = ByteBuffer.allocate(frame.length);
+        processor.process(frame, out, mask);
+        byte[] plain = expected(frame, YuvConverter.FORMAT_NV21, YuvConverter.FORMAT_I420, 90, false);
+        byte[] actual = out.array();
+        int ySize = WIDTH * HEIGHT;
+        for (int y = 0; y < processor.getOutputHeight(); y++) {
+            for (int x = 0; x < outWidth; x++) {
+                int i = y * outWidth + x;
+                boolean isOpaque = x >= 10 && x < 14 && y >= 20 && y < 24;
+                if (isOpaque) {
+                    assertEquals(235, actual[i] & 0xFF);
+                } else {
+                    assertEquals(plain[i], actual[i]);
+                }
+            }
+        }
+        int chromaWidth = outWidth / 2;
+        for (int y = 0; y < processor.getOutputHeight() / 2; y++) {
+            for (int x = 0; x < chromaWidth; x++) {
+                int u = ySize + y * chromaWidth + x;
+                int v = u + ySize / 4;
+                boolean isOpaque = x >= 5 && x < 7 && y >= 10 && y < 12;
+                if (isOpaque) {
+                    assertEquals(90, actual[u] & 0xFF);
+                    assertEquals(200, actual[v] & 0xFF);
+                } else {
+                    assertEquals(plain[u], actual[u]);
+                    assertEquals(plain[v], actual[v]);
+                }
+            }
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsSmallOutputBuffer() throws Exception {
+        byte[] frame = JavaYuvConverterTest.randomFrame(WIDTH, HEIGHT, 9);
+        FusedFrameProcessor processor = new FusedFrameProcessor(WIDTH, HEIGHT, YuvConverter.FORMAT_NV21,
+                YuvConverter.FORMAT_NV12, 0, false);
+        processor.process(frame, ByteBuffer.allocate(frame.length - 1), null);
+    }
+
+    private byte[] expected(byte[] frame, int srcFormat, int dstFormat, int degree, boolean mirror) {
+        byte[] rotated = new byte[frame.length];
+        mConverter.rotate(frame, rotated, WIDTH, HEIGHT, srcFormat, degree, mirror);
+        boolean isSwapSize = degree == 90 || degree == 270;
+        byte[] converted = new byte[frame.length];
+        mConverter.convert(rotated, srcFormat, converted, dstFormat,
+                isSwapSize ? HEIGHT : WIDTH, isSwapSize ? WIDTH : HEIGHT);
+        return converted;
+    }
+}
@@ -0,0 +1,199 @@
+package com.jiangdg.yuvosd;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * JavaYuvConverter单元测试，与逐像素的参考实现对比
+ */
+public class JavaYuvConverterTest {
+    private static final int[] FORMATS = {YuvConverter.FORMAT_NV21, YuvConverter.FORMAT_NV12,
+            YuvConverter.FORMAT_I420, YuvConverter.FORMAT_YV12};
+    // 宽高不是8和分块边长的整数倍，覆盖尾部处理
+    private static final int WIDTH = 70;
+    private static final int HEIGHT = 38;
+
+    private final JavaYuvConverter mConverter = new JavaYuvConverter();
+
+    @Test
+    public void convertsBetweenAllFormats() throws Exception {
+        byte[] frame = randomFrame(WIDTH, HEIGHT, 1);
+        for (int srcFormat : FORMATS) {
+            for (int dstFormat : FORMATS) {
+                byte[] dst = new byte[frame.length];
+                mConverter.convert(frame, srcFormat, dst, dstFormat, WIDTH, HEIGHT);
+                for (int y = 0; y < HEIGHT; y++) {
+                    for (int x = 0; x < WIDTH; x++) {
+                        assertEquals(luma(frame, WIDTH, x, y), luma(dst, WIDTH, x, y));
+                    }
+                }
+                for (int y = 0; y < HEIGHT / 2; y++) {
+                    for (int x = 0; x < WIDTH / 2; x++) {
+                        String msg = srcFormat + "->" + dstFormat + " at " + x + "," + y;
+                        assertEquals(msg, u(frame, srcFormat, WIDTH, HEIGHT, x, y), u(dst, dstFormat, WIDTH, HEIGHT, x, y));
+                        assertEquals(msg, v(frame, srcFormat, WIDTH, HEIGHT, x, y), v(dst, dstFormat, WIDTH, HEIGHT, x, y));
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    public void roundTripIsLossless() throws Exception {
+        byte[] frame = randomFrame(WIDTH, HEIGHT, 2);
+        byte[] tmp = new byte[frame.length];
+        byte[] back = new byte[frame.length];
+        for (int format : FORMATS) {
+            mConverter.convert(frame, YuvConverter.FORMAT_NV21, tmp, format, WIDTH, HEIGHT);
+            mConverter.convert(tmp, format, back, YuvConverter.FORMAT_NV21, WIDTH, HEIGHT);
+            assertArrayEquals(frame, back);
+        }
+    }
+
+    @Test
+    public void convertsIntoDirectBuffer() throws Exception {
+        byte[] frame = randomFrame(WIDTH, HEIGHT, 6);
+        for (int srcFormat : FORMATS) {
+            for (int dstFormat : FORMATS) {
+                byte[] expected = new byte[frame.length];
+                mConverter.convert(frame, srcFormat, expected, dstFormat, WIDTH, HEIGHT);
+                // 模拟编码器输入缓存区：直接缓存区，position不为0
+                ByteBuffer out = ByteBuffer.allocateDirect(frame.length + 5);
+                out.position(5);
+                assertEquals(frame.length, mConverter.convert(frame, srcFormat, out, dstFormat, WIDTH, HEIGHT));
+                assertEquals(frame.length + 5, out.position());
+                byte[] actual = new byte[frame.length];
+                out.position(5);
+                out.get(actual);
+                assertArrayEquals(srcFormat + "->" + dstFormat, expected, actual);
+            }
+        }
+    }
+
+    @Test
+    public void rotatesAllDegreesWithMirror() throws Exception {
+        byte[] frame = randomFrame(WIDTH, HEIGHT, 3);
+        int[] degrees = {0, 90, 180, 270};
+        for (int format : FORMATS) {
+            for (int degree : degrees) {
+                for (int m = 0; m < 2; m++) {
+                    boolean mirror = m == 1;
+                    byte[] dst = new byte[frame.length];
+                    mConverter.rotate(frame, dst, WIDTH, HEIGHT, format, degree, mirror);
+                    int dstWidth = degree % 180 == 0 ? WIDTH : HEIGHT;
+                    int dstHeight = degree % 180 == 0 ? HEIGHT : WIDTH;
+                    for (int y = 0; y < HEIGHT; y++) {
+                        for (int x = 0; x < WIDTH; x++) {
+                            int[] p = rotatePoint(x, y, WIDTH, HEIGHT, degree, mirror);
+                            assertEquals(luma(frame, WIDTH, x, y), luma(dst, dstWidth, p[0], p[1]));
+                        }
+                    }
+                    for (int y = 0; y < HEIGHT / 2; y++) {
+                        for (int x = 0; x < WIDTH / 2; x++) {
+                            int[] p = rotatePoint(x, y, WIDTH / 2, HEIGHT / 2, degree, mirror);
+                            String msg = format + " " + degree + " " + mirror;
+                            assertEquals(msg, u(frame, format, WIDTH, HEIGHT, x, y),
+                                    u(dst, format, dstWidth, dstHeight, p[0], p[1]));
+                            assertEquals(msg, v(frame, format, WIDTH, HEIGHT, x, y),
+                                    v(dst, format, dstWidth, dstHeight, p[0], p[1]));
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    public void fourQuarterTurnsRestoreFrame() throws Exception {
+        byte[] frame = randomFrame(WIDTH, HEIGHT, 4);
+        byte[] a = frame.clone();
+        byte[] b = new byte[frame.length];
+        int w = WIDTH;
+        int h = HEIGHT;
+        for (int i = 0; i < 4; i++) {
+            mConverter.rotate(a, b, w, h, YuvConverter.FORMAT_NV21, 90, false);
+            byte[] t = a;
+            a = b;
+            b = t;
+            int s = w;
+            w = h;
+            h = s;
+        }
+        assertArrayEquals(frame, a);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsInPlaceConversion() throws Exception {
+        byte[] frame = randomFrame(WIDTH, HEIGHT, 5);
+        mConverter.convert(frame, YuvConverter.FORMAT_NV21, frame, YuvConverter.FORMAT_NV12, WIDTH, HEIGHT);
+    }
+
+    // 参考实现：顺时针旋转后再水平镜像
+    private static int[] rotatePoint(int x, int y, int width, int height, int degree, boolean mirror) {
+        int dx;
+        int dy;
+        int dstWidth;
+        if (degree == 90) {
+            dx = height - 1 - y;
+            dy = x;
+            dstWidth = height;
+        } else if (degree == 180) {
+            dx = width - 1 - x;
+            dy = height - 1 - y;
+            dstWidth = width;
+        } else if (degree == 270) {
+            dx = y;
+            dy = width - 1 - x;
+            dstWidth = height;
+        } else {
+            dx = x;
+            dy = y;
+            dstWidth = width;
+        }
+        return new int[]{mirror ? dstWidth - 1 - dx : dx, dy};
+    }
+
+    private static byte luma(byte[] frame, int width, int x, int y) {
+        return frame[y * width + x];
+    }
+
+    private static byte u(byte[] frame, int format, int width, int height, int x, int y) {
+        int ySize = width * height;
+        int index = y * (width / 2) + x;
+        switch (format) {
+            case YuvConverter.FORMAT_NV21:
+                return frame[ySize + index * 2 + 1];
+            case YuvConverter.FORMAT_NV12:
+                return frame[ySize + index * 2];
+            case YuvConverter.FORMAT_I420:
+                return frame[ySize + index];
+            default:
+                return frame[ySize + ySize / 4 + index];
+        }
+    }
+
+    private static byte v(byte[] frame, int format, int width, int height, int x, int y) {
+        int ySize = width * height;
+        int index = y * (width / 2) + x;
+        switch (format) {
+            case YuvConverter.FORMAT_NV21:
+                return frame[ySize + index * 2];
+            case YuvConverter.FORMAT_NV12:
+                return frame[ySize + index * 2 + 1];
+            case YuvConverter.FORMAT_I420:
+                return frame[ySize + ySize / 4 + index];
+            default:
+                return frame[ySize + index];
+        }
+    }
+
+    static byte[] randomFrame(int width, int height, long seed) {
+        byte[] frame = new byte[width * height * 3 / 2];
+        new Random(seed).nextBytes(frame);
+        return frame;
+    }
+}
@@ -0,0 +1,147 @@
+package com.jiangdg.yuvosd;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+/**
+ * OsdCompositor及各图层单元测试
+ */
+public class OsdCompositorTest {
+    private static final int WIDTH = 16;
+    private static final int HEIGHT = 12;
+
+    private static class SolidRasterizer implements GlyphRasterizer {
+        @Override
+        public int getGlyphHeight() {
+            return 2;
+        }
+
+        @Override
+        public GlyphAtlas.Glyph rasterize(char c) {
+            byte[] alpha = new byte[2 * 2];
+            Arrays.fill(alpha, (byte) 255);
+            return new GlyphAtlas.Glyph(c, 2, 2, alpha);
+        }
+    }
+
+    @Test
+    public void staticLayerRendersOnce() throws Exception {
+        int[] argb = new int[4 * 4];
+        Arrays.fill(argb, 0xFFFF0000);
+        ImageLayer logo = new ImageLayer(argb, 4, 4);
+        logo.setPosition(8, 4);
+        OsdCompositor compositor = new OsdCompositor();
+        compositor.addLayer(logo);
+        for (int i = 0; i < 100; i++) {
+            compositor.update(i * 33L);
+        }
+        assertEquals(1, logo.getRenderCount());
+        assertFalse(compositor.isEmpty());
+
+        // 不透明红色：Y=82，U=90，V=240
+        byte[] frame = new byte[WIDTH * HEIGHT * 3 / 2];
+        compositor.blendFrame(frame, WIDTH, HEIGHT, YuvConverter.FORMAT_NV12);
+        assertEquals(82, frame[4 * WIDTH + 8] & 0xFF);
+        assertEquals(0, frame[4 * WIDTH + 7] & 0xFF);
+        int chroma = WIDTH * HEIGHT + 2 * WIDTH + 8;
+        assertEquals(90, frame[chroma] & 0xFF);
+        assertEquals(240, frame[chroma + 1] & 0xFF);
+
+        logo.invalidate();
+        compositor.update(4000);
+        assertEquals(2, logo.getRenderCount());
+    }
+
+    @Test
+    public void exportsActiveMasksAsRgba() throws Exception {
+        int[] argb = new int[4 * 4];
+        Arrays.fill(argb, 0x80FF0000);
+        ImageLayer logo = new ImageLayer(argb, 4, 4);
+        logo.setPosition(8, 4);
+        OsdCompositor compositor = new OsdCompositor();
+        compositor.addLayer(logo);
+        compositor.update(0);
+        assertEquals(1, compositor.getActiveCount());
+        OverlayMask mask = compositor.getActiveMask(0);
+        assertEquals(8, mask.getLeft());
+        int version = mask.getVersion();
+
+        // 供GPU上传的RGBA，颜色经YUV往返后仍为红色
+        ByteBuffer rgba = ByteBuffer.allocate(mask.getWidth() * mask.getHeight() * 4);
+        mask.writeRgba(rgba);
+        assertFalse(rgba.hasRemaining());
+        assertEquals(255, rgba.get(0) & 0xFF);
+        assertTrue((rgba.get(1) & 0xFF) < 4);
+        assertTrue((rgba.get(2) & 0xFF) < 4);
+        assertEquals(0x80, rgba.get(3) & 0xFF);
+
+        compositor.update(1000);
+        assertEquals(version, mask.getVersion());
+        logo.invalidate();
+        compositor.update(2000);
+        assertTrue(mask.getVersion() != version);
+    }
+
+    @Test
+    public void textLayerRefreshesOnInterval() throws Exception {
+        TextLayer speed = new TextLayer(new GlyphAtlas(new SolidRasterizer()), WIDTH, 200);
+        OsdCompositor compositor = new OsdCompositor();
+        compositor.addLayer(speed);
+        speed.setText("12");
+        compositor.update(1000);
+        assertEquals(1, speed.getRenderCount());
+        // 间隔内的修改推迟到下一个刷新时刻
+        speed.setText("34");
+        compositor.update(1100);
+        assertEquals(1, speed.getRenderCount());
+        compositor.update(1200);
+        assertEquals(2, speed.getRenderCount());
+        // 内容相同不重绘
+        speed.setText("34");
+        compositor.update(1400);
+        assertEquals(2, speed.getRenderCount());
+
+        TextLayer deviceId = new TextLayer(new GlyphAtlas(new SolidRasterizer()), WIDTH, 0);
+        compositor.addLayer(deviceId);
+        deviceId.setText("A");
+        compositor.update(1401);
+        compositor.update(5000);
+        assertEquals(1, deviceId.getRenderCount());
+    }
+
+    @Test
+    public void blendsOnlyVisibleLayers() throws Exception {
+        TextLayer text = new TextLayer(new GlyphAtlas(new SolidRasterizer()), WIDTH, 0);
+        text.setText("a");
+        OsdCompositor compositor = new OsdCompositor();
+        compositor.addLayer(text);
+        assertFalse(compositor.update(0).isEmpty());
+
+        text.setVisible(false);
+        assertTrue(compositor.update(1).isEmpty());
+        text.setVisible(true);
+        assertTrue(compositor.removeLayer(text));
+        assertTrue(compositor.update(2).isEmpty());
+        assertEquals(0, compositor.getLayerCount());
+    }
+
+    @Test
+    public void rowRangeLimitsBlending() throws Exception {
+        OverlayMask mask = new OverlayMask(WIDTH, 4);
+        mask.setPixel(5, 1, 200, 255);
+        mask.commit();
+        // 有效范围以外的像素即使有亮度也不参与混合
+        byte[] row = new byte[WIDTH];
+        mask.blendLumaRow(row, 0, WIDTH, 1);
+        for (int x = 0; x < WIDTH; x++) {
+            assertEquals(String.valueOf(x), x == 5 ? 200 : 0, row[x] & 0xFF);
+        }
+        mask.clear();
+        mask.commit();
+        assertTrue(mask.isEmpty());
+    }
+}
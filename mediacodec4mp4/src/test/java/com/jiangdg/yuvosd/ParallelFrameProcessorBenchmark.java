@@ -0,0 +1,67 @@
+package com.jiangdg.yuvosd;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * 单趟处理按条带并行时每帧延迟的基准测试，直接运行main()，不作为单元测试执行
+ * <p>
+ * 默认4K(3840x2160)NV21旋转90度转NV12并叠加水印，分别用1、2、4、8个线程处理，
+ * 输出每帧耗时的平均值、中位数和P95。设备上的结果还取决于线程被调度到大核还是小核。
+ */
+public class ParallelFrameProcessorBenchmark {
+    private static final int WARMUP_ROUNDS = 100;
+    private static final int ROUNDS = 200;
+    private static final int[] THREADS = {1, 2, 4, 8};
+
+    public static void main(String[] args) {
+        int width = args.length > 1 ? Integer.parseInt(args[0]) : 3840;
+        int height = args.length > 1 ? Integer.parseInt(args[1]) : 2160;
+        byte[] src = JavaYuvConverterTest.randomFrame(width, height, 0);
+        FusedFrameProcessor processor = new FusedFrameProcessor(width, height, YuvConverter.FORMAT_NV21,
+                YuvConverter.FORMAT_NV12, 90, false);
+        OverlayMask mask = new OverlayMask(640, 64);
+        mask.setPosition(32, 32);
+        for (int y = 0; y < mask.getHeight(); y++) {
+            for (int x = 0; x < mask.getWidth(); x += 3) {
+                mask.setPixel(x, y, 235, 255);
+            }
+        }
+        mask.commit();
+        ByteBuffer codecBuffer = ByteBuffer.allocateDirect(processor.getFrameSize());
+        System.out.println("frame " + width + "x" + height + ", cpus " + Runtime.getRuntime().availableProcessors()
+                + ", default threads " + ParallelFrameProcessor.getDefaultThreadCount() + ", us/frame");
+        System.out.println(String.format(Locale.US, "%-8s %10s %10s %10s", "threads", "mean", "p50", "p95"));
+        for (int threads : THREADS) {
+            ParallelFrameProcessor parallel = new ParallelFrameProcessor(processor, threads);
+            try {
+                long[] costs = measure(parallel, src, codecBuffer, mask);
+                long total = 0;
+                for (long cost : costs) {
+                    total += cost;
+                }
+                Arrays.sort(costs);
+                System.out.println(String.format(Locale.US, "%-8d %10.1f %10.1f %10.1f", threads,
+                        total / 1000.0 / costs.length, costs[costs.length / 2] / 1000.0,
+                        costs[costs.length * 95 / 100] / 1000.0));
+            } finally {
+                parallel.release();
+            }
+        }
+    }
+
+    // 返回每帧耗时，单位纳秒
+    private static long[] measure(ParallelFrameProcessor parallel, byte[] src, ByteBuffer codecBuffer, OverlayMask mask) {
+        long[] costs = new long[ROUNDS];
+        for (int i = 0; i < WARMUP_ROUNDS + ROUNDS; i++) {
+            codecBuffer.clear();
+            long begin = System.nanoTime();
+            parallel.process(src, codecBuffer, mask);
+            if (i >= WARMUP_ROUNDS) {
+                costs[i - WARMUP_ROUNDS] = System.nanoTime() - begin;
+            }
+        }
+        return costs;
+    }
+}
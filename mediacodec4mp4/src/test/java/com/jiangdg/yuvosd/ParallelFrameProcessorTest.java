@@ -0,0 +1,75 @@
+package com.jiangdg.yuvosd;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.*;
+
+/**
+ * ParallelFrameProcessor单元测试，结果与单线程的FusedFrameProcessor对比
+ */
+public class ParallelFrameProcessorTest {
+    // 输出高度跨多个条带且最后一条不满
+    private static final int WIDTH = 200;
+    private static final int HEIGHT = 132;
+
+    @Test
+    public void splitsRowsOnAlignedBoundaries() throws Exception {
+        assertArrayEquals(new int[]{0, 64, 128, 132}, ParallelFrameProcessor.splitRows(132, 3));
+        // 行数不够时后面的条带为空
+        assertArrayEquals(new int[]{0, 32, 40, 40, 40}, ParallelFrameProcessor.splitRows(40, 4));
+        assertArrayEquals(new int[]{0, 40}, ParallelFrameProcessor.splitRows(40, 1));
+    }
+
+    @Test
+    public void matchesSingleThread() throws Exception {
+        byte[] frame = JavaYuvConverterTest.randomFrame(WIDTH, HEIGHT, 11);
+        OverlayMask mask = new OverlayMask(60, 80);
+        mask.setPosition(6, 20);
+        mask.setChroma(60, 220);
+        for (int y = 0; y < 80; y++) {
+            for (int x = 0; x < 60; x++) {
+                mask.setPixel(x, y, 200, (x * 7 + y * 3) & 0xFF);
+            }
+        }
+        mask.commit();
+        int[] formats = {YuvConverter.FORMAT_NV21, YuvConverter.FORMAT_I420, YuvConverter.FORMAT_YV12};
+        for (int dstFormat : formats) {
+            for (int degree : new int[]{0, 90, 270}) {
+                FusedFrameProcessor processor = new FusedFrameProcessor(WIDTH, HEIGHT, YuvConverter.FORMAT_NV21,
+                        dstFormat, degree, false);
+                ByteBuffer expected = ByteBuffer.allocate(frame.length);
+                processor.process(frame, expected, mask);
+                for (int threads : new int[]{1, 2, 3, 8}) {
+                    ParallelFrameProcessor parallel = new ParallelFrameProcessor(processor, threads);
+                    try {
+                        ByteBuffer out = ByteBuffer.allocateDirect(frame.length + 4);
+                        // 同一个缓存区处理两次，覆盖视图复用
+                        for (int round = 0; round < 2; round++) {
+                            out.clear();
+                            out.position(4);
+                            assertEquals(frame.length, parallel.process(frame, out, mask));
+                            assertEquals(frame.length + 4, out.position());
+                            byte[] actual = new byte[frame.length];
+                            out.position(4);
+                            out.get(actual);
+                            assertArrayEquals(dstFormat + " " + degree + " x" + threads, expected.array(), actual);
+                        }
+                    } finally {
+                        parallel.release();
+                    }
+                }
+            }
+        }
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void rejectsProcessAfterRelease() throws Exception {
+        byte[] frame = JavaYuvConverterTest.randomFrame(WIDTH, HEIGHT, 12);
+        ParallelFrameProcessor parallel = new ParallelFrameProcessor(new FusedFrameProcessor(WIDTH, HEIGHT,
+                YuvConverter.FORMAT_NV21, YuvConverter.FORMAT_NV12, 90, false), 2);
+        parallel.release();
+        parallel.process(frame, ByteBuffer.allocate(frame.length), null);
+    }
+}
@@ -0,0 +1,64 @@
+package com.jiangdg.yuvosd;
+
+import org.junit.Test;
+
+import java.text.DateFormatSymbols;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+import java.util.Random;
+import java.util.TimeZone;
+
+import static org.junit.Assert.*;
+
+/**
+ * TimestampFormatter单元测试，结果与SimpleDateFormat对比
+ */
+public class TimestampFormatterTest {
+    private static final String PATTERN = "yyyy-MM-dd EEEE HH:mm:ss";
+    private static final String[] ZONES = {"UTC", "Asia/Shanghai", "America/New_York", "Asia/Kolkata"};
+
+    @Test
+    public void matchesSimpleDateFormat() throws Exception {
+        Random random = new Random(5);
+        for (String zone : ZONES) {
+            TimeZone timeZone = TimeZone.getTimeZone(zone);
+            for (Locale locale : new Locale[]{Locale.US, Locale.CHINA}) {
+                SimpleDateFormat expected = new SimpleDateFormat(PATTERN, locale);
+                expected.setTimeZone(timeZone);
+                TimestampFormatter formatter = new TimestampFormatter(weekdays(locale), timeZone);
+                // 1970 ~ 2100年，包含夏令时切换
+                for (int i = 0; i < 2000; i++) {
+                    long millis = (long) (random.nextDouble() * 4102444800000L);
+                    assertEquals(zone + " " + millis, expected.format(new Date(millis)),
+                            formatter.format(millis).toString());
+                }
+            }
+        }
+    }
+
+    @Test
+    public void formatsIntoArrayAtOffset() throws Exception {
+        TimestampFormatter formatter = new TimestampFormatter(weekdays(Locale.US), TimeZone.getTimeZone("UTC"));
+        char[] out = new char[64];
+        int length = formatter.format(951782400000L, out, 5);
+        assertEquals("2000-02-29 Tuesday 00:00:00", new String(out, 5, length));
+    }
+
+    @Test
+    public void charsetCoversOutput() throws Exception {
+        TimestampFormatter formatter = new TimestampFormatter(weekdays(Locale.CHINA), TimeZone.getTimeZone("UTC"));
+        String charset = formatter.getCharset();
+        CharSequence text = formatter.format(System.currentTimeMillis());
+        for (int i = 0; i < text.length(); i++) {
+            assertTrue(String.valueOf(text.charAt(i)), charset.indexOf(text.charAt(i)) >= 0);
+        }
+    }
+
+    private static String[] weekdays(Locale locale) {
+        String[] symbols = DateFormatSymbols.getInstance(locale).getWeekdays();
+        String[] weekdays = new String[7];
+        System.arraycopy(symbols, 1, weekdays, 0, 7);
+        return weekdays;
+    }
+}
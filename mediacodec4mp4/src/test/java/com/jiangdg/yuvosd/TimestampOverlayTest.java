@@ -0,0 +1,94 @@
+package com.jiangdg.yuvosd;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.TimeZone;
+
+import static org.junit.Assert.*;
+
+/**
+ * TimestampOverlay和GlyphAtlas单元测试，使用固定宽度的实心字形代替字体绘制
+ */
+public class TimestampOverlayTest {
+    private static final int GLYPH_WIDTH = 3;
+    private static final int GLYPH_HEIGHT = 4;
+    private static final String[] WEEKDAYS = {"Sun", "Mon", "Tue", "Wed", "Thu", "Fri", "Sat"};
+
+    private static class FakeRasterizer implements GlyphRasterizer {
+        int count;
+
+        @Override
+        public int getGlyphHeight() {
+            return GLYPH_HEIGHT;
+        }
+
+        @Override
+        public GlyphAtlas.Glyph rasterize(char c) {
+            count++;
+            byte[] alpha = new byte[GLYPH_WIDTH * GLYPH_HEIGHT];
+            Arrays.fill(alpha, c == ' ' ? 0 : (byte) 255);
+            return new GlyphAtlas.Glyph(c, GLYPH_WIDTH, GLYPH_HEIGHT, alpha);
+        }
+    }
+
+    @Test
+    public void rasterizesEachGlyphOnce() throws Exception {
+        FakeRasterizer rasterizer = new FakeRasterizer();
+        GlyphAtlas atlas = new GlyphAtlas(rasterizer);
+        atlas.preload("abca星期一星");
+        assertEquals(6, rasterizer.count);
+        assertEquals(6, atlas.getRasterizedCount());
+        assertSame(atlas.getGlyph('期'), atlas.getGlyph('期'));
+        assertEquals('一', atlas.getGlyph('一').getChar());
+        assertEquals(4 * GLYPH_WIDTH, atlas.measure("ab星c", 0, 4));
+        assertEquals(6, rasterizer.count);
+    }
+
+    @Test
+    public void composesOncePerSecond() throws Exception {
+        FakeRasterizer rasterizer = new FakeRasterizer();
+        TimestampOverlay overlay = new TimestampOverlay(new GlyphAtlas(rasterizer),
+                new TimestampFormatter(WEEKDAYS, TimeZone.getTimeZone("UTC")), 200);
+        overlay.setContent(true, "cam1");
+        int rasterized = rasterizer.count;
+        long base = 1500000000000L;
+        assertTrue(overlay.update(base));
+        for (int i = 1; i < 30; i++) {
+            assertFalse(overlay.update(base + i * 33));
+        }
+        assertEquals(1, overlay.getRenderCount());
+        assertTrue(overlay.update(base + 1000));
+        assertEquals(2, overlay.getRenderCount());
+        // 字形在构造和setContent时已全部绘制
+        assertEquals(rasterized, rasterizer.count);
+
+        // 只显示文字时内容不随时间变化
+        overlay.setContent(false, "cam1");
+        overlay.update(base + 2000);
+        overlay.update(base + 3000);
+        assertEquals(3, overlay.getRenderCount());
+        assertFalse(overlay.getMask().isEmpty());
+    }
+
+    @Test
+    public void drawAlphaClipsToMask() throws Exception {
+        OverlayMask mask = new OverlayMask(4, 4);
+        byte[] alpha = new byte[3 * 3];
+        Arrays.fill(alpha, (byte) 200);
+        mask.drawAlpha(alpha, 3, 3, -1, 2, 100);
+        mask.drawAlpha(alpha, 3, 3, 3, -2, 100);
+        mask.commit();
+        assertFalse(mask.isEmpty());
+
+        // 4x4黑色I420帧，图层(-1, 2)处的块只覆盖(0..1, 2..3)，(3, -2)处的块只覆盖(3, 0)
+        byte[] frame = new byte[4 * 4 * 3 / 2];
+        mask.blendFrame(frame, 4, 4, YuvConverter.FORMAT_I420);
+        for (int y = 0; y < 4; y++) {
+            for (int x = 0; x < 4; x++) {
+                boolean covered = (x <= 1 && y >= 2) || (x == 3 && y == 0);
+                assertEquals(x + "," + y, covered ? 78 : 0, frame[y * 4 + x] & 0xFF);
+            }
+        }
+    }
+}
@@ -0,0 +1,150 @@
+package com.jiangdg.yuvosd;
+
+import java.nio.ByteBuffer;
+import java.util.Locale;
+
+/**
+ * YUV转换、旋转的性能对比，直接运行main()，不作为单元测试执行
+ * <p>
+ * 对比JavaYuvConverter与逐字节的标量实现(即原SaveYuvImageTask.YV12toNV21和逐像素旋转)。
+ * 另外对比分步处理(旋转+转换+拷贝)与FusedFrameProcessor单趟处理。
+ * native实现只能在设备上运行，在设备上可以传入YuvConverterFactory.create(NATIVE)的结果调用measure()对比。
+ */
+public class YuvConverterBenchmark {
+    private static final int WARMUP_ROUNDS = 500;
+    private static final int ROUNDS = 300;
+
+    public static void main(String[] args) {
+        int width = args.length > 1 ? Integer.parseInt(args[0]) : 1280;
+        int height = args.length > 1 ? Integer.parseInt(args[1]) : 720;
+        byte[] src = JavaYuvConverterTest.randomFrame(width, height, 0);
+        byte[] dst = new byte[src.length];
+        YuvConverter java = new JavaYuvConverter();
+        YuvConverter scalar = new ScalarYuvConverter();
+        System.out.println("frame " + width + "x" + height + ", us/frame");
+        for (YuvConverter converter : new YuvConverter[]{scalar, java}) {
+            String name = converter.getClass().getSimpleName();
+            report(name, "YV12->NV21", measure(converter, src, dst, width, height, YuvConverter.FORMAT_YV12, YuvConverter.FORMAT_NV21, -1));
+            report(name, "NV21->NV12", measure(converter, src, dst, width, height, YuvConverter.FORMAT_NV21, YuvConverter.FORMAT_NV12, -1));
+            report(name, "NV12->I420", measure(converter, src, dst, width, height, YuvConverter.FORMAT_NV12, YuvConverter.FORMAT_I420, -1));
+            report(name, "NV21 rotate 90", measure(converter, src, dst, width, height, YuvConverter.FORMAT_NV21, 0, 90));
+            report(name, "NV21 rotate 270", measure(converter, src, dst, width, height, YuvConverter.FORMAT_NV21, 0, 270));
+        }
+        report("JavaYuvConverter", "rotate90+NV12", measureTwoPass(java, src, dst, width, height));
+        report("FusedFrameProcessor", "rotate90+NV12", measureFused(src, width, height));
+    }
+
+    // 分步处理：旋转到中间数组，转换到结果数组，再拷贝到编码器缓存区
+    private static double measureTwoPass(YuvConverter converter, byte[] src, byte[] dst, int width, int height) {
+        byte[] rotated = new byte[src.length];
+        ByteBuffer codecBuffer = ByteBuffer.allocateDirect(src.length);
+        long begin = 0;
+        for (int i = 0; i < WARMUP_ROUNDS + ROUNDS; i++) {
+            if (i == WARMUP_ROUNDS) {
+                begin = System.nanoTime();
+            }
+            converter.rotate(src, rotated, width, height, YuvConverter.FORMAT_NV21, 90, false);
+            converter.convert(rotated, YuvConverter.FORMAT_NV21, dst, YuvConverter.FORMAT_NV12, height, width);
+            codecBuffer.clear();
+            codecBuffer.put(dst);
+        }
+        return (System.nanoTime() - begin) / 1000.0 / ROUNDS;
+    }
+
+    private static double measureFused(byte[] src, int width, int height) {
+        FusedFrameProcessor processor = new FusedFrameProcessor(width, height, YuvConverter.FORMAT_NV21,
+                YuvConverter.FORMAT_NV12, 90, false);
+        ByteBuffer codecBuffer = ByteBuffer.allocateDirect(src.length);
+        long begin = 0;
+        for (int i = 0; i < WARMUP_ROUNDS + ROUNDS; i++) {
+            if (i == WARMUP_ROUNDS) {
+                begin = System.nanoTime();
+            }
+            codecBuffer.clear();
+            processor.process(src, codecBuffer, null);
+        }
+        return (System.nanoTime() - begin) / 1000.0 / ROUNDS;
+    }
+
+    /**
+     * @param degree 小于0时测颜色转换，否则测旋转
+     * @return 每帧平均耗时，单位微秒
+     */
+    public static double measure(YuvConverter converter, byte[] src, byte[] dst, int width, int height,
+                                 int srcFormat, int dstFormat, int degree) {
+        for (int i = 0; i < WARMUP_ROUNDS; i++) {
+            run(converter, src, dst, width, height, srcFormat, dstFormat, degree);
+        }
+        long begin = System.nanoTime();
+        for (int i = 0; i < ROUNDS; i++) {
+            run(converter, src, dst, width, height, srcFormat, dstFormat, degree);
+        }
+        return (System.nanoTime() - begin) / 1000.0 / ROUNDS;
+    }
+
+    private static void run(YuvConverter converter, byte[] src, byte[] dst, int width, int height,
+                            int srcFormat, int dstFormat, int degree) {
+        if (degree < 0) {
+            converter.convert(src, srcFormat, dst, dstFormat, width, height);
+        } else {
+            converter.rotate(src, dst, width, height, srcFormat, degree, false);
+        }
+    }
+
+    private static void report(String name, String op, double us) {
+        System.out.println(String.format(Locale.US, "%-20s %-16s %10.1f", name, op, us));
+    }
+
+    // 逐字节的对照实现，只支持基准测试用到的格式
+    private static class ScalarYuvConverter implements YuvConverter {
+        @Override
+        public void convert(byte[] src, int srcFormat, byte[] dst, int dstFormat, int width, int height) {
+            int ySize = width * height;
+            int q = ySize / 4;
+            System.arraycopy(src, 0, dst, 0, ySize);
+            if (srcFormat == FORMAT_YV12 && dstFormat == FORMAT_NV21) {
+                for (int i = 0; i < q; i++) {
+                    dst[ySize + i * 2] = src[ySize + i];
+                    dst[ySize + i * 2 + 1] = src[ySize + q + i];
+                }
+            } else if (srcFormat == FORMAT_NV21 && dstFormat == FORMAT_NV12) {
+                for (int i = 0; i < q; i++) {
+                    dst[ySize + i * 2] = src[ySize + i * 2 + 1];
+                    dst[ySize + i * 2 + 1] = src[ySize + i * 2];
+                }
+            } else if (srcFormat == FORMAT_NV12 && dstFormat == FORMAT_I420) {
+                for (int i = 0; i < q; i++) {
+                    dst[ySize + i] = src[ySize + i * 2];
+                    dst[ySize + q + i] = src[ySize + i * 2 + 1];
+                }
+            } else {
+                throw new UnsupportedOperationException();
+            }
+        }
+
+        @Override
+        public int convert(byte[] src, int srcFormat, ByteBuffer dst, int dstFormat, int width, int height) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void rotate(byte[] src, byte[] dst, int width, int height, int format, int degree, boolean mirror) {
+            int ySize = width * height;
+            for (int y = 0; y < height; y++) {
+                for (int x = 0; x < width; x++) {
+                    int index = degree == 90 ? x * height + height - 1 - y : (width - 1 - x) * height + y;
+                    dst[index] = src[y * width + x];
+                }
+            }
+            int cw = width / 2;
+            int ch = height / 2;
+            for (int y = 0; y < ch; y++) {
+                for (int x = 0; x < cw; x++) {
+                    int index = degree == 90 ? x * ch + ch - 1 - y : (cw - 1 - x) * ch + y;
+                    dst[ySize + index * 2] = src[ySize + (y * cw + x) * 2];
+                    dst[ySize + index * 2 + 1] = src[ySize + (y * cw + x) * 2 + 1];
+                }
+            }
+        }
+    }
+}